@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A platform-neutral accumulator of redstone events.
+ * <br/>
+ * Collectors of all platforms feed it with raw block coordinates,
+ * and hand its columnar snapshot to {@link BREADAnalyser} directly.
+ * It's not thread-safe, all events should be added by one thread.
+ */
+public final class BREADAccumulator {
+
+    private BREADPointCounter.Storage storage;
+    private int bucketTicks;
+    private int collectionPeriod;
+    private Map<UUID, WorldPoints> worlds;
+    private Map<UUID, Integer> lastSizes; // Distinct blocks of worlds when last cleared, for sizing counters
+    private UUID lastWorld; // Events usually come from the same world in a row
+    private WorldPoints lastWorldPoints;
+    private int tick;
+
+    /**
+     * Construct an accumulator on the heap which doesn't record activity over time.
+     */
+    public BREADAccumulator() {
+        this(BREADPointCounter.Storage.HEAP);
+    }
+
+    /**
+     * Construct an accumulator which doesn't record activity over time.
+     *
+     * @param storage Where to store counted events
+     */
+    public BREADAccumulator(BREADPointCounter.Storage storage) {
+        this(storage, 0, 0);
+    }
+
+    /**
+     * Construct an accumulator.
+     *
+     * @param storage          Where to store counted events
+     * @param bucketTicks      Length of an activity bucket, the unit is ticks, 0 means not recording activity
+     * @param collectionPeriod Collection period, the unit is ticks, ignored if not recording activity
+     */
+    public BREADAccumulator(BREADPointCounter.Storage storage, int bucketTicks, int collectionPeriod) {
+        if (bucketTicks < 0 || (bucketTicks > 0 && collectionPeriod <= 0)) throw new IllegalArgumentException();
+        this.storage = storage;
+        this.bucketTicks = bucketTicks;
+        this.collectionPeriod = collectionPeriod;
+        this.worlds = new HashMap<>();
+        this.lastSizes = new HashMap<>();
+        this.lastWorld = null;
+        this.lastWorldPoints = null;
+        this.tick = 0;
+    }
+
+    /**
+     * Count one event at the specific block.
+     *
+     * @param world UID of the world
+     * @param x     X of the block
+     * @param y     Y of the block
+     * @param z     Z of the block
+     */
+    public void add(UUID world, int x, int y, int z) {
+        add(world, BREADPointCounter.pack(x, y, z), 1, this.tick);
+    }
+
+    /**
+     * Count events at the specific packed position.
+     *
+     * @param world UID of the world
+     * @param key   Packed position
+     * @param count Event times, must be a positive integer
+     */
+    public void add(UUID world, long key, int count) {
+        add(world, key, count, this.tick);
+    }
+
+    /**
+     * Count events at the specific packed position and tick.
+     *
+     * @param world UID of the world
+     * @param key   Packed position
+     * @param count Event times, must be a positive integer
+     * @param tick  Tick since the collection started
+     */
+    public void add(UUID world, long key, int count, int tick) {
+        WorldPoints worldPoints = getWorldPoints(world, 0);
+        int index = worldPoints.counter.add(key, count);
+        if (worldPoints.activity != null) worldPoints.activity.mark(index, tick);
+    }
+
+    /**
+     * Get event times of the specific block.
+     *
+     * @param world UID of the world
+     * @param x     X of the block
+     * @param y     Y of the block
+     * @param z     Z of the block
+     * @return Event times, 0 if never counted
+     */
+    public int get(UUID world, int x, int y, int z) {
+        WorldPoints worldPoints = world == this.lastWorld ? this.lastWorldPoints : this.worlds.get(world);
+        return worldPoints == null ? 0 : worldPoints.counter.get(x, y, z);
+    }
+
+    /**
+     * Count all points of the given snapshot, including their activity.
+     *
+     * @param snapshot Map of world UID and points of the world
+     */
+    public void addAll(Map<UUID, BREADPoints> snapshot) {
+        for (Map.Entry<UUID, BREADPoints> entry : snapshot.entrySet()) {
+            BREADPoints points = entry.getValue();
+            WorldPoints worldPoints = getWorldPoints(entry.getKey(), points.size());
+            for (int index = 0; index < points.size(); ++index) {
+                int addedIndex = worldPoints.counter.add(points.key(index), points.weight(index));
+                if (worldPoints.activity != null && points.getActivity() != null)
+                    worldPoints.activity.merge(addedIndex, points.getActivity(), index);
+            }
+        }
+    }
+
+    /**
+     * Return the number of distinct blocks counted in all worlds.
+     *
+     * @return Number of distinct blocks
+     */
+    public int size() {
+        int size = 0;
+        for (WorldPoints worldPoints : this.worlds.values()) size += worldPoints.counter.size();
+        return size;
+    }
+
+    /**
+     * Advance the tick which new events are recorded at.
+     * <br/>
+     * The platform should call it once per server tick if activity is recorded.
+     */
+    public void tick() {
+        ++this.tick;
+    }
+
+    /**
+     * Take a columnar snapshot of all worlds.
+     * <br/>
+     * Nothing should be added after taking the snapshot unless this accumulator is cleared.
+     *
+     * @return Map of world UID and points of the world
+     */
+    public Map<UUID, BREADPoints> snapshot() {
+        Map<UUID, BREADPoints> snapshot = new HashMap<>();
+        for (Map.Entry<UUID, WorldPoints> entry : this.worlds.entrySet())
+            snapshot.put(entry.getKey(), entry.getValue().counter.snapshot(entry.getValue().activity));
+        return snapshot;
+    }
+
+    /**
+     * Remove all counted events and reset the tick.
+     * <br/>
+     * Snapshots taken before are not affected, and counters of the next collection are sized as the ones removed.
+     */
+    public void clear() {
+        for (Map.Entry<UUID, WorldPoints> entry : this.worlds.entrySet())
+            this.lastSizes.put(entry.getKey(), entry.getValue().counter.size());
+        this.worlds.clear();
+        this.lastWorld = null;
+        this.lastWorldPoints = null;
+        this.tick = 0;
+    }
+
+    private WorldPoints getWorldPoints(UUID world, int expectedSize) {
+        if (world != this.lastWorld && !world.equals(this.lastWorld)) {
+            this.lastWorldPoints = this.worlds.computeIfAbsent(world, uid -> new WorldPoints(
+                    BREADPointCounter.create(this.storage,
+                            Math.max(this.lastSizes.getOrDefault(uid, 0), expectedSize)),
+                    this.bucketTicks > 0 ? new BREADActivity(this.bucketTicks, this.collectionPeriod) : null));
+            this.lastWorld = world;
+        }
+        return this.lastWorldPoints;
+    }
+
+    private static final class WorldPoints {
+
+        private final BREADPointCounter counter;
+        private final BREADActivity activity;
+
+        private WorldPoints(BREADPointCounter counter, BREADActivity activity) {
+            this.counter = counter;
+            this.activity = activity;
+        }
+
+    }
+
+}
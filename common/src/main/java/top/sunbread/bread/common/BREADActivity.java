@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import java.util.Arrays;
+
+/**
+ * Activity of blocks over time.
+ * <br/>
+ * A collection is divided into buckets of a few ticks,
+ * and one bit per block and bucket tells whether the block had any event in the bucket.
+ * This takes 150 bytes per block for a 60-second collection of 1-tick buckets.
+ */
+public final class BREADActivity {
+
+    private final int bucketTicks;
+    private final int buckets;
+    private final int words; // Per block
+    private long[] bits;
+
+    /**
+     * Construct empty activity.
+     *
+     * @param bucketTicks      Length of a bucket, the unit is ticks, must be a positive integer
+     * @param collectionPeriod Collection period, the unit is ticks, must be a positive integer
+     */
+    public BREADActivity(int bucketTicks, int collectionPeriod) {
+        if (bucketTicks <= 0 || collectionPeriod <= 0) throw new IllegalArgumentException();
+        this.bucketTicks = bucketTicks;
+        this.buckets = (collectionPeriod + bucketTicks - 1) / bucketTicks;
+        this.words = (this.buckets + Long.SIZE - 1) / Long.SIZE;
+        this.bits = new long[this.words * 64];
+    }
+
+    public int getBucketTicks() {
+        return this.bucketTicks;
+    }
+
+    public int getBuckets() {
+        return this.buckets;
+    }
+
+    /**
+     * Return true if the specific block had any event in the specific bucket.
+     *
+     * @param index  Index of the block
+     * @param bucket Index of the bucket
+     * @return true if active
+     */
+    public boolean isActive(int index, int bucket) {
+        int word = index * this.words + (bucket >>> 6);
+        return word < this.bits.length && (this.bits[word] & (1L << bucket)) != 0;
+    }
+
+    /**
+     * Count active blocks per bucket.
+     *
+     * @param indices Indices of blocks
+     * @param length  Number of indices to use
+     * @return Number of active blocks in each bucket
+     */
+    public int[] countActiveBlocks(int[] indices, int length) {
+        int[] activeBlocks = new int[this.buckets];
+        for (int i = 0; i < length; ++i) {
+            int from = indices[i] * this.words;
+            for (int word = 0; word < this.words && from + word < this.bits.length; ++word)
+                for (long bits = this.bits[from + word]; bits != 0; bits &= bits - 1)
+                    ++activeBlocks[(word << 6) + Long.numberOfTrailingZeros(bits)];
+        }
+        return activeBlocks;
+    }
+
+    /**
+     * Mark the specific block as active at the specific tick.
+     *
+     * @param index Index of the block
+     * @param tick  Tick since the collection started, ticks beyond the collection period count as the last bucket
+     */
+    void mark(int index, int tick) {
+        int bucket = Math.min(Math.max(tick, 0) / this.bucketTicks, this.buckets - 1);
+        int word = index * this.words + (bucket >>> 6);
+        if (word >= this.bits.length)
+            this.bits = Arrays.copyOf(this.bits, Math.max(this.bits.length << 1, word + this.words));
+        this.bits[word] |= 1L << bucket;
+    }
+
+    /**
+     * Merge activity of a block in another activity with the same buckets into the specific block.
+     *
+     * @param index       Index of the block
+     * @param source      Source activity
+     * @param sourceIndex Index of the block in the source activity
+     */
+    void merge(int index, BREADActivity source, int sourceIndex) {
+        if (source.bucketTicks != this.bucketTicks || source.buckets != this.buckets)
+            throw new IllegalArgumentException();
+        int from = sourceIndex * this.words;
+        for (int word = 0; word < this.words && from + word < source.bits.length; ++word)
+            for (long bits = source.bits[from + word]; bits != 0; bits &= bits - 1)
+                mark(index, ((word << 6) + Long.numberOfTrailingZeros(bits)) * this.bucketTicks);
+    }
+
+}
@@ -19,72 +19,194 @@ package top.sunbread.bread.common;
 
 import top.sunbread.bread.common.BREADStatistics.ClusterStatistics;
 import top.sunbread.bread.common.BREADStatistics.NoiseStatistics;
-import top.sunbread.bread.common.BREADStatistics.Point;
 import top.sunbread.bread.common.BREADStatistics.WorldStatistics;
 
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * A process for analysing collected redstone data.
+ * <br/>
+ * All stages run in a shared {@link BREADAnalysisPool}, so starting a process creates no thread.
+ * The process has a budget of 1 minute, which stages check cooperatively.
+ * Once it runs out, stages give up, and worlds which aren't done are transferred as partial results,
+ * which keep clusters counted in time and the hottest blocks of the world.
  */
 public final class BREADAnalyser {
 
     public static final int COLLECTING_TICKS_BASE = 300;
     private static final int TIMEOUT_MINUTES = 1;
+    private static final int HOTSPOTS = 10; // Hottest blocks of a partial result
 
-    private volatile ExecutorService threadPool;
-    private CompletableFuture<Void> future;
+    private final BREADAnalysisPool pool;
+    private final BREADDeadline deadline; // No more stage starts once expired
+    private final Map<UUID, WorldProgress> progress;
+    private volatile boolean stopped; // The callback isn't called once stopped
+    private final CompletableFuture<Void> future;
 
     /**
      * Initialize a process for analysing collected redstone data.
      *
-     * @param points                     Redstone event data
+     * @param pool                       Pool to run the process in
+     * @param points                     Redstone event data, usually a snapshot of {@link BREADAccumulator}
      * @param collectionPeriodMultiplier Collection period multiplier, must be a positive integer,
      *                                   the base value of collection period is 15 seconds (300 ticks)
-     * @param asyncCallback              Async callback for transferring the result
+     * @param asyncCallback              Async callback for transferring the result, which is empty if failed
      */
-    public BREADAnalyser(Map<UUID, Set<Point>> points, int collectionPeriodMultiplier,
+    public BREADAnalyser(BREADAnalysisPool pool, Map<UUID, BREADPoints> points, int collectionPeriodMultiplier,
                          Consumer<Optional<Map<UUID, WorldStatistics>>> asyncCallback) {
-        this.threadPool = Executors.newWorkStealingPool();
-        Function<Set<Point>, CompletableFuture<List<Set<Point>>>> clusterAnalysisProvider =
-                p -> CompletableFuture.supplyAsync(() ->
-                        BREADAnalysis.clusterAnalysis(p, collectionPeriodMultiplier), this.threadPool);
-        Function<Set<Point>, CompletableFuture<ClusterStatistics>> countClusterProvider =
-                c -> CompletableFuture.supplyAsync(() -> BREADAnalysis.countCluster(c,
-                        COLLECTING_TICKS_BASE * collectionPeriodMultiplier), this.threadPool);
-        Function<Set<Point>, CompletableFuture<NoiseStatistics>> countNoiseProvider =
-                n -> CompletableFuture.supplyAsync(() -> BREADAnalysis.countNoise(n,
-                        COLLECTING_TICKS_BASE * collectionPeriodMultiplier), this.threadPool);
-        Function<Set<Point>, CompletableFuture<WorldStatistics>> worldStatsAnalysis =
-                p -> clusterAnalysisProvider.apply(p).thenCompose(analysis -> {
-                    List<Set<Point>> clusterList = analysis.subList(0, analysis.size() - 1);
-                    Set<Point> noise = analysis.get(analysis.size() - 1);
-                    CompletableFuture<List<ClusterStatistics>> clusterStatsListFuture =
-                            futureList2ListFuture(clusterList.parallelStream().
-                                    map(countClusterProvider).collect(Collectors.toList()));
-                    CompletableFuture<NoiseStatistics> noiseStatsFuture = countNoiseProvider.apply(noise);
-                    return clusterStatsListFuture.thenCombine(noiseStatsFuture, (csList, ns) -> {
-                        csList.sort(Comparator.comparing(cs -> cs.eventsPerTick, Comparator.reverseOrder()));
-                        return new WorldStatistics(csList, ns);
-                    });
+        this(pool, points, collectionPeriodMultiplier, 0, asyncCallback);
+    }
+
+    /**
+     * Initialize a process for analysing collected redstone data.
+     *
+     * @param pool                       Pool to run the process in
+     * @param points                     Redstone event data, usually a snapshot of {@link BREADAccumulator}
+     * @param collectionPeriodMultiplier Collection period multiplier, must be a positive integer,
+     *                                   the base value of collection period is 15 seconds (300 ticks)
+     * @param approximation              ρ of approximate cluster analysis, must be in [0, 1], 0 means exact
+     * @param asyncCallback              Async callback for transferring the result, which is empty if failed
+     * @see BREADOptions#getApproximation()
+     */
+    public BREADAnalyser(BREADAnalysisPool pool, Map<UUID, BREADPoints> points, int collectionPeriodMultiplier,
+                         double approximation, Consumer<Optional<Map<UUID, WorldStatistics>>> asyncCallback) {
+        this(pool, points, collectionPeriodMultiplier, approximation, null, asyncCallback);
+    }
+
+    /**
+     * Initialize a process for analysing collected redstone data.
+     * <br/>
+     * Clusters of an exact analysis are updated from states of previous analyses, which are updated to given points.
+     * A world whose state is empty, or would be rebuilt, is divided by the configured engine instead,
+     * and its state is loaded from the result.
+     * States of worlds without points are removed, and states must not be used until this process is done.
+     * A stopped process or one with partial results may leave states inconsistent, so they should be discarded then.
+     *
+     * @param pool                       Pool to run the process in
+     * @param points                     Redstone event data, usually a snapshot of {@link BREADAccumulator}
+     * @param collectionPeriodMultiplier Collection period multiplier, must be a positive integer,
+     *                                   the base value of collection period is 15 seconds (300 ticks)
+     * @param approximation              ρ of approximate cluster analysis, must be in [0, 1], 0 means exact
+     * @param clusterings                Map of world UID and the clustering state of the world,
+     *                                   null if not incremental
+     * @param asyncCallback              Async callback for transferring the result, which is empty if failed
+     */
+    public BREADAnalyser(BREADAnalysisPool pool, Map<UUID, BREADPoints> points, int collectionPeriodMultiplier,
+                         double approximation, Map<UUID, BREADIncrementalClustering> clusterings,
+                         Consumer<Optional<Map<UUID, WorldStatistics>>> asyncCallback) {
+        this(pool, points, collectionPeriodMultiplier, TIMEOUT_MINUTES, TimeUnit.MINUTES,
+                clusterAnalysis(points, collectionPeriodMultiplier, approximation, clusterings), asyncCallback);
+    }
+
+    /**
+     * Initialize a process for analysing collected redstone data, building cluster hierarchies of worlds.
+     * <br/>
+     * Clusters are cut at {@link BREADClusterHierarchy#DEFAULT_DENSITY},
+     * and hierarchies are put into the given map as worlds are analysed,
+     * so that they can be cut at other densities by {@link #recut(BREADAnalysisPool, Map, int, Consumer)}
+     * after this process is done. Worlds of partial results may have no hierarchy.
+     *
+     * @param pool                       Pool to run the process in
+     * @param points                     Redstone event data, usually a snapshot of {@link BREADAccumulator}
+     * @param collectionPeriodMultiplier Collection period multiplier, must be a positive integer,
+     *                                   the base value of collection period is 15 seconds (300 ticks)
+     * @param hierarchies                Map to put world UID and the cluster hierarchy of the world into,
+     *                                   must be thread-safe
+     * @param asyncCallback              Async callback for transferring the result, which is empty if failed
+     */
+    public BREADAnalyser(BREADAnalysisPool pool, Map<UUID, BREADPoints> points, int collectionPeriodMultiplier,
+                         Map<UUID, BREADClusterHierarchy> hierarchies,
+                         Consumer<Optional<Map<UUID, WorldStatistics>>> asyncCallback) {
+        this(pool, points, collectionPeriodMultiplier, TIMEOUT_MINUTES, TimeUnit.MINUTES, (w, p, d) -> {
+            BREADClusterHierarchy hierarchy = new BREADClusterHierarchy(p, collectionPeriodMultiplier, d);
+            hierarchies.put(w, hierarchy);
+            return BREADAnalysis.divide(hierarchy, BREADClusterHierarchy.DEFAULT_DENSITY);
+        }, asyncCallback);
+    }
+
+    /**
+     * Initialize a process for analysing collected redstone data with a budget.
+     *
+     * @param pool                       Pool to run the process in
+     * @param points                     Redstone event data, usually a snapshot of {@link BREADAccumulator}
+     * @param collectionPeriodMultiplier Collection period multiplier, must be a positive integer,
+     *                                   the base value of collection period is 15 seconds (300 ticks)
+     * @param budget                     Budget time
+     * @param unit                       Budget time unit
+     * @param clusterAnalysis            Cluster analysis of a world
+     * @param asyncCallback              Async callback for transferring the result, which is empty if failed
+     */
+    BREADAnalyser(BREADAnalysisPool pool, Map<UUID, BREADPoints> points, int collectionPeriodMultiplier,
+                  long budget, TimeUnit unit, ClusterAnalysis clusterAnalysis,
+                  Consumer<Optional<Map<UUID, WorldStatistics>>> asyncCallback) {
+        this.pool = pool;
+        this.deadline = new BREADDeadline(budget, unit);
+        this.progress = new HashMap<>();
+        this.stopped = false;
+        int collectionPeriod = COLLECTING_TICKS_BASE * collectionPeriodMultiplier;
+        points.forEach((world, worldPoints) -> this.progress.put(world, new WorldProgress(worldPoints)));
+        CompletableFuture<?>[] worldFutures = this.progress.entrySet().stream().map(entry -> {
+            WorldProgress world = entry.getValue();
+            return supplyAsync(() -> clusterAnalysis.analyse(entry.getKey(), world.points, this.deadline)).
+                    thenCompose(analysis -> {
+                        Stream<CompletableFuture<Void>> clusterStatsFutures =
+                                analysis.subList(0, analysis.size() - 1).stream().map(c -> supplyAsync(() -> {
+                                    ClusterStatistics stats =
+                                            BREADAnalysis.countCluster(world.points, c, collectionPeriod);
+                                    return world.points.getActivity() == null ? stats :
+                                            BREADAnalysis.countTimeline(stats, world.points, c);
+                                }).thenAccept(world.clusters::add));
+                        CompletableFuture<Void> noiseStatsFuture = supplyAsync(() -> BREADAnalysis.countNoise(
+                                world.points, analysis.get(analysis.size() - 1), collectionPeriod)).
+                                thenAccept(ns -> world.noise = ns);
+                        return CompletableFuture.allOf(Stream.concat(clusterStatsFutures, Stream.of(noiseStatsFuture)).
+                                toArray(CompletableFuture[]::new));
+                    }).thenRun(() -> world.done = true);
+        }).toArray(CompletableFuture[]::new);
+        CompletableFuture<Void> timeout = pool.delay(budget, unit, null);
+        this.future = CompletableFuture.anyOf(CompletableFuture.allOf(worldFutures), timeout).
+                handle((ignored, throwable) -> {
+                    this.deadline.expire();
+                    timeout.cancel(false);
+                    if (this.stopped) return null;
+                    Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+                    asyncCallback.accept(cause == null || cause instanceof CancellationException ?
+                            Optional.of(collectResults()) : Optional.empty());
+                    return null;
                 });
-        CompletableFuture<Map<UUID, WorldStatistics>> mapFuture =
-                futureMap2MapFuture(points.entrySet().parallelStream().
-                        collect(Collectors.toMap(Map.Entry::getKey,
-                                entry -> worldStatsAnalysis.apply(entry.getValue()))));
-        this.future = mapFuture.thenApply(Optional::of).
-                acceptEither(timeout(TIMEOUT_MINUTES, TimeUnit.MINUTES, Optional.empty()),
-                        result -> {
-                            this.threadPool.shutdownNow();
-                            asyncCallback.accept(result);
-                        });
+    }
+
+    /**
+     * Initialize a process for analysing redstone data again, cutting cluster hierarchies at another density.
+     * This doesn't query neighbors, so it's much faster than the analysis which built the hierarchies.
+     *
+     * @param pool          Pool to run the process in
+     * @param hierarchies   Map of world UID and the cluster hierarchy of the world,
+     *                      all built with the same collection period multiplier
+     * @param density       Max weight sum of neighbors of noise per 15 seconds, must be a non-negative integer
+     * @param asyncCallback Async callback for transferring the result, which is empty if failed
+     * @return The started process
+     */
+    public static BREADAnalyser recut(BREADAnalysisPool pool, Map<UUID, BREADClusterHierarchy> hierarchies,
+                                      int density,
+                                      Consumer<Optional<Map<UUID, WorldStatistics>>> asyncCallback) {
+        if (density < 0) throw new IllegalArgumentException();
+        int collectionPeriodMultiplier = hierarchies.values().stream().
+                mapToInt(BREADClusterHierarchy::getFrequencyMultiplier).findAny().orElse(1);
+        if (hierarchies.values().stream().anyMatch(h -> h.getFrequencyMultiplier() != collectionPeriodMultiplier))
+            throw new IllegalArgumentException();
+        Map<UUID, BREADPoints> points = new HashMap<>();
+        hierarchies.forEach((world, hierarchy) -> points.put(world, hierarchy.getPoints()));
+        return new BREADAnalyser(pool, points, collectionPeriodMultiplier, TIMEOUT_MINUTES, TimeUnit.MINUTES,
+                (w, p, d) -> BREADAnalysis.divide(hierarchies.get(w), density), asyncCallback);
     }
 
     /**
@@ -97,62 +219,90 @@ public final class BREADAnalyser {
     }
 
     /**
-     * Force to stop this process.
+     * Force to stop this process, the callback won't be called.
+     * Running stages give up at their next deadline check, and no further stage starts.
      */
     public void forceStop() {
         if (!isRunning()) return;
+        this.stopped = true;
+        this.deadline.expire();
         this.future.cancel(false);
-        this.threadPool.shutdownNow();
+    }
+
+    private <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+        return CompletableFuture.supplyAsync(() -> {
+            this.deadline.check();
+            return supplier.get();
+        }, this.pool.getExecutor());
     }
 
     /**
-     * Transform a list of CompletableFuture to CompletableFuture of the list.
+     * Collect statistics of all worlds, partial ones for worlds which aren't done.
      *
-     * @param futureList List of CompletableFuture to transform
-     * @param <E>        Element type
-     * @return CompletableFuture of the list
+     * @return Map of world UID and statistics of the world
      */
-    private <E> CompletableFuture<List<E>> futureList2ListFuture(List<CompletableFuture<E>> futureList) {
-        return CompletableFuture.allOf(futureList.toArray(new CompletableFuture[0])).
-                thenApply(aVoid -> futureList.stream().
-                        map(CompletableFuture::join).collect(Collectors.toList()));
+    private Map<UUID, WorldStatistics> collectResults() {
+        Map<UUID, WorldStatistics> results = new HashMap<>();
+        this.progress.forEach((uid, world) -> {
+            boolean done = world.done; // Read first, so all statistics are visible if done
+            List<ClusterStatistics> clusters = new ArrayList<>(world.clusters);
+            clusters.sort(Comparator.comparing(cs -> cs.eventsPerTick, Comparator.reverseOrder()));
+            NoiseStatistics noise = world.noise;
+            results.put(uid, done ? new WorldStatistics(clusters, noise) : new WorldStatistics(clusters,
+                    noise == null ? new NoiseStatistics(Collections.emptySet(), 0) : noise,
+                    true, BREADAnalysis.findHotspots(uid, world.points, HOTSPOTS)));
+        });
+        return results;
+    }
+
+    private static ClusterAnalysis clusterAnalysis(Map<UUID, BREADPoints> points, int collectionPeriodMultiplier,
+                                                   double approximation,
+                                                   Map<UUID, BREADIncrementalClustering> clusterings) {
+        if (approximation < 0 || approximation > 1) throw new IllegalArgumentException();
+        if (clusterings == null || approximation > 0)
+            return (w, p, d) -> BREADAnalysis.divide(p, collectionPeriodMultiplier, approximation, d);
+        clusterings.keySet().retainAll(points.keySet());
+        points.keySet().forEach(world -> clusterings.computeIfAbsent(world, uid -> new BREADIncrementalClustering()));
+        return (w, p, d) -> BREADAnalysis.divide(clusterings.get(w), p, collectionPeriodMultiplier, d);
     }
 
     /**
-     * Transform a map of CompletableFuture to CompletableFuture of the map.
-     *
-     * @param futureMap Map of CompletableFuture to transform
-     * @param <K>       Key type
-     * @param <V>       Value type
-     * @return CompletableFuture of the map
+     * Cluster analysis of a world.
      */
-    private <K, V> CompletableFuture<Map<K, V>> futureMap2MapFuture(Map<K, CompletableFuture<V>> futureMap) {
-        return CompletableFuture.allOf(futureMap.values().toArray(new CompletableFuture[0])).
-                thenApply(aVoid -> futureMap.entrySet().parallelStream().
-                        collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().join())));
+    @FunctionalInterface
+    interface ClusterAnalysis {
+
+        /**
+         * Analyse points of a world and divide them to clusters and noise.
+         *
+         * @param world    UID of the world
+         * @param points   Points of the world
+         * @param deadline Deadline of the process
+         * @return A list of indices of points of clusters and noise in ascending order,
+         * the last element of the list is noise (guarantee existence)
+         * @throws BREADDeadline.Expired if the deadline expires
+         */
+        List<int[]> analyse(UUID world, BREADPoints points, BREADDeadline deadline);
+
     }
 
     /**
-     * Create a CompletableFuture that just waits and then returns the specific value.
-     * <br/>
-     * The idiom of this function is:
-     * <br/>
-     * {@code [a CompletableFuture].acceptEither(timeout([timeout], [unit], [then]), [action]);}
-     *
-     * @param timeout Timeout time
-     * @param unit    Timeout time unit
-     * @param then    Value to be returned if timed out
-     * @param <T>     Value type
-     * @return An empty optional
+     * Statistics of a world counted so far.
      */
-    private <T> CompletableFuture<T> timeout(long timeout, TimeUnit unit, T then) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                Thread.sleep(unit.toMillis(timeout));
-            } catch (InterruptedException ignored) {
-            }
-            return then;
-        });
+    private static final class WorldProgress {
+
+        private final BREADPoints points;
+        private final Queue<ClusterStatistics> clusters;
+        private volatile NoiseStatistics noise; // null if not counted yet
+        private volatile boolean done;
+
+        private WorldProgress(BREADPoints points) {
+            this.points = points;
+            this.clusters = new ConcurrentLinkedQueue<>();
+            this.noise = null;
+            this.done = false;
+        }
+
     }
 
 }
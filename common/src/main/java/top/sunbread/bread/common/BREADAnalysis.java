@@ -18,31 +18,29 @@
 package top.sunbread.bread.common;
 
 import top.sunbread.bread.common.BREADStatistics.ClusterStatistics;
+import top.sunbread.bread.common.BREADStatistics.HeavyHitter;
 import top.sunbread.bread.common.BREADStatistics.NoiseStatistics;
 import top.sunbread.bread.common.BREADStatistics.Point;
 
-import java.math.BigDecimal;
-import java.math.BigInteger;
-import java.math.RoundingMode;
 import java.util.*;
-import java.util.concurrent.ForkJoinPool;
-import java.util.function.BiFunction;
-import java.util.function.Function;
-import java.util.stream.Collectors;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 /**
  * A util class for analysing game data.
+ * <br/>
+ * Parallel stages run in the pool of the calling thread, which is {@link BREADAnalysisPool} in analyses.
  */
 final class BREADAnalysis {
 
-    private static final int EPSILON = 16;
-    private static final int MAX_WEIGHT_SUM_BASE = 25; // For noise
+    static final int NOISE = 0; // Label of noise
+    static final int EPSILON = 16;
+    static final int MAX_WEIGHT_SUM_BASE = 25; // For noise
+    private static final double CLOCK_CORRELATION_THRESHOLD = 0.5;
+    private static final double CLOCK_PEAK_TOLERANCE = 0.9;
 
     /**
      * Analyse given points and divide them to clusters and noise.
-     * This uses parallel DBSCAN.
+     * This uses parallel DBSCAN, by the engine named by system property {@code bread.analysis.engine}.
      *
      * @param points              Set of points to analyse
      * @param frequencyMultiplier Point frequency multiplier, must be a positive integer,
@@ -50,384 +48,592 @@ final class BREADAnalysis {
      * @return A list of clusters and noise, the last element of the list is noise (guarantee existence)
      */
     static List<Set<Point>> clusterAnalysis(Set<Point> points, int frequencyMultiplier) {
-        ForkJoinPool analysisThreadPool = new ForkJoinPool();
-        List<Set<Point>> outerResult = analysisThreadPool.submit(() -> {
-            // Wrapping points
-            Set<PointData> pointsData = points.parallelStream().unordered().
-                    map(PointData::new).collect(Collectors.toSet());
-
-            // Constructing Range Tree
-            RangeTree<PointData> rangeTree = new RangeTree<>(pointsData,
-                    Arrays.asList(p -> p.point.x, p -> p.point.y, p -> p.point.z));
-
-            // Dyeing core points
-            pointsData.parallelStream().unordered().filter(pointData ->
-                    rangeTree.getNeighborPointsManhattan(pointData, EPSILON).parallelStream().unordered().
-                            mapToInt(neighborPointData -> neighborPointData.point.w).sum() >
-                            MAX_WEIGHT_SUM_BASE * frequencyMultiplier).
-                    forEach(corePointData -> corePointData.pointAttribute = PointAttribute.CORE);
-
-            // Collecting core points
-            List<PointData> corePointsData = pointsData.parallelStream().unordered().
-                    filter(pointData -> pointData.pointAttribute == PointAttribute.CORE).
-                    collect(Collectors.toCollection(ArrayList::new));
-
-            // Numbering core points
-            IntStream.range(0, corePointsData.size()).parallel().unordered().forEach(index ->
-                    corePointsData.get(index).extraData = index + 1);
-
-            // Making the graph of core points
-            List<List<Integer>> adjacencyList = corePointsData.parallelStream().unordered().map(corePointData ->
-                    rangeTree.getNeighborPointsManhattan(corePointData, EPSILON).parallelStream().unordered().
-                            filter(pointData -> pointData.pointAttribute == PointAttribute.CORE).
-                            map(pointData -> pointData.extraData - 1).
-                            collect(Collectors.toList())).
-                    collect(Collectors.toCollection(ArrayList::new));
-
-            // Searching components in the graph
-            List<Integer> componentNumbers = searchComponents(adjacencyList);
-            adjacencyList.clear();
-
-            // Numbering core points according to clusters
-            IntStream.range(0, corePointsData.size()).parallel().unordered().forEach(index ->
-                    corePointsData.get(index).extraData = componentNumbers.get(index) + 1);
-            corePointsData.clear();
-            componentNumbers.clear();
-
-            // Dyeing and numbering reachable points
-            BiFunction<PointData, PointData, Integer> manhattanDistance =
-                    (pd1, pd2) -> Math.abs(pd1.point.x - pd2.point.x) +
-                            Math.abs(pd1.point.y - pd2.point.y) + Math.abs(pd1.point.z - pd2.point.z);
-            pointsData.parallelStream().unordered().filter(pointData ->
-                    pointData.pointAttribute == PointAttribute.NONE).
-                    forEach(pointData ->
-                            rangeTree.getNeighborPointsManhattan(pointData, EPSILON).parallelStream().unordered().
-                                    filter(neighborPointData -> neighborPointData.pointAttribute == PointAttribute.CORE).
-                                    min(Comparator.comparing(corePointData ->
-                                            manhattanDistance.apply(pointData, corePointData))).
-                                    ifPresent(nearestCorePointData -> {
-                                        pointData.pointAttribute = PointAttribute.REACHABLE;
-                                        pointData.extraData = nearestCorePointData.extraData;
-                                    }));
-            rangeTree.clear();
-
-            // Collecting points
-            List<Set<Point>> result = new ArrayList<>(pointsData.parallelStream().unordered().
-                    filter(pointData -> pointData.pointAttribute != PointAttribute.NONE).
-                    collect(Collectors.toMap(pointData -> pointData.extraData,
-                            pointData -> Collections.singleton(pointData.point),
-                            (set1, set2) -> Stream.concat(set1.stream(), set2.stream()).collect(Collectors.toSet()))).
-                    values());
-            result.add(pointsData.parallelStream().unordered().
-                    filter(pointData -> pointData.pointAttribute == PointAttribute.NONE).
-                    map(pointData -> pointData.point).collect(Collectors.toSet()));
-
-            // Return results
-            return result;
-        }).join();
-        analysisThreadPool.shutdownNow();
-        return outerResult;
+        return clusterAnalysis(points, frequencyMultiplier, getEngine());
     }
 
     /**
-     * Count a cluster and generate its statistics.
+     * Analyse given points and divide them to clusters and noise.
+     * This uses parallel ρ-approximate DBSCAN if an approximation is given,
+     * only borderline points may be divided differently from exact DBSCAN.
      *
-     * @param cluster          Cluster to count
-     * @param collectionPeriod Collection period, the unit is ticks, must be a positive integer
-     * @return Statistics of the given cluster
+     * @param points              Set of points to analyse
+     * @param frequencyMultiplier Point frequency multiplier, must be a positive integer,
+     *                            should be equal to collectionPeriodMultiplier
+     * @param approximation       ρ, must be in [0, 1], 0 means exact
+     * @return A list of clusters and noise, the last element of the list is noise (guarantee existence)
+     * @see BREADCellClustering
      */
-    static ClusterStatistics countCluster(Set<Point> cluster, int collectionPeriod) {
-        int totalEvents = cluster.parallelStream().mapToInt(point -> point.w).sum();
-        double eventsPerTick = (double) totalEvents / collectionPeriod;
-        double[] eventCentroidLocation = cluster.parallelStream().
-                map(point -> Arrays.asList(BigInteger.valueOf((long) point.x * point.w),
-                        BigInteger.valueOf((long) point.y * point.w),
-                        BigInteger.valueOf((long) point.z * point.w))).
-                reduce(Arrays.asList(BigInteger.valueOf(0), BigInteger.valueOf(0), BigInteger.valueOf(0)),
-                        (list1, list2) -> IntStream.range(0, list1.size()).parallel().boxed().
-                                map(i -> list1.get(i).add(list2.get(i))).collect(Collectors.toList())).
-                parallelStream().mapToDouble(bigInt -> new BigDecimal(bigInt).
-                divide(BigDecimal.valueOf(totalEvents), 16, RoundingMode.HALF_UP).doubleValue()).
-                toArray();
-        double distanceFromCentroid = cluster.parallelStream().
-                mapToDouble(point -> Math.sqrt(Math.pow(point.x - eventCentroidLocation[0], 2) +
-                        Math.pow(point.y - eventCentroidLocation[1], 2) +
-                        Math.pow(point.z - eventCentroidLocation[2], 2)) * point.w).
-                sum() / totalEvents;
-        return new ClusterStatistics(cluster, eventsPerTick,
-                eventCentroidLocation, distanceFromCentroid);
+    static List<Set<Point>> clusterAnalysis(Set<Point> points, int frequencyMultiplier, double approximation) {
+        return clusterAnalysis(points, frequencyMultiplier, approximation, new BREADDeadline());
     }
 
     /**
-     * Count noise and generate its statistics.
+     * Analyse given points and divide them to clusters and noise, giving up once the deadline expires.
      *
-     * @param noise            Noise to count
-     * @param collectionPeriod Collection period, the unit is ticks, must be a positive integer
-     * @return Statistics of the given noise
+     * @param points              Set of points to analyse
+     * @param frequencyMultiplier Point frequency multiplier, must be a positive integer,
+     *                            should be equal to collectionPeriodMultiplier
+     * @param approximation       ρ, must be in [0, 1], 0 means exact
+     * @param deadline            Deadline of the analysis
+     * @return A list of clusters and noise, the last element of the list is noise (guarantee existence)
+     * @throws BREADDeadline.Expired if the deadline expires
      */
-    static NoiseStatistics countNoise(Set<Point> noise, int collectionPeriod) {
-        return new NoiseStatistics(noise, (double) noise.parallelStream().
-                mapToInt(point -> point.w).sum() / collectionPeriod);
+    static List<Set<Point>> clusterAnalysis(Set<Point> points, int frequencyMultiplier, double approximation,
+                                            BREADDeadline deadline) {
+        return clusterAnalysis(points, frequencyMultiplier, approximation == 0 ? getEngine() : Engine.CELL,
+                approximation, deadline);
     }
 
     /**
-     * Search components in the specific graph.
+     * Analyse given points and divide them to clusters and noise.
+     * This uses parallel DBSCAN.
+     * <br/>
+     * A point which isn't core joins the cluster of its nearest core neighbor,
+     * and the one with the smallest packed position among equally near ones,
+     * so all engines divide points the same.
      *
-     * @param adjacencyList Adjacency list of the graph
-     * @return A list of component numbers of vertices
+     * @param points              Set of points to analyse
+     * @param frequencyMultiplier Point frequency multiplier, must be a positive integer,
+     *                            should be equal to collectionPeriodMultiplier
+     * @param engine              Engine to use
+     * @return A list of clusters and noise, the last element of the list is noise (guarantee existence)
      */
-    private static List<Integer> searchComponents(List<List<Integer>> adjacencyList) {
-        int[] componentNumbers = new int[adjacencyList.size()];
-        Arrays.fill(componentNumbers, -1);
-        for (int index = 0, currentComponent = 0; index < adjacencyList.size(); ++index) {
-            if (componentNumbers[index] != -1) continue;
-            Stack<Integer> vertexStack = new Stack<>();
-            Stack<List<Integer>> adjacentVerticesStack = new Stack<>();
-            vertexStack.push(index);
-            adjacentVerticesStack.push(null);
-            while (!vertexStack.empty()) {
-                int vertex = vertexStack.peek();
-                List<Integer> adjacentVertices = adjacentVerticesStack.peek();
-                componentNumbers[vertex] = currentComponent;
-                if (adjacentVertices == null) {
-                    adjacentVerticesStack.pop();
-                    adjacentVertices = adjacencyList.get(vertex).stream().
-                            filter(adjacentVertex -> componentNumbers[adjacentVertex] == -1).
-                            collect(Collectors.toCollection(LinkedList::new));
-                    adjacentVerticesStack.push(adjacentVertices);
-                }
-                if (adjacentVertices.isEmpty()) {
-                    vertexStack.pop();
-                    adjacentVerticesStack.pop();
-                } else {
-                    vertexStack.push(adjacentVertices.remove(0));
-                    adjacentVerticesStack.push(null);
-                }
-            }
-            ++currentComponent;
+    static List<Set<Point>> clusterAnalysis(Set<Point> points, int frequencyMultiplier, Engine engine) {
+        return clusterAnalysis(points, frequencyMultiplier, engine, 0, new BREADDeadline());
+    }
+
+    private static List<Set<Point>> clusterAnalysis(Set<Point> points, int frequencyMultiplier, Engine engine,
+                                                    double approximation, BREADDeadline deadline) {
+        // Unwrapping points into columns
+        Point[] pointArray = points.toArray(new Point[0]);
+        int[] xs = new int[pointArray.length], ys = new int[pointArray.length],
+                zs = new int[pointArray.length], ws = new int[pointArray.length];
+        for (int index = 0; index < pointArray.length; ++index) {
+            xs[index] = pointArray[index].x;
+            ys[index] = pointArray[index].y;
+            zs[index] = pointArray[index].z;
+            ws[index] = pointArray[index].w;
+        }
+
+        // Labelling and collecting points
+        int[] labels = label(xs, ys, zs, ws, frequencyMultiplier, engine, approximation, deadline,
+                new boolean[xs.length]);
+        List<Set<Point>> result = new ArrayList<>();
+        for (int[] cluster : collectClusters(labels)) {
+            Set<Point> clusterSet = new HashSet<>(cluster.length * 2);
+            for (int index : cluster) clusterSet.add(pointArray[index]);
+            result.add(clusterSet);
         }
-        return Arrays.stream(componentNumbers).boxed().collect(Collectors.toCollection(ArrayList::new));
+        return result;
     }
 
     /**
-     * A point wrapper.
+     * Analyse given points and divide them to clusters and noise, giving up once the deadline expires.
+     * Points are read from columns, and no point object is created.
+     * <br/>
+     * Engines index coordinates as int columns, so positions are unpacked once into 12 bytes per point,
+     * which is less than the labels and the spatial index take. Weights on the heap aren't copied.
+     *
+     * @param points              Points to analyse
+     * @param frequencyMultiplier Point frequency multiplier, must be a positive integer,
+     *                            should be equal to collectionPeriodMultiplier
+     * @param approximation       ρ, must be in [0, 1], 0 means exact
+     * @param deadline            Deadline of the analysis
+     * @return A list of clusters and noise, each one is indices of its points in ascending order,
+     * the last element of the list is noise (guarantee existence)
+     * @throws BREADDeadline.Expired if the deadline expires
      */
-    private static final class PointData {
+    static List<int[]> divide(BREADPoints points, int frequencyMultiplier, double approximation,
+                              BREADDeadline deadline) {
+        int size = points.size();
+        int[] xs = new int[size], ys = new int[size], zs = new int[size];
+        for (int index = 0; index < size; ++index) {
+            long key = points.key(index);
+            xs[index] = BREADPointCounter.unpackX(key);
+            ys[index] = BREADPointCounter.unpackY(key);
+            zs[index] = BREADPointCounter.unpackZ(key);
+        }
+        int[] ws = points.weights();
+        return collectClusters(label(xs, ys, zs, ws, frequencyMultiplier,
+                approximation == 0 ? getEngine() : Engine.CELL, approximation, deadline, new boolean[size]));
+    }
 
-        Point point;
-        PointAttribute pointAttribute;
-        int extraData;
+    /**
+     * Label points with an engine.
+     *
+     * @param core Array to mark core points in, as long as points, only marked by exact engines
+     */
+    private static int[] label(int[] xs, int[] ys, int[] zs, int[] ws, int frequencyMultiplier, Engine engine,
+                               double approximation, BREADDeadline deadline, boolean[] core) {
+        long minWeightSum = (long) MAX_WEIGHT_SUM_BASE * frequencyMultiplier;
+        int[] labels;
+        if (approximation > 0)
+            labels = BREADCellClustering.labelApproximately(xs, ys, zs, ws, EPSILON, minWeightSum, approximation,
+                    deadline);
+        else if (engine == Engine.CELL)
+            labels = BREADCellClustering.label(xs, ys, zs, ws, EPSILON, minWeightSum, deadline, core);
+        else if (engine == Engine.SHARD)
+            labels = BREADShardedClustering.label(xs, ys, zs, ws, EPSILON, minWeightSum, deadline, core);
+        else
+            labels = labelPoints(xs, ys, zs, ws, minWeightSum, deadline, core);
+        deadline.check();
+        return labels;
+    }
 
-        PointData(Point point) {
-            this.point = point;
-            this.pointAttribute = PointAttribute.NONE;
-            this.extraData = 0;
-        }
+    /**
+     * Return the engine named by system property {@code bread.analysis.engine}.
+     *
+     * @return The named engine, CELL if not named
+     */
+    private static Engine getEngine() {
+        String engine = System.getProperty("bread.analysis.engine");
+        for (Engine candidate : Engine.values())
+            if (candidate.name().equalsIgnoreCase(engine)) return candidate;
+        return Engine.CELL;
+    }
 
-        @Override
-        public boolean equals(Object o) {
-            if (o == null) return false;
-            if (this == o) return true;
-            if (!(o instanceof PointData)) return false;
-            return this.point.equals(((PointData) o).point) &&
-                    this.pointAttribute.equals(((PointData) o).pointAttribute) &&
-                    this.extraData == ((PointData) o).extraData;
-        }
+    /**
+     * Analyse given points and divide them to clusters and noise, updating a state of previous points.
+     * This only updates clusters near changes, and divides points as the other engines do.
+     *
+     * @param clustering          State of previous points, it's updated to given points
+     * @param points              Points to analyse
+     * @param frequencyMultiplier Point frequency multiplier, must be a positive integer,
+     *                            should be equal to collectionPeriodMultiplier
+     * @return A list of clusters and noise, the last element of the list is noise (guarantee existence)
+     */
+    static List<Set<Point>> clusterAnalysis(BREADIncrementalClustering clustering, BREADPoints points,
+                                            int frequencyMultiplier) {
+        return toPointSets(points, divide(clustering, points, frequencyMultiplier, new BREADDeadline()));
+    }
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(this.point, this.pointAttribute, this.extraData);
+    /**
+     * Analyse given points and divide them to clusters and noise, updating a state of previous points,
+     * giving up once the deadline expires.
+     * <br/>
+     * If the state is empty or would be rebuilt, points are divided by the engine named by system property
+     * {@code bread.analysis.engine} instead, and the state is loaded from its result.
+     *
+     * @param clustering          State of previous points, it's updated to given points
+     * @param points              Points to analyse
+     * @param frequencyMultiplier Point frequency multiplier, must be a positive integer,
+     *                            should be equal to collectionPeriodMultiplier
+     * @param deadline            Deadline of the analysis, the state is inconsistent if it expires
+     * @return A list of clusters and noise, each one is indices of its points in ascending order,
+     * the last element of the list is noise (guarantee existence)
+     * @throws BREADDeadline.Expired if the deadline expires
+     */
+    static List<int[]> divide(BREADIncrementalClustering clustering, BREADPoints points, int frequencyMultiplier,
+                              BREADDeadline deadline) {
+        clustering.update(points, (long) MAX_WEIGHT_SUM_BASE * frequencyMultiplier, deadline);
+        if (!clustering.isRebuilding()) return collectClusters(clustering.label(points, deadline));
+        int size = points.size();
+        int[] xs = new int[size], ys = new int[size], zs = new int[size];
+        for (int index = 0; index < size; ++index) {
+            xs[index] = points.x(index);
+            ys[index] = points.y(index);
+            zs[index] = points.z(index);
         }
+        boolean[] core = new boolean[size];
+        int[] labels = label(xs, ys, zs, points.weights(), frequencyMultiplier, getEngine(), 0, deadline, core);
+        clustering.load(points, core, labels, deadline);
+        return collectClusters(labels);
+    }
 
+    /**
+     * Divide points of a cluster hierarchy to clusters and noise by cutting it at a density.
+     * This doesn't query neighbors, and divides points as the other engines do with the same min weight sum.
+     *
+     * @param hierarchy Hierarchy to cut
+     * @param density   Max weight sum of neighbors of noise per 15 seconds, must be a non-negative integer,
+     *                  {@link BREADClusterHierarchy#DEFAULT_DENSITY} is what the other engines use
+     * @return A list of clusters and noise, the last element of the list is noise (guarantee existence)
+     */
+    static List<Set<Point>> clusterAnalysis(BREADClusterHierarchy hierarchy, int density) {
+        return toPointSets(hierarchy.getPoints(), divide(hierarchy, density));
     }
 
     /**
-     * An implementation of Range Tree.
-     * It's used to get neighbor points of a specific point efficiently.
+     * Divide points of a cluster hierarchy to clusters and noise by cutting it at a density.
      *
-     * @param <P> Point type
-     * @see <a href="https://en.wikipedia.org/wiki/Range_tree">Wikipedia</a>
+     * @param hierarchy Hierarchy to cut
+     * @param density   Max weight sum of neighbors of noise per 15 seconds, must be a non-negative integer
+     * @return A list of clusters and noise, each one is indices of its points in ascending order,
+     * the last element of the list is noise (guarantee existence)
      */
-    private static final class RangeTree<P> {
-
-        private List<Function<P, Integer>> componentFilters;
-        private Node<P> tree;
-
-        /**
-         * Construct a Range Tree.
-         *
-         * @param points           Points as elements
-         * @param componentFilters A list of functions to get components of a point
-         */
-        RangeTree(Set<P> points, List<Function<P, Integer>> componentFilters) {
-            this.componentFilters = new ArrayList<>(componentFilters);
-            this.tree = makeTree(0, points);
-        }
+    static List<int[]> divide(BREADClusterHierarchy hierarchy, int density) {
+        return collectClusters(hierarchy.label(density));
+    }
 
-        /**
-         * Get neighbor points of a specific point, using Manhattan distance.
-         *
-         * @param centerPoint Specific point
-         * @param epsilon     Range (inclusive)
-         * @return Neighbor points of the specific point (including center point if it's in the tree)
-         */
-        Set<P> getNeighborPointsManhattan(P centerPoint, int epsilon) {
-            int realEps = Math.abs(epsilon);
-            List<Integer> from = this.componentFilters.stream().map(f -> f.apply(centerPoint)).
-                    map(c -> c - realEps).collect(Collectors.toList());
-            List<Integer> to = this.componentFilters.stream().map(f -> f.apply(centerPoint)).
-                    map(c -> c + realEps).collect(Collectors.toList());
-            BiFunction<P, P, Integer> manhattanDistance =
-                    (p1, p2) -> this.componentFilters.stream().mapToInt(d -> Math.abs(d.apply(p1) - d.apply(p2))).sum();
-            return queryInclusiveRange(from, to).parallelStream().unordered().
-                    filter(point -> manhattanDistance.apply(centerPoint, point) <= epsilon).
-                    collect(Collectors.toSet());
-        }
+    /**
+     * Collect labelled points into clusters and noise, by counting points of every label.
+     *
+     * @param labels Cluster labels of points, in [0, number of points], {@link #NOISE} for noise
+     * @return A list of clusters and noise, each one is indices of its points in ascending order,
+     * the last element of the list is noise (guarantee existence)
+     */
+    private static List<int[]> collectClusters(int[] labels) {
+        int[] sizes = new int[labels.length + 1];
+        for (int label : labels) ++sizes[label];
+        int[][] clusters = new int[sizes.length][];
+        for (int label = 0; label < sizes.length; ++label)
+            if (sizes[label] > 0 || label == NOISE) clusters[label] = new int[sizes[label]];
+        Arrays.fill(sizes, 0);
+        for (int index = 0; index < labels.length; ++index)
+            clusters[labels[index]][sizes[labels[index]]++] = index;
+        List<int[]> result = new ArrayList<>();
+        for (int label = 0; label < clusters.length; ++label)
+            if (label != NOISE && clusters[label] != null) result.add(clusters[label]);
+        result.add(clusters[NOISE]);
+        return result;
+    }
 
-        /**
-         * Remove all elements from this Range Tree.
-         */
-        void clear() {
-            this.componentFilters.clear();
-            clearTree(this.tree);
-            this.tree = new Node<>((P) null);
-        }
+    private static List<Set<Point>> toPointSets(BREADPoints points, List<int[]> clusters) {
+        List<Set<Point>> result = new ArrayList<>(clusters.size());
+        for (int[] cluster : clusters) result.add(new HashSet<>(points.select(cluster)));
+        return result;
+    }
 
-        /**
-         * A recursive function to make Range Tree.
-         *
-         * @param depth  Depth of the node
-         * @param points Elements of the node
-         * @return Made point
-         */
-        private Node<P> makeTree(int depth, Set<P> points) {
-            if (depth == this.componentFilters.size()) {
-                if (points.size() == 1)
-                    return new Node<>(points.iterator().next());
-                else if (points.size() == 0) {
-                    assert false;
-                    throw new RuntimeException();
-                } else
-                    throw new RuntimeException("Found duplicate points");
-            }
-            Function<P, Integer> componentFilter = this.componentFilters.get(depth);
-            Function<Integer, Node<P>> treeNodeGenerator =
-                    component -> makeTree(depth + 1, points.parallelStream().unordered().filter(childPoint ->
-                            componentFilter.apply(childPoint).equals(component)).collect(Collectors.toSet()));
-            // Return type isn't Node<TreeMap> but Node<P>
-            return new Node<>(points.parallelStream().unordered().map(componentFilter).distinct().
-                    collect(Collectors.toMap(Function.identity(), treeNodeGenerator,
-                            (v1, v2) -> {
-                                assert false;
-                                throw new RuntimeException();
-                            }, TreeMap::new)));
-        }
+    /**
+     * Label points by querying neighbors of every point.
+     *
+     * @param xs           X of points
+     * @param ys           Y of points
+     * @param zs           Z of points
+     * @param ws           Weights of points
+     * @param minWeightSum A point is core if the weight sum of its neighbors is greater than this
+     * @param deadline     Deadline of labelling, checked per point
+     * @param core         Array to mark core points in, as long as points
+     * @return Cluster labels of points, {@link #NOISE} for noise
+     */
+    private static int[] labelPoints(int[] xs, int[] ys, int[] zs, int[] ws, long minWeightSum,
+                                     BREADDeadline deadline, boolean[] core) {
+        PointAttribute[] pointAttributes = new PointAttribute[xs.length];
+        Arrays.fill(pointAttributes, PointAttribute.NONE);
+        int[] labels = new int[xs.length];
+
+        // Constructing the spatial index
+        BREADSpatialIndex spatialIndex = createSpatialIndex(xs, ys, zs);
+
+        // Dyeing core points
+        IntStream.range(0, xs.length).parallel().unordered().filter(index -> {
+            deadline.check();
+            return spatialIndex.sumNeighborWeightsManhattan(index, EPSILON, ws) > minWeightSum;
+        }).forEach(coreIndex -> pointAttributes[coreIndex] = PointAttribute.CORE);
+
+        // Collecting core points
+        int[] coreIndices = IntStream.range(0, xs.length).
+                filter(index -> pointAttributes[index] == PointAttribute.CORE).toArray();
+        for (int coreIndex : coreIndices) core[coreIndex] = true;
+
+        // Uniting neighboring core points into clusters
+        BREADUnionFind clusters = new BREADUnionFind(xs.length);
+        Arrays.stream(coreIndices).parallel().unordered().forEach(coreIndex -> {
+            deadline.check();
+            spatialIndex.forEachNeighborManhattan(coreIndex, EPSILON, neighbor -> {
+                if (neighbor > coreIndex && pointAttributes[neighbor] == PointAttribute.CORE)
+                    clusters.union(coreIndex, neighbor);
+            });
+        });
+
+        // Numbering core points according to clusters
+        Arrays.stream(coreIndices).parallel().unordered().forEach(coreIndex ->
+                labels[coreIndex] = clusters.find(coreIndex) + 1);
+
+        // Dyeing and numbering reachable points
+        IntStream.range(0, xs.length).parallel().unordered().
+                filter(index -> pointAttributes[index] == PointAttribute.NONE).
+                forEach(index -> {
+                    deadline.check();
+                    int[] nearestCoreIndex = {-1};
+                    spatialIndex.forEachNeighborManhattan(index, EPSILON, neighbor -> {
+                        if (pointAttributes[neighbor] == PointAttribute.CORE && (nearestCoreIndex[0] < 0 ||
+                                isNearer(xs, ys, zs, index, neighbor, nearestCoreIndex[0])))
+                            nearestCoreIndex[0] = neighbor;
+                    });
+                    if (nearestCoreIndex[0] < 0) return;
+                    pointAttributes[index] = PointAttribute.REACHABLE;
+                    labels[index] = labels[nearestCoreIndex[0]];
+                });
+        spatialIndex.clear();
+        return labels;
+    }
 
-        /**
-         * A recursive function to clear Range Tree.
-         *
-         * @param tree Node that will be removed
-         */
-        private void clearTree(Node<P> tree) {
-            if (tree.isLeaf()) return;
-            tree.getBST().values().parallelStream().unordered().forEach(this::clearTree);
-            tree.getBST().clear();
-        }
+    /**
+     * Compare distances from a point to two other points.
+     * Ties are broken by packed positions, so the result doesn't depend on the order of points.
+     *
+     * @param xs     X of points
+     * @param ys     Y of points
+     * @param zs     Z of points
+     * @param center Index of the point to measure from
+     * @param point1 Index of one point
+     * @param point2 Index of the other point
+     * @return True if point1 is nearer, or as near and has a smaller packed position
+     */
+    static boolean isNearer(int[] xs, int[] ys, int[] zs, int center, int point1, int point2) {
+        int distance1 = Math.abs(xs[center] - xs[point1]) + Math.abs(ys[center] - ys[point1]) +
+                Math.abs(zs[center] - zs[point1]);
+        int distance2 = Math.abs(xs[center] - xs[point2]) + Math.abs(ys[center] - ys[point2]) +
+                Math.abs(zs[center] - zs[point2]);
+        if (distance1 != distance2) return distance1 < distance2;
+        return BREADPointCounter.pack(xs[point1], ys[point1], zs[point1]) <
+                BREADPointCounter.pack(xs[point2], ys[point2], zs[point2]);
+    }
 
-        /**
-         * Get all points in a rectangle range (inclusive).
-         *
-         * @param from Vertex coordinates
-         * @param to   Diagonal vertex coordinates
-         * @return All points in a rectangle range (inclusive)
-         */
-        private Set<P> queryInclusiveRange(List<Integer> from, List<Integer> to) {
-            if (from.size() != to.size() || from.size() != this.componentFilters.size())
-                throw new IllegalArgumentException();
-            Stack<Node<P>> nodeStack = new Stack<>();
-            Stack<List<Node<P>>> childNodesStack = new Stack<>();
-            Set<P> result = new HashSet<>();
-            nodeStack.push(this.tree);
-            childNodesStack.push(null);
-            while (!nodeStack.empty()) {
-                Node<P> node = nodeStack.peek();
-                int depth = nodeStack.size() - 1;
-                if (node.isLeaf()) {
-                    result.add(node.getPoint());
-                    nodeStack.pop();
-                    childNodesStack.pop();
-                } else {
-                    List<Node<P>> childNodes = childNodesStack.peek();
-                    if (childNodes == null) {
-                        int less = Math.min(from.get(depth), to.get(depth));
-                        int greater = Math.max(from.get(depth), to.get(depth));
-                        childNodesStack.pop();
-                        childNodesStack.push(new LinkedList<>(Objects.requireNonNull(node.getBST()).
-                                subMap(less, true, greater, true).values()));
-                        childNodes = childNodesStack.peek();
-                    }
-                    if (childNodes.isEmpty()) {
-                        nodeStack.pop();
-                        childNodesStack.pop();
-                    } else {
-                        Node<P> childNode = childNodes.get(0);
-                        childNodes.remove(0);
-                        nodeStack.push(childNode);
-                        childNodesStack.push(null);
-                    }
-                }
-            }
-            return result;
-        }
+    /**
+     * Build the spatial index for points of a world.
+     * <br/>
+     * It's picked by {@link BREADSpatialIndex#select(int[], int[], int[], int)} unless system property
+     * {@code bread.analysis.index} names a type of {@link BREADSpatialIndex.Type}.
+     *
+     * @param xs X of points
+     * @param ys Y of points
+     * @param zs Z of points
+     * @return Spatial index of points
+     */
+    static BREADSpatialIndex createSpatialIndex(int[] xs, int[] ys, int[] zs) {
+        String type = System.getProperty("bread.analysis.index");
+        for (BREADSpatialIndex.Type candidate : BREADSpatialIndex.Type.values())
+            if (candidate.name().equalsIgnoreCase(type))
+                return BREADSpatialIndex.create(candidate, xs, ys, zs, EPSILON);
+        return BREADSpatialIndex.create(BREADSpatialIndex.select(xs, ys, zs, EPSILON), xs, ys, zs, EPSILON);
+    }
 
-        /**
-         * A wrapper that wraps trees and points.
-         */
-        private static final class Node<P> {
+    /**
+     * Count a cluster and generate its statistics.
+     *
+     * @param cluster          Cluster to count
+     * @param collectionPeriod Collection period, the unit is ticks, must be a positive integer
+     * @return Statistics of the given cluster
+     */
+    static ClusterStatistics countCluster(Set<Point> cluster, int collectionPeriod) {
+        BREADPoints points = BREADPoints.of(cluster);
+        return countCluster(cluster, points, IntStream.range(0, points.size()).toArray(), collectionPeriod);
+    }
 
-            private UUID uuid;
-            private boolean leaf;
-            private P point;
-            private TreeMap<Integer, Node<P>> bst;
+    /**
+     * Count a cluster and generate its statistics.
+     * <br/>
+     * Points are read once from columns while all sums are accumulated, relative to the first point,
+     * and distances from the centroid, which need the centroid first, are summed by reading them again.
+     * Points of the statistics are encoded compactly, so they don't keep the columns.
+     *
+     * @param points           Points of the world
+     * @param cluster          Indices of points of the cluster in ascending order
+     * @param collectionPeriod Collection period, the unit is ticks, must be a positive integer
+     * @return Statistics of the given cluster
+     */
+    static ClusterStatistics countCluster(BREADPoints points, int[] cluster, int collectionPeriod) {
+        return countCluster(BREADPointSet.of(points, cluster), points, cluster, collectionPeriod);
+    }
 
-            Node(P point) {
-                this.uuid = UUID.randomUUID();
-                this.leaf = true;
-                this.point = point;
-            }
+    private static ClusterStatistics countCluster(Set<Point> raw, BREADPoints points, int[] cluster,
+                                                  int collectionPeriod) {
+        long[] chunkKeys = new long[cluster.length];
+        long origin = points.key(cluster[0]);
+        int originX = BREADPointCounter.unpackX(origin), originY = BREADPointCounter.unpackY(origin),
+                originZ = BREADPointCounter.unpackZ(origin);
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+        long totalEvents = 0, sumX = 0, sumY = 0, sumZ = 0; // Exact, relative to the origin
+        double sumSquares = 0; // Of distances from the origin
+        int peakBlockEvents = 0;
+        for (int position = 0; position < cluster.length; ++position) {
+            long key = points.key(cluster[position]);
+            int w = points.weight(cluster[position]);
+            int blockX = BREADPointCounter.unpackX(key), blockY = BREADPointCounter.unpackY(key),
+                    blockZ = BREADPointCounter.unpackZ(key);
+            int x = blockX - originX, y = blockY - originY, z = blockZ - originZ;
+            totalEvents += w;
+            sumX += (long) w * x;
+            sumY += (long) w * y;
+            sumZ += (long) w * z;
+            sumSquares += w * ((double) x * x + (double) y * y + (double) z * z);
+            minX = Math.min(minX, blockX);
+            minY = Math.min(minY, blockY);
+            minZ = Math.min(minZ, blockZ);
+            maxX = Math.max(maxX, blockX);
+            maxY = Math.max(maxY, blockY);
+            maxZ = Math.max(maxZ, blockZ);
+            peakBlockEvents = Math.max(peakBlockEvents, w);
+            chunkKeys[position] = (long) (blockX >> 4) << 32 | (blockZ >> 4) & 0xFFFFFFFFL;
+        }
+        double centroidX = (double) sumX / totalEvents, centroidY = (double) sumY / totalEvents,
+                centroidZ = (double) sumZ / totalEvents;
+        double distanceSum = 0;
+        for (int index : cluster) {
+            long key = points.key(index);
+            double x = BREADPointCounter.unpackX(key) - originX - centroidX,
+                    y = BREADPointCounter.unpackY(key) - originY - centroidY,
+                    z = BREADPointCounter.unpackZ(key) - originZ - centroidZ;
+            distanceSum += Math.sqrt(x * x + y * y + z * z) * points.weight(index);
+        }
+        double eventVariance = Math.max(sumSquares / totalEvents -
+                (centroidX * centroidX + centroidY * centroidY + centroidZ * centroidZ), 0);
+        Arrays.sort(chunkKeys);
+        int chunks = 0;
+        for (int chunk = 0; chunk < chunkKeys.length; ++chunk)
+            if (chunk == 0 || chunkKeys[chunk] != chunkKeys[chunk - 1]) ++chunks;
+        return new ClusterStatistics(raw, (double) totalEvents / collectionPeriod,
+                new double[]{originX + centroidX, originY + centroidY, originZ + centroidZ},
+                distanceSum / totalEvents, new int[]{minX, minY, minZ, maxX, maxY, maxZ},
+                peakBlockEvents, eventVariance, chunks);
+    }
 
-            Node(TreeMap<Integer, Node<P>> bst) {
-                this.uuid = UUID.randomUUID();
-                this.leaf = false;
-                this.bst = bst;
-            }
+    /**
+     * Count the activity of a cluster over time and add it to its statistics.
+     * <br/>
+     * Activity only tells whether a block had any event in a bucket,
+     * so the number of active blocks per bucket is scaled to make the series sum up to the total events.
+     *
+     * @param cluster Statistics of the cluster to count
+     * @param points  Points of the world, must have recorded activity
+     * @return Statistics of the given cluster with its activity
+     */
+    static ClusterStatistics countTimeline(ClusterStatistics cluster, BREADPoints points) {
+        int[] indices = new int[cluster.raw.size()];
+        int length = 0;
+        for (Point point : cluster.raw) {
+            int index = points.indexOf(BREADPointCounter.pack(point.x, point.y, point.z));
+            if (index >= 0) indices[length++] = index;
+        }
+        return countTimeline(cluster, points, Arrays.copyOf(indices, length));
+    }
 
-            boolean isLeaf() {
-                return this.leaf;
-            }
+    /**
+     * Count the activity of a cluster over time and add it to its statistics.
+     *
+     * @param cluster Statistics of the cluster to count
+     * @param points  Points of the world, must have recorded activity
+     * @param indices Indices of points of the cluster
+     * @return Statistics of the given cluster with its activity
+     */
+    static ClusterStatistics countTimeline(ClusterStatistics cluster, BREADPoints points, int[] indices) {
+        BREADActivity activity = points.getActivity();
+        long totalEvents = 0;
+        for (int index : indices) totalEvents += points.weight(index);
+        int[] activeBlocks = activity.countActiveBlocks(indices, indices.length);
+        long totalActiveBlocks = 0;
+        for (int blocks : activeBlocks) totalActiveBlocks += blocks;
+        double scale = totalActiveBlocks == 0 ? 0 :
+                (double) totalEvents / totalActiveBlocks / activity.getBucketTicks();
+        double[] eventsPerTickSeries = new double[activeBlocks.length];
+        double peakEventsPerTick = 0;
+        for (int bucket = 0; bucket < activeBlocks.length; ++bucket) {
+            eventsPerTickSeries[bucket] = activeBlocks[bucket] * scale;
+            peakEventsPerTick = Math.max(peakEventsPerTick, eventsPerTickSeries[bucket]);
+        }
+        return new ClusterStatistics(cluster.raw, cluster.eventsPerTick,
+                cluster.eventCentroidLocation, cluster.distanceFromCentroid, cluster.boundingBox,
+                cluster.peakBlockEvents, cluster.eventVariance, cluster.chunks,
+                activity.getBucketTicks(), eventsPerTickSeries, peakEventsPerTick,
+                findPeriod(activeBlocks) * activity.getBucketTicks());
+    }
 
-            P getPoint() {
-                return this.leaf ? this.point : null;
-            }
+    /**
+     * Find the period of a series by its autocorrelation.
+     * <br/>
+     * The period is the lag of the first local maximum of autocorrelation which is about as strong as the strongest one,
+     * lags longer than a third of the series are not considered.
+     *
+     * @param series Series to search
+     * @return Period in elements, 1 for a constant series which isn't all zero, 0 if not periodic
+     */
+    static int findPeriod(int[] series) {
+        double mean = 0;
+        for (int value : series) mean += value;
+        mean /= series.length;
+        double variance = 0;
+        for (int value : series) variance += (value - mean) * (value - mean);
+        if (variance == 0) return mean > 0 ? 1 : 0;
+        int maxLag = series.length / 3;
+        double[] correlations = new double[maxLag + 2];
+        for (int lag = 1; lag <= maxLag + 1 && lag < series.length; ++lag) {
+            double covariance = 0;
+            for (int i = 0; i + lag < series.length; ++i)
+                covariance += (series[i] - mean) * (series[i + lag] - mean);
+            correlations[lag] = covariance / variance; // Biased, so multiples of the period rank lower
+        }
+        double strongest = CLOCK_CORRELATION_THRESHOLD;
+        for (int lag = 2; lag <= maxLag; ++lag)
+            if (isPeak(correlations, lag)) strongest = Math.max(strongest, correlations[lag]);
+        // Multiples of the period are about as strong, so take the first peak close to the strongest one
+        for (int lag = 2; lag <= maxLag; ++lag)
+            if (isPeak(correlations, lag) && correlations[lag] >= strongest * CLOCK_PEAK_TOLERANCE) return lag;
+        return 0;
+    }
 
-            TreeMap<Integer, Node<P>> getBST() {
-                return this.leaf ? null : this.bst;
-            }
+    private static boolean isPeak(double[] correlations, int lag) {
+        return correlations[lag] >= correlations[lag - 1] && correlations[lag] > correlations[lag + 1];
+    }
 
-            @Override
-            public boolean equals(Object o) {
-                if (o == null) return false;
-                if (this == o) return true;
-                if (!(o instanceof Node)) return false;
-                return this.uuid.equals(((Node) o).uuid);
-            }
+    /**
+     * Count noise and generate its statistics.
+     *
+     * @param noise            Noise to count
+     * @param collectionPeriod Collection period, the unit is ticks, must be a positive integer
+     * @return Statistics of the given noise
+     */
+    static NoiseStatistics countNoise(Set<Point> noise, int collectionPeriod) {
+        return new NoiseStatistics(noise, (double) noise.parallelStream().
+                mapToInt(point -> point.w).sum() / collectionPeriod);
+    }
 
-        }
+    /**
+     * Count noise and generate its statistics.
+     * Points of the statistics are encoded compactly, so they don't keep the columns.
+     *
+     * @param points           Points of the world
+     * @param noise            Indices of points of noise in ascending order
+     * @param collectionPeriod Collection period, the unit is ticks, must be a positive integer
+     * @return Statistics of the given noise
+     */
+    static NoiseStatistics countNoise(BREADPoints points, int[] noise, int collectionPeriod) {
+        long totalEvents = 0;
+        for (int index : noise) totalEvents += points.weight(index);
+        return new NoiseStatistics(BREADPointSet.of(points, noise), (double) totalEvents / collectionPeriod);
+    }
 
+    /**
+     * Find the hottest blocks of a world.
+     * This scans points once without querying neighbors, so it's cheap even if cluster analysis isn't.
+     *
+     * @param world  UID of the world
+     * @param points Points of the world
+     * @param k      Max number of blocks to return
+     * @return Hottest blocks with exact counts, ordered by count from high to low
+     */
+    static List<HeavyHitter> findHotspots(UUID world, BREADPoints points, int k) {
+        if (k <= 0) return Collections.emptyList();
+        PriorityQueue<Integer> top = new PriorityQueue<>(Comparator.comparingInt(points::weight)); // Coldest first
+        for (int index = 0; index < points.size(); ++index)
+            if (top.size() < k) {
+                top.add(index);
+            } else if (points.weight(index) > points.weight(top.peek())) {
+                top.poll();
+                top.add(index);
+            }
+        List<HeavyHitter> hotspots = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            int index = top.poll();
+            hotspots.add(new HeavyHitter(world, points.x(index), points.y(index), points.z(index),
+                    points.weight(index), 0));
+        }
+        Collections.reverse(hotspots);
+        return hotspots;
     }
 
     /**
-     * The attribute of PointData.
+     * Engines of cluster analysis.
+     * <br/>
+     * POINT queries neighbors of every point, CELL works on cells of points which are all neighbors of each other,
+     * SHARD queries neighbors in spatial slabs of points independently.
+     */
+    enum Engine {POINT, CELL, SHARD}
+
+    /**
+     * The attribute of a point.
      */
     private enum PointAttribute {NONE, REACHABLE, CORE}
 
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A long-lived pool which runs all stages of analyses.
+ * <br/>
+ * Workers are named daemon threads of lowered priority, and their number is capped by
+ * system property {@code bread.analysis.parallelism}, which is one less than the number of cores by default,
+ * so analyses never starve the server thread. Parallel streams inside its tasks run in it as well.
+ * <br/>
+ * It should be created once by the plugin and shut down when the plugin is disabled.
+ */
+public final class BREADAnalysisPool {
+
+    private static final int WORKER_PRIORITY = Thread.NORM_PRIORITY - 2;
+
+    private final ForkJoinPool executor;
+    private final ScheduledExecutorService timer;
+
+    /**
+     * Construct a pool whose parallelism is given by system property {@code bread.analysis.parallelism}.
+     */
+    public BREADAnalysisPool() {
+        this(getDefaultParallelism());
+    }
+
+    /**
+     * Construct a pool.
+     *
+     * @param parallelism Max number of workers, must be a positive integer
+     */
+    public BREADAnalysisPool(int parallelism) {
+        if (parallelism <= 0) throw new IllegalArgumentException();
+        this.executor = new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            worker.setName("BREAD Analysis-" + worker.getPoolIndex());
+            worker.setDaemon(true);
+            worker.setPriority(WORKER_PRIORITY);
+            return worker;
+        }, null, true);
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "BREAD Analysis Timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        this.timer = timer;
+    }
+
+    /**
+     * Return the max number of workers.
+     *
+     * @return Parallelism of the pool
+     */
+    public int getParallelism() {
+        return this.executor.getParallelism();
+    }
+
+    /**
+     * Stop all workers, running analyses are abandoned.
+     */
+    public void shutdown() {
+        this.executor.shutdownNow();
+        this.timer.shutdownNow();
+    }
+
+    ForkJoinPool getExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * Create a CompletableFuture which is completed with the specific value after a delay,
+     * without occupying a worker while waiting. Cancelling it cancels the delay.
+     *
+     * @param delay Delay time
+     * @param unit  Delay time unit
+     * @param then  Value to complete with
+     * @param <T>   Value type
+     * @return CompletableFuture of the value
+     */
+    <T> CompletableFuture<T> delay(long delay, TimeUnit unit, T then) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        ScheduledFuture<?> scheduled = this.timer.schedule(() -> future.complete(then), delay, unit);
+        future.whenComplete((value, throwable) -> scheduled.cancel(false));
+        return future;
+    }
+
+    private static int getDefaultParallelism() {
+        try {
+            int parallelism = Integer.parseInt(System.getProperty("bread.analysis.parallelism", ""));
+            if (parallelism > 0) return parallelism;
+        } catch (NumberFormatException ignored) {
+        }
+        return Math.max(Runtime.getRuntime().availableProcessors() - 1, 1);
+    }
+
+}
@@ -0,0 +1,429 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * DBSCAN on cells of points, using Manhattan distance.
+ * <br/>
+ * Cells are cubes so small that any two points in a cell are neighbors.
+ * So a cell heavier than the core threshold makes all its points core without a query,
+ * a neighbor cell entirely in range of a point adds its weight at once,
+ * and clusters are united cell by cell.
+ * <br/>
+ * It's exact by default, dividing points exactly as querying neighbors of every point does.
+ * It can also be ρ-approximate: points are merged into units, small cubes of at most ρε/2 in diameter,
+ * and units are clustered instead of points with the distance between their nearest blocks.
+ * Then only borderline points can be divided differently from exact DBSCAN:
+ * <ul>
+ * <li>A point is core if its neighbors within ε are heavy enough, and may be core if its neighbors
+ * within (1+ρ)ε are.</li>
+ * <li>Core points within ε are in the same cluster, core points more than (1+ρ)ε apart may be in the same cluster
+ * only through other core points.</li>
+ * <li>A non-core point joins a cluster which has a core point within (1+ρ)ε of it, if one within ε exists.</li>
+ * </ul>
+ * The work of a unit is bounded by a constant of ρ, so the time is near-linear in the number of points.
+ */
+final class BREADCellClustering {
+
+    private BREADCellClustering() {
+    }
+
+    /**
+     * Label points exactly.
+     *
+     * @param xs           X of points
+     * @param ys           Y of points
+     * @param zs           Z of points
+     * @param ws           Weights of points
+     * @param epsilon      Range of neighbors (inclusive)
+     * @param minWeightSum A point is core if the weight sum of its neighbors is greater than this
+     * @return Cluster labels of points, {@link BREADAnalysis#NOISE} for noise
+     */
+    static int[] label(int[] xs, int[] ys, int[] zs, int[] ws, int epsilon, long minWeightSum) {
+        return label(xs, ys, zs, ws, epsilon, minWeightSum, new BREADDeadline());
+    }
+
+    /**
+     * Label points exactly, giving up once the deadline expires.
+     *
+     * @param xs           X of points
+     * @param ys           Y of points
+     * @param zs           Z of points
+     * @param ws           Weights of points
+     * @param epsilon      Range of neighbors (inclusive)
+     * @param minWeightSum A point is core if the weight sum of its neighbors is greater than this
+     * @param deadline     Deadline of labelling
+     * @return Cluster labels of points, {@link BREADAnalysis#NOISE} for noise
+     * @throws BREADDeadline.Expired if the deadline expires
+     */
+    static int[] label(int[] xs, int[] ys, int[] zs, int[] ws, int epsilon, long minWeightSum,
+                       BREADDeadline deadline) {
+        return label(xs, ys, zs, ws, epsilon, minWeightSum, deadline, new boolean[xs.length]);
+    }
+
+    /**
+     * Label points exactly, giving up once the deadline expires, and mark core points.
+     *
+     * @param xs           X of points
+     * @param ys           Y of points
+     * @param zs           Z of points
+     * @param ws           Weights of points
+     * @param epsilon      Range of neighbors (inclusive)
+     * @param minWeightSum A point is core if the weight sum of its neighbors is greater than this
+     * @param deadline     Deadline of labelling
+     * @param core         Array to mark core points in, as long as points
+     * @return Cluster labels of points, {@link BREADAnalysis#NOISE} for noise
+     * @throws BREADDeadline.Expired if the deadline expires
+     */
+    static int[] label(int[] xs, int[] ys, int[] zs, int[] ws, int epsilon, long minWeightSum,
+                       BREADDeadline deadline, boolean[] core) {
+        return labelUnits(xs, ys, zs, ws, 1, epsilon, minWeightSum, deadline, core);
+    }
+
+    /**
+     * Label points ρ-approximately.
+     *
+     * @param xs           X of points
+     * @param ys           Y of points
+     * @param zs           Z of points
+     * @param ws           Weights of points
+     * @param epsilon      Range of neighbors (inclusive)
+     * @param minWeightSum A point is core if the weight sum of its neighbors is greater than this
+     * @param rho          Approximation, must be in (0, 1]
+     * @return Cluster labels of points, {@link BREADAnalysis#NOISE} for noise
+     */
+    static int[] labelApproximately(int[] xs, int[] ys, int[] zs, int[] ws, int epsilon, long minWeightSum,
+                                    double rho) {
+        return labelApproximately(xs, ys, zs, ws, epsilon, minWeightSum, rho, new BREADDeadline());
+    }
+
+    /**
+     * Label points ρ-approximately, giving up once the deadline expires.
+     *
+     * @param xs           X of points
+     * @param ys           Y of points
+     * @param zs           Z of points
+     * @param ws           Weights of points
+     * @param epsilon      Range of neighbors (inclusive)
+     * @param minWeightSum A point is core if the weight sum of its neighbors is greater than this
+     * @param rho          Approximation, must be in (0, 1]
+     * @param deadline     Deadline of labelling
+     * @return Cluster labels of points, {@link BREADAnalysis#NOISE} for noise
+     * @throws BREADDeadline.Expired if the deadline expires
+     */
+    static int[] labelApproximately(int[] xs, int[] ys, int[] zs, int[] ws, int epsilon, long minWeightSum,
+                                    double rho, BREADDeadline deadline) {
+        if (rho <= 0 || rho > 1) throw new IllegalArgumentException();
+        int unitSize = (int) (rho * epsilon / 2) / 3 + 1; // 3 * (unitSize - 1) <= ρε/2
+        if (unitSize == 1) return label(xs, ys, zs, ws, epsilon, minWeightSum, deadline);
+
+        // Merging points into units
+        BREADPointCounter units = BREADPointCounter.create(BREADPointCounter.Storage.HEAP);
+        int[] pointUnits = new int[xs.length];
+        for (int point = 0; point < xs.length; ++point)
+            pointUnits[point] = units.add(BREADPointCounter.pack(Math.floorDiv(xs[point], unitSize),
+                    Math.floorDiv(ys[point], unitSize), Math.floorDiv(zs[point], unitSize)), ws[point]);
+        BREADPoints unitPoints = units.snapshot();
+        int[] unitXs = new int[unitPoints.size()], unitYs = new int[unitPoints.size()],
+                unitZs = new int[unitPoints.size()], unitWs = new int[unitPoints.size()];
+        for (int unit = 0; unit < unitPoints.size(); ++unit) {
+            unitXs[unit] = unitPoints.x(unit) * unitSize;
+            unitYs[unit] = unitPoints.y(unit) * unitSize;
+            unitZs[unit] = unitPoints.z(unit) * unitSize;
+            unitWs[unit] = unitPoints.weight(unit);
+        }
+
+        // Labelling units
+        deadline.check();
+        int[] unitLabels = labelUnits(unitXs, unitYs, unitZs, unitWs, unitSize, epsilon, minWeightSum, deadline,
+                new boolean[unitXs.length]);
+        return Arrays.stream(pointUnits).parallel().map(unit -> unitLabels[unit]).toArray();
+    }
+
+    /**
+     * Label units, which are cubes at given minimum corners.
+     *
+     * @param xs           X of minimum corners of units
+     * @param ys           Y of minimum corners of units
+     * @param zs           Z of minimum corners of units
+     * @param ws           Weights of units
+     * @param unitSize     Length of a unit, units of length 1 are blocks
+     * @param epsilon      Range of neighbors (inclusive)
+     * @param minWeightSum A unit is core if the weight sum of its neighbors is greater than this
+     * @param deadline     Deadline of labelling, checked per cell and per unit
+     * @param core         Array to mark core units in, as long as units
+     * @return Cluster labels of units, {@link BREADAnalysis#NOISE} for noise
+     */
+    private static int[] labelUnits(int[] xs, int[] ys, int[] zs, int[] ws, int unitSize, int epsilon,
+                                    long minWeightSum, BREADDeadline deadline, boolean[] core) {
+        int maxCellSize = epsilon / 3 + 1; // 3 * (cellSize - 1) <= epsilon
+        Cells cells = new Cells(xs, ys, zs, ws, unitSize, Math.max(maxCellSize / unitSize, 1) * unitSize, epsilon);
+        int[] labels = new int[xs.length];
+
+        // Dyeing core units
+        deadline.check();
+        IntStream.range(0, cells.count()).parallel().unordered().forEach(cell -> {
+            deadline.check();
+            if (cells.weights[cell] > minWeightSum) {
+                for (int position = cells.starts[cell]; position < cells.starts[cell + 1]; ++position)
+                    core[cells.order[position]] = true;
+                return;
+            }
+            for (int position = cells.starts[cell]; position < cells.starts[cell + 1]; ++position) {
+                int unit = cells.order[position];
+                long weightSum = cells.weights[cell];
+                for (int neighborCell : cells.neighbors[cell]) {
+                    if (weightSum > minWeightSum) break;
+                    if (cells.maxDistance(unit, neighborCell) <= epsilon) {
+                        weightSum += cells.weights[neighborCell];
+                        continue;
+                    }
+                    if (cells.minDistance(unit, neighborCell) > epsilon) continue;
+                    for (int neighborPosition = cells.starts[neighborCell];
+                         neighborPosition < cells.starts[neighborCell + 1]; ++neighborPosition) {
+                        int neighbor = cells.order[neighborPosition];
+                        if (cells.distance(unit, neighbor) <= epsilon) weightSum += ws[neighbor];
+                    }
+                }
+                core[unit] = weightSum > minWeightSum;
+            }
+        });
+
+        // Finding cells with core units
+        boolean[] coreCells = new boolean[cells.count()];
+        IntStream.range(0, cells.count()).parallel().unordered().forEach(cell -> {
+            for (int position = cells.starts[cell]; position < cells.starts[cell + 1]; ++position)
+                if (core[cells.order[position]]) {
+                    coreCells[cell] = true;
+                    return;
+                }
+        });
+
+        // Uniting neighboring cells into clusters, core units in a cell are always neighbors
+        BREADUnionFind clusters = new BREADUnionFind(cells.count());
+        IntStream.range(0, cells.count()).parallel().unordered().filter(cell -> coreCells[cell]).forEach(cell -> {
+            deadline.check();
+            for (int neighborCell : cells.neighbors[cell])
+                if (neighborCell > cell && coreCells[neighborCell] &&
+                        clusters.find(cell) != clusters.find(neighborCell) &&
+                        hasCoreNeighbors(cells, core, cell, neighborCell, epsilon))
+                    clusters.union(cell, neighborCell);
+        });
+
+        // Numbering core units according to clusters
+        IntStream.range(0, xs.length).parallel().unordered().filter(unit -> core[unit]).forEach(unit ->
+                labels[unit] = clusters.find(cells.unitCells[unit]) + 1);
+
+        // Numbering reachable units
+        IntStream.range(0, xs.length).parallel().unordered().filter(unit -> !core[unit]).forEach(unit -> {
+            deadline.check();
+            int cell = cells.unitCells[unit];
+            int nearestCore = nearestCore(cells, core, unit, cell, -1, epsilon);
+            for (int neighborCell : cells.neighbors[cell])
+                if (coreCells[neighborCell] && cells.minDistance(unit, neighborCell) <= epsilon)
+                    nearestCore = nearestCore(cells, core, unit, neighborCell, nearestCore, epsilon);
+            if (nearestCore >= 0) labels[unit] = labels[nearestCore];
+        });
+        return labels;
+    }
+
+    private static boolean hasCoreNeighbors(Cells cells, boolean[] core, int cell1, int cell2, int epsilon) {
+        for (int position1 = cells.starts[cell1]; position1 < cells.starts[cell1 + 1]; ++position1) {
+            int unit1 = cells.order[position1];
+            if (!core[unit1] || cells.minDistance(unit1, cell2) > epsilon) continue;
+            for (int position2 = cells.starts[cell2]; position2 < cells.starts[cell2 + 1]; ++position2) {
+                int unit2 = cells.order[position2];
+                if (core[unit2] && cells.distance(unit1, unit2) <= epsilon) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the nearest core unit in a cell.
+     * Ties are broken by positions, as {@link BREADAnalysis#isNearer(int[], int[], int[], int, int, int)} does.
+     */
+    private static int nearestCore(Cells cells, boolean[] core, int unit, int cell, int nearestCore, int epsilon) {
+        for (int position = cells.starts[cell]; position < cells.starts[cell + 1]; ++position) {
+            int candidate = cells.order[position];
+            if (!core[candidate]) continue;
+            int distance = cells.distance(unit, candidate);
+            if (distance > epsilon) continue;
+            if (nearestCore < 0) {
+                nearestCore = candidate;
+                continue;
+            }
+            int nearestDistance = cells.distance(unit, nearestCore);
+            if (distance < nearestDistance || (distance == nearestDistance &&
+                    cells.key(candidate) < cells.key(nearestCore)))
+                nearestCore = candidate;
+        }
+        return nearestCore;
+    }
+
+    /**
+     * List offsets of cells which may hold neighbors of a unit in the cell at the origin.
+     *
+     * @param cellSize Length of a cell
+     * @param epsilon  Range of neighbors (inclusive)
+     * @return Offsets of cells, except the origin
+     */
+    static int[][] neighborOffsets(int cellSize, int epsilon) {
+        int reach = (epsilon - 1) / cellSize + 1;
+        List<int[]> offsets = new ArrayList<>();
+        for (int x = -reach; x <= reach; ++x)
+            for (int y = -reach; y <= reach; ++y)
+                for (int z = -reach; z <= reach; ++z)
+                    if ((x != 0 || y != 0 || z != 0) && offsetDistance(x, cellSize) +
+                            offsetDistance(y, cellSize) + offsetDistance(z, cellSize) <= epsilon)
+                        offsets.add(new int[]{x, y, z});
+        return offsets.toArray(new int[0][]);
+    }
+
+    private static int offsetDistance(int offset, int cellSize) {
+        return offset == 0 ? 0 : (Math.abs(offset) - 1) * cellSize + 1;
+    }
+
+    /**
+     * Units sorted by cubic cells, with weights and neighbor cells of every cell.
+     */
+    private static final class Cells {
+
+        private final int[] xs, ys, zs;
+        private final int unitSize;
+        private final int cellSize; // A multiple of unitSize
+        private final long[] keys; // Sorted packed positions of cells
+        private final int[] starts; // Start of every cell in order, and the end of the last one
+        private final int[] order; // Units sorted by cell
+        private final int[] unitCells;
+        private final long[] weights;
+        private final int[][] neighbors; // Other cells which may have neighbors of units of the cell
+
+        Cells(int[] xs, int[] ys, int[] zs, int[] ws, int unitSize, int cellSize, int epsilon) {
+            this.xs = xs;
+            this.ys = ys;
+            this.zs = zs;
+            this.unitSize = unitSize;
+            this.cellSize = cellSize;
+            long[] unitKeys = IntStream.range(0, xs.length).parallel().mapToLong(unit ->
+                    BREADPointCounter.pack(cell(xs[unit]), cell(ys[unit]), cell(zs[unit]))).toArray();
+            this.keys = Arrays.stream(unitKeys).parallel().distinct().sorted().toArray();
+            this.unitCells = Arrays.stream(unitKeys).parallel().
+                    mapToInt(key -> Arrays.binarySearch(this.keys, key)).toArray();
+            this.starts = new int[this.keys.length + 1];
+            this.weights = new long[this.keys.length];
+            for (int unit = 0; unit < xs.length; ++unit) {
+                ++this.starts[this.unitCells[unit] + 1];
+                this.weights[this.unitCells[unit]] += ws[unit];
+            }
+            for (int cell = 0; cell < this.keys.length; ++cell) this.starts[cell + 1] += this.starts[cell];
+            int[] positions = Arrays.copyOf(this.starts, this.keys.length);
+            this.order = new int[xs.length];
+            for (int unit = 0; unit < xs.length; ++unit) this.order[positions[this.unitCells[unit]]++] = unit;
+            int[][] offsets = neighborOffsets(cellSize, epsilon);
+            int[] cellXs = Arrays.stream(this.keys).mapToInt(BREADPointCounter::unpackX).toArray();
+            int[] cellYs = Arrays.stream(this.keys).mapToInt(BREADPointCounter::unpackY).toArray();
+            int[] cellZs = Arrays.stream(this.keys).mapToInt(BREADPointCounter::unpackZ).toArray();
+            BREADCellTable table = new BREADCellTable(cellXs, cellYs, cellZs, 1);
+            this.neighbors = IntStream.range(0, this.keys.length).parallel().mapToObj(cell -> {
+                int[] neighborCells = new int[offsets.length];
+                int count = 0;
+                for (int[] offset : offsets) {
+                    int neighborCell = findCell(table, cellXs[cell] + offset[0], cellYs[cell] + offset[1],
+                            cellZs[cell] + offset[2]);
+                    if (neighborCell >= 0) neighborCells[count++] = neighborCell;
+                }
+                return Arrays.copyOf(neighborCells, count);
+            }).toArray(int[][]::new);
+        }
+
+        /**
+         * Return the cell at a position, or -1 if there isn't.
+         * Every cell is a point of its own in the table, so a found slot holds it alone unless keys wrap around.
+         */
+        private int findCell(BREADCellTable table, int cellX, int cellY, int cellZ) {
+            int slot = table.find(cellX, cellY, cellZ);
+            if (slot < 0) return -1;
+            long key = BREADPointCounter.pack(cellX, cellY, cellZ);
+            for (int position = table.start(slot); position < table.end(slot); ++position)
+                if (this.keys[table.point(position)] == key) return table.point(position);
+            return -1;
+        }
+
+        int count() {
+            return this.keys.length;
+        }
+
+        long key(int unit) {
+            return BREADPointCounter.pack(this.xs[unit], this.ys[unit], this.zs[unit]);
+        }
+
+        /**
+         * Return the Manhattan distance between the nearest blocks of two units.
+         */
+        int distance(int unit1, int unit2) {
+            return axisDistance(this.xs[unit1], this.xs[unit2]) + axisDistance(this.ys[unit1], this.ys[unit2]) +
+                    axisDistance(this.zs[unit1], this.zs[unit2]);
+        }
+
+        /**
+         * Return the smallest Manhattan distance from a unit to a cell.
+         */
+        int minDistance(int unit, int cell) {
+            long key = this.keys[cell];
+            return axisMinDistance(this.xs[unit], BREADPointCounter.unpackX(key)) +
+                    axisMinDistance(this.ys[unit], BREADPointCounter.unpackY(key)) +
+                    axisMinDistance(this.zs[unit], BREADPointCounter.unpackZ(key));
+        }
+
+        /**
+         * Return the largest Manhattan distance from any block of a unit to any block of a cell.
+         */
+        int maxDistance(int unit, int cell) {
+            long key = this.keys[cell];
+            return axisMaxDistance(this.xs[unit], BREADPointCounter.unpackX(key)) +
+                    axisMaxDistance(this.ys[unit], BREADPointCounter.unpackY(key)) +
+                    axisMaxDistance(this.zs[unit], BREADPointCounter.unpackZ(key));
+        }
+
+        private int axisDistance(int component1, int component2) {
+            return Math.max(Math.abs(component1 - component2) - (this.unitSize - 1), 0);
+        }
+
+        private int axisMinDistance(int component, int cell) {
+            int lower = cell * this.cellSize, upper = lower + this.cellSize - 1;
+            return Math.max(0, Math.max(lower - (component + this.unitSize - 1), component - upper));
+        }
+
+        private int axisMaxDistance(int component, int cell) {
+            int lower = cell * this.cellSize, upper = lower + this.cellSize - 1;
+            return Math.max(component + this.unitSize - 1 - lower, upper - component);
+        }
+
+        private int cell(int component) {
+            return Math.floorDiv(component, this.cellSize);
+        }
+
+    }
+
+}
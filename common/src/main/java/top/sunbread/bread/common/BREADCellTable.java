@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import java.util.Arrays;
+
+/**
+ * Points of three coordinate columns grouped by cubic cells.
+ * <br/>
+ * Points are sorted by cell. If the bounding box of points has few cells,
+ * cells are addressed directly by their offsets in the box, otherwise they are found by an open-addressing hash table.
+ * Both the spatial index and the cell engine find cells with it.
+ */
+final class BREADCellTable {
+
+    private static final int CELL_BITS = 21; // Cell coordinates per axis
+    private static final int DIRECT_CELLS_PER_POINT = 4; // Largest box which is addressed directly
+
+    private final int cellSize;
+    private final int[] order; // Indices of points sorted by cell
+    private final int minA, minB, minC, spanA, spanB, spanC; // Cell box
+    private final int[] directStarts; // Start of every cell in the box in order, null if hashed
+    private final long[] slotKeys;
+    private final int[] slotStarts; // Start of the cell in order + 1, 0 means empty slot
+    private final int[] slotEnds;
+    private final int shift;
+    private final boolean exact; // Whether no cells share a key
+
+    /**
+     * Group points into cells.
+     *
+     * @param as       First coordinates of points
+     * @param bs       Second coordinates of points
+     * @param cs       Third coordinates of points
+     * @param cellSize Edge length of cells
+     */
+    BREADCellTable(int[] as, int[] bs, int[] cs, int cellSize) {
+        this.cellSize = cellSize;
+        int minA = Integer.MAX_VALUE, minB = Integer.MAX_VALUE, minC = Integer.MAX_VALUE;
+        int maxA = Integer.MIN_VALUE, maxB = Integer.MIN_VALUE, maxC = Integer.MIN_VALUE;
+        for (int index = 0; index < as.length; ++index) {
+            minA = Math.min(minA, cell(as[index]));
+            minB = Math.min(minB, cell(bs[index]));
+            minC = Math.min(minC, cell(cs[index]));
+            maxA = Math.max(maxA, cell(as[index]));
+            maxB = Math.max(maxB, cell(bs[index]));
+            maxC = Math.max(maxC, cell(cs[index]));
+        }
+        long spanA = Math.max((long) maxA - minA + 1, 0), spanB = Math.max((long) maxB - minB + 1, 0),
+                spanC = Math.max((long) maxC - minC + 1, 0);
+        this.minA = minA;
+        this.minB = minB;
+        this.minC = minC;
+        this.exact = Math.max(spanA, Math.max(spanB, spanC)) <= 1L << CELL_BITS;
+        if (spanA * spanB * spanC <= (long) DIRECT_CELLS_PER_POINT * Math.max(as.length, 1)) {
+            this.spanA = (int) spanA;
+            this.spanB = (int) spanB;
+            this.spanC = (int) spanC;
+            // Counting sort by the offset of the cell
+            int[] cellOffsets = new int[as.length];
+            this.directStarts = new int[this.spanA * this.spanB * this.spanC + 1];
+            for (int index = 0; index < as.length; ++index) {
+                cellOffsets[index] = offset(cell(as[index]), cell(bs[index]), cell(cs[index]));
+                ++this.directStarts[cellOffsets[index] + 1];
+            }
+            for (int offset = 0; offset + 1 < this.directStarts.length; ++offset)
+                this.directStarts[offset + 1] += this.directStarts[offset];
+            int[] positions = Arrays.copyOf(this.directStarts, this.directStarts.length);
+            this.order = new int[as.length];
+            for (int index = 0; index < as.length; ++index) this.order[positions[cellOffsets[index]]++] = index;
+            this.slotKeys = null;
+            this.slotStarts = this.slotEnds = null;
+            this.shift = 0;
+            return;
+        }
+        this.spanA = this.spanB = this.spanC = 0;
+        this.directStarts = null;
+        long[] cellKeys = new long[as.length];
+        for (int index = 0; index < as.length; ++index)
+            cellKeys[index] = cellKey(cell(as[index]), cell(bs[index]), cell(cs[index]));
+        int capacity = Integer.highestOneBit(Math.max(as.length, 1) * 2 - 1) << 1;
+        this.slotKeys = new long[capacity];
+        this.slotStarts = new int[capacity];
+        this.slotEnds = new int[capacity];
+        this.shift = Long.numberOfLeadingZeros(capacity - 1);
+        this.order = sortByCell(cellKeys);
+        for (int start = 0; start < this.order.length; ) {
+            long key = cellKeys[this.order[start]];
+            int end = start + 1;
+            while (end < this.order.length && cellKeys[this.order[end]] == key) ++end;
+            int slot = slot(key);
+            while (this.slotStarts[slot] != 0) slot = (slot + 1) & (capacity - 1);
+            this.slotKeys[slot] = key;
+            this.slotStarts[slot] = start + 1;
+            this.slotEnds[slot] = end;
+            start = end;
+        }
+    }
+
+    /**
+     * Return whether all points in a found cell are really in that cell.
+     * Cell keys wrap around in huge worlds, so far cells may be found together otherwise.
+     *
+     * @return Whether cells are exact
+     */
+    boolean isExact() {
+        return this.exact;
+    }
+
+    int cell(int component) {
+        return Math.floorDiv(component, this.cellSize);
+    }
+
+    int lower(int cell) {
+        return cell * this.cellSize;
+    }
+
+    int upper(int cell) {
+        return cell * this.cellSize + this.cellSize - 1;
+    }
+
+    /**
+     * Find a cell.
+     *
+     * @return Slot of the cell, or -1 if it has no point
+     */
+    int find(int cellA, int cellB, int cellC) {
+        if (this.directStarts != null) {
+            if (cellA < this.minA || cellA - this.minA >= this.spanA ||
+                    cellB < this.minB || cellB - this.minB >= this.spanB ||
+                    cellC < this.minC || cellC - this.minC >= this.spanC) return -1;
+            int offset = offset(cellA, cellB, cellC);
+            return this.directStarts[offset] == this.directStarts[offset + 1] ? -1 : offset;
+        }
+        long key = cellKey(cellA, cellB, cellC);
+        int mask = this.slotKeys.length - 1;
+        for (int slot = slot(key); this.slotStarts[slot] != 0; slot = (slot + 1) & mask)
+            if (this.slotKeys[slot] == key) return slot;
+        return -1;
+    }
+
+    int start(int slot) {
+        return this.directStarts != null ? this.directStarts[slot] : this.slotStarts[slot] - 1;
+    }
+
+    int end(int slot) {
+        return this.directStarts != null ? this.directStarts[slot + 1] : this.slotEnds[slot];
+    }
+
+    int point(int position) {
+        return this.order[position];
+    }
+
+    private int offset(int cellA, int cellB, int cellC) {
+        return ((cellA - this.minA) * this.spanB + (cellB - this.minB)) * this.spanC + (cellC - this.minC);
+    }
+
+    private int slot(long key) {
+        return BREADPointCounter.slot(key, this.shift);
+    }
+
+    private static long cellKey(int cellA, int cellB, int cellC) {
+        long mask = (1L << CELL_BITS) - 1;
+        return ((cellA & mask) << (CELL_BITS << 1)) | ((cellB & mask) << CELL_BITS) | (cellC & mask);
+    }
+
+    /**
+     * Sort indices of points by their cell keys with a radix sort.
+     *
+     * @param cellKeys Cell keys of points
+     * @return Indices of points sorted by cell key
+     */
+    private static int[] sortByCell(long[] cellKeys) {
+        int[] order = new int[cellKeys.length];
+        int[] buffer = new int[cellKeys.length];
+        for (int index = 0; index < order.length; ++index) order[index] = index;
+        for (int shift = 0; shift < CELL_BITS * 3; shift += 16) {
+            int[] counts = new int[(1 << 16) + 1];
+            for (int index : order) ++counts[(int) (cellKeys[index] >>> shift & 0xFFFF) + 1];
+            for (int digit = 0; digit < 1 << 16; ++digit) counts[digit + 1] += counts[digit];
+            for (int index : order) buffer[counts[(int) (cellKeys[index] >>> shift & 0xFFFF)]++] = index;
+            int[] swap = order;
+            order = buffer;
+            buffer = swap;
+        }
+        return order;
+    }
+
+}
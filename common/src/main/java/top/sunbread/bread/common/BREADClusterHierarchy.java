@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * A hierarchy of clusters of a world, which can be cut at any density without querying neighbors again.
+ * <br/>
+ * The weight sum of a point is the sum of weights of its neighbors within {@link BREADAnalysis#EPSILON},
+ * and a cut at a density is the DBSCAN whose core points have weight sums greater than density ×
+ * frequency multiplier. Since core points at a density stay core at every lower one,
+ * clusters only merge as the density goes down.
+ * <br/>
+ * Building it queries neighbors twice. Points are united with their neighbors in descending order of weight sums,
+ * and every union which merges two clusters is recorded with the weight sum it happened at,
+ * so a cut only replays merges above its density. Every point also keeps its nearest neighbors
+ * which are heavier than itself and than all nearer ones, the first core one among them is the nearest core neighbor
+ * at any density, so a cut divides points exactly as {@link BREADAnalysis#clusterAnalysis(java.util.Set, int)}.
+ */
+public final class BREADClusterHierarchy {
+
+    public static final int DEFAULT_DENSITY = BREADAnalysis.MAX_WEIGHT_SUM_BASE;
+
+    private final BREADPoints points;
+    private final int frequencyMultiplier;
+    private final long[] weightSums;
+    private final long[] sortedWeightSums;
+    private final long[] mergeWeightSums; // In descending order
+    private final int[] mergePoints1;
+    private final int[] mergePoints2;
+    private final int[] nearerStarts;
+    private final int[] nearerPoints; // Heavier neighbors in ascending order of distance, per point
+
+    /**
+     * Build the hierarchy of points of a world.
+     *
+     * @param points              Points of the world
+     * @param frequencyMultiplier Point frequency multiplier, must be a positive integer,
+     *                            should be equal to collectionPeriodMultiplier
+     */
+    BREADClusterHierarchy(BREADPoints points, int frequencyMultiplier) {
+        this(points, frequencyMultiplier, new BREADDeadline());
+    }
+
+    /**
+     * Build the hierarchy of points of a world, giving up once the deadline expires.
+     *
+     * @param points              Points of the world
+     * @param frequencyMultiplier Point frequency multiplier, must be a positive integer,
+     *                            should be equal to collectionPeriodMultiplier
+     * @param deadline            Deadline of building, checked per point
+     * @throws BREADDeadline.Expired if the deadline expires
+     */
+    BREADClusterHierarchy(BREADPoints points, int frequencyMultiplier, BREADDeadline deadline) {
+        if (frequencyMultiplier <= 0) throw new IllegalArgumentException();
+        this.points = points;
+        this.frequencyMultiplier = frequencyMultiplier;
+        int size = points.size();
+        int[] xs = new int[size], ys = new int[size], zs = new int[size], ws = points.weights();
+        long[] keys = new long[size];
+        for (int index = 0; index < size; ++index) {
+            keys[index] = points.key(index);
+            xs[index] = BREADPointCounter.unpackX(keys[index]);
+            ys[index] = BREADPointCounter.unpackY(keys[index]);
+            zs[index] = BREADPointCounter.unpackZ(keys[index]);
+        }
+        BREADSpatialIndex spatialIndex = BREADAnalysis.createSpatialIndex(xs, ys, zs);
+
+        // Summing weights of neighbors
+        long[] weightSums = IntStream.range(0, size).parallel().mapToLong(index -> {
+            deadline.check();
+            return spatialIndex.sumNeighborWeightsManhattan(index, BREADAnalysis.EPSILON, ws);
+        }).toArray();
+        this.weightSums = weightSums;
+        this.sortedWeightSums = weightSums.clone();
+        Arrays.sort(this.sortedWeightSums);
+
+        // Keeping heavier neighbors which may be the nearest core neighbor
+        int[][] nearer = new int[size][];
+        IntStream.range(0, size).parallel().forEach(index -> {
+            deadline.check();
+            nearer[index] = findNearerNeighbors(index, spatialIndex.getNeighborsManhattan(index,
+                    BREADAnalysis.EPSILON), xs, ys, zs, keys, weightSums);
+        });
+        this.nearerStarts = new int[size + 1];
+        for (int index = 0; index < size; ++index)
+            this.nearerStarts[index + 1] = this.nearerStarts[index] + nearer[index].length;
+        this.nearerPoints = new int[this.nearerStarts[size]];
+        for (int index = 0; index < size; ++index)
+            System.arraycopy(nearer[index], 0, this.nearerPoints, this.nearerStarts[index], nearer[index].length);
+
+        // Uniting points with heavier neighbors, from the heaviest
+        // Sorting packed keys, the high half is the number of heavier points and the low half is the point
+        long[] orderKeys = IntStream.range(0, size).parallel().mapToLong(index ->
+                (long) (size - upperBound(this.sortedWeightSums, weightSums[index])) << 32 | index).toArray();
+        Arrays.parallelSort(orderKeys);
+        int[] ranks = new int[size];
+        for (int rank = 0; rank < size; ++rank) ranks[(int) orderKeys[rank]] = rank;
+        BREADUnionFind clusters = new BREADUnionFind(size);
+        long[] mergeWeightSums = new long[Math.max(size - 1, 0)];
+        int[] mergePoints1 = new int[mergeWeightSums.length], mergePoints2 = new int[mergeWeightSums.length];
+        int[] merges = {0};
+        for (long orderKey : orderKeys) {
+            deadline.check();
+            int point = (int) orderKey;
+            spatialIndex.forEachNeighborManhattan(point, BREADAnalysis.EPSILON, neighbor -> {
+                if (ranks[neighbor] >= ranks[point] || clusters.find(neighbor) == clusters.find(point)) return;
+                clusters.union(point, neighbor);
+                mergeWeightSums[merges[0]] = weightSums[point];
+                mergePoints1[merges[0]] = point;
+                mergePoints2[merges[0]++] = neighbor;
+            });
+        }
+        this.mergeWeightSums = Arrays.copyOf(mergeWeightSums, merges[0]);
+        this.mergePoints1 = Arrays.copyOf(mergePoints1, merges[0]);
+        this.mergePoints2 = Arrays.copyOf(mergePoints2, merges[0]);
+        spatialIndex.clear();
+    }
+
+    /**
+     * Return the points which the hierarchy is built from.
+     *
+     * @return Points of the world
+     */
+    BREADPoints getPoints() {
+        return this.points;
+    }
+
+    /**
+     * Return the frequency multiplier which the hierarchy is built with.
+     *
+     * @return Point frequency multiplier
+     */
+    public int getFrequencyMultiplier() {
+        return this.frequencyMultiplier;
+    }
+
+    /**
+     * Count clusters of a cut without labelling points.
+     *
+     * @param density Max weight sum of neighbors of noise per 15 seconds, must be a non-negative integer
+     * @return Number of clusters
+     */
+    public int countClusters(int density) {
+        long minWeightSum = getMinWeightSum(density);
+        int cores = this.sortedWeightSums.length - upperBound(this.sortedWeightSums, minWeightSum);
+        int merges = 0, high = this.mergeWeightSums.length; // Merges above the density are a prefix
+        while (merges < high) {
+            int middle = (merges + high) >>> 1;
+            if (this.mergeWeightSums[middle] > minWeightSum) merges = middle + 1;
+            else high = middle;
+        }
+        return cores - merges;
+    }
+
+    /**
+     * Label points by cutting the hierarchy at a density.
+     *
+     * @param density Max weight sum of neighbors of noise per 15 seconds, must be a non-negative integer
+     * @return Cluster labels of points, {@link BREADAnalysis#NOISE} for noise
+     */
+    int[] label(int density) {
+        long minWeightSum = getMinWeightSum(density);
+        BREADUnionFind clusters = new BREADUnionFind(this.weightSums.length);
+        for (int merge = 0; merge < this.mergeWeightSums.length && this.mergeWeightSums[merge] > minWeightSum;
+             ++merge)
+            clusters.union(this.mergePoints1[merge], this.mergePoints2[merge]);
+        int[] labels = new int[this.weightSums.length];
+        IntStream.range(0, labels.length).parallel().forEach(index -> {
+            if (this.weightSums[index] > minWeightSum) {
+                labels[index] = clusters.find(index) + 1;
+                return;
+            }
+            for (int nearer = this.nearerStarts[index]; nearer < this.nearerStarts[index + 1]; ++nearer)
+                if (this.weightSums[this.nearerPoints[nearer]] > minWeightSum) {
+                    labels[index] = clusters.find(this.nearerPoints[nearer]) + 1;
+                    return;
+                }
+            labels[index] = BREADAnalysis.NOISE;
+        });
+        return labels;
+    }
+
+    private long getMinWeightSum(int density) {
+        if (density < 0) throw new IllegalArgumentException();
+        return (long) density * this.frequencyMultiplier;
+    }
+
+    /**
+     * Find neighbors which are heavier than a point and than all nearer neighbors.
+     * Ties of distance are broken by packed positions as {@link BREADAnalysis#isNearer}.
+     *
+     * @param point      Index of the point
+     * @param neighbors  Indices of neighbors of the point
+     * @param xs         X of points
+     * @param ys         Y of points
+     * @param zs         Z of points
+     * @param keys       Packed positions of points
+     * @param weightSums Weight sums of neighbors of points
+     * @return Indices of found neighbors, from the nearest
+     */
+    private static int[] findNearerNeighbors(int point, int[] neighbors, int[] xs, int[] ys, int[] zs, long[] keys,
+                                             long[] weightSums) {
+        // Sorting neighbors by distance
+        int[] starts = new int[BREADAnalysis.EPSILON + 2];
+        int[] distances = new int[neighbors.length];
+        for (int neighbor = 0; neighbor < neighbors.length; ++neighbor) {
+            distances[neighbor] = Math.abs(xs[point] - xs[neighbors[neighbor]]) +
+                    Math.abs(ys[point] - ys[neighbors[neighbor]]) + Math.abs(zs[point] - zs[neighbors[neighbor]]);
+            ++starts[distances[neighbor] + 1];
+        }
+        for (int distance = 0; distance <= BREADAnalysis.EPSILON; ++distance) starts[distance + 1] += starts[distance];
+        int[] sorted = new int[neighbors.length], next = Arrays.copyOf(starts, starts.length);
+        for (int neighbor = 0; neighbor < neighbors.length; ++neighbor)
+            sorted[next[distances[neighbor]]++] = neighbors[neighbor];
+
+        // Sweeping from the nearest, ties in ascending order of packed positions
+        int[] found = new int[0];
+        long maxWeightSum = weightSums[point];
+        for (int distance = 0; distance <= BREADAnalysis.EPSILON; ++distance) {
+            int from = starts[distance], to = from;
+            for (int neighbor = from; neighbor < starts[distance + 1]; ++neighbor)
+                if (weightSums[sorted[neighbor]] > maxWeightSum) sorted[to++] = sorted[neighbor];
+            for (int neighbor = from + 1; neighbor < to; ++neighbor) // Few are left, insertion sort is enough
+                for (int previous = neighbor; previous > from &&
+                        keys[sorted[previous - 1]] > keys[sorted[previous]]; --previous) {
+                    int swapped = sorted[previous];
+                    sorted[previous] = sorted[previous - 1];
+                    sorted[previous - 1] = swapped;
+                }
+            for (int neighbor = from; neighbor < to; ++neighbor)
+                if (weightSums[sorted[neighbor]] > maxWeightSum) {
+                    maxWeightSum = weightSums[sorted[neighbor]];
+                    found = Arrays.copyOf(found, found.length + 1);
+                    found[found.length - 1] = sorted[neighbor];
+                }
+        }
+        return found;
+    }
+
+    private static int upperBound(long[] sorted, long value) {
+        int low = 0, high = sorted.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sorted[middle] > value) high = middle;
+            else low = middle + 1;
+        }
+        return low;
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A time budget of an analysis, which long loops check cooperatively.
+ * <br/>
+ * Once it has expired, by time or by {@link #expire()}, {@link #check()} throws {@link Expired} to unwind the stage,
+ * so workers are freed at once instead of finishing work nobody waits for.
+ */
+final class BREADDeadline {
+
+    private final long time; // By System.nanoTime()
+    private final boolean bounded;
+    private volatile boolean expired;
+
+    /**
+     * Construct a deadline which only expires by {@link #expire()}.
+     */
+    BREADDeadline() {
+        this.time = 0;
+        this.bounded = false;
+        this.expired = false;
+    }
+
+    /**
+     * Construct a deadline after a budget from now.
+     *
+     * @param budget Budget time
+     * @param unit   Budget time unit
+     */
+    BREADDeadline(long budget, TimeUnit unit) {
+        this.time = System.nanoTime() + unit.toNanos(budget);
+        this.bounded = true;
+        this.expired = false;
+    }
+
+    /**
+     * Return true if the deadline has expired.
+     *
+     * @return true if expired
+     */
+    boolean isExpired() {
+        if (!this.expired && this.bounded && System.nanoTime() - this.time >= 0) this.expired = true;
+        return this.expired;
+    }
+
+    /**
+     * Throw if the deadline has expired.
+     *
+     * @throws Expired if expired
+     */
+    void check() {
+        if (isExpired()) throw new Expired();
+    }
+
+    /**
+     * Expire the deadline now.
+     */
+    void expire() {
+        this.expired = true;
+    }
+
+    /**
+     * Thrown by a stage which gave up because its deadline expired.
+     */
+    static final class Expired extends CancellationException {
+
+        private static final long serialVersionUID = 1L;
+
+    }
+
+}
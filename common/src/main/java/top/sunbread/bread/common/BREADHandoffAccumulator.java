@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An accumulator which moves counting off the thread that adds events.
+ * <br/>
+ * The adding thread only appends packed positions to a single-producer ring buffer,
+ * and a background thread drains the ring into a {@link BREADAccumulator}.
+ * If the background thread falls behind and the ring is full,
+ * events are spilled into a second accumulator on the adding thread, so nothing is lost.
+ * The background thread backs off while the ring stays empty, so an idle accumulator rarely wakes.
+ * <br/>
+ * Events must be added by one thread, which should also call {@link #finish()}.
+ */
+public final class BREADHandoffAccumulator {
+
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final long MIN_IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+    private static final long MAX_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(20); // Well below filling the ring
+
+    private final long[] ringKeys;
+    private final int[] ringWorlds;
+    private final int[] ringTicks;
+    private final int[] ringCounts;
+    private final int mask;
+    private final AtomicLong head; // Next slot to drain, written by the draining thread
+    private final AtomicLong tail; // Next slot to fill, written by the adding thread
+    private long cachedHead; // The adding thread's view of head
+
+    private volatile UUID[] worlds; // Indexed by the world numbers in the ring
+    private UUID lastWorld;
+    private int lastWorldNumber;
+    private int tick; // Owned by the adding thread
+
+    private final BREADAccumulator drained;
+    private final BREADAccumulator spilled;
+    private long spilledEvents;
+    private volatile boolean running;
+    private Thread drainer;
+    private CompletableFuture<Map<UUID, BREADPoints>> finished; // Completed by the background thread
+
+    /**
+     * Construct an accumulator with a ring of default capacity.
+     *
+     * @param storage Where to store counted events
+     */
+    public BREADHandoffAccumulator(BREADPointCounter.Storage storage) {
+        this(storage, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Construct an accumulator which doesn't record activity over time.
+     *
+     * @param storage  Where to store counted events
+     * @param capacity Capacity of the ring, must be a power of 2
+     */
+    public BREADHandoffAccumulator(BREADPointCounter.Storage storage, int capacity) {
+        this(storage, 0, 0, capacity);
+    }
+
+    /**
+     * Construct an accumulator with a ring of default capacity.
+     *
+     * @param storage          Where to store counted events
+     * @param bucketTicks      Length of an activity bucket, the unit is ticks, 0 means not recording activity
+     * @param collectionPeriod Collection period, the unit is ticks, ignored if not recording activity
+     */
+    public BREADHandoffAccumulator(BREADPointCounter.Storage storage, int bucketTicks, int collectionPeriod) {
+        this(storage, bucketTicks, collectionPeriod, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Construct an accumulator.
+     *
+     * @param storage          Where to store counted events
+     * @param bucketTicks      Length of an activity bucket, the unit is ticks, 0 means not recording activity
+     * @param collectionPeriod Collection period, the unit is ticks, ignored if not recording activity
+     * @param capacity         Capacity of the ring, must be a power of 2
+     */
+    public BREADHandoffAccumulator(BREADPointCounter.Storage storage, int bucketTicks, int collectionPeriod,
+                                   int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) throw new IllegalArgumentException();
+        this.ringKeys = new long[capacity];
+        this.ringWorlds = new int[capacity];
+        this.ringTicks = new int[capacity];
+        this.ringCounts = new int[capacity];
+        this.mask = capacity - 1;
+        this.head = new AtomicLong();
+        this.tail = new AtomicLong();
+        this.cachedHead = 0;
+        this.worlds = new UUID[0];
+        this.lastWorld = null;
+        this.lastWorldNumber = -1;
+        this.tick = 0;
+        this.drained = new BREADAccumulator(storage, bucketTicks, collectionPeriod);
+        this.spilled = new BREADAccumulator(storage, bucketTicks, collectionPeriod);
+        this.spilledEvents = 0;
+        this.running = false;
+        this.drainer = null;
+        this.finished = null;
+    }
+
+    /**
+     * Start the background thread.
+     */
+    public void start() {
+        if (this.running) return;
+        this.running = true;
+        this.drainer = new Thread(this::drainUntilFinished, "BREAD Handoff");
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+    }
+
+    /**
+     * Count one event at the specific block.
+     *
+     * @param world UID of the world
+     * @param x     X of the block
+     * @param y     Y of the block
+     * @param z     Z of the block
+     */
+    public void add(UUID world, int x, int y, int z) {
+        add(world, x, y, z, 1);
+    }
+
+    /**
+     * Count events at the specific block.
+     *
+     * @param world UID of the world
+     * @param x     X of the block
+     * @param y     Y of the block
+     * @param z     Z of the block
+     * @param count Event times, must be a positive integer
+     */
+    public void add(UUID world, int x, int y, int z, int count) {
+        if (world != this.lastWorld && !world.equals(this.lastWorld)) {
+            this.lastWorldNumber = getWorldNumber(world);
+            this.lastWorld = world;
+        }
+        long position = this.tail.get();
+        if (position - this.cachedHead > this.mask) {
+            this.cachedHead = this.head.get();
+            if (position - this.cachedHead > this.mask) {
+                this.spilled.add(world, BREADPointCounter.pack(x, y, z), count, this.tick);
+                ++this.spilledEvents;
+                return;
+            }
+        }
+        int slot = (int) position & this.mask;
+        this.ringKeys[slot] = BREADPointCounter.pack(x, y, z);
+        this.ringWorlds[slot] = this.lastWorldNumber;
+        this.ringTicks[slot] = this.tick;
+        this.ringCounts[slot] = count;
+        this.tail.lazySet(position + 1);
+    }
+
+    /**
+     * Advance the tick which new events are recorded at.
+     * <br/>
+     * It should be called by the adding thread once per server tick if activity is recorded.
+     */
+    public void tick() {
+        ++this.tick;
+    }
+
+    /**
+     * Stop the background thread, which drains the ring and takes a snapshot of all counted events.
+     * <br/>
+     * This doesn't wait for the background thread, so the adding thread isn't stalled by the last drain.
+     * Nothing should be added afterwards, and this accumulator shouldn't be cleared until the snapshot is taken.
+     *
+     * @return Future of the map of world UID and points of the world
+     */
+    public CompletableFuture<Map<UUID, BREADPoints>> finish() {
+        if (this.drainer == null) return CompletableFuture.completedFuture(collect());
+        CompletableFuture<Map<UUID, BREADPoints>> finished = new CompletableFuture<>();
+        this.finished = finished; // Published to the background thread by stopping it
+        this.running = false;
+        LockSupport.unpark(this.drainer);
+        this.drainer = null;
+        return finished;
+    }
+
+    /**
+     * Stop the background thread and remove all counted events.
+     */
+    public void clear() {
+        stopDrainer();
+        this.head.set(this.tail.get());
+        this.cachedHead = this.tail.get();
+        this.tick = 0;
+        this.drained.clear();
+        this.spilled.clear();
+        this.spilledEvents = 0;
+        this.finished = null;
+    }
+
+    /**
+     * Return the number of events handed off to the background thread.
+     *
+     * @return Number of events
+     */
+    public long getHandedOffEvents() {
+        return this.tail.get();
+    }
+
+    /**
+     * Return the number of events counted on the adding thread because the ring was full.
+     *
+     * @return Number of events
+     */
+    public long getSpilledEvents() {
+        return this.spilledEvents;
+    }
+
+    private int getWorldNumber(UUID world) {
+        UUID[] worlds = this.worlds;
+        for (int number = 0; number < worlds.length; ++number)
+            if (worlds[number].equals(world)) return number;
+        worlds = Arrays.copyOf(worlds, worlds.length + 1);
+        worlds[worlds.length - 1] = world;
+        this.worlds = worlds; // Published before any event of this world
+        return worlds.length - 1;
+    }
+
+    /**
+     * Stop the background thread and wait for it, which takes one pass over the ring at most.
+     */
+    private void stopDrainer() {
+        if (this.drainer == null) return;
+        this.running = false;
+        LockSupport.unpark(this.drainer);
+        boolean interrupted = false;
+        while (this.drainer.isAlive())
+            try {
+                this.drainer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        this.drainer = null;
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void drainUntilFinished() {
+        long idleParkNanos = MIN_IDLE_PARK_NANOS;
+        while (this.running)
+            if (drain() > 0) idleParkNanos = MIN_IDLE_PARK_NANOS;
+            else {
+                LockSupport.parkNanos(this, idleParkNanos);
+                idleParkNanos = Math.min(idleParkNanos * 2, MAX_IDLE_PARK_NANOS);
+            }
+        CompletableFuture<Map<UUID, BREADPoints>> finished = this.finished;
+        if (finished == null) return; // Stopped by clearing
+        try {
+            finished.complete(collect());
+        } catch (RuntimeException | Error e) {
+            finished.completeExceptionally(e);
+        }
+    }
+
+    private Map<UUID, BREADPoints> collect() {
+        drain();
+        this.drained.addAll(this.spilled.snapshot());
+        this.spilled.clear();
+        return this.drained.snapshot();
+    }
+
+    private int drain() {
+        long from = this.head.get();
+        long to = this.tail.get();
+        UUID[] worlds = this.worlds;
+        for (long position = from; position < to; ++position) {
+            int slot = (int) position & this.mask;
+            this.drained.add(worlds[this.ringWorlds[slot]], this.ringKeys[slot], this.ringCounts[slot],
+                    this.ringTicks[slot]);
+        }
+        this.head.lazySet(to);
+        return (int) (to - from);
+    }
+
+}
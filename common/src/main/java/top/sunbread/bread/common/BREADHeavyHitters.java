@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import top.sunbread.bread.common.BREADStatistics.HeavyHitter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+/**
+ * A streaming counter of the hottest blocks in a fixed memory budget.
+ * <br/>
+ * This is the Space-Saving algorithm: a fixed number of counters monitor blocks,
+ * and an event of an unmonitored block takes over the counter with the minimum count.
+ * The count of a monitored block overestimates its events by at most its error,
+ * which is never more than events / capacity, and an unmonitored block never has more events
+ * than the minimum count. Counters are kept in an indexed min-heap and found by an open-addressing table.
+ * <br/>
+ * It's not thread-safe, all events should be added by one thread.
+ */
+public final class BREADHeavyHitters {
+
+    public static final int DEFAULT_CAPACITY = 1 << 10;
+    private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+
+    private final long[] keys; // Per counter
+    private final int[] worldNumbers;
+    private final long[] counts;
+    private final long[] errors;
+    private final int[] heap; // Counters ordered by count, the minimum first
+    private final int[] heapPositions; // Per counter
+    private final int[] slots; // Counter + 1, 0 means empty slot
+    private final int shift;
+    private int size;
+    private boolean evicted; // True once a counter has been taken over
+    private long events;
+    private UUID[] worlds; // Indexed by world numbers
+    private UUID lastWorld;
+    private int lastWorldNumber;
+
+    public BREADHeavyHitters() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Construct an empty counter.
+     *
+     * @param capacity Number of counters, must be a positive integer
+     */
+    public BREADHeavyHitters(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException();
+        this.keys = new long[capacity];
+        this.worldNumbers = new int[capacity];
+        this.counts = new long[capacity];
+        this.errors = new long[capacity];
+        this.heap = new int[capacity];
+        this.heapPositions = new int[capacity];
+        int slotCapacity = Integer.highestOneBit(capacity) << 2; // Load factor is at most 0.5
+        this.slots = new int[slotCapacity];
+        this.shift = Long.numberOfLeadingZeros(slotCapacity - 1);
+        this.size = 0;
+        this.evicted = false;
+        this.events = 0;
+        this.worlds = new UUID[0];
+        this.lastWorld = null;
+        this.lastWorldNumber = -1;
+    }
+
+    /**
+     * Count one event at the specific block.
+     *
+     * @param world UID of the world
+     * @param x     X of the block
+     * @param y     Y of the block
+     * @param z     Z of the block
+     */
+    public void add(UUID world, int x, int y, int z) {
+        if (world != this.lastWorld && !world.equals(this.lastWorld)) {
+            this.lastWorldNumber = getWorldNumber(world);
+            this.lastWorld = world;
+        }
+        long key = BREADPointCounter.pack(x, y, z);
+        int worldNumber = this.lastWorldNumber;
+        ++this.events;
+        int mask = this.slots.length - 1;
+        for (int slot = slot(key, worldNumber); this.slots[slot] != 0; slot = (slot + 1) & mask) {
+            int counter = this.slots[slot] - 1;
+            if (this.keys[counter] == key && this.worldNumbers[counter] == worldNumber) {
+                ++this.counts[counter];
+                siftDown(this.heapPositions[counter]);
+                return;
+            }
+        }
+        int counter;
+        if (this.size < this.heap.length) {
+            counter = this.size++;
+            this.counts[counter] = 1;
+            this.errors[counter] = 0;
+            this.heap[counter] = counter;
+            this.heapPositions[counter] = counter;
+        } else {
+            counter = this.heap[0];
+            this.evicted = true;
+            removeSlot(counter);
+            this.errors[counter] = this.counts[counter];
+            ++this.counts[counter];
+        }
+        this.keys[counter] = key;
+        this.worldNumbers[counter] = worldNumber;
+        insertSlot(counter);
+        if (this.heapPositions[counter] == 0) siftDown(0);
+        else siftUp(this.heapPositions[counter]);
+    }
+
+    /**
+     * Return the hottest blocks.
+     *
+     * @param k Max number of blocks to return
+     * @return Hottest blocks, ordered by count from high to low
+     */
+    public List<HeavyHitter> top(int k) {
+        int[] order = IntStream.range(0, this.size).boxed().
+                sorted(Comparator.comparingLong((Integer counter) -> this.counts[counter]).reversed()).
+                mapToInt(Integer::intValue).limit(k).toArray();
+        List<HeavyHitter> top = new ArrayList<>(order.length);
+        for (int counter : order)
+            top.add(new HeavyHitter(this.worlds[this.worldNumbers[counter]],
+                    BREADPointCounter.unpackX(this.keys[counter]),
+                    BREADPointCounter.unpackY(this.keys[counter]),
+                    BREADPointCounter.unpackZ(this.keys[counter]),
+                    this.counts[counter], this.errors[counter]));
+        return top;
+    }
+
+    /**
+     * Return the number of counted events.
+     *
+     * @return Number of events
+     */
+    public long getEvents() {
+        return this.events;
+    }
+
+    /**
+     * Return the max events of a block which isn't monitored, it's also the max error of any count.
+     *
+     * @return Max events, 0 if every block is monitored
+     */
+    public long getMaxError() {
+        return this.evicted ? this.counts[this.heap[0]] : 0;
+    }
+
+    /**
+     * Remove all counted events.
+     */
+    public void clear() {
+        Arrays.fill(this.slots, 0);
+        this.size = 0;
+        this.evicted = false;
+        this.events = 0;
+        this.worlds = new UUID[0];
+        this.lastWorld = null;
+        this.lastWorldNumber = -1;
+    }
+
+    private int getWorldNumber(UUID world) {
+        for (int number = 0; number < this.worlds.length; ++number)
+            if (this.worlds[number].equals(world)) return number;
+        this.worlds = Arrays.copyOf(this.worlds, this.worlds.length + 1);
+        this.worlds[this.worlds.length - 1] = world;
+        return this.worlds.length - 1;
+    }
+
+    private int slot(long key, int worldNumber) {
+        return (int) (((key + worldNumber) * GOLDEN_RATIO) >>> this.shift);
+    }
+
+    private void insertSlot(int counter) {
+        int mask = this.slots.length - 1;
+        int slot = slot(this.keys[counter], this.worldNumbers[counter]);
+        while (this.slots[slot] != 0) slot = (slot + 1) & mask;
+        this.slots[slot] = counter + 1;
+    }
+
+    private void removeSlot(int counter) {
+        int mask = this.slots.length - 1;
+        int hole = slot(this.keys[counter], this.worldNumbers[counter]);
+        while (this.slots[hole] != counter + 1) hole = (hole + 1) & mask;
+        // Shift back the following entries of the probe sequence, so no lookup stops at the hole
+        for (int slot = (hole + 1) & mask; this.slots[slot] != 0; slot = (slot + 1) & mask) {
+            int other = this.slots[slot] - 1;
+            int home = slot(this.keys[other], this.worldNumbers[other]);
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                this.slots[hole] = this.slots[slot];
+                hole = slot;
+            }
+        }
+        this.slots[hole] = 0;
+    }
+
+    private void siftUp(int position) {
+        int counter = this.heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (this.counts[this.heap[parent]] <= this.counts[counter]) break;
+            moveInHeap(this.heap[parent], position);
+            position = parent;
+        }
+        moveInHeap(counter, position);
+    }
+
+    private void siftDown(int position) {
+        int counter = this.heap[position];
+        while (true) {
+            int child = (position << 1) + 1;
+            if (child >= this.size) break;
+            if (child + 1 < this.size && this.counts[this.heap[child + 1]] < this.counts[this.heap[child]]) ++child;
+            if (this.counts[this.heap[child]] >= this.counts[counter]) break;
+            moveInHeap(this.heap[child], position);
+            position = child;
+        }
+        moveInHeap(counter, position);
+    }
+
+    private void moveInHeap(int counter, int position) {
+        this.heap[position] = counter;
+        this.heapPositions[counter] = position;
+    }
+
+}
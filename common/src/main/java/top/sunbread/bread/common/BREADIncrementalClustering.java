@@ -0,0 +1,743 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import top.sunbread.bread.common.BREADStatistics.Point;
+
+import java.util.*;
+
+/**
+ * A DBSCAN state of a changing set of points, using Manhattan distance.
+ * <br/>
+ * Points can be added, removed and reweighted, and only clusters near changes are updated.
+ * Points are kept in cells as {@link BREADCellClustering} does, so all points of a cell heavier than the core threshold
+ * are core, and clusters are made of cells.
+ * After changes, only points in light cells within ε of changes are queried for being core,
+ * a cluster which loses a core point is dissolved and flooded again from its remaining cells,
+ * and a cell which gains core points is flooded or merged with clusters it reaches.
+ * A non-core point refers to its nearest core point, so it's only reassigned if a core point near it changes.
+ * Changing most points at once rebuilds everything.
+ * <br/>
+ * Clusters are the same as {@link BREADAnalysis#clusterAnalysis(Set, int)} gives for the current points.
+ * It's not thread-safe.
+ */
+public final class BREADIncrementalClustering {
+
+    private static final int UNASSIGNED = -1;
+    private static final int INITIAL_CAPACITY = 1 << 10;
+    private static final int REBUILDING_CHANGE_RATIO = 4; // Rebuild if more than 1/4 of points are changed
+    private static final int DEADLINE_CHECK_MASK = (1 << 10) - 1; // Check the deadline every 1024 points
+
+    private final int epsilon;
+    private final int cellSize;
+    private final int[][] neighborOffsets;
+    private long minWeightSum;
+
+    // Points, indexed by slots which are reused after removal
+    private int[] xs, ys, zs, ws;
+    private boolean[] alive, core, marked;
+    private Cell[] pointCells;
+    private int[] cellPositions; // Positions in cells
+    private int[] nearestCores; // Nearest core point of a non-core point, or UNASSIGNED for noise
+    private int[] stamps; // Last update which has the point
+    private int slots;
+    private final BREADIntList freeSlots;
+    private final BREADKeyTable slotsByKey;
+
+    // Cells, indexed by ids which are reused after removal
+    private Cell[] cells;
+    private int cellIds;
+    private final BREADIntList freeCellIds;
+    private final BREADKeyTable cellIdsByKey;
+
+    private final List<List<Cell>> members; // Cells of every cluster by its ID, null if the ID is free
+    private final BREADIntList freeClusters;
+    private int[] clusterMarks; // Last mark of every cluster ID, a cluster is marked if it has the current mark
+    private int clusterMark;
+    private int stamp;
+
+    // Changes since the last refresh
+    private final BREADIntList changedPoints; // Points whose weights changed, including removed ones
+    private final BREADIntList removedPoints;
+    private boolean rebuilding;
+    private int refreshes;
+    private int loads;
+
+    /**
+     * Construct an empty state with the neighbor range of cluster analysis.
+     */
+    public BREADIncrementalClustering() {
+        this(BREADAnalysis.EPSILON);
+    }
+
+    /**
+     * Construct an empty state.
+     *
+     * @param epsilon Range of neighbors (inclusive), must be a positive integer
+     */
+    BREADIncrementalClustering(int epsilon) {
+        if (epsilon <= 0) throw new IllegalArgumentException();
+        this.epsilon = epsilon;
+        this.cellSize = epsilon / 3 + 1; // 3 * (cellSize - 1) <= epsilon
+        this.neighborOffsets = BREADCellClustering.neighborOffsets(this.cellSize, epsilon);
+        this.minWeightSum = 0;
+        allocate(INITIAL_CAPACITY);
+        this.slots = 0;
+        this.freeSlots = new BREADIntList();
+        this.slotsByKey = new BREADKeyTable(INITIAL_CAPACITY);
+        this.cells = new Cell[INITIAL_CAPACITY];
+        this.cellIds = 0;
+        this.freeCellIds = new BREADIntList();
+        this.cellIdsByKey = new BREADKeyTable(INITIAL_CAPACITY);
+        this.members = new ArrayList<>();
+        this.freeClusters = new BREADIntList();
+        this.clusterMarks = new int[INITIAL_CAPACITY];
+        this.clusterMark = 0;
+        this.stamp = 0;
+        this.changedPoints = new BREADIntList();
+        this.removedPoints = new BREADIntList();
+        this.rebuilding = false;
+        this.refreshes = 0;
+        this.loads = 0;
+    }
+
+    /**
+     * Add, remove or reweight a point.
+     *
+     * @param x      X of the point
+     * @param y      Y of the point
+     * @param z      Z of the point
+     * @param weight New weight of the point, 0 removes it, must not be negative
+     */
+    public void set(int x, int y, int z, int weight) {
+        if (weight < 0) throw new IllegalArgumentException();
+        long key = BREADPointCounter.pack(x, y, z);
+        int point = this.slotsByKey.get(key);
+        if (point < 0) {
+            if (weight == 0) return;
+            point = addPoint(key, x, y, z);
+        }
+        this.stamps[point] = this.stamp;
+        if (weight == this.ws[point]) return;
+        this.pointCells[point].weight += weight - this.ws[point];
+        this.ws[point] = weight;
+        if (!this.marked[point]) {
+            this.marked[point] = true;
+            this.changedPoints.add(point);
+        }
+        if (weight == 0) removePoint(key, point);
+    }
+
+    /**
+     * Return the number of points.
+     *
+     * @return Number of points
+     */
+    public int size() {
+        return this.slotsByKey.size();
+    }
+
+    /**
+     * Replace all points with the given ones.
+     * Points which are not given are removed, others are added or reweighted.
+     *
+     * @param points       New points
+     * @param minWeightSum A point is core if the weight sum of its neighbors is greater than this
+     * @param deadline     Deadline of updating, this state is inconsistent if it expires
+     * @throws BREADDeadline.Expired if the deadline expires
+     */
+    void update(BREADPoints points, long minWeightSum, BREADDeadline deadline) {
+        setMinWeightSum(minWeightSum);
+        ++this.stamp;
+        for (int index = 0; index < points.size(); ++index) {
+            if ((index & DEADLINE_CHECK_MASK) == 0) deadline.check();
+            set(points.x(index), points.y(index), points.z(index), points.weight(index));
+        }
+        deadline.check();
+        for (int point = 0; point < this.slots; ++point)
+            if (this.alive[point] && this.stamps[point] != this.stamp)
+                set(this.xs[point], this.ys[point], this.zs[point], 0);
+    }
+
+    /**
+     * Change the core threshold.
+     *
+     * @param minWeightSum A point is core if the weight sum of its neighbors is greater than this
+     */
+    void setMinWeightSum(long minWeightSum) {
+        if (minWeightSum == this.minWeightSum) return;
+        this.minWeightSum = minWeightSum;
+        this.rebuilding = true;
+    }
+
+    /**
+     * Divide current points to clusters and noise.
+     *
+     * @return A list of clusters and noise, the last element of the list is noise (guarantee existence)
+     */
+    List<Set<Point>> getClusters() {
+        refresh(new BREADDeadline());
+        Map<Integer, Set<Point>> clusterSets = new HashMap<>();
+        Set<Point> noise = new HashSet<>();
+        for (int point = 0; point < this.slots; ++point) {
+            if (!this.alive[point]) continue;
+            Point p = new Point(this.xs[point], this.ys[point], this.zs[point], this.ws[point]);
+            int nearestCore = this.core[point] ? point : this.nearestCores[point];
+            if (nearestCore == UNASSIGNED) noise.add(p);
+            else clusterSets.computeIfAbsent(this.pointCells[nearestCore].cluster,
+                    cluster -> new HashSet<>()).add(p);
+        }
+        List<Set<Point>> result = new ArrayList<>(clusterSets.values());
+        result.add(noise);
+        return result;
+    }
+
+    /**
+     * Label columns of current points by clusters, giving up once the deadline expires.
+     *
+     * @param points   Points to label, must be the same as current points
+     * @param deadline Deadline of refreshing clusters, this state is inconsistent if it expires
+     * @return Labels of points in the order of the columns, 0 means noise, clusters are numbered from 1
+     * @throws BREADDeadline.Expired if the deadline expires
+     */
+    int[] label(BREADPoints points, BREADDeadline deadline) {
+        refresh(deadline);
+        int[] clusterLabels = new int[this.members.size()]; // 0 if not numbered yet
+        int nextLabel = 1;
+        int[] labels = new int[points.size()];
+        for (int index = 0; index < labels.length; ++index) {
+            int point = this.slotsByKey.get(points.key(index));
+            int nearestCore = this.core[point] ? point : this.nearestCores[point];
+            if (nearestCore == UNASSIGNED) {
+                labels[index] = BREADAnalysis.NOISE;
+                continue;
+            }
+            int cluster = this.pointCells[nearestCore].cluster;
+            if (clusterLabels[cluster] == 0) clusterLabels[cluster] = nextLabel++;
+            labels[index] = clusterLabels[cluster];
+        }
+        return labels;
+    }
+
+    /**
+     * Return true if the next refresh rebuilds everything,
+     * which is when the core threshold changed or most points changed, e.g. all points of an empty state.
+     *
+     * @return true if rebuilding
+     */
+    boolean isRebuilding() {
+        return this.rebuilding || (long) this.changedPoints.size() * REBUILDING_CHANGE_RATIO > this.slotsByKey.size();
+    }
+
+    /**
+     * Replace clusters with the ones another engine divided current points into, instead of refreshing them.
+     * <br/>
+     * Core points are taken as given, and all core points in a cell are neighbors,
+     * so a cell joins the cluster of its core points, and only non-core points look for their nearest core points.
+     *
+     * @param points   Points which were divided, must be the same as current points
+     * @param core     Whether points are core, in the order of the columns
+     * @param labels   Cluster labels of points in the order of the columns, {@link BREADAnalysis#NOISE} for noise
+     * @param deadline Deadline of loading, this state is inconsistent if it expires
+     * @throws BREADDeadline.Expired if the deadline expires
+     */
+    void load(BREADPoints points, boolean[] core, int[] labels, BREADDeadline deadline) {
+        this.members.clear();
+        this.freeClusters.clear();
+        for (int id = 0; id < this.cellIds; ++id) {
+            Cell cell = this.cells[id];
+            if (cell == null) continue;
+            cell.corePoints = 0;
+            cell.cluster = UNASSIGNED;
+        }
+
+        // Loading core points, and the clusters of their cells
+        int[] clustersByLabel = new int[labels.length + 1];
+        Arrays.fill(clustersByLabel, UNASSIGNED);
+        for (int index = 0; index < labels.length; ++index) {
+            if ((index & DEADLINE_CHECK_MASK) == 0) deadline.check();
+            int point = this.slotsByKey.get(points.key(index));
+            this.core[point] = core[index];
+            if (!core[index]) continue;
+            Cell cell = this.pointCells[point];
+            ++cell.corePoints;
+            if (cell.cluster != UNASSIGNED) continue;
+            if (clustersByLabel[labels[index]] == UNASSIGNED) clustersByLabel[labels[index]] = addCluster();
+            cell.cluster = clustersByLabel[labels[index]];
+            this.members.get(cell.cluster).add(cell);
+        }
+
+        // Assigning non-core points
+        for (int point = 0; point < this.slots; ++point) {
+            if ((point & DEADLINE_CHECK_MASK) == 0) deadline.check();
+            if (this.alive[point] && !this.core[point]) this.nearestCores[point] = findNearestCore(point);
+        }
+        releaseChanges();
+        ++this.loads;
+    }
+
+    /**
+     * Return the number of times clusters were refreshed from changes.
+     *
+     * @return Number of refreshes
+     */
+    int getRefreshes() {
+        return this.refreshes;
+    }
+
+    /**
+     * Return the number of times clusters were loaded from another engine.
+     *
+     * @return Number of loads
+     */
+    int getLoads() {
+        return this.loads;
+    }
+
+    /**
+     * Apply changes since the last refresh to clusters.
+     *
+     * @param deadline Deadline of refreshing, checked between phases and per affected cell
+     */
+    private void refresh(BREADDeadline deadline) {
+        boolean rebuilding = isRebuilding();
+
+        // Finding cells within epsilon of changes
+        List<Cell> affectedCells = new ArrayList<>();
+        if (rebuilding) {
+            for (int id = 0; id < this.cellIds; ++id)
+                if (this.cells[id] != null) affectedCells.add(this.cells[id]);
+        } else {
+            for (int index = 0; index < this.changedPoints.size(); ++index) {
+                int point = this.changedPoints.get(index);
+                forEachNeighborCell(this.xs[point], this.ys[point], this.zs[point], cell -> {
+                    if (cell.marked) return;
+                    cell.marked = true;
+                    affectedCells.add(cell);
+                });
+            }
+        }
+
+        // Updating core points, and collecting cells which gained core points
+        // Points which became or stopped being core, and removed core points
+        BREADIntList changedCores = new BREADIntList();
+        BREADIntList dirtyClusters = new BREADIntList(); // Clusters which lost core points
+        int dirtyMark = nextClusterMark();
+        List<Cell> gainedCells = new ArrayList<>();
+        for (int index = 0; index < this.removedPoints.size(); ++index) {
+            int point = this.removedPoints.get(index);
+            if (!this.core[point]) continue;
+            this.core[point] = false;
+            changedCores.add(point); // Coordinates are kept until the slot is released
+            Cell cell = this.pointCells[point];
+            --cell.corePoints;
+            markCluster(cell.cluster, dirtyMark, dirtyClusters);
+        }
+        for (Cell cell : affectedCells) {
+            deadline.check();
+            cell.marked = false;
+            boolean gained = false;
+            for (int position = 0; position < cell.points.size(); ++position) {
+                int point = cell.points.get(position);
+                boolean core = cell.weight > this.minWeightSum || isCore(point);
+                if (core == this.core[point]) continue;
+                this.core[point] = core;
+                changedCores.add(point);
+                if (core) {
+                    ++cell.corePoints;
+                    gained = true;
+                } else {
+                    --cell.corePoints;
+                    markCluster(cell.cluster, dirtyMark, dirtyClusters);
+                }
+            }
+            if (gained) gainedCells.add(cell);
+        }
+
+        // Dissolving clusters which lost core points
+        List<Cell> seeds = new ArrayList<>();
+        if (rebuilding) {
+            for (List<Cell> clusterCells : this.members)
+                if (clusterCells != null)
+                    for (Cell cell : clusterCells) cell.cluster = UNASSIGNED;
+            this.members.clear();
+            this.freeClusters.clear();
+            seeds.addAll(affectedCells);
+        } else {
+            for (int index = 0; index < dirtyClusters.size(); ++index)
+                for (Cell cell : removeCluster(dirtyClusters.get(index))) {
+                    cell.cluster = UNASSIGNED;
+                    seeds.add(cell);
+                }
+            seeds.addAll(gainedCells);
+        }
+
+        // Flooding from core cells without clusters, and merging clusters they reach
+        deadline.check();
+        for (Cell seed : seeds)
+            if (seed.corePoints > 0 && seed.cluster == UNASSIGNED) flood(seed);
+        for (Cell cell : gainedCells) // New core points in clusters may reach other clusters
+            forEachNeighborCell(cell, neighborCell -> {
+                if (neighborCell.cluster != UNASSIGNED && neighborCell.cluster != cell.cluster &&
+                        hasCoreNeighbors(cell, neighborCell))
+                    merge(cell.cluster, neighborCell.cluster);
+            });
+
+        // Assigning non-core points near changed core points, and changed non-core points
+        deadline.check();
+        if (rebuilding) {
+            for (int point = 0; point < this.slots; ++point)
+                if (this.alive[point] && !this.core[point]) this.nearestCores[point] = findNearestCore(point);
+        } else {
+            for (int index = 0; index < changedCores.size(); ++index) {
+                int changedCore = changedCores.get(index);
+                forEachNeighborCell(this.xs[changedCore], this.ys[changedCore], this.zs[changedCore], cell -> {
+                    if (cell.corePoints == cell.points.size()) return;
+                    for (int position = 0; position < cell.points.size(); ++position) {
+                        int point = cell.points.get(position);
+                        if (!this.core[point] && distance(point, changedCore) <= this.epsilon)
+                            this.nearestCores[point] = findNearestCore(point);
+                    }
+                });
+            }
+            for (int index = 0; index < this.changedPoints.size(); ++index) {
+                int point = this.changedPoints.get(index);
+                if (this.alive[point] && !this.core[point]) this.nearestCores[point] = findNearestCore(point);
+            }
+        }
+
+        releaseChanges();
+        ++this.refreshes;
+    }
+
+    /**
+     * Forget changes since the last refresh, and release slots of removed points.
+     */
+    private void releaseChanges() {
+        for (int index = 0; index < this.changedPoints.size(); ++index)
+            this.marked[this.changedPoints.get(index)] = false;
+        for (int index = 0; index < this.removedPoints.size(); ++index) {
+            this.pointCells[this.removedPoints.get(index)] = null;
+            this.freeSlots.add(this.removedPoints.get(index));
+        }
+        this.changedPoints.clear();
+        this.removedPoints.clear();
+        this.rebuilding = false;
+    }
+
+    private void flood(Cell seed) {
+        int cluster = addCluster();
+        List<Cell> clusterCells = this.members.get(cluster);
+        BREADIntList reachedClusters = new BREADIntList();
+        int reachedMark = nextClusterMark();
+        seed.cluster = cluster;
+        clusterCells.add(seed);
+        for (int index = 0; index < clusterCells.size(); ++index) {
+            Cell cell = clusterCells.get(index);
+            forEachNeighborCell(cell, neighborCell -> {
+                if (neighborCell.corePoints == 0 || neighborCell.cluster == cluster ||
+                        (neighborCell.cluster != UNASSIGNED &&
+                                this.clusterMarks[neighborCell.cluster] == reachedMark) ||
+                        !hasCoreNeighbors(cell, neighborCell))
+                    return;
+                if (neighborCell.cluster != UNASSIGNED) {
+                    markCluster(neighborCell.cluster, reachedMark, reachedClusters);
+                    return;
+                }
+                neighborCell.cluster = cluster;
+                clusterCells.add(neighborCell);
+            });
+        }
+        int merged = cluster;
+        for (int index = 0; index < reachedClusters.size(); ++index)
+            merged = merge(merged, reachedClusters.get(index));
+    }
+
+    /**
+     * Merge two clusters by moving cells of the smaller one.
+     *
+     * @return The remaining cluster
+     */
+    private int merge(int cluster1, int cluster2) {
+        List<Cell> cells1 = this.members.get(cluster1), cells2 = this.members.get(cluster2);
+        if (cells1.size() < cells2.size()) return merge(cluster2, cluster1);
+        removeCluster(cluster2);
+        for (Cell cell : cells2) cell.cluster = cluster1;
+        cells1.addAll(cells2);
+        return cluster1;
+    }
+
+    private boolean isCore(int point) {
+        Cell cell = this.pointCells[point];
+        long weightSum = cell.weight;
+        for (int[] offset : this.neighborOffsets) {
+            if (weightSum > this.minWeightSum) return true;
+            Cell neighborCell = getCell(
+                    BREADPointCounter.pack(cell.x + offset[0], cell.y + offset[1], cell.z + offset[2]));
+            if (neighborCell == null) continue;
+            if (maxDistance(point, neighborCell) <= this.epsilon) {
+                weightSum += neighborCell.weight;
+                continue;
+            }
+            if (minDistance(this.xs[point], this.ys[point], this.zs[point], neighborCell) > this.epsilon) continue;
+            for (int position = 0; position < neighborCell.points.size(); ++position) {
+                int neighbor = neighborCell.points.get(position);
+                if (distance(point, neighbor) <= this.epsilon) weightSum += this.ws[neighbor];
+            }
+        }
+        return weightSum > this.minWeightSum;
+    }
+
+    private boolean hasCoreNeighbors(Cell cell1, Cell cell2) {
+        for (int position1 = 0; position1 < cell1.points.size(); ++position1) {
+            int point1 = cell1.points.get(position1);
+            if (!this.core[point1] ||
+                    minDistance(this.xs[point1], this.ys[point1], this.zs[point1], cell2) > this.epsilon)
+                continue;
+            for (int position2 = 0; position2 < cell2.points.size(); ++position2) {
+                int point2 = cell2.points.get(position2);
+                if (this.core[point2] && distance(point1, point2) <= this.epsilon) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the nearest core neighbor of a point.
+     * Ties are broken by positions, as {@link BREADAnalysis#isNearer(int[], int[], int[], int, int, int)} does.
+     */
+    private int findNearestCore(int point) {
+        int[] nearestCore = {UNASSIGNED};
+        forEachNeighborCell(this.xs[point], this.ys[point], this.zs[point], cell -> {
+            if (cell.corePoints == 0) return;
+            for (int position = 0; position < cell.points.size(); ++position) {
+                int neighbor = cell.points.get(position);
+                if (this.core[neighbor] && distance(point, neighbor) <= this.epsilon &&
+                        (nearestCore[0] == UNASSIGNED ||
+                                BREADAnalysis.isNearer(this.xs, this.ys, this.zs, point, neighbor, nearestCore[0])))
+                    nearestCore[0] = neighbor;
+            }
+        });
+        return nearestCore[0];
+    }
+
+    /**
+     * Visit the cell of a position and other cells which may have its neighbors.
+     */
+    private void forEachNeighborCell(int x, int y, int z, CellConsumer action) {
+        int cellX = cell(x), cellY = cell(y), cellZ = cell(z);
+        Cell cell = getCell(BREADPointCounter.pack(cellX, cellY, cellZ));
+        if (cell != null) action.accept(cell);
+        for (int[] offset : this.neighborOffsets) {
+            Cell neighborCell = getCell(
+                    BREADPointCounter.pack(cellX + offset[0], cellY + offset[1], cellZ + offset[2]));
+            if (neighborCell != null && minDistance(x, y, z, neighborCell) <= this.epsilon)
+                action.accept(neighborCell);
+        }
+    }
+
+    /**
+     * Visit other cells which may have neighbors of points in a cell.
+     */
+    private void forEachNeighborCell(Cell cell, CellConsumer action) {
+        for (int[] offset : this.neighborOffsets) {
+            Cell neighborCell = getCell(
+                    BREADPointCounter.pack(cell.x + offset[0], cell.y + offset[1], cell.z + offset[2]));
+            if (neighborCell != null) action.accept(neighborCell);
+        }
+    }
+
+    private int distance(int point1, int point2) {
+        return Math.abs(this.xs[point1] - this.xs[point2]) + Math.abs(this.ys[point1] - this.ys[point2]) +
+                Math.abs(this.zs[point1] - this.zs[point2]);
+    }
+
+    private int minDistance(int x, int y, int z, Cell cell) {
+        return axisMinDistance(x, cell.x) + axisMinDistance(y, cell.y) + axisMinDistance(z, cell.z);
+    }
+
+    private int maxDistance(int point, Cell cell) {
+        return axisMaxDistance(this.xs[point], cell.x) + axisMaxDistance(this.ys[point], cell.y) +
+                axisMaxDistance(this.zs[point], cell.z);
+    }
+
+    private int axisMinDistance(int component, int cell) {
+        int lower = cell * this.cellSize, upper = lower + this.cellSize - 1;
+        return Math.max(0, Math.max(lower - component, component - upper));
+    }
+
+    private int axisMaxDistance(int component, int cell) {
+        int lower = cell * this.cellSize, upper = lower + this.cellSize - 1;
+        return Math.max(component - lower, upper - component);
+    }
+
+    private int cell(int component) {
+        return Math.floorDiv(component, this.cellSize);
+    }
+
+    private int addPoint(long key, int x, int y, int z) {
+        int point;
+        if (this.freeSlots.size() > 0) {
+            point = this.freeSlots.removeLast();
+        } else {
+            if (this.slots == this.xs.length) allocate(this.slots << 1);
+            point = this.slots++;
+        }
+        this.xs[point] = x;
+        this.ys[point] = y;
+        this.zs[point] = z;
+        this.ws[point] = 0;
+        this.alive[point] = true;
+        this.core[point] = false;
+        this.nearestCores[point] = UNASSIGNED;
+        this.slotsByKey.put(key, point);
+        long cellKey = BREADPointCounter.pack(cell(x), cell(y), cell(z));
+        Cell cell = getCell(cellKey);
+        if (cell == null) cell = addCell(cellKey, cell(x), cell(y), cell(z));
+        this.pointCells[point] = cell;
+        this.cellPositions[point] = cell.points.size();
+        cell.points.add(point);
+        return point;
+    }
+
+    private void removePoint(long key, int point) {
+        this.slotsByKey.remove(key);
+        Cell cell = this.pointCells[point];
+        int moved = cell.points.removeAt(this.cellPositions[point]);
+        if (moved >= 0) this.cellPositions[moved] = this.cellPositions[point];
+        if (cell.points.size() == 0) removeCell(BREADPointCounter.pack(cell.x, cell.y, cell.z));
+        this.alive[point] = false;
+        this.nearestCores[point] = UNASSIGNED;
+        this.removedPoints.add(point);
+    }
+
+    private Cell getCell(long key) {
+        int id = this.cellIdsByKey.get(key);
+        return id < 0 ? null : this.cells[id];
+    }
+
+    private Cell addCell(long key, int x, int y, int z) {
+        int id;
+        if (this.freeCellIds.size() > 0) {
+            id = this.freeCellIds.removeLast();
+        } else {
+            if (this.cellIds == this.cells.length) this.cells = Arrays.copyOf(this.cells, this.cellIds << 1);
+            id = this.cellIds++;
+        }
+        Cell cell = new Cell(x, y, z);
+        this.cells[id] = cell;
+        this.cellIdsByKey.put(key, id);
+        return cell;
+    }
+
+    private void removeCell(long key) {
+        int id = this.cellIdsByKey.remove(key);
+        this.cells[id] = null;
+        this.freeCellIds.add(id);
+    }
+
+    private int addCluster() {
+        if (this.freeClusters.size() > 0) {
+            int cluster = this.freeClusters.removeLast();
+            this.members.set(cluster, new ArrayList<>());
+            return cluster;
+        }
+        this.members.add(new ArrayList<>());
+        if (this.members.size() > this.clusterMarks.length)
+            this.clusterMarks = Arrays.copyOf(this.clusterMarks, this.clusterMarks.length << 1);
+        return this.members.size() - 1;
+    }
+
+    /**
+     * Start a new mark of clusters, so that no cluster is marked.
+     *
+     * @return The new mark
+     */
+    private int nextClusterMark() {
+        if (++this.clusterMark == Integer.MAX_VALUE) {
+            Arrays.fill(this.clusterMarks, 0);
+            this.clusterMark = 1;
+        }
+        return this.clusterMark;
+    }
+
+    /**
+     * Mark a cluster and add it to a list unless it's already marked.
+     *
+     * @param cluster  Cluster ID, or UNASSIGNED which is ignored
+     * @param mark     Current mark
+     * @param clusters List of marked clusters
+     */
+    private void markCluster(int cluster, int mark, BREADIntList clusters) {
+        if (cluster == UNASSIGNED || this.clusterMarks[cluster] == mark) return;
+        this.clusterMarks[cluster] = mark;
+        clusters.add(cluster);
+    }
+
+    private List<Cell> removeCluster(int cluster) {
+        this.freeClusters.add(cluster);
+        return this.members.set(cluster, null);
+    }
+
+    private void allocate(int capacity) {
+        this.xs = this.xs == null ? new int[capacity] : Arrays.copyOf(this.xs, capacity);
+        this.ys = this.ys == null ? new int[capacity] : Arrays.copyOf(this.ys, capacity);
+        this.zs = this.zs == null ? new int[capacity] : Arrays.copyOf(this.zs, capacity);
+        this.ws = this.ws == null ? new int[capacity] : Arrays.copyOf(this.ws, capacity);
+        this.alive = this.alive == null ? new boolean[capacity] : Arrays.copyOf(this.alive, capacity);
+        this.core = this.core == null ? new boolean[capacity] : Arrays.copyOf(this.core, capacity);
+        this.marked = this.marked == null ? new boolean[capacity] : Arrays.copyOf(this.marked, capacity);
+        this.pointCells = this.pointCells == null ? new Cell[capacity] : Arrays.copyOf(this.pointCells, capacity);
+        this.cellPositions = this.cellPositions == null ? new int[capacity] :
+                Arrays.copyOf(this.cellPositions, capacity);
+        this.nearestCores = this.nearestCores == null ? new int[capacity] : Arrays.copyOf(this.nearestCores, capacity);
+        this.stamps = this.stamps == null ? new int[capacity] : Arrays.copyOf(this.stamps, capacity);
+    }
+
+    private interface CellConsumer {
+
+        void accept(Cell cell);
+
+    }
+
+    /**
+     * A cubic cell, any two points in it are neighbors.
+     */
+    private static final class Cell {
+
+        private final int x, y, z;
+        private final BREADIntList points;
+        private long weight;
+        private int corePoints;
+        private int cluster; // UNASSIGNED if it has no core points
+        private boolean marked;
+
+        Cell(int x, int y, int z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.points = new BREADIntList(4);
+            this.weight = 0;
+            this.corePoints = 0;
+            this.cluster = UNASSIGNED;
+            this.marked = false;
+        }
+
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A growable list of primitive integers, e.g. indices of points.
+ */
+final class BREADIntList implements IntConsumer {
+
+    private int[] elements;
+    private int size;
+
+    /**
+     * Construct an empty list.
+     */
+    BREADIntList() {
+        this(16);
+    }
+
+    /**
+     * Construct an empty list.
+     *
+     * @param capacity Initial capacity, must be a positive integer
+     */
+    BREADIntList(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException();
+        this.elements = new int[capacity];
+        this.size = 0;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    int get(int index) {
+        return this.elements[index];
+    }
+
+    void add(int element) {
+        if (this.size == this.elements.length) this.elements = Arrays.copyOf(this.elements, this.size << 1);
+        this.elements[this.size++] = element;
+    }
+
+    @Override
+    public void accept(int element) {
+        add(element);
+    }
+
+    /**
+     * Remove an element by moving the last one to its position.
+     *
+     * @param index Position of the removed element
+     * @return The moved element, or -1 if the removed one was the last one
+     */
+    int removeAt(int index) {
+        int last = this.elements[--this.size];
+        this.elements[index] = last;
+        return index == this.size ? -1 : last;
+    }
+
+    int removeLast() {
+        return this.elements[--this.size];
+    }
+
+    void clear() {
+        this.size = 0;
+    }
+
+    int[] toArray() {
+        return Arrays.copyOf(this.elements, this.size);
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+/**
+ * An open-addressing hash table from packed positions to non-negative integers on the heap.
+ * <br/>
+ * Keys are probed linearly from their golden-ratio hash, and the table doubles when it's half full.
+ * Removing an entry moves back the following ones which probed past it, so no slot is left as a tombstone.
+ */
+final class BREADKeyTable {
+
+    private long[] keys;
+    private int[] values; // Value + 1, 0 means empty slot
+    private int shift;
+    private int size;
+
+    /**
+     * Construct an empty table.
+     *
+     * @param capacity Initial number of slots, must be a power of 2
+     */
+    BREADKeyTable(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) throw new IllegalArgumentException();
+        allocate(capacity);
+        this.size = 0;
+    }
+
+    /**
+     * Return the number of entries.
+     *
+     * @return Number of entries
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Get the value of a key.
+     *
+     * @param key Packed position
+     * @return The value, or -1 if absent
+     */
+    int get(long key) {
+        int mask = this.keys.length - 1;
+        for (int slot = BREADPointCounter.slot(key, this.shift); this.values[slot] != 0; slot = (slot + 1) & mask)
+            if (this.keys[slot] == key) return this.values[slot] - 1;
+        return -1;
+    }
+
+    /**
+     * Put a value for a key unless it already has one, in one probe sequence.
+     *
+     * @param key   Packed position
+     * @param value Non-negative value
+     * @return The value already there, or -1 if the given value is put
+     */
+    int putIfAbsent(long key, int value) {
+        int mask = this.keys.length - 1;
+        int slot = BREADPointCounter.slot(key, this.shift);
+        while (this.values[slot] != 0) {
+            if (this.keys[slot] == key) return this.values[slot] - 1;
+            slot = (slot + 1) & mask;
+        }
+        this.keys[slot] = key;
+        this.values[slot] = value + 1;
+        if (++this.size > (this.keys.length >>> 1)) rehash(this.keys.length << 1);
+        return -1;
+    }
+
+    /**
+     * Put a value for a key, replacing the old one.
+     *
+     * @param key   Packed position
+     * @param value Non-negative value
+     */
+    void put(long key, int value) {
+        int mask = this.keys.length - 1;
+        int slot = BREADPointCounter.slot(key, this.shift);
+        while (this.values[slot] != 0) {
+            if (this.keys[slot] == key) {
+                this.values[slot] = value + 1;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        this.keys[slot] = key;
+        this.values[slot] = value + 1;
+        if (++this.size > (this.keys.length >>> 1)) rehash(this.keys.length << 1);
+    }
+
+    /**
+     * Remove a key.
+     *
+     * @param key Packed position
+     * @return The removed value, or -1 if absent
+     */
+    int remove(long key) {
+        int mask = this.keys.length - 1;
+        int hole = BREADPointCounter.slot(key, this.shift);
+        while (this.values[hole] != 0 && this.keys[hole] != key) hole = (hole + 1) & mask;
+        int value = this.values[hole] - 1;
+        if (value < 0) return -1;
+        --this.size;
+        for (int slot = (hole + 1) & mask; this.values[slot] != 0; slot = (slot + 1) & mask) {
+            int home = BREADPointCounter.slot(this.keys[slot], this.shift);
+            if (((slot - home) & mask) < ((slot - hole) & mask)) continue; // Its probe doesn't pass the hole
+            this.keys[hole] = this.keys[slot];
+            this.values[hole] = this.values[slot];
+            hole = slot;
+        }
+        this.values[hole] = 0;
+        return value;
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        this.shift = Long.numberOfLeadingZeros(capacity - 1);
+    }
+
+    private void rehash(int capacity) {
+        long[] keys = this.keys;
+        int[] values = this.values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int oldSlot = 0; oldSlot < keys.length; ++oldSlot) {
+            if (values[oldSlot] == 0) continue;
+            int slot = BREADPointCounter.slot(keys[oldSlot], this.shift);
+            while (this.values[slot] != 0) slot = (slot + 1) & mask;
+            this.keys[slot] = keys[oldSlot];
+            this.values[slot] = values[oldSlot];
+        }
+    }
+
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Options of a BREAD run.
+ * <br/>
+ * Options are given after the sub-command which starts BREAD, e.g. {@code /bread start off-heap}.
+ */
+public final class BREADOptions {
+
+    private static final int MAX_RADIUS = 1 << 12;
+    private static final int MAX_COORDINATE = 30000000; // World border
+    private static final int DEFAULT_APPROXIMATION_PERCENT = 50;
+    private static final List<String> OPTION_NAMES = Collections.unmodifiableList(Arrays.asList(
+            "off-heap", "handoff", "timed", "sample", "world", "radius", "box", "approximate",
+            "hierarchy", "incremental"));
+
+    private BREADPointCounter.Storage storage;
+    private boolean handoff;
+    private int bucketTicks;
+    private boolean sampled;
+    private int sampleRate;
+    private String worldName;
+    private int radius;
+    private int[] box;
+    private int approximationPercent;
+    private boolean hierarchical;
+    private boolean incremental;
+
+    /**
+     * Construct default options.
+     */
+    public BREADOptions() {
+        this.storage = BREADPointCounter.Storage.HEAP;
+        this.handoff = false;
+        this.bucketTicks = 0;
+        this.sampled = false;
+        this.sampleRate = 0;
+        this.worldName = null;
+        this.radius = 0;
+        this.box = null;
+        this.approximationPercent = 0;
+        this.hierarchical = false;
+        this.incremental = false;
+    }
+
+    /**
+     * Parse options from arguments of a command.
+     *
+     * @param args Arguments, each one is like {@code name} or {@code name=value}, empty ones are ignored
+     * @return Parsed options
+     * @throws IllegalArgumentException if an argument is invalid, the message is readable for users
+     */
+    public static BREADOptions parse(List<String> args) {
+        BREADOptions options = new BREADOptions();
+        for (String arg : args) {
+            if (arg.isEmpty()) continue;
+            int separator = arg.indexOf('=');
+            String name = (separator < 0 ? arg : arg.substring(0, separator)).toLowerCase();
+            String value = separator < 0 ? null : arg.substring(separator + 1);
+            switch (name) {
+                case "off-heap":
+                    requireNoValue(name, value);
+                    options.storage = BREADPointCounter.Storage.OFF_HEAP;
+                    break;
+                case "handoff":
+                    requireNoValue(name, value);
+                    options.handoff = true;
+                    break;
+                case "timed":
+                    options.bucketTicks = value == null ? 1 :
+                            parseInt(name, value, 1, BREADAnalyser.COLLECTING_TICKS_BASE);
+                    break;
+                case "sample":
+                    options.sampled = true;
+                    options.sampleRate = value == null ? 0 : parseInt(name, value, 2, BREADSampler.MAX_RATE);
+                    break;
+                case "world":
+                    if (value == null || value.isEmpty())
+                        throw new IllegalArgumentException("Option " + name + " needs a world name");
+                    options.worldName = value;
+                    break;
+                case "radius":
+                    options.radius = parseInt(name, value, 1, MAX_RADIUS);
+                    break;
+                case "box":
+                    options.box = parseBox(name, value);
+                    break;
+                case "approximate":
+                    options.approximationPercent = value == null ? DEFAULT_APPROXIMATION_PERCENT :
+                            parseInt(name, value, 1, 100);
+                    break;
+                case "hierarchy":
+                    requireNoValue(name, value);
+                    options.hierarchical = true;
+                    break;
+                case "incremental":
+                    requireNoValue(name, value);
+                    options.incremental = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("There is no such option: " + name);
+            }
+        }
+        if (options.radius > 0 && options.box != null)
+            throw new IllegalArgumentException("Options radius and box can't be used together");
+        if (options.approximationPercent > 0 && options.hierarchical)
+            throw new IllegalArgumentException("Options approximate and hierarchy can't be used together");
+        if (options.incremental && (options.approximationPercent > 0 || options.hierarchical))
+            throw new IllegalArgumentException("Option incremental can't be used with approximate or hierarchy");
+        return options;
+    }
+
+    /**
+     * Return names of all options, for completing commands.
+     *
+     * @return Names of all options
+     */
+    public static List<String> getOptionNames() {
+        return OPTION_NAMES;
+    }
+
+    /**
+     * Return where to store collected events.
+     *
+     * @return Storage of collected events
+     */
+    public BREADPointCounter.Storage getStorage() {
+        return this.storage;
+    }
+
+    /**
+     * Return true if events are handed off to a background thread.
+     *
+     * @return true if handed off
+     * @see BREADHandoffAccumulator
+     */
+    public boolean isHandoff() {
+        return this.handoff;
+    }
+
+    /**
+     * Return the length of a bucket of activity over time.
+     *
+     * @return Length of a bucket, the unit is ticks, 0 if activity isn't recorded
+     * @see BREADActivity
+     */
+    public int getBucketTicks() {
+        return this.bucketTicks;
+    }
+
+    /**
+     * Return true if activity over time is recorded.
+     *
+     * @return true if recorded
+     */
+    public boolean isTimed() {
+        return this.bucketTicks > 0;
+    }
+
+    /**
+     * Return true if only a sample of events is recorded.
+     *
+     * @return true if sampled
+     * @see BREADSampler
+     */
+    public boolean isSampled() {
+        return this.sampled;
+    }
+
+    /**
+     * Return the rate of sampling.
+     *
+     * @return N, one of N events is recorded, 0 if it's adapted automatically or not sampled
+     */
+    public int getSampleRate() {
+        return this.sampleRate;
+    }
+
+    /**
+     * Return the name of the world to collect.
+     *
+     * @return Name of the world, null if not restricted
+     */
+    public String getWorldName() {
+        return this.worldName;
+    }
+
+    /**
+     * Return the radius around the command sender to collect.
+     *
+     * @return Radius, 0 if not restricted
+     */
+    public int getRadius() {
+        return this.radius;
+    }
+
+    /**
+     * Return the box to collect.
+     *
+     * @return X, Y and Z of two opposite corners, null if not restricted
+     */
+    public int[] getBox() {
+        return this.box == null ? null : this.box.clone();
+    }
+
+    /**
+     * Return true if collection is restricted to a region.
+     *
+     * @return true if restricted
+     * @see BREADRegionFilter
+     */
+    public boolean isRegionRestricted() {
+        return this.worldName != null || this.radius > 0 || this.box != null;
+    }
+
+    /**
+     * Return the approximation of cluster analysis.
+     *
+     * @return ρ of ρ-approximate DBSCAN, in (0, 1], 0 if the analysis is exact
+     * @see BREADCellClustering
+     */
+    public double getApproximation() {
+        return this.approximationPercent / 100.0;
+    }
+
+    /**
+     * Return true if cluster analysis is approximate.
+     *
+     * @return true if approximate
+     */
+    public boolean isApproximate() {
+        return this.approximationPercent > 0;
+    }
+
+    /**
+     * Return true if cluster hierarchies are built, so that clusters can be cut at other densities later.
+     *
+     * @return true if hierarchies are built
+     * @see BREADClusterHierarchy
+     */
+    public boolean isHierarchical() {
+        return this.hierarchical;
+    }
+
+    /**
+     * Return true if clusters are updated from the state of the last exact analysis, instead of found again.
+     * The first analysis and ones which change most blocks are still done by the configured engine.
+     *
+     * @return true if incremental
+     * @see BREADIncrementalClustering
+     */
+    public boolean isIncremental() {
+        return this.incremental;
+    }
+
+    private static int[] parseBox(String name, String value) {
+        String[] coordinates = value == null ? new String[0] : value.split(",");
+        if (coordinates.length != 6)
+            throw new IllegalArgumentException("Option " + name + " needs 6 integers like x1,y1,z1,x2,y2,z2");
+        int[] box = new int[6];
+        for (int i = 0; i < 6; ++i) box[i] = parseInt(name, coordinates[i].trim(), -MAX_COORDINATE, MAX_COORDINATE);
+        return box;
+    }
+
+    private static int parseInt(String name, String value, int min, int max) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed >= min && parsed <= max) return parsed;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("Option " + name + " needs an integer between " + min + " and " + max);
+    }
+
+    private static void requireNoValue(String name, String value) {
+        if (value != null)
+            throw new IllegalArgumentException("Option " + name + " doesn't take a value");
+    }
+
+}
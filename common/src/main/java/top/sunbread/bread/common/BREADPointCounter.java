@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * A primitive counter of block positions.
+ * <br/>
+ * Positions are packed into longs and counted in an open-addressing hash table,
+ * so counting a position allocates nothing and usually takes one probe.
+ * Counted blocks are also kept as dense columns in insertion order,
+ * which are handed to the analyser as they are.
+ * <br/>
+ * The table is either on the heap, or in direct buffers
+ * so that a huge collection doesn't pressure the heap of the server.
+ */
+public abstract class BREADPointCounter {
+
+    private static final int X_BITS = 26, Z_BITS = 26, Y_BITS = 12; // X and Z cover the world border
+    private static final int INITIAL_CAPACITY = 1 << 10;
+    private static final int MAX_EXPECTED_CAPACITY = 1 << 22; // Sizing up front stops at 2M blocks
+    private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+
+    BREADPointCounter() {
+    }
+
+    /**
+     * Construct an empty counter.
+     *
+     * @param storage Where to store the table
+     * @return An empty counter
+     */
+    public static BREADPointCounter create(Storage storage) {
+        return create(storage, 0);
+    }
+
+    /**
+     * Construct an empty counter sized for the expected number of distinct blocks.
+     * <br/>
+     * A counter grows by doubling, and buffers it grows out of are only freed by the garbage collector,
+     * so a counter in direct buffers should be sized up front, e.g. as the last collection.
+     *
+     * @param storage      Where to store the table
+     * @param expectedSize Expected number of distinct blocks, the counter still grows beyond it
+     * @return An empty counter
+     */
+    public static BREADPointCounter create(Storage storage, int expectedSize) {
+        if (expectedSize < 0) throw new IllegalArgumentException();
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < MAX_EXPECTED_CAPACITY && capacity >>> 1 < expectedSize) capacity <<= 1;
+        switch (storage) {
+            case HEAP:
+                return new HeapPointCounter(capacity);
+            case OFF_HEAP:
+                return new OffHeapPointCounter(capacity);
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * Pack a block position into a long.
+     *
+     * @param x X of the block, must be in [-2^25, 2^25)
+     * @param y Y of the block, must be in [-2^11, 2^11)
+     * @param z Z of the block, must be in [-2^25, 2^25)
+     * @return Packed position
+     */
+    public static long pack(int x, int y, int z) {
+        return ((long) x << (Z_BITS + Y_BITS)) |
+                (((long) z & ((1L << Z_BITS) - 1)) << Y_BITS) |
+                ((long) y & ((1L << Y_BITS) - 1));
+    }
+
+    /**
+     * Unpack X of a packed position.
+     *
+     * @param key Packed position
+     * @return X of the block
+     */
+    public static int unpackX(long key) {
+        return (int) (key >> (Z_BITS + Y_BITS));
+    }
+
+    /**
+     * Unpack Y of a packed position.
+     *
+     * @param key Packed position
+     * @return Y of the block
+     */
+    public static int unpackY(long key) {
+        return (int) (key << (X_BITS + Z_BITS) >> (X_BITS + Z_BITS));
+    }
+
+    /**
+     * Unpack Z of a packed position.
+     *
+     * @param key Packed position
+     * @return Z of the block
+     */
+    public static int unpackZ(long key) {
+        return (int) (key << X_BITS >> (X_BITS + Y_BITS));
+    }
+
+    /**
+     * Count one event at the specific block.
+     *
+     * @param x X of the block
+     * @param y Y of the block
+     * @param z Z of the block
+     */
+    public void increment(int x, int y, int z) {
+        add(pack(x, y, z), 1);
+    }
+
+    /**
+     * Count events at the specific packed position.
+     *
+     * @param key   Packed position
+     * @param count Event times, must be a positive integer
+     * @return Index of the block in snapshots
+     */
+    public abstract int add(long key, int count);
+
+    /**
+     * Get event times of the specific block.
+     *
+     * @param x X of the block
+     * @param y Y of the block
+     * @param z Z of the block
+     * @return Event times, 0 if never counted
+     */
+    public abstract int get(int x, int y, int z);
+
+    /**
+     * Return the number of distinct blocks counted.
+     *
+     * @return Number of distinct blocks
+     */
+    public abstract int size();
+
+    /**
+     * Remove all counted blocks and release the table.
+     * <br/>
+     * Snapshots taken before are not affected.
+     */
+    public abstract void clear();
+
+    /**
+     * Take a columnar snapshot of counted blocks without copying.
+     * <br/>
+     * The counter must not be modified after taking the snapshot unless it's cleared.
+     *
+     * @param activity Activity of counted blocks, null if not recorded
+     * @return Counted blocks, the weight of a point is its event times
+     */
+    public abstract BREADPoints snapshot(BREADActivity activity);
+
+    /**
+     * Take a columnar snapshot of counted blocks without copying.
+     * <br/>
+     * The counter must not be modified after taking the snapshot unless it's cleared.
+     *
+     * @return Counted blocks, the weight of a point is its event times
+     */
+    public BREADPoints snapshot() {
+        return snapshot(null);
+    }
+
+    /**
+     * Where to store the table of a counter.
+     */
+    public enum Storage {HEAP, OFF_HEAP}
+
+    /**
+     * A counter on the heap.
+     */
+    private static final class HeapPointCounter extends BREADPointCounter {
+
+        private BREADKeyTable indices; // Dense index of every counted key
+        private long[] keys; // Dense columns
+        private int[] counts;
+        private int size;
+
+        HeapPointCounter(int capacity) {
+            reset(capacity);
+        }
+
+        @Override
+        public int add(long key, int count) {
+            int index = this.indices.putIfAbsent(key, this.size);
+            if (index >= 0) {
+                this.counts[index] += count;
+                return index;
+            }
+            if (this.size == this.keys.length) {
+                this.keys = Arrays.copyOf(this.keys, this.size << 1);
+                this.counts = Arrays.copyOf(this.counts, this.size << 1);
+            }
+            this.keys[this.size] = key;
+            this.counts[this.size] = count;
+            return this.size++;
+        }
+
+        @Override
+        public int get(int x, int y, int z) {
+            int index = this.indices.get(pack(x, y, z));
+            return index < 0 ? 0 : this.counts[index];
+        }
+
+        @Override
+        public int size() {
+            return this.size;
+        }
+
+        @Override
+        public void clear() {
+            reset(INITIAL_CAPACITY);
+        }
+
+        @Override
+        public BREADPoints snapshot(BREADActivity activity) {
+            return new BREADPoints.HeapPoints(this.keys, this.counts, this.size, activity);
+        }
+
+        private void reset(int capacity) {
+            this.indices = new BREADKeyTable(capacity);
+            this.keys = new long[capacity >>> 1];
+            this.counts = new int[capacity >>> 1];
+            this.size = 0;
+        }
+
+    }
+
+    /**
+     * A counter in direct buffers.
+     * It has the same layout as {@link BREADKeyTable} and the dense columns of {@link HeapPointCounter}.
+     */
+    private static final class OffHeapPointCounter extends BREADPointCounter {
+
+        private LongBuffer slotKeys;
+        private IntBuffer slotIndices; // Dense index + 1, 0 means empty slot
+        private int shift;
+        private LongBuffer keys; // Dense columns
+        private IntBuffer counts;
+        private int size;
+
+        OffHeapPointCounter(int capacity) {
+            reset(capacity);
+        }
+
+        @Override
+        public int add(long key, int count) {
+            int mask = this.slotKeys.capacity() - 1;
+            int slot = slot(key, this.shift);
+            int index;
+            while ((index = this.slotIndices.get(slot)) != 0) {
+                if (this.slotKeys.get(slot) == key) {
+                    this.counts.put(index - 1, this.counts.get(index - 1) + count);
+                    return index - 1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (this.size == this.keys.capacity()) {
+                this.keys = grow(this.keys, this.size << 1);
+                this.counts = grow(this.counts, this.size << 1);
+            }
+            this.keys.put(this.size, key);
+            this.counts.put(this.size, count);
+            this.slotKeys.put(slot, key);
+            this.slotIndices.put(slot, ++this.size);
+            if (this.size > (this.slotKeys.capacity() >>> 1)) rehash(this.slotKeys.capacity() << 1);
+            return this.size - 1;
+        }
+
+        @Override
+        public int get(int x, int y, int z) {
+            long key = pack(x, y, z);
+            int mask = this.slotKeys.capacity() - 1;
+            int index;
+            for (int slot = slot(key, this.shift); (index = this.slotIndices.get(slot)) != 0; slot = (slot + 1) & mask)
+                if (this.slotKeys.get(slot) == key) return this.counts.get(index - 1);
+            return 0;
+        }
+
+        @Override
+        public int size() {
+            return this.size;
+        }
+
+        @Override
+        public void clear() {
+            reset(INITIAL_CAPACITY);
+        }
+
+        @Override
+        public BREADPoints snapshot(BREADActivity activity) {
+            return new BREADPoints.OffHeapPoints(this.keys.duplicate(), this.counts.duplicate(), this.size, activity);
+        }
+
+        private void reset(int capacity) {
+            allocateSlots(capacity);
+            this.keys = allocateLongs(capacity >>> 1);
+            this.counts = allocateInts(capacity >>> 1);
+            this.size = 0;
+        }
+
+        private void allocateSlots(int capacity) {
+            this.slotKeys = allocateLongs(capacity);
+            this.slotIndices = allocateInts(capacity);
+            this.shift = Long.numberOfLeadingZeros(capacity - 1);
+        }
+
+        private void rehash(int capacity) {
+            allocateSlots(capacity);
+            int mask = capacity - 1;
+            for (int index = 0; index < this.size; ++index) {
+                long key = this.keys.get(index);
+                int slot = slot(key, this.shift);
+                while (this.slotIndices.get(slot) != 0) slot = (slot + 1) & mask;
+                this.slotKeys.put(slot, key);
+                this.slotIndices.put(slot, index + 1);
+            }
+        }
+
+        private static LongBuffer grow(LongBuffer buffer, int capacity) {
+            LongBuffer grown = allocateLongs(capacity);
+            grown.put(buffer.duplicate());
+            ((Buffer) grown).rewind(); // Buffer methods aren't overridden until Java 9
+            return grown;
+        }
+
+        private static IntBuffer grow(IntBuffer buffer, int capacity) {
+            IntBuffer grown = allocateInts(capacity);
+            grown.put(buffer.duplicate());
+            ((Buffer) grown).rewind();
+            return grown;
+        }
+
+        private static LongBuffer allocateLongs(int capacity) {
+            return ByteBuffer.allocateDirect(capacity * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+        }
+
+        private static IntBuffer allocateInts(int capacity) {
+            return ByteBuffer.allocateDirect(capacity * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+
+    }
+
+    static int slot(long key, int shift) {
+        return (int) ((key * GOLDEN_RATIO) >>> shift);
+    }
+
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import top.sunbread.bread.common.BREADStatistics.Point;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A compact read-only set of weighted points, for keeping results between runs.
+ * <br/>
+ * Points are sorted by packed position and encoded in blocks of {@value #BLOCK_SIZE} points.
+ * A block starts at a full position, and each following position is a varint of the delta from the previous one.
+ * Every position is followed by a varint of its weight.
+ * Points are decoded when the set is iterated or searched, no point is kept as an object.
+ */
+public final class BREADPointSet extends AbstractSet<Point> {
+
+    private static final int BLOCK_SIZE = 64;
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+
+    private final long[] blockKeys; // First position of each block
+    private final int[] blockOffsets; // Offset of each block in data
+    private final byte[] data;
+    private final int size;
+
+    private BREADPointSet(long[] blockKeys, int[] blockOffsets, byte[] data, int size) {
+        this.blockKeys = blockKeys;
+        this.blockOffsets = blockOffsets;
+        this.data = data;
+        this.size = size;
+    }
+
+    /**
+     * Encode some points of columns.
+     *
+     * @param points  Columnar points
+     * @param indices Indices of points to encode
+     * @return Encoded points
+     */
+    public static BREADPointSet of(BREADPoints points, int[] indices) {
+        long[] keys = new long[indices.length];
+        int[] weights = new int[indices.length];
+        for (int position = 0; position < indices.length; ++position) {
+            keys[position] = points.key(indices[position]);
+            weights[position] = points.weight(indices[position]);
+        }
+        sort(keys, weights);
+        int blocks = (keys.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        long[] blockKeys = new long[blocks];
+        int[] blockOffsets = new int[blocks];
+        byte[] data = new byte[keys.length * 3 + 16];
+        int offset = 0;
+        for (int position = 0; position < keys.length; ++position) {
+            if (data.length - offset < 15) data = Arrays.copyOf(data, data.length * 2); // Two varints at most
+            if (position % BLOCK_SIZE == 0) {
+                blockKeys[position / BLOCK_SIZE] = keys[position];
+                blockOffsets[position / BLOCK_SIZE] = offset;
+            } else offset = writeVarint(data, offset, keys[position] - keys[position - 1]);
+            offset = writeVarint(data, offset, weights[position]);
+        }
+        return new BREADPointSet(blockKeys, blockOffsets, Arrays.copyOf(data, offset), keys.length);
+    }
+
+    @Override
+    public Iterator<Point> iterator() {
+        return new Decoder(0);
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof Point)) return false;
+        Point point = (Point) o;
+        long key = BREADPointCounter.pack(point.x, point.y, point.z);
+        int block = Arrays.binarySearch(this.blockKeys, key);
+        if (block < 0) block = -block - 2; // The last block which starts before the position
+        if (block < 0) return false;
+        Decoder decoder = new Decoder(block);
+        for (int position = 0; position < BLOCK_SIZE && decoder.hasNext(); ++position) {
+            decoder.decode();
+            if (decoder.key == key) return decoder.weight == point.w;
+            if (decoder.key > key) return false;
+        }
+        return false;
+    }
+
+    /**
+     * Return the size of encoded points.
+     *
+     * @return Size, the unit is bytes
+     */
+    public long getEncodedBytes() {
+        return (long) this.blockKeys.length * (Long.BYTES + Integer.BYTES) + this.data.length;
+    }
+
+    /**
+     * Sort positions with their weights by a least significant digit radix sort,
+     * skipping digits which all positions share, such as high bits of nearby positions.
+     *
+     * @param keys    Packed positions
+     * @param weights Weights of positions
+     */
+    private static void sort(long[] keys, int[] weights) {
+        long[] sortedKeys = new long[keys.length];
+        int[] sortedWeights = new int[weights.length];
+        int[] counts = new int[RADIX + 1];
+        for (int shift = 0; shift < Long.SIZE; shift += RADIX_BITS) {
+            Arrays.fill(counts, 0);
+            for (long key : keys) ++counts[digit(key, shift) + 1];
+            if (keys.length == 0 || counts[digit(keys[0], shift) + 1] == keys.length) continue;
+            for (int digit = 0; digit < RADIX; ++digit) counts[digit + 1] += counts[digit];
+            for (int position = 0; position < keys.length; ++position) {
+                int target = counts[digit(keys[position], shift)]++;
+                sortedKeys[target] = keys[position];
+                sortedWeights[target] = weights[position];
+            }
+            System.arraycopy(sortedKeys, 0, keys, 0, keys.length);
+            System.arraycopy(sortedWeights, 0, weights, 0, weights.length);
+        }
+    }
+
+    private static int digit(long key, int shift) {
+        return (int) ((key ^ Long.MIN_VALUE) >>> shift) & (RADIX - 1); // Sign flipped, so it's in signed order
+    }
+
+    private static int writeVarint(byte[] data, int offset, long value) {
+        while ((value & ~0x7FL) != 0) {
+            data[offset++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        data[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * A cursor over encoded points.
+     */
+    private final class Decoder implements Iterator<Point> {
+
+        private int position; // Index of the next point
+        private int offset;
+        private long key;
+        private int weight;
+
+        private Decoder(int block) {
+            this.position = block * BLOCK_SIZE;
+            this.offset = block < BREADPointSet.this.blockOffsets.length ? BREADPointSet.this.blockOffsets[block] : 0;
+            this.key = 0;
+            this.weight = 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.position < BREADPointSet.this.size;
+        }
+
+        @Override
+        public Point next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            decode();
+            return new Point(BREADPointCounter.unpackX(this.key), BREADPointCounter.unpackY(this.key),
+                    BREADPointCounter.unpackZ(this.key), this.weight);
+        }
+
+        private void decode() {
+            this.key = this.position % BLOCK_SIZE == 0 ? BREADPointSet.this.blockKeys[this.position / BLOCK_SIZE] :
+                    this.key + readVarint();
+            this.weight = (int) readVarint();
+            ++this.position;
+        }
+
+        private long readVarint() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = BREADPointSet.this.data[this.offset++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import top.sunbread.bread.common.BREADStatistics.Point;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A compact columnar set of weighted points of a world.
+ * <br/>
+ * Positions are packed by {@link BREADPointCounter#pack(int, int, int)}.
+ * Columns are either arrays or direct buffers, they are read in place.
+ */
+public abstract class BREADPoints {
+
+    private final BREADActivity activity;
+    private volatile int[] sortedIndices; // Built on demand for looking up points by position
+
+    BREADPoints(BREADActivity activity) {
+        this.activity = activity;
+        this.sortedIndices = null;
+    }
+
+    /**
+     * Make columns from a set of points.
+     *
+     * @param points Set of points
+     * @return Columnar points
+     */
+    public static BREADPoints of(Set<Point> points) {
+        long[] keys = new long[points.size()];
+        int[] weights = new int[points.size()];
+        int index = 0;
+        for (Point point : points) {
+            keys[index] = BREADPointCounter.pack(point.x, point.y, point.z);
+            weights[index++] = point.w;
+        }
+        return new HeapPoints(keys, weights, index, null);
+    }
+
+    /**
+     * Return the number of points.
+     *
+     * @return Number of points
+     */
+    public abstract int size();
+
+    /**
+     * Return the packed position of a point.
+     *
+     * @param index Index of the point, must be in [0, size)
+     * @return Packed position
+     */
+    public abstract long key(int index);
+
+    /**
+     * Return the weight of a point, i.e. its event times.
+     *
+     * @param index Index of the point, must be in [0, size)
+     * @return Weight of the point
+     */
+    public abstract int weight(int index);
+
+    /**
+     * Return weights of all points as an array, which must not be modified.
+     * <br/>
+     * Weights on the heap are shared, others are copied.
+     *
+     * @return Weights indexed as points, may be longer than the number of points
+     */
+    int[] weights() {
+        int[] weights = new int[size()];
+        for (int index = 0; index < weights.length; ++index) weights[index] = weight(index);
+        return weights;
+    }
+
+    /**
+     * Return X of a point.
+     *
+     * @param index Index of the point, must be in [0, size)
+     * @return X of the block
+     */
+    public int x(int index) {
+        return BREADPointCounter.unpackX(key(index));
+    }
+
+    /**
+     * Return Y of a point.
+     *
+     * @param index Index of the point, must be in [0, size)
+     * @return Y of the block
+     */
+    public int y(int index) {
+        return BREADPointCounter.unpackY(key(index));
+    }
+
+    /**
+     * Return Z of a point.
+     *
+     * @param index Index of the point, must be in [0, size)
+     * @return Z of the block
+     */
+    public int z(int index) {
+        return BREADPointCounter.unpackZ(key(index));
+    }
+
+    /**
+     * Return the activity of points over time.
+     *
+     * @return Activity of points, null if it wasn't recorded
+     */
+    public BREADActivity getActivity() {
+        return this.activity;
+    }
+
+    /**
+     * Find the index of a point by its position.
+     *
+     * @param key Packed position
+     * @return Index of the point, or -1 if not found
+     */
+    public int indexOf(long key) {
+        int[] sortedIndices = this.sortedIndices;
+        if (sortedIndices == null) this.sortedIndices = sortedIndices = sortIndices();
+        int low = 0, high = sortedIndices.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleKey = key(sortedIndices[middle]);
+            if (middleKey < key) low = middle + 1;
+            else if (middleKey > key) high = middle - 1;
+            else return sortedIndices[middle];
+        }
+        return -1;
+    }
+
+    /**
+     * Convert columns to a set of points.
+     *
+     * @return Set of points
+     */
+    public Set<Point> toPointSet() {
+        Set<Point> points = new HashSet<>(size() * 2);
+        for (int index = 0; index < size(); ++index)
+            points.add(new Point(x(index), y(index), z(index), weight(index)));
+        return points;
+    }
+
+    /**
+     * Return a read-only view of some points as a set.
+     * Points of the view are made when iterated, so the columns aren't copied.
+     *
+     * @param indices Indices of points in ascending order, must not be changed afterwards
+     * @return Set of the points
+     */
+    public Set<Point> select(int[] indices) {
+        return new SelectedPoints(this, indices);
+    }
+
+    private int[] sortIndices() {
+        long[] sortedKeys = new long[size()];
+        for (int index = 0; index < sortedKeys.length; ++index) sortedKeys[index] = key(index);
+        Arrays.sort(sortedKeys);
+        int[] sortedIndices = new int[sortedKeys.length];
+        for (int index = 0; index < sortedKeys.length; ++index)
+            sortedIndices[Arrays.binarySearch(sortedKeys, key(index))] = index;
+        return sortedIndices;
+    }
+
+    /**
+     * A view of some points.
+     */
+    private static final class SelectedPoints extends AbstractSet<Point> {
+
+        private final BREADPoints points;
+        private final int[] indices;
+
+        private SelectedPoints(BREADPoints points, int[] indices) {
+            this.points = points;
+            this.indices = indices;
+        }
+
+        @Override
+        public Iterator<Point> iterator() {
+            return new Iterator<Point>() {
+                private int position = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return this.position < SelectedPoints.this.indices.length;
+                }
+
+                @Override
+                public Point next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    int index = SelectedPoints.this.indices[this.position++];
+                    BREADPoints points = SelectedPoints.this.points;
+                    return new Point(points.x(index), points.y(index), points.z(index), points.weight(index));
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return this.indices.length;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Point)) return false;
+            Point point = (Point) o;
+            int index = this.points.indexOf(BREADPointCounter.pack(point.x, point.y, point.z));
+            return index >= 0 && this.points.weight(index) == point.w &&
+                    Arrays.binarySearch(this.indices, index) >= 0;
+        }
+
+    }
+
+    /**
+     * Columns in arrays.
+     */
+    static final class HeapPoints extends BREADPoints {
+
+        private final long[] keys;
+        private final int[] weights;
+        private final int size;
+
+        HeapPoints(long[] keys, int[] weights, int size, BREADActivity activity) {
+            super(activity);
+            this.keys = keys;
+            this.weights = weights;
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return this.size;
+        }
+
+        @Override
+        public long key(int index) {
+            return this.keys[index];
+        }
+
+        @Override
+        public int weight(int index) {
+            return this.weights[index];
+        }
+
+        @Override
+        int[] weights() {
+            return this.weights;
+        }
+
+    }
+
+    /**
+     * Columns in direct buffers.
+     */
+    static final class OffHeapPoints extends BREADPoints {
+
+        private final LongBuffer keys;
+        private final IntBuffer weights;
+        private final int size;
+
+        OffHeapPoints(LongBuffer keys, IntBuffer weights, int size, BREADActivity activity) {
+            super(activity);
+            this.keys = keys;
+            this.weights = weights;
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return this.size;
+        }
+
+        @Override
+        public long key(int index) {
+            return this.keys.get(index);
+        }
+
+        @Override
+        public int weight(int index) {
+            return this.weights.get(index);
+        }
+
+    }
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import java.util.UUID;
+
+/**
+ * A filter which only accepts redstone events in a region of interest.
+ * <br/>
+ * A region is a world, a box or a sphere in a world.
+ * Chunks which intersect a sphere are precomputed into a bitmap,
+ * so most rejected events only cost a world comparison or a bit test,
+ * and only events in those chunks are checked exactly.
+ * A box, or a sphere covering too many chunks, is checked exactly without the bitmap.
+ * <br/>
+ * It's not thread-safe, all events should be checked by one thread.
+ */
+public final class BREADRegionFilter {
+
+    private static final int CHUNK_SHIFT = 4;
+    private static final long MAX_BITMAP_CHUNKS = 1 << 20; // A bitmap of 128 KiB, a sphere of radius 8192
+
+    private final UUID world;
+    private final boolean spatial;
+    private final int minX, minY, minZ, maxX, maxY, maxZ; // Bounding box, inclusive
+    private final int centerX, centerY, centerZ;
+    private final long radiusSquared; // -1 if the region is a box
+    private final int minChunkX, minChunkZ, chunkWidth, chunkHeight; // Chunk bitmap
+    private final long[] chunkBits; // Null if not used
+    private UUID lastAcceptedWorld; // The same UID object is usually passed for the same world
+    private long rejectedEvents;
+
+    private BREADRegionFilter(UUID world, boolean spatial, int minX, int minY, int minZ, int maxX, int maxY, int maxZ,
+                              int centerX, int centerY, int centerZ, long radiusSquared) {
+        this.world = world;
+        this.spatial = spatial;
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.maxZ = maxZ;
+        this.centerX = centerX;
+        this.centerY = centerY;
+        this.centerZ = centerZ;
+        this.radiusSquared = radiusSquared;
+        this.minChunkX = minX >> CHUNK_SHIFT;
+        this.minChunkZ = minZ >> CHUNK_SHIFT;
+        this.chunkWidth = (maxX >> CHUNK_SHIFT) - this.minChunkX + 1;
+        this.chunkHeight = (maxZ >> CHUNK_SHIFT) - this.minChunkZ + 1;
+        long chunks = (long) this.chunkWidth * this.chunkHeight;
+        if (spatial && radiusSquared >= 0 && chunks <= MAX_BITMAP_CHUNKS) {
+            this.chunkBits = new long[(int) ((chunks + Long.SIZE - 1) / Long.SIZE)];
+            for (int chunkZ = 0; chunkZ < this.chunkHeight; ++chunkZ)
+                for (int chunkX = 0; chunkX < this.chunkWidth; ++chunkX)
+                    if (intersectsChunk(this.minChunkX + chunkX, this.minChunkZ + chunkZ)) {
+                        int bit = chunkZ * this.chunkWidth + chunkX;
+                        this.chunkBits[bit >>> 6] |= 1L << bit;
+                    }
+        } else {
+            this.chunkBits = null; // Checked exactly, a bitmap of a box would be full
+        }
+        this.lastAcceptedWorld = null;
+        this.rejectedEvents = 0;
+    }
+
+    /**
+     * Construct a filter of a whole world.
+     *
+     * @param world UID of the world
+     * @return A filter
+     */
+    public static BREADRegionFilter world(UUID world) {
+        return new BREADRegionFilter(world, false, 0, 0, 0, 0, 0, 0, 0, 0, 0, -1);
+    }
+
+    /**
+     * Construct a filter of a box in a world.
+     *
+     * @param world UID of the world
+     * @param x1    X of a corner
+     * @param y1    Y of a corner
+     * @param z1    Z of a corner
+     * @param x2    X of the opposite corner
+     * @param y2    Y of the opposite corner
+     * @param z2    Z of the opposite corner
+     * @return A filter
+     */
+    public static BREADRegionFilter box(UUID world, int x1, int y1, int z1, int x2, int y2, int z2) {
+        return new BREADRegionFilter(world, true,
+                Math.min(x1, x2), Math.min(y1, y2), Math.min(z1, z2),
+                Math.max(x1, x2), Math.max(y1, y2), Math.max(z1, z2), 0, 0, 0, -1);
+    }
+
+    /**
+     * Construct a filter of a sphere in a world.
+     *
+     * @param world   UID of the world
+     * @param centerX X of the center
+     * @param centerY Y of the center
+     * @param centerZ Z of the center
+     * @param radius  Radius, must be a non-negative integer
+     * @return A filter
+     */
+    public static BREADRegionFilter sphere(UUID world, int centerX, int centerY, int centerZ, int radius) {
+        if (radius < 0) throw new IllegalArgumentException();
+        return new BREADRegionFilter(world, true,
+                clamp((long) centerX - radius), clamp((long) centerY - radius), clamp((long) centerZ - radius),
+                clamp((long) centerX + radius), clamp((long) centerY + radius), clamp((long) centerZ + radius),
+                centerX, centerY, centerZ, (long) radius * radius);
+    }
+
+    /**
+     * Return true if an event at the specific block is in the region, otherwise count it as rejected.
+     *
+     * @param world UID of the world
+     * @param x     X of the block
+     * @param y     Y of the block
+     * @param z     Z of the block
+     * @return true if accepted
+     */
+    public boolean accepts(UUID world, int x, int y, int z) {
+        if (world != this.lastAcceptedWorld) {
+            if (!world.equals(this.world)) {
+                ++this.rejectedEvents;
+                return false;
+            }
+            this.lastAcceptedWorld = world;
+        }
+        if (!this.spatial) return true;
+        if (this.chunkBits != null) {
+            int chunkX = (x >> CHUNK_SHIFT) - this.minChunkX;
+            int chunkZ = (z >> CHUNK_SHIFT) - this.minChunkZ;
+            if (chunkX < 0 || chunkX >= this.chunkWidth || chunkZ < 0 || chunkZ >= this.chunkHeight ||
+                    !isChunkMarked(chunkZ * this.chunkWidth + chunkX)) {
+                ++this.rejectedEvents;
+                return false;
+            }
+        }
+        if (!containsExactly(x, y, z)) {
+            ++this.rejectedEvents;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Return the number of rejected events.
+     *
+     * @return Number of events
+     */
+    public long getRejectedEvents() {
+        return this.rejectedEvents;
+    }
+
+    private boolean isChunkMarked(int bit) {
+        return (this.chunkBits[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    private boolean containsExactly(int x, int y, int z) {
+        if (y < this.minY || y > this.maxY) return false;
+        if (this.radiusSquared < 0)
+            return x >= this.minX && x <= this.maxX && z >= this.minZ && z <= this.maxZ;
+        long dx = (long) x - this.centerX, dy = (long) y - this.centerY, dz = (long) z - this.centerZ;
+        return dx * dx + dy * dy + dz * dz <= this.radiusSquared;
+    }
+
+    private static int clamp(long coordinate) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(coordinate, Integer.MAX_VALUE));
+    }
+
+    private boolean intersectsChunk(int chunkX, int chunkZ) {
+        int chunkMinX = Math.max(chunkX << CHUNK_SHIFT, this.minX);
+        int chunkMaxX = Math.min((chunkX << CHUNK_SHIFT) + (1 << CHUNK_SHIFT) - 1, this.maxX);
+        int chunkMinZ = Math.max(chunkZ << CHUNK_SHIFT, this.minZ);
+        int chunkMaxZ = Math.min((chunkZ << CHUNK_SHIFT) + (1 << CHUNK_SHIFT) - 1, this.maxZ);
+        if (chunkMinX > chunkMaxX || chunkMinZ > chunkMaxZ) return false;
+        if (this.radiusSquared < 0) return true;
+        // The nearest column of the chunk to the center
+        long dx = Math.max(chunkMinX, Math.min(this.centerX, chunkMaxX)) - this.centerX;
+        long dz = Math.max(chunkMinZ, Math.min(this.centerZ, chunkMaxZ)) - this.centerZ;
+        return dx * dx + dz * dz <= this.radiusSquared;
+    }
+
+}
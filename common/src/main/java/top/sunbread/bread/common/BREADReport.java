@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import top.sunbread.bread.common.BREADStatistics.ClusterStatistics;
+import top.sunbread.bread.common.BREADStatistics.NoiseStatistics;
+import top.sunbread.bread.common.BREADStatistics.WorldStatistics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * A paged report of a result, whose rows are rendered on demand and kept.
+ * <br/>
+ * Rows are clusters and then noise, world by world, noise is left out if it's empty unless the world has no cluster.
+ * A row is rendered by the platform the first time a page containing it is shown,
+ * so points data codes of rows which are never shown aren't encoded,
+ * and later views of the page are served from rendered rows.
+ *
+ * @param <T> Type of rendered rows
+ */
+public final class BREADReport<T> {
+
+    public static final int ROWS_PER_PAGE = 8;
+
+    private final Map<UUID, WorldStatistics> result;
+    private final Function<Row<T>, T> renderer;
+    private final List<Row<T>> rows;
+
+    /**
+     * Construct a report, no row is rendered yet.
+     *
+     * @param result   Result to report
+     * @param renderer Renderer of a row, it may run in any thread
+     */
+    public BREADReport(Map<UUID, WorldStatistics> result, Function<Row<T>, T> renderer) {
+        this.result = result;
+        this.renderer = renderer;
+        List<Row<T>> rows = new ArrayList<>();
+        result.forEach((world, statistics) -> {
+            boolean noiseShown = !statistics.noise.raw.isEmpty() || statistics.clusters.isEmpty();
+            int count = statistics.clusters.size() + (noiseShown ? 1 : 0);
+            for (int index = 0; index < statistics.clusters.size(); ++index)
+                rows.add(new Row<>(world, statistics, statistics.clusters.get(index), null,
+                        index == 0, index == count - 1));
+            if (noiseShown) rows.add(new Row<>(world, statistics, null, statistics.noise, count == 1, true));
+        });
+        this.rows = Collections.unmodifiableList(rows);
+    }
+
+    /**
+     * Return the reported result.
+     *
+     * @return Map of world UID and statistics of the world
+     */
+    public Map<UUID, WorldStatistics> getResult() {
+        return this.result;
+    }
+
+    /**
+     * Return the number of pages.
+     *
+     * @return Number of pages, 0 if the result has no world
+     */
+    public int getPageCount() {
+        return (this.rows.size() + ROWS_PER_PAGE - 1) / ROWS_PER_PAGE;
+    }
+
+    /**
+     * Render rows of a page which aren't rendered yet.
+     *
+     * @param page     Index of the page, from 0
+     * @param executor Executor to render rows in, it's not used if all rows are rendered
+     * @return Future of rendered rows of the page
+     * @throws IndexOutOfBoundsException if there is no such page
+     */
+    public CompletableFuture<List<Row<T>>> renderPage(int page, Executor executor) {
+        if (page < 0 || page >= getPageCount()) throw new IndexOutOfBoundsException();
+        List<Row<T>> rows = this.rows.subList(page * ROWS_PER_PAGE,
+                Math.min((page + 1) * ROWS_PER_PAGE, this.rows.size()));
+        if (rows.stream().allMatch(Row::isRendered)) return CompletableFuture.completedFuture(rows);
+        return CompletableFuture.supplyAsync(() -> {
+            rows.forEach(row -> row.render(this.renderer));
+            return rows;
+        }, executor);
+    }
+
+    /**
+     * A row of a report, which is either a cluster or noise.
+     *
+     * @param <T> Type of rendered rows
+     */
+    public static final class Row<T> {
+
+        public final UUID world;
+        public final WorldStatistics worldStatistics;
+        public final ClusterStatistics cluster; // null if the row is noise
+        public final NoiseStatistics noise; // null if the row is a cluster
+        public final boolean firstOfWorld;
+        public final boolean lastOfWorld;
+        private T rendered; // null if not rendered yet, guarded by this
+
+        private Row(UUID world, WorldStatistics worldStatistics, ClusterStatistics cluster, NoiseStatistics noise,
+                    boolean firstOfWorld, boolean lastOfWorld) {
+            this.world = world;
+            this.worldStatistics = worldStatistics;
+            this.cluster = cluster;
+            this.noise = noise;
+            this.firstOfWorld = firstOfWorld;
+            this.lastOfWorld = lastOfWorld;
+            this.rendered = null;
+        }
+
+        /**
+         * Return the rendered row.
+         *
+         * @return Rendered row, null if it's not rendered yet
+         */
+        public synchronized T getRendered() {
+            return this.rendered;
+        }
+
+        private synchronized boolean isRendered() {
+            return this.rendered != null;
+        }
+
+        private synchronized void render(Function<Row<T>, T> renderer) {
+            if (this.rendered == null) this.rendered = renderer.apply(this);
+        }
+
+    }
+
+}
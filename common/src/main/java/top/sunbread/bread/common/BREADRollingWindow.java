@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A sliding window of recent redstone events, for collecting all the time.
+ * <br/>
+ * The window is a ring of segments of a few ticks, each one is an {@link BREADAccumulator}.
+ * When a segment is completed, the oldest one is cleared and reused,
+ * so recent events can be analysed at once without waiting for a collection.
+ * <br/>
+ * The number of blocks in a segment is capped, which bounds the memory footprint.
+ * The cap is checked once per tick, after it's reached, blocks already in the segment are still counted,
+ * and only events at new blocks are dropped.
+ * The cost of adding events is measured on a sample of them.
+ * <br/>
+ * It's not thread-safe, events should be added and ticks should be advanced by one thread.
+ */
+public final class BREADRollingWindow {
+
+    public static final int DEFAULT_SEGMENT_TICKS = 20; // 1 second
+    public static final int DEFAULT_WINDOW_TICKS = BREADAnalyser.COLLECTING_TICKS_BASE * 4; // 60 seconds
+    public static final int DEFAULT_MAX_BLOCKS = 1 << 20;
+    private static final int MEASURING_MASK = (1 << 6) - 1; // Measure 1 of 64 events
+
+    private final BREADAccumulator[] segments; // One more than needed, the current segment isn't analysed
+    private final int segmentTicks;
+    private final int maxBlocksPerSegment;
+    private int current;
+    private int currentTicks;
+    private int completedSegments;
+    private boolean currentFull;
+    private long events;
+    private long droppedEvents;
+    private final long[] segmentDroppedEvents;
+    private long measuredEvents;
+    private long measuredNanos;
+
+    public BREADRollingWindow() {
+        this(DEFAULT_SEGMENT_TICKS, DEFAULT_WINDOW_TICKS, DEFAULT_MAX_BLOCKS);
+    }
+
+    /**
+     * Construct an empty window.
+     *
+     * @param segmentTicks Length of a segment, the unit is ticks, must be a positive integer
+     * @param windowTicks  Length of the window, the unit is ticks, must be a multiple of segmentTicks
+     * @param maxBlocks    Max number of blocks in all segments, must be a positive integer
+     */
+    public BREADRollingWindow(int segmentTicks, int windowTicks, int maxBlocks) {
+        if (segmentTicks <= 0 || windowTicks <= 0 || windowTicks % segmentTicks != 0 || maxBlocks <= 0)
+            throw new IllegalArgumentException();
+        this.segments = new BREADAccumulator[windowTicks / segmentTicks + 1];
+        for (int segment = 0; segment < this.segments.length; ++segment)
+            this.segments[segment] = new BREADAccumulator();
+        this.segmentTicks = segmentTicks;
+        this.maxBlocksPerSegment = Math.max(maxBlocks / this.segments.length, 1);
+        this.current = 0;
+        this.currentTicks = 0;
+        this.completedSegments = 0;
+        this.currentFull = false;
+        this.events = 0;
+        this.droppedEvents = 0;
+        this.segmentDroppedEvents = new long[this.segments.length];
+        this.measuredEvents = 0;
+        this.measuredNanos = 0;
+    }
+
+    /**
+     * Count one event at the specific block in the current segment.
+     *
+     * @param world UID of the world
+     * @param x     X of the block
+     * @param y     Y of the block
+     * @param z     Z of the block
+     */
+    public void add(UUID world, int x, int y, int z) {
+        if ((++this.events & MEASURING_MASK) != 0) {
+            addUnmeasured(world, x, y, z);
+            return;
+        }
+        long start = System.nanoTime();
+        addUnmeasured(world, x, y, z);
+        this.measuredNanos += System.nanoTime() - start;
+        ++this.measuredEvents;
+    }
+
+    /**
+     * Advance one tick, and move to the next segment if the current one is completed.
+     * <br/>
+     * The platform should call it once per server tick.
+     */
+    public void tick() {
+        if (++this.currentTicks == this.segmentTicks) {
+            this.current = (this.current + 1) % this.segments.length;
+            this.segments[this.current].clear();
+            this.segmentDroppedEvents[this.current] = 0;
+            this.currentTicks = 0;
+            this.completedSegments = Math.min(this.completedSegments + 1, this.segments.length - 1);
+            this.currentFull = false;
+        } else if (this.segments[this.current].size() >= this.maxBlocksPerSegment) this.currentFull = true;
+    }
+
+    /**
+     * Return the length of completed segments, which is the longest period that can be analysed now.
+     *
+     * @return Available ticks
+     */
+    public int getAvailableTicks() {
+        return this.completedSegments * this.segmentTicks;
+    }
+
+    /**
+     * Merge the latest completed segments into a snapshot.
+     *
+     * @param ticks Length of the period to merge, must be a multiple of the segment length
+     *              and no longer than {@link #getAvailableTicks()}
+     * @return Map of world UID and points of the world
+     */
+    public Map<UUID, BREADPoints> snapshot(int ticks) {
+        return merge(snapshotSegments(ticks));
+    }
+
+    /**
+     * Merge the latest completed segments into a snapshot in the pool.
+     * <br/>
+     * Only snapshots of segments are taken on the calling thread, which copies nothing.
+     * Completed segments aren't modified, and clearing one doesn't affect its snapshot,
+     * so they're merged while new events are added.
+     *
+     * @param ticks Length of the period to merge, must be a multiple of the segment length
+     *              and no longer than {@link #getAvailableTicks()}
+     * @param pool  Pool to merge in
+     * @return CompletableFuture of the map of world UID and points of the world
+     */
+    public CompletableFuture<Map<UUID, BREADPoints>> snapshot(int ticks, BREADAnalysisPool pool) {
+        List<Map<UUID, BREADPoints>> segments = snapshotSegments(ticks);
+        return CompletableFuture.supplyAsync(() -> merge(segments), pool.getExecutor());
+    }
+
+    /**
+     * Return the number of distinct blocks stored in all segments.
+     *
+     * @return Number of blocks
+     */
+    public int getStoredBlocks() {
+        int blocks = 0;
+        for (BREADAccumulator segment : this.segments) blocks += segment.size();
+        return blocks;
+    }
+
+    /**
+     * Return the number of events dropped because a segment was full, since this window was constructed.
+     *
+     * @return Number of events
+     */
+    public long getDroppedEvents() {
+        return this.droppedEvents;
+    }
+
+    /**
+     * Return the number of events dropped in the latest completed segments because they were full.
+     *
+     * @param ticks Length of the period, must be a multiple of the segment length
+     *              and no longer than {@link #getAvailableTicks()}
+     * @return Number of events
+     */
+    public long getDroppedEvents(int ticks) {
+        checkPeriod(ticks);
+        long droppedEvents = 0;
+        for (int back = 1; back <= ticks / this.segmentTicks; ++back)
+            droppedEvents += this.segmentDroppedEvents[(this.current - back + this.segments.length) %
+                    this.segments.length];
+        return droppedEvents;
+    }
+
+    /**
+     * Return the average cost of adding an event, measured on a sample of events.
+     *
+     * @return Average nanoseconds per event, NaN if nothing is measured yet
+     */
+    public double getAverageEventNanos() {
+        return this.measuredEvents == 0 ? Double.NaN : (double) this.measuredNanos / this.measuredEvents;
+    }
+
+    private void addUnmeasured(UUID world, int x, int y, int z) {
+        if (this.currentFull && this.segments[this.current].get(world, x, y, z) == 0) {
+            ++this.droppedEvents;
+            ++this.segmentDroppedEvents[this.current];
+            return;
+        }
+        this.segments[this.current].add(world, x, y, z);
+    }
+
+    private List<Map<UUID, BREADPoints>> snapshotSegments(int ticks) {
+        checkPeriod(ticks);
+        List<Map<UUID, BREADPoints>> segments = new ArrayList<>();
+        for (int back = 1; back <= ticks / this.segmentTicks; ++back)
+            segments.add(this.segments[(this.current - back + this.segments.length) % this.segments.length].
+                    snapshot());
+        return segments;
+    }
+
+    private void checkPeriod(int ticks) {
+        if (ticks <= 0 || ticks % this.segmentTicks != 0 || ticks > getAvailableTicks())
+            throw new IllegalArgumentException();
+    }
+
+    private static Map<UUID, BREADPoints> merge(List<Map<UUID, BREADPoints>> segments) {
+        BREADAccumulator merged = new BREADAccumulator();
+        for (Map<UUID, BREADPoints> segment : segments) merged.addAll(segment);
+        return merged.snapshot();
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+/**
+ * A sampler which decides which redstone events to record.
+ * <br/>
+ * Each event is recorded with probability 1/N, and a recorded event weighs N,
+ * so the sum of weights is an unbiased estimate of the number of events,
+ * and thresholds of the analysis which compare weight sums still hold.
+ * The gaps between recorded events are drawn from a geometric distribution,
+ * so skipping an event only costs a decrement.
+ * <br/>
+ * N is either fixed, or adapted once per tick to keep the recorded events per tick near a target.
+ * It's not thread-safe, events should be sampled and ticks should be advanced by one thread.
+ */
+public final class BREADSampler {
+
+    public static final int MAX_RATE = 1 << 16;
+    private static final int TARGET_SAMPLED_EVENTS_PER_TICK = 256;
+    private static final double RATE_SMOOTHING = 0.25;
+
+    private final boolean adaptive;
+    private int rate; // N
+    private int skip; // Events to go before the next recorded one, including it
+    private int skipRate; // N when the skip was drawn, which is the weight of the next recorded event
+    private long state; // State of xorshift64*
+    private double smoothedEventsPerTick;
+    private long tickEvents;
+    private long events;
+    private long sampledEvents;
+
+    /**
+     * Construct a sampler.
+     *
+     * @param rate Record 1 of rate events, must be in [1, {@link #MAX_RATE}], or 0 to adapt it automatically
+     */
+    public BREADSampler(int rate) {
+        if (rate < 0 || rate > MAX_RATE) throw new IllegalArgumentException();
+        this.adaptive = rate == 0;
+        this.rate = this.adaptive ? 1 : rate;
+        this.state = System.nanoTime() | 1;
+        this.smoothedEventsPerTick = 0;
+        this.tickEvents = 0;
+        this.events = 0;
+        this.sampledEvents = 0;
+        drawSkip();
+    }
+
+    /**
+     * Decide whether to record an event.
+     *
+     * @return Weight of the event if it should be recorded, otherwise 0
+     */
+    public int sample() {
+        ++this.tickEvents;
+        if (--this.skip > 0) return 0;
+        int weight = this.skipRate;
+        drawSkip();
+        ++this.sampledEvents;
+        return weight;
+    }
+
+    /**
+     * Advance one tick, and adapt the rate if it's automatic.
+     */
+    public void tick() {
+        this.events += this.tickEvents;
+        if (this.adaptive) {
+            this.smoothedEventsPerTick += RATE_SMOOTHING * (this.tickEvents - this.smoothedEventsPerTick);
+            int rate = (int) Math.min(MAX_RATE,
+                    Math.max(1, Math.ceil(this.smoothedEventsPerTick / TARGET_SAMPLED_EVENTS_PER_TICK)));
+            if (rate != this.rate) {
+                this.rate = rate;
+                drawSkip(); // The gap is memoryless, so redrawing it with the new rate keeps weights unbiased
+            }
+        }
+        this.tickEvents = 0;
+    }
+
+    /**
+     * Return the current rate.
+     *
+     * @return N, one of N events is recorded
+     */
+    public int getRate() {
+        return this.rate;
+    }
+
+    /**
+     * Return the number of events seen, including the current tick.
+     *
+     * @return Number of events
+     */
+    public long getEvents() {
+        return this.events + this.tickEvents;
+    }
+
+    /**
+     * Return the number of events recorded.
+     *
+     * @return Number of events
+     */
+    public long getSampledEvents() {
+        return this.sampledEvents;
+    }
+
+    private void drawSkip() {
+        this.skipRate = this.rate;
+        if (this.rate == 1) {
+            this.skip = 1;
+            return;
+        }
+        double uniform = ((nextLong() >>> 11) + 1) * 0x1.0p-53; // In (0, 1]
+        double gap = Math.floor(Math.log(uniform) / Math.log1p(-1.0 / this.rate));
+        this.skip = 1 + (int) Math.min(gap, Integer.MAX_VALUE - 1);
+    }
+
+    private long nextLong() {
+        this.state ^= this.state >>> 12;
+        this.state ^= this.state << 25;
+        this.state ^= this.state >>> 27;
+        return this.state * 0x2545F4914F6CDD1DL;
+    }
+
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
+
+/**
+ * DBSCAN on spatial shards of points, using Manhattan distance.
+ * <br/>
+ * Points are split into slabs of about the same number of points along the longer horizontal axis,
+ * and every slab is widened by a halo of ε on both sides, so a point owned by a slab has all its neighbors in it.
+ * Slabs are indexed and queried independently, one task per slab, so a single busy world keeps all workers busy.
+ * A point is core by its own slab, core points are united with core neighbors in a shared union-find,
+ * which merges clusters crossing slab borders through halos, and a non-core point joins its nearest core neighbor.
+ * <br/>
+ * It divides points exactly as querying neighbors of every point does.
+ */
+final class BREADShardedClustering {
+
+    private static final int MIN_SHARD_POINTS = 1 << 12;
+    private static final int SHARDS_PER_WORKER = 4; // More shards than workers, for balancing shards of uneven cost
+
+    private BREADShardedClustering() {
+    }
+
+    /**
+     * Label points exactly.
+     *
+     * @param xs           X of points
+     * @param ys           Y of points
+     * @param zs           Z of points
+     * @param ws           Weights of points
+     * @param epsilon      Range of neighbors (inclusive)
+     * @param minWeightSum A point is core if the weight sum of its neighbors is greater than this
+     * @param deadline     Deadline of labelling, checked per point
+     * @return Cluster labels of points, {@link BREADAnalysis#NOISE} for noise
+     * @throws BREADDeadline.Expired if the deadline expires
+     */
+    static int[] label(int[] xs, int[] ys, int[] zs, int[] ws, int epsilon, long minWeightSum,
+                       BREADDeadline deadline) {
+        return label(xs, ys, zs, ws, epsilon, minWeightSum, deadline, new boolean[xs.length]);
+    }
+
+    /**
+     * Label points exactly, and mark core points.
+     *
+     * @param xs           X of points
+     * @param ys           Y of points
+     * @param zs           Z of points
+     * @param ws           Weights of points
+     * @param epsilon      Range of neighbors (inclusive)
+     * @param minWeightSum A point is core if the weight sum of its neighbors is greater than this
+     * @param deadline     Deadline of labelling, checked per point
+     * @param core         Array to mark core points in, as long as points
+     * @return Cluster labels of points, {@link BREADAnalysis#NOISE} for noise
+     * @throws BREADDeadline.Expired if the deadline expires
+     */
+    static int[] label(int[] xs, int[] ys, int[] zs, int[] ws, int epsilon, long minWeightSum,
+                       BREADDeadline deadline, boolean[] core) {
+        int size = xs.length;
+        int[] labels = new int[size];
+        if (size == 0) return labels;
+
+        // Sorting points along the axis to split
+        int[] axis = span(xs) >= span(zs) ? xs : zs;
+        long[] sortedKeys = new long[size];
+        for (int point = 0; point < size; ++point) sortedKeys[point] = (long) axis[point] << 32 | point;
+        Arrays.parallelSort(sortedKeys);
+        int[] order = new int[size], sortedAxis = new int[size];
+        for (int position = 0; position < size; ++position) {
+            order[position] = (int) sortedKeys[position];
+            sortedAxis[position] = (int) (sortedKeys[position] >> 32);
+        }
+
+        // Splitting points into slabs with halos
+        int shardCount = getShardCount(size, (long) sortedAxis[size - 1] - sortedAxis[0], epsilon);
+        Shard[] shards = new Shard[shardCount];
+        for (int shard = 0; shard < shardCount; ++shard) {
+            int ownedFrom = (int) ((long) size * shard / shardCount);
+            int ownedTo = (int) ((long) size * (shard + 1) / shardCount);
+            shards[shard] = new Shard(order, sortedAxis, ownedFrom, ownedTo, epsilon);
+        }
+
+        // Dyeing core points owned by every slab
+        IntStream.range(0, shardCount).parallel().unordered().forEach(shard -> {
+            Shard s = shards[shard];
+            s.index(xs, ys, zs, ws);
+            for (int local = s.ownedFrom; local < s.ownedTo; ++local) {
+                deadline.check();
+                core[s.points[local]] = s.spatialIndex.sumNeighborWeightsManhattan(local, epsilon, s.ws) > minWeightSum;
+            }
+        });
+
+        // Uniting neighboring core points, pairs across slabs are united by the slab of the point ordered first
+        BREADUnionFind clusters = new BREADUnionFind(size);
+        IntStream.range(0, shardCount).parallel().unordered().forEach(shard -> {
+            Shard s = shards[shard];
+            for (int local = s.ownedFrom; local < s.ownedTo; ++local) {
+                deadline.check();
+                int point = s.points[local], from = local;
+                if (!core[point]) continue;
+                s.spatialIndex.forEachNeighborManhattan(local, epsilon, neighbor -> {
+                    if (neighbor > from && core[s.points[neighbor]]) clusters.union(point, s.points[neighbor]);
+                });
+            }
+        });
+
+        // Numbering core points according to clusters, and non-core points by their nearest core neighbors
+        IntStream.range(0, shardCount).parallel().unordered().forEach(shard -> {
+            Shard s = shards[shard];
+            int[] nearestCore = new int[1];
+            for (int local = s.ownedFrom; local < s.ownedTo; ++local) {
+                deadline.check();
+                int point = s.points[local];
+                if (core[point]) {
+                    labels[point] = clusters.find(point) + 1;
+                    continue;
+                }
+                nearestCore[0] = -1;
+                s.spatialIndex.forEachNeighborManhattan(local, epsilon, neighbor -> {
+                    int neighborPoint = s.points[neighbor];
+                    if (core[neighborPoint] && (nearestCore[0] < 0 ||
+                            BREADAnalysis.isNearer(xs, ys, zs, point, neighborPoint, nearestCore[0])))
+                        nearestCore[0] = neighborPoint;
+                });
+                if (nearestCore[0] >= 0) labels[point] = clusters.find(nearestCore[0]) + 1;
+            }
+            s.spatialIndex.clear();
+        });
+        return labels;
+    }
+
+    /**
+     * Return the number of slabs to split points into.
+     * There is about one slab per {@link #MIN_SHARD_POINTS} points, up to {@link #SHARDS_PER_WORKER} per worker,
+     * and slabs are no thinner than 2ε on average, or halos would be larger than slabs.
+     *
+     * @param size    Number of points
+     * @param span    Span of points along the axis to split
+     * @param epsilon Range of neighbors (inclusive)
+     * @return Number of slabs
+     */
+    private static int getShardCount(int size, long span, int epsilon) {
+        ForkJoinPool pool = ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : ForkJoinPool.commonPool();
+        long shardCount = Math.min(size / MIN_SHARD_POINTS, (long) pool.getParallelism() * SHARDS_PER_WORKER);
+        shardCount = Math.min(shardCount, span / (2L * epsilon));
+        return (int) Math.max(shardCount, 1);
+    }
+
+    private static long span(int[] components) {
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        for (int component : components) {
+            min = Math.min(min, component);
+            max = Math.max(max, component);
+        }
+        return (long) max - min;
+    }
+
+    /**
+     * A slab of points with its halos, whose points are ordered along the split axis.
+     */
+    private static final class Shard {
+
+        private final int[] points; // Indices of points, by local indices in the slab
+        private final int ownedFrom; // Local indices of points owned by the slab, the others are in halos
+        private final int ownedTo;
+        private int[] ws;
+        private BREADSpatialIndex spatialIndex;
+
+        private Shard(int[] order, int[] sortedAxis, int ownedFrom, int ownedTo, int epsilon) {
+            int haloFrom = lowerBound(sortedAxis, (long) sortedAxis[ownedFrom] - epsilon);
+            int haloTo = lowerBound(sortedAxis, (long) sortedAxis[ownedTo - 1] + epsilon + 1);
+            this.points = Arrays.copyOfRange(order, haloFrom, haloTo);
+            this.ownedFrom = ownedFrom - haloFrom;
+            this.ownedTo = ownedTo - haloFrom;
+            this.ws = null;
+            this.spatialIndex = null;
+        }
+
+        /**
+         * Build the spatial index of this slab.
+         *
+         * @param xs X of all points
+         * @param ys Y of all points
+         * @param zs Z of all points
+         * @param ws Weights of all points
+         */
+        private void index(int[] xs, int[] ys, int[] zs, int[] ws) {
+            int[] localXs = new int[this.points.length], localYs = new int[this.points.length],
+                    localZs = new int[this.points.length];
+            this.ws = new int[this.points.length];
+            for (int local = 0; local < this.points.length; ++local) {
+                localXs[local] = xs[this.points[local]];
+                localYs[local] = ys[this.points[local]];
+                localZs[local] = zs[this.points[local]];
+                this.ws[local] = ws[this.points[local]];
+            }
+            this.spatialIndex = BREADAnalysis.createSpatialIndex(localXs, localYs, localZs);
+        }
+
+        private static int lowerBound(int[] sorted, long value) {
+            int low = 0, high = sorted.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (sorted[middle] < value) low = middle + 1;
+                else high = middle;
+            }
+            return low;
+        }
+
+    }
+
+}
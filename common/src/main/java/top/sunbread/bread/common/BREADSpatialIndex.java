@@ -0,0 +1,628 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * An index of points which finds neighbors of a point.
+ * <br/>
+ * Points are given as coordinate columns, and referred to by their indices in the columns.
+ * Indices differ in building cost and in how well they suit sparse or dense points,
+ * {@link #select(int[], int[], int[], int)} picks one from the number of points and their density.
+ */
+public abstract class BREADSpatialIndex {
+
+    private static final double OCTAHEDRON_VOLUME_RATIO = 4.0 / 3; // Volume of a Manhattan ball over radius^3
+    private static final double DENSE_NEIGHBORS = 512; // From this many expected neighbors, grids query as fast as trees
+
+    BREADSpatialIndex() {
+    }
+
+    /**
+     * Build an index.
+     *
+     * @param type    Type of the index
+     * @param xs      X of points
+     * @param ys      Y of points
+     * @param zs      Z of points
+     * @param epsilon Range of queries which the index is tuned for
+     * @return An index of points
+     */
+    public static BREADSpatialIndex create(Type type, int[] xs, int[] ys, int[] zs, int epsilon) {
+        switch (type) {
+            case GRID:
+                return new GridIndex(xs, ys, zs, epsilon);
+            case ROTATED_GRID:
+                return new RotatedGridIndex(xs, ys, zs, Math.max(epsilon / 2, 1));
+            case KD_TREE:
+                return new KdTreeIndex(xs, ys, zs);
+            case RANGE_TREE:
+                return new RangeTreeIndex(xs, ys, zs);
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * Pick a type of index for the given points.
+     * <br/>
+     * A k-d tree answers queries the fastest unless points are dense,
+     * where a grid of rotated coordinates queries about as fast and builds several times faster.
+     * Density is estimated over the bounding box of points.
+     *
+     * @param xs      X of points
+     * @param ys      Y of points
+     * @param zs      Z of points
+     * @param epsilon Range of queries
+     * @return Type of index
+     */
+    public static Type select(int[] xs, int[] ys, int[] zs, int epsilon) {
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+        for (int index = 0; index < xs.length; ++index) {
+            minX = Math.min(minX, xs[index]);
+            minY = Math.min(minY, ys[index]);
+            minZ = Math.min(minZ, zs[index]);
+            maxX = Math.max(maxX, xs[index]);
+            maxY = Math.max(maxY, ys[index]);
+            maxZ = Math.max(maxZ, zs[index]);
+        }
+        double volume = ((double) maxX - minX + 1) * ((double) maxY - minY + 1) * ((double) maxZ - minZ + 1);
+        double expectedNeighbors = xs.length / volume * OCTAHEDRON_VOLUME_RATIO * epsilon * epsilon * epsilon;
+        return expectedNeighbors >= DENSE_NEIGHBORS ? Type.ROTATED_GRID : Type.KD_TREE;
+    }
+
+    /**
+     * Call an action for every neighbor point of a specific point, using Manhattan distance.
+     *
+     * @param index   Index of the specific point
+     * @param epsilon Range (inclusive)
+     * @param action  Action to call with indices of neighbor points (including the specific point)
+     */
+    public void forEachNeighborManhattan(int index, int epsilon, IntConsumer action) {
+        visit(index, epsilon, action, null);
+    }
+
+    /**
+     * Get neighbor points of a specific point, using Manhattan distance.
+     *
+     * @param index   Index of the specific point
+     * @param epsilon Range (inclusive)
+     * @return Indices of neighbor points (including the specific point)
+     */
+    public int[] getNeighborsManhattan(int index, int epsilon) {
+        BREADIntList neighbors = new BREADIntList();
+        visit(index, epsilon, neighbors, null);
+        return neighbors.toArray();
+    }
+
+    /**
+     * Sum weights of neighbor points of a specific point, using Manhattan distance.
+     *
+     * @param index   Index of the specific point
+     * @param epsilon Range (inclusive)
+     * @param weights Weights of points
+     * @return Sum of weights of neighbor points (including the specific point)
+     */
+    public long sumNeighborWeightsManhattan(int index, int epsilon, int[] weights) {
+        return visit(index, epsilon, null, weights);
+    }
+
+    /**
+     * Release the index.
+     */
+    public void clear() {
+    }
+
+    /**
+     * Visit neighbor points of a specific point, using Manhattan distance.
+     *
+     * @param index   Index of the specific point
+     * @param epsilon Range (inclusive)
+     * @param action  Action to call with indices of neighbor points, null to sum weights instead
+     * @param weights Weights of points, ignored if action isn't null
+     * @return Sum of weights of neighbor points, 0 if action isn't null
+     */
+    abstract long visit(int index, int epsilon, IntConsumer action, int[] weights);
+
+    /**
+     * Types of index.
+     */
+    public enum Type {GRID, ROTATED_GRID, KD_TREE, RANGE_TREE}
+
+    /**
+     * A uniform grid of cubic cells over point columns.
+     * <br/>
+     * A query scans the few cells overlapping the bounding box of the range.
+     */
+    private static final class GridIndex extends BREADSpatialIndex {
+
+        private int[] xs, ys, zs;
+        private BREADCellTable cells;
+
+        /**
+         * Construct a grid.
+         *
+         * @param xs       X of points
+         * @param ys       Y of points
+         * @param zs       Z of points
+         * @param cellSize Length of a cell, queries are fastest when it's about epsilon
+         */
+        GridIndex(int[] xs, int[] ys, int[] zs, int cellSize) {
+            this.xs = xs;
+            this.ys = ys;
+            this.zs = zs;
+            this.cells = new BREADCellTable(xs, ys, zs, cellSize);
+        }
+
+        @Override
+        long visit(int index, int epsilon, IntConsumer action, int[] weights) {
+            int x = this.xs[index], y = this.ys[index], z = this.zs[index];
+            BREADCellTable cells = this.cells;
+            long sum = 0;
+            for (int cellX = cells.cell(x - epsilon); cellX <= cells.cell(x + epsilon); ++cellX)
+                for (int cellY = cells.cell(y - epsilon); cellY <= cells.cell(y + epsilon); ++cellY)
+                    for (int cellZ = cells.cell(z - epsilon); cellZ <= cells.cell(z + epsilon); ++cellZ) {
+                        int slot = cells.find(cellX, cellY, cellZ);
+                        if (slot < 0) continue;
+                        for (int position = cells.start(slot); position < cells.end(slot); ++position) {
+                            int neighbor = cells.point(position);
+                            if (Math.abs(this.xs[neighbor] - x) + Math.abs(this.ys[neighbor] - y) +
+                                    Math.abs(this.zs[neighbor] - z) > epsilon) continue;
+                            if (action != null) action.accept(neighbor);
+                            else sum += weights[neighbor];
+                        }
+                    }
+            return sum;
+        }
+
+        @Override
+        public void clear() {
+            this.xs = this.ys = this.zs = new int[0];
+            this.cells = new BREADCellTable(this.xs, this.ys, this.zs, 1);
+        }
+
+    }
+
+    /**
+     * A uniform grid over rotated coordinates of points.
+     * <br/>
+     * Points are mapped to u = x+y+z, v = x+y-z, w = x-y+z and t = -x+y+z = u-v-w,
+     * and the Manhattan distance of two points is the largest difference of these four coordinates.
+     * So a Manhattan range is exactly a box of rotated coordinates, which holds far fewer points
+     * than the axis-aligned box around the range.
+     * Cells are cubes of u, v and w, a cell entirely inside the box is taken without testing its points,
+     * only points of cells crossing the border of the box are tested.
+     */
+    private static final class RotatedGridIndex extends BREADSpatialIndex {
+
+        private int[] us, vs, ws;
+        private BREADCellTable cells;
+
+        /**
+         * Construct a grid.
+         *
+         * @param xs       X of points
+         * @param ys       Y of points
+         * @param zs       Z of points
+         * @param cellSize Length of a cell in rotated coordinates,
+         *                 queries are fastest when it's about half of epsilon
+         */
+        RotatedGridIndex(int[] xs, int[] ys, int[] zs, int cellSize) {
+            this.us = new int[xs.length];
+            this.vs = new int[xs.length];
+            this.ws = new int[xs.length];
+            for (int index = 0; index < xs.length; ++index) {
+                this.us[index] = xs[index] + ys[index] + zs[index];
+                this.vs[index] = xs[index] + ys[index] - zs[index];
+                this.ws[index] = xs[index] - ys[index] + zs[index];
+            }
+            this.cells = new BREADCellTable(this.us, this.vs, this.ws, cellSize);
+        }
+
+        @Override
+        long visit(int index, int epsilon, IntConsumer action, int[] weights) {
+            int u = this.us[index], v = this.vs[index], w = this.ws[index], t = u - v - w;
+            BREADCellTable cells = this.cells;
+            long sum = 0;
+            for (int cellU = cells.cell(u - epsilon); cellU <= cells.cell(u + epsilon); ++cellU) {
+                int minU = cells.lower(cellU), maxU = cells.upper(cellU);
+                boolean insideU = minU >= u - epsilon && maxU <= u + epsilon;
+                for (int cellV = cells.cell(v - epsilon); cellV <= cells.cell(v + epsilon); ++cellV) {
+                    int minV = cells.lower(cellV), maxV = cells.upper(cellV);
+                    boolean insideUV = insideU && minV >= v - epsilon && maxV <= v + epsilon;
+                    for (int cellW = cells.cell(w - epsilon); cellW <= cells.cell(w + epsilon); ++cellW) {
+                        int minW = cells.lower(cellW), maxW = cells.upper(cellW);
+                        // T is bounded by the cell as well
+                        if (minU - maxV - maxW > t + epsilon || maxU - minV - minW < t - epsilon) continue;
+                        int slot = cells.find(cellU, cellV, cellW);
+                        if (slot < 0) continue;
+                        int start = cells.start(slot), end = cells.end(slot);
+                        if (cells.isExact() && insideUV && minW >= w - epsilon && maxW <= w + epsilon &&
+                                minU - maxV - maxW >= t - epsilon && maxU - minV - minW <= t + epsilon) {
+                            for (int position = start; position < end; ++position)
+                                if (action != null) action.accept(cells.point(position));
+                                else sum += weights[cells.point(position)];
+                            continue;
+                        }
+                        for (int position = start; position < end; ++position) {
+                            int neighbor = cells.point(position);
+                            int neighborU = this.us[neighbor], neighborV = this.vs[neighbor],
+                                    neighborW = this.ws[neighbor];
+                            if (Math.abs(neighborU - u) > epsilon || Math.abs(neighborV - v) > epsilon ||
+                                    Math.abs(neighborW - w) > epsilon ||
+                                    Math.abs(neighborU - neighborV - neighborW - t) > epsilon) continue;
+                            if (action != null) action.accept(neighbor);
+                            else sum += weights[neighbor];
+                        }
+                    }
+                }
+            }
+            return sum;
+        }
+
+        @Override
+        public void clear() {
+            this.us = this.vs = this.ws = new int[0];
+            this.cells = new BREADCellTable(this.us, this.vs, this.ws, 1);
+        }
+
+    }
+
+    /**
+     * A balanced k-d tree over point columns.
+     * <br/>
+     * The tree is implicit: points are permuted so that the median of every range splits it,
+     * and coordinates are permuted along with them to be read in order.
+     * A query descends into a child only if the Manhattan distance to its region may be within the range.
+     */
+    private static final class KdTreeIndex extends BREADSpatialIndex {
+
+        private static final int LEAF_SIZE = 8;
+
+        private int[] order; // Indices of points in tree order
+        private int[] positions; // Positions of points in tree order
+        private int[][] coordinates; // X, Y and Z of points in tree order
+
+        KdTreeIndex(int[] xs, int[] ys, int[] zs) {
+            this.order = new int[xs.length];
+            for (int index = 0; index < xs.length; ++index) this.order[index] = index;
+            this.coordinates = new int[][]{xs.clone(), ys.clone(), zs.clone()};
+            build(0, xs.length, 0);
+            this.positions = new int[xs.length];
+            for (int position = 0; position < xs.length; ++position) this.positions[this.order[position]] = position;
+        }
+
+        @Override
+        long visit(int index, int epsilon, IntConsumer action, int[] weights) {
+            int position = this.positions[index];
+            int[] center = {this.coordinates[0][position], this.coordinates[1][position], this.coordinates[2][position]};
+            return visit(0, this.order.length, 0, center, new int[3], 0, epsilon, action, weights);
+        }
+
+        @Override
+        public void clear() {
+            this.order = this.positions = new int[0];
+            this.coordinates = new int[][]{new int[0], new int[0], new int[0]};
+        }
+
+        private long visit(int from, int to, int depth, int[] center, int[] offsets, int distance, int epsilon,
+                           IntConsumer action, int[] weights) {
+            long sum = 0;
+            if (to - from <= LEAF_SIZE) {
+                for (int position = from; position < to; ++position)
+                    if (isNeighbor(position, center, epsilon))
+                        if (action != null) action.accept(this.order[position]);
+                        else sum += weights[this.order[position]];
+                return sum;
+            }
+            int middle = (from + to) >>> 1;
+            int axis = depth % 3;
+            if (isNeighbor(middle, center, epsilon))
+                if (action != null) action.accept(this.order[middle]);
+                else sum += weights[this.order[middle]];
+            int difference = center[axis] - this.coordinates[axis][middle];
+            // The near child keeps the distance to the region, the far child is at least |difference| away on the axis
+            if (difference <= 0) sum += visit(from, middle, depth + 1, center, offsets, distance, epsilon, action, weights);
+            else sum += visit(middle + 1, to, depth + 1, center, offsets, distance, epsilon, action, weights);
+            int offset = offsets[axis];
+            int farDistance = distance - offset + Math.abs(difference);
+            if (farDistance <= epsilon) {
+                offsets[axis] = Math.abs(difference);
+                if (difference <= 0)
+                    sum += visit(middle + 1, to, depth + 1, center, offsets, farDistance, epsilon, action, weights);
+                else
+                    sum += visit(from, middle, depth + 1, center, offsets, farDistance, epsilon, action, weights);
+                offsets[axis] = offset;
+            }
+            return sum;
+        }
+
+        private boolean isNeighbor(int position, int[] center, int epsilon) {
+            return Math.abs(this.coordinates[0][position] - center[0]) +
+                    Math.abs(this.coordinates[1][position] - center[1]) +
+                    Math.abs(this.coordinates[2][position] - center[2]) <= epsilon;
+        }
+
+        private void build(int from, int to, int depth) {
+            if (to - from <= LEAF_SIZE) return;
+            int middle = (from + to) >>> 1;
+            select(from, to - 1, middle, depth % 3);
+            build(from, middle, depth + 1);
+            build(middle + 1, to, depth + 1);
+        }
+
+        /**
+         * Move the k-th smallest point on an axis to position k,
+         * with no greater points before it and no smaller points after it.
+         */
+        private void select(int left, int right, int k, int axis) {
+            int[] values = this.coordinates[axis];
+            while (left < right) {
+                int pivot = values[(left + right) >>> 1];
+                int i = left, j = right;
+                while (i <= j) {
+                    while (values[i] < pivot) ++i;
+                    while (values[j] > pivot) --j;
+                    if (i <= j) swap(i++, j--);
+                }
+                if (k <= j) right = j;
+                else if (k >= i) left = i;
+                else return;
+            }
+        }
+
+        private void swap(int i, int j) {
+            int index = this.order[i];
+            this.order[i] = this.order[j];
+            this.order[j] = index;
+            for (int[] values : this.coordinates) {
+                int value = values[i];
+                values[i] = values[j];
+                values[j] = value;
+            }
+        }
+
+    }
+
+    /**
+     * A neighbor index backed by {@link RangeTree}.
+     * It's slow, and only kept as a fallback.
+     */
+    private static final class RangeTreeIndex extends BREADSpatialIndex {
+
+        private RangeTree<Integer> rangeTree;
+
+        RangeTreeIndex(int[] xs, int[] ys, int[] zs) {
+            this.rangeTree = new RangeTree<>(IntStream.range(0, xs.length).boxed().collect(Collectors.toSet()),
+                    Arrays.asList(index -> xs[index], index -> ys[index], index -> zs[index]));
+        }
+
+        @Override
+        long visit(int index, int epsilon, IntConsumer action, int[] weights) {
+            long sum = 0;
+            for (int neighbor : this.rangeTree.getNeighborPointsManhattan(index, epsilon))
+                if (action != null) action.accept(neighbor);
+                else sum += weights[neighbor];
+            return sum;
+        }
+
+        @Override
+        public void clear() {
+            this.rangeTree.clear();
+        }
+
+    }
+
+    /**
+     * An implementation of Range Tree.
+     * It's used to get neighbor points of a specific point efficiently.
+     *
+     * @param <P> Point type
+     * @see <a href="https://en.wikipedia.org/wiki/Range_tree">Wikipedia</a>
+     */
+    private static final class RangeTree<P> {
+
+        private List<Function<P, Integer>> componentFilters;
+        private Node<P> tree;
+
+        /**
+         * Construct a Range Tree.
+         *
+         * @param points           Points as elements
+         * @param componentFilters A list of functions to get components of a point
+         */
+        RangeTree(Set<P> points, List<Function<P, Integer>> componentFilters) {
+            this.componentFilters = new ArrayList<>(componentFilters);
+            this.tree = makeTree(0, points);
+        }
+
+        /**
+         * Get neighbor points of a specific point, using Manhattan distance.
+         *
+         * @param centerPoint Specific point
+         * @param epsilon     Range (inclusive)
+         * @return Neighbor points of the specific point (including center point if it's in the tree)
+         */
+        Set<P> getNeighborPointsManhattan(P centerPoint, int epsilon) {
+            int realEps = Math.abs(epsilon);
+            List<Integer> from = this.componentFilters.stream().map(f -> f.apply(centerPoint)).
+                    map(c -> c - realEps).collect(Collectors.toList());
+            List<Integer> to = this.componentFilters.stream().map(f -> f.apply(centerPoint)).
+                    map(c -> c + realEps).collect(Collectors.toList());
+            BiFunction<P, P, Integer> manhattanDistance =
+                    (p1, p2) -> this.componentFilters.stream().mapToInt(d -> Math.abs(d.apply(p1) - d.apply(p2))).sum();
+            return queryInclusiveRange(from, to).parallelStream().unordered().
+                    filter(point -> manhattanDistance.apply(centerPoint, point) <= epsilon).
+                    collect(Collectors.toSet());
+        }
+
+        /**
+         * Remove all elements from this Range Tree.
+         */
+        void clear() {
+            this.componentFilters.clear();
+            clearTree(this.tree);
+            this.tree = new Node<>((P) null);
+        }
+
+        /**
+         * A recursive function to make Range Tree.
+         *
+         * @param depth  Depth of the node
+         * @param points Elements of the node
+         * @return Made point
+         */
+        private Node<P> makeTree(int depth, Set<P> points) {
+            if (depth == this.componentFilters.size()) {
+                if (points.size() == 1)
+                    return new Node<>(points.iterator().next());
+                else if (points.size() == 0) {
+                    assert false;
+                    throw new RuntimeException();
+                } else
+                    throw new RuntimeException("Found duplicate points");
+            }
+            Function<P, Integer> componentFilter = this.componentFilters.get(depth);
+            Function<Integer, Node<P>> treeNodeGenerator =
+                    component -> makeTree(depth + 1, points.parallelStream().unordered().filter(childPoint ->
+                            componentFilter.apply(childPoint).equals(component)).collect(Collectors.toSet()));
+            // Return type isn't Node<TreeMap> but Node<P>
+            return new Node<>(points.parallelStream().unordered().map(componentFilter).distinct().
+                    collect(Collectors.toMap(Function.identity(), treeNodeGenerator,
+                            (v1, v2) -> {
+                                assert false;
+                                throw new RuntimeException();
+                            }, TreeMap::new)));
+        }
+
+        /**
+         * A recursive function to clear Range Tree.
+         *
+         * @param tree Node that will be removed
+         */
+        private void clearTree(Node<P> tree) {
+            if (tree.isLeaf()) return;
+            tree.getBST().values().parallelStream().unordered().forEach(this::clearTree);
+            tree.getBST().clear();
+        }
+
+        /**
+         * Get all points in a rectangle range (inclusive).
+         *
+         * @param from Vertex coordinates
+         * @param to   Diagonal vertex coordinates
+         * @return All points in a rectangle range (inclusive)
+         */
+        private Set<P> queryInclusiveRange(List<Integer> from, List<Integer> to) {
+            if (from.size() != to.size() || from.size() != this.componentFilters.size())
+                throw new IllegalArgumentException();
+            Stack<Node<P>> nodeStack = new Stack<>();
+            Stack<List<Node<P>>> childNodesStack = new Stack<>();
+            Set<P> result = new HashSet<>();
+            nodeStack.push(this.tree);
+            childNodesStack.push(null);
+            while (!nodeStack.empty()) {
+                Node<P> node = nodeStack.peek();
+                int depth = nodeStack.size() - 1;
+                if (node.isLeaf()) {
+                    result.add(node.getPoint());
+                    nodeStack.pop();
+                    childNodesStack.pop();
+                } else {
+                    List<Node<P>> childNodes = childNodesStack.peek();
+                    if (childNodes == null) {
+                        int less = Math.min(from.get(depth), to.get(depth));
+                        int greater = Math.max(from.get(depth), to.get(depth));
+                        childNodesStack.pop();
+                        childNodesStack.push(new LinkedList<>(Objects.requireNonNull(node.getBST()).
+                                subMap(less, true, greater, true).values()));
+                        childNodes = childNodesStack.peek();
+                    }
+                    if (childNodes.isEmpty()) {
+                        nodeStack.pop();
+                        childNodesStack.pop();
+                    } else {
+                        Node<P> childNode = childNodes.get(0);
+                        childNodes.remove(0);
+                        nodeStack.push(childNode);
+                        childNodesStack.push(null);
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * A wrapper that wraps trees and points.
+         */
+        private static final class Node<P> {
+
+            private UUID uuid;
+            private boolean leaf;
+            private P point;
+            private TreeMap<Integer, Node<P>> bst;
+
+            Node(P point) {
+                this.uuid = UUID.randomUUID();
+                this.leaf = true;
+                this.point = point;
+            }
+
+            Node(TreeMap<Integer, Node<P>> bst) {
+                this.uuid = UUID.randomUUID();
+                this.leaf = false;
+                this.bst = bst;
+            }
+
+            boolean isLeaf() {
+                return this.leaf;
+            }
+
+            P getPoint() {
+                return this.leaf ? this.point : null;
+            }
+
+            TreeMap<Integer, Node<P>> getBST() {
+                return this.leaf ? null : this.bst;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (o == null) return false;
+                if (this == o) return true;
+                if (!(o instanceof Node)) return false;
+                return this.uuid.equals(((Node) o).uuid);
+            }
+
+            @Override
+            public int hashCode() {
+                return this.uuid.hashCode();
+            }
+
+        }
+
+    }
+
+}
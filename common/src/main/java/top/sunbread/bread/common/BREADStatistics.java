@@ -17,9 +17,11 @@
 
 package top.sunbread.bread.common;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.UUID;
 
 /**
  * A util class that provides statistics data structure.
@@ -64,13 +66,39 @@ public final class BREADStatistics {
         public double eventsPerTick;
         public double[] eventCentroidLocation; // has 3 elements
         public double distanceFromCentroid;
+        public int[] boundingBox; // Min X, Y and Z, then max X, Y and Z
+        public int peakBlockEvents; // Events of the hottest block
+        public double eventVariance; // Weighted mean of squared distances from the centroid
+        public int chunks; // Number of distinct chunks touched
+        // The fields below are only counted if activity is recorded
+        public int bucketTicks; // 0 if not counted
+        public double[] eventsPerTickSeries; // One element per bucket, null if not counted
+        public double peakEventsPerTick; // NaN if not counted
+        public int clockPeriod; // The unit is ticks, 0 if not counted or not periodic
 
         ClusterStatistics(Set<Point> raw, double eventsPerTick,
-                          double[] eventCentroidLocation, double distanceFromCentroid) {
+                          double[] eventCentroidLocation, double distanceFromCentroid,
+                          int[] boundingBox, int peakBlockEvents, double eventVariance, int chunks) {
+            this(raw, eventsPerTick, eventCentroidLocation, distanceFromCentroid,
+                    boundingBox, peakBlockEvents, eventVariance, chunks, 0, null, Double.NaN, 0);
+        }
+
+        ClusterStatistics(Set<Point> raw, double eventsPerTick,
+                          double[] eventCentroidLocation, double distanceFromCentroid,
+                          int[] boundingBox, int peakBlockEvents, double eventVariance, int chunks,
+                          int bucketTicks, double[] eventsPerTickSeries, double peakEventsPerTick, int clockPeriod) {
             this.raw = raw;
             this.eventsPerTick = eventsPerTick;
             this.eventCentroidLocation = eventCentroidLocation;
             this.distanceFromCentroid = distanceFromCentroid;
+            this.boundingBox = boundingBox;
+            this.peakBlockEvents = peakBlockEvents;
+            this.eventVariance = eventVariance;
+            this.chunks = chunks;
+            this.bucketTicks = bucketTicks;
+            this.eventsPerTickSeries = eventsPerTickSeries;
+            this.peakEventsPerTick = peakEventsPerTick;
+            this.clockPeriod = clockPeriod;
         }
 
         @Override
@@ -81,12 +109,22 @@ public final class BREADStatistics {
             return this.raw.equals(((ClusterStatistics) o).raw) &&
                     this.eventsPerTick == ((ClusterStatistics) o).eventsPerTick &&
                     this.eventCentroidLocation == ((ClusterStatistics) o).eventCentroidLocation &&
-                    this.distanceFromCentroid == ((ClusterStatistics) o).distanceFromCentroid;
+                    this.distanceFromCentroid == ((ClusterStatistics) o).distanceFromCentroid &&
+                    this.boundingBox == ((ClusterStatistics) o).boundingBox &&
+                    this.peakBlockEvents == ((ClusterStatistics) o).peakBlockEvents &&
+                    this.eventVariance == ((ClusterStatistics) o).eventVariance &&
+                    this.chunks == ((ClusterStatistics) o).chunks &&
+                    this.bucketTicks == ((ClusterStatistics) o).bucketTicks &&
+                    this.eventsPerTickSeries == ((ClusterStatistics) o).eventsPerTickSeries &&
+                    Double.compare(this.peakEventsPerTick, ((ClusterStatistics) o).peakEventsPerTick) == 0 &&
+                    this.clockPeriod == ((ClusterStatistics) o).clockPeriod;
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(this.raw, this.eventsPerTick, this.eventCentroidLocation, this.distanceFromCentroid);
+            return Objects.hash(this.raw, this.eventsPerTick, this.eventCentroidLocation, this.distanceFromCentroid,
+                    this.boundingBox, this.peakBlockEvents, this.eventVariance, this.chunks,
+                    this.bucketTicks, this.eventsPerTickSeries, this.peakEventsPerTick, this.clockPeriod);
         }
 
     }
@@ -126,10 +164,20 @@ public final class BREADStatistics {
 
         public List<ClusterStatistics> clusters;
         public NoiseStatistics noise;
+        // The fields below are only set if the analysis ran out of time before the world was done
+        public boolean partial; // Only clusters counted in time are kept, noise is empty if not counted in time
+        public List<HeavyHitter> hotspots; // Hottest blocks with exact counts, empty if not partial
 
         WorldStatistics(List<ClusterStatistics> clusters, NoiseStatistics noise) {
+            this(clusters, noise, false, Collections.emptyList());
+        }
+
+        WorldStatistics(List<ClusterStatistics> clusters, NoiseStatistics noise,
+                        boolean partial, List<HeavyHitter> hotspots) {
             this.clusters = clusters;
             this.noise = noise;
+            this.partial = partial;
+            this.hotspots = hotspots;
         }
 
         @Override
@@ -137,12 +185,53 @@ public final class BREADStatistics {
             if (o == null) return false;
             if (this == o) return true;
             if (!(o instanceof WorldStatistics)) return false;
-            return this.clusters.equals(((WorldStatistics) o).clusters) && this.noise.equals(((WorldStatistics) o).noise);
+            return this.clusters.equals(((WorldStatistics) o).clusters) &&
+                    this.noise.equals(((WorldStatistics) o).noise) &&
+                    this.partial == ((WorldStatistics) o).partial &&
+                    this.hotspots.equals(((WorldStatistics) o).hotspots);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.clusters, this.noise, this.partial, this.hotspots);
+        }
+
+    }
+
+    /**
+     * A structure of a hot block found in a fixed memory budget.
+     * <br/>
+     * Its real event times are in [count - error, count].
+     */
+    public static final class HeavyHitter {
+
+        public UUID world;
+        public int x, y, z;
+        public long count;
+        public long error;
+
+        HeavyHitter(UUID world, int x, int y, int z, long count, long error) {
+            this.world = world;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.count = count;
+            this.error = error;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == null) return false;
+            if (this == o) return true;
+            if (!(o instanceof HeavyHitter)) return false;
+            return this.world.equals(((HeavyHitter) o).world) &&
+                    this.x == ((HeavyHitter) o).x && this.y == ((HeavyHitter) o).y && this.z == ((HeavyHitter) o).z &&
+                    this.count == ((HeavyHitter) o).count && this.error == ((HeavyHitter) o).error;
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(this.clusters, this.noise);
+            return Objects.hash(this.world, this.x, this.y, this.z, this.count, this.error);
         }
 
     }
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A lock-free disjoint-set forest of integers.
+ * <br/>
+ * Any thread may union and find concurrently.
+ * A root is always linked under a smaller root by CAS, so links never form a cycle,
+ * and paths are halved by CAS while finding.
+ */
+final class BREADUnionFind {
+
+    private final AtomicIntegerArray parents;
+
+    /**
+     * Construct a forest where every element is a set of its own.
+     *
+     * @param size Number of elements
+     */
+    BREADUnionFind(int size) {
+        this.parents = new AtomicIntegerArray(size);
+        for (int element = 0; element < size; ++element) this.parents.lazySet(element, element);
+    }
+
+    /**
+     * Find the representative of the set of an element.
+     * <br/>
+     * Representatives may change while other threads are uniting sets.
+     *
+     * @param element Element to find
+     * @return Representative, which is the smallest element of the set once all unions are done
+     */
+    int find(int element) {
+        while (true) {
+            int parent = this.parents.get(element);
+            if (parent == element) return element;
+            int grandparent = this.parents.get(parent);
+            if (grandparent == parent) return parent;
+            this.parents.compareAndSet(element, parent, grandparent); // Failing only means someone else halved it
+            element = grandparent;
+        }
+    }
+
+    /**
+     * Unite the sets of two elements.
+     *
+     * @param element1 One element
+     * @param element2 The other element
+     */
+    void union(int element1, int element2) {
+        while (true) {
+            int root1 = find(element1), root2 = find(element2);
+            if (root1 == root2) return;
+            if (root1 < root2) {
+                int root = root1;
+                root1 = root2;
+                root2 = root;
+            }
+            if (this.parents.compareAndSet(root1, root1, root2)) return;
+        }
+    }
+
+}
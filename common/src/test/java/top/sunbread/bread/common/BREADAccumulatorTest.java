@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BREADAccumulatorTest {
+
+    @Test
+    void snapshotTest() {
+        Random rand = new Random();
+        List<UUID> worlds = Arrays.asList(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+        BREADAccumulator accumulator = new BREADAccumulator();
+        Map<UUID, Map<List<Integer>, Integer>> expected = new HashMap<>();
+        for (int i = 0; i < 100000; ++i) {
+            // Copy UID to make sure worlds are compared by value
+            UUID original = worlds.get(rand.nextInt(worlds.size()));
+            UUID world = new UUID(original.getMostSignificantBits(), original.getLeastSignificantBits());
+            int x = rand.nextInt(200) - 100, y = rand.nextInt(256), z = rand.nextInt(200) - 100;
+            accumulator.add(world, x, y, z);
+            expected.computeIfAbsent(world, uid -> new HashMap<>()).merge(Arrays.asList(x, y, z), 1, Integer::sum);
+        }
+        Map<UUID, BREADPoints> snapshot = accumulator.snapshot();
+        assertEquals(expected.keySet(), snapshot.keySet());
+        for (Map.Entry<UUID, BREADPoints> entry : snapshot.entrySet()) {
+            BREADPoints points = entry.getValue();
+            Map<List<Integer>, Integer> expectedPoints = expected.get(entry.getKey());
+            assertEquals(expectedPoints.size(), points.size());
+            for (int i = 0; i < points.size(); ++i)
+                assertEquals((int) expectedPoints.get(Arrays.asList(points.x(i), points.y(i), points.z(i))),
+                        points.weight(i));
+        }
+        accumulator.clear();
+        assertEquals(0, accumulator.snapshot().size());
+    }
+
+    @Test
+    void activityTest() {
+        UUID world = UUID.randomUUID();
+        BREADAccumulator accumulator = new BREADAccumulator(BREADPointCounter.Storage.OFF_HEAP, 5, 600);
+        for (int tick = 0; tick < 700; ++tick) { // Ticks beyond the period count as the last bucket
+            for (int x = 0; x < 100; ++x)
+                if (tick % (x + 1) == 0) accumulator.add(world, x, 64, 0);
+            accumulator.tick();
+        }
+        BREADAccumulator merged = new BREADAccumulator(BREADPointCounter.Storage.HEAP, 5, 600);
+        merged.addAll(accumulator.snapshot());
+        BREADPoints points = merged.snapshot().get(world);
+        BREADActivity activity = points.getActivity();
+        assertEquals(120, activity.getBuckets());
+        for (int x = 0; x < 100; ++x) {
+            int index = points.indexOf(BREADPointCounter.pack(x, 64, 0));
+            assertEquals(x, points.x(index));
+            for (int bucket = 0; bucket < 120; ++bucket) {
+                boolean expected = false;
+                for (int tick = bucket * 5; tick < (bucket == 119 ? 700 : bucket * 5 + 5); ++tick)
+                    expected |= tick % (x + 1) == 0;
+                assertEquals(expected, activity.isActive(index, bucket), "Block " + x + ", bucket " + bucket);
+            }
+        }
+        assertEquals(-1, points.indexOf(BREADPointCounter.pack(0, 0, 0)));
+    }
+
+}
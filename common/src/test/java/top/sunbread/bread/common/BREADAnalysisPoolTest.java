@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BREADAnalysisPoolTest {
+
+    @Test
+    void incrementalAnalyserTest() throws Exception {
+        Random rand = new Random();
+        BREADAnalysisPool pool = new BREADAnalysisPool(2);
+        try {
+            UUID world = UUID.randomUUID();
+            Map<UUID, BREADIncrementalClustering> clusterings = new HashMap<>();
+            Map<Long, Integer> weights = new HashMap<>();
+            int[] expectedLoads = {1, 1, 2}, expectedRefreshes = {0, 1, 1};
+            for (int run = 0; run < 3; ++run) {
+                int changes = run == 1 ? 20 : 3000; // Only the second run changes few points
+                for (int i = 0; i < changes; ++i)
+                    weights.put(BREADPointCounter.pack(rand.nextInt(100), rand.nextInt(10), rand.nextInt(100)),
+                            1 + rand.nextInt(4));
+                Set<BREADStatistics.Point> points = new HashSet<>();
+                weights.forEach((key, weight) -> points.add(new BREADStatistics.Point(BREADPointCounter.unpackX(key),
+                        BREADPointCounter.unpackY(key), BREADPointCounter.unpackZ(key), weight)));
+                CompletableFuture<Optional<Map<UUID, BREADStatistics.WorldStatistics>>> result =
+                        new CompletableFuture<>();
+                new BREADAnalyser(pool, Collections.singletonMap(world, BREADPoints.of(points)), 1, 0, clusterings,
+                        result::complete);
+                Map<UUID, BREADStatistics.WorldStatistics> statistics = result.get(1, TimeUnit.MINUTES).
+                        orElseThrow(AssertionError::new);
+                assertEquals(BREADAnalysis.clusterAnalysis(points, 1).size() - 1,
+                        statistics.get(world).clusters.size());
+                // The configured engine builds the state, which is only refreshed for few changes
+                assertEquals(expectedLoads[run], clusterings.get(world).getLoads(), "Run #" + run);
+                assertEquals(expectedRefreshes[run], clusterings.get(world).getRefreshes(), "Run #" + run);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void workerTest() throws Exception {
+        BREADAnalysisPool pool = new BREADAnalysisPool(2);
+        try {
+            Set<Thread> workers = pool.getExecutor().submit(() -> IntStream.range(0, 10000).parallel().
+                    mapToObj(i -> Thread.currentThread()).collect(Collectors.toSet())).get();
+            assertEquals(2, pool.getParallelism());
+            assertTrue(workers.size() <= 2);
+            for (Thread worker : workers) { // Nested parallel streams stay in the pool
+                assertTrue(worker.getName().startsWith("BREAD Analysis-"), worker.getName());
+                assertTrue(worker.isDaemon());
+                assertTrue(worker.getPriority() < Thread.NORM_PRIORITY);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void analyserTest() throws Exception {
+        Random rand = new Random();
+        BREADAnalysisPool pool = new BREADAnalysisPool(2);
+        try {
+            Map<UUID, Set<BREADStatistics.Point>> worlds = new HashMap<>();
+            for (int i = 0; i < 3; ++i) {
+                Set<BREADStatistics.Point> points = new HashSet<>();
+                for (int j = 0; j < 1000; ++j)
+                    points.add(new BREADStatistics.Point(rand.nextInt(100), rand.nextInt(10), rand.nextInt(100),
+                            1 + rand.nextInt(4)));
+                worlds.put(UUID.randomUUID(), points);
+            }
+            Map<UUID, BREADPoints> columns = new HashMap<>();
+            worlds.forEach((world, points) -> columns.put(world, BREADPoints.of(points)));
+            for (int run = 0; run < 3; ++run) { // Runs share the pool
+                CompletableFuture<Optional<Map<UUID, BREADStatistics.WorldStatistics>>> result =
+                        new CompletableFuture<>();
+                new BREADAnalyser(pool, columns, 1, result::complete);
+                Map<UUID, BREADStatistics.WorldStatistics> statistics = result.get(1, TimeUnit.MINUTES).
+                        orElseThrow(AssertionError::new);
+                for (Map.Entry<UUID, Set<BREADStatistics.Point>> world : worlds.entrySet()) {
+                    assertEquals(BREADAnalysis.clusterAnalysis(world.getValue(), 1).size() - 1,
+                            statistics.get(world.getKey()).clusters.size());
+                    assertFalse(statistics.get(world.getKey()).partial);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void deadlineTest() throws Exception {
+        Random rand = new Random();
+        Set<BREADStatistics.Point> points = new HashSet<>();
+        for (int i = 0; i < 1000; ++i)
+            points.add(new BREADStatistics.Point(rand.nextInt(100), rand.nextInt(10), rand.nextInt(100),
+                    1 + rand.nextInt(1000)));
+        BREADDeadline expired = new BREADDeadline();
+        expired.expire();
+        assertThrows(BREADDeadline.Expired.class, () -> BREADAnalysis.clusterAnalysis(points, 1, 0, expired));
+        assertThrows(BREADDeadline.Expired.class, () -> BREADAnalysis.clusterAnalysis(points, 1, 0.5, expired));
+        assertThrows(BREADDeadline.Expired.class, () -> new BREADClusterHierarchy(BREADPoints.of(points), 1, expired));
+
+        BREADAnalysisPool pool = new BREADAnalysisPool(2);
+        try {
+            UUID world = UUID.randomUUID();
+            CompletableFuture<Optional<Map<UUID, BREADStatistics.WorldStatistics>>> result = new CompletableFuture<>();
+            BREADAnalyser analyser = new BREADAnalyser(pool, Collections.singletonMap(world, BREADPoints.of(points)),
+                    1, 0, TimeUnit.MILLISECONDS,
+                    (w, p, d) -> BREADAnalysis.divide(p, 1, 0, d), result::complete);
+            BREADStatistics.WorldStatistics statistics = result.get(1, TimeUnit.MINUTES).
+                    orElseThrow(AssertionError::new).get(world);
+            assertFalse(analyser.isRunning());
+            assertTrue(statistics.partial);
+            List<Integer> weights = points.stream().map(point -> point.w).sorted(Comparator.reverseOrder()).
+                    limit(statistics.hotspots.size()).collect(Collectors.toList());
+            assertEquals(10, statistics.hotspots.size());
+            assertEquals(weights, statistics.hotspots.stream().map(hotspot -> (int) hotspot.count).
+                    collect(Collectors.toList()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+}
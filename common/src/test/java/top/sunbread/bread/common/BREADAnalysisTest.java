@@ -21,7 +21,9 @@ import org.junit.jupiter.api.Test;
 
 import java.util.*;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 
 class BREADAnalysisTest {
 
@@ -41,6 +43,290 @@ class BREADAnalysisTest {
         }
     }
 
+    @Test
+    void pointEngineFixtureTest() {
+        Set<BREADStatistics.Point> line = new HashSet<>(); // Weight sums over 25 from x = 9 to 20, all reachable
+        for (int x = 0; x < 30; ++x) line.add(new BREADStatistics.Point(x, 64, 0, 1));
+        Set<BREADStatistics.Point> pair = new HashSet<>(Arrays.asList( // Both are core with each other
+                new BREADStatistics.Point(1000, 64, 0, 26), new BREADStatistics.Point(1010, 64, 0, 1)));
+        Set<BREADStatistics.Point> single1 = Collections.singleton(new BREADStatistics.Point(2000, 64, 0, 30));
+        Set<BREADStatistics.Point> single2 = // One block beyond ε of the other single
+                Collections.singleton(new BREADStatistics.Point(2017, 64, 0, 30));
+        Set<BREADStatistics.Point> noise = Collections.singleton(new BREADStatistics.Point(5000, 64, 0, 5));
+        Set<BREADStatistics.Point> points = new HashSet<>();
+        for (Set<BREADStatistics.Point> part : Arrays.asList(line, pair, single1, single2, noise)) points.addAll(part);
+        List<Set<BREADStatistics.Point>> result =
+                BREADAnalysis.clusterAnalysis(points, 1, BREADAnalysis.Engine.POINT);
+        assertEquals(noise, result.get(result.size() - 1));
+        assertEquals(new HashSet<>(Arrays.asList(line, pair, single1, single2)),
+                new HashSet<>(result.subList(0, result.size() - 1)));
+        result = BREADAnalysis.clusterAnalysis(points, 4, BREADAnalysis.Engine.POINT); // No weight sum over 100
+        assertEquals(Collections.singletonList(points), result);
+    }
+
+    @Test
+    void pointEngineOracleTest() {
+        Random rand = new Random();
+        for (int i = 1; i <= 10; ++i) {
+            Set<BREADStatistics.Point> points = getRandomPoints(rand);
+            for (int frequencyMultiplier : new int[]{1, 4}) {
+                List<Set<BREADStatistics.Point>> expected = bruteForceClusterAnalysis(points, frequencyMultiplier);
+                List<Set<BREADStatistics.Point>> actual =
+                        BREADAnalysis.clusterAnalysis(points, frequencyMultiplier, BREADAnalysis.Engine.POINT);
+                assertEquals(expected.get(expected.size() - 1), actual.get(actual.size() - 1), "Round #" + i);
+                assertEquals(new HashSet<>(expected.subList(0, expected.size() - 1)),
+                        new HashSet<>(actual.subList(0, actual.size() - 1)), "Round #" + i);
+            }
+        }
+    }
+
+    @Test
+    void cellEngineTest() {
+        Random rand = new Random();
+        for (int i = 1; i <= 20; ++i) {
+            Set<BREADStatistics.Point> points = getRandomPoints(rand);
+            for (int x = 0; x < 20; ++x) // A dense build, whose cells are core wholesale
+                for (int y = 0; y < 20; ++y)
+                    for (int z = 0; z < 20; ++z)
+                        if (rand.nextInt(4) == 0)
+                            points.add(new BREADStatistics.Point(x + 2000, y, z, 1 + rand.nextInt(3)));
+            for (int frequencyMultiplier : new int[]{1, 4}) {
+                List<Set<BREADStatistics.Point>> expected =
+                        BREADAnalysis.clusterAnalysis(points, frequencyMultiplier, BREADAnalysis.Engine.POINT);
+                List<Set<BREADStatistics.Point>> actual =
+                        BREADAnalysis.clusterAnalysis(points, frequencyMultiplier, BREADAnalysis.Engine.CELL);
+                assertEquals(expected.get(expected.size() - 1), actual.get(actual.size() - 1), "Round #" + i);
+                assertEquals(new HashSet<>(expected.subList(0, expected.size() - 1)),
+                        new HashSet<>(actual.subList(0, actual.size() - 1)), "Round #" + i);
+            }
+        }
+    }
+
+    @Test
+    void shardEngineTest() {
+        Random rand = new Random();
+        for (int i = 1; i <= 10; ++i) {
+            Set<BREADStatistics.Point> points = getRandomPoints(rand);
+            for (int x = 0; x < 400; ++x) // A long build, which crosses many slabs
+                for (int y = 0; y < 8; ++y)
+                    for (int z = 0; z < 8; ++z)
+                        if (rand.nextInt(4) == 0)
+                            points.add(new BREADStatistics.Point(x + 2000, y, z, 1 + rand.nextInt(3)));
+            for (int frequencyMultiplier : new int[]{1, 4}) {
+                List<Set<BREADStatistics.Point>> expected =
+                        BREADAnalysis.clusterAnalysis(points, frequencyMultiplier, BREADAnalysis.Engine.POINT);
+                List<Set<BREADStatistics.Point>> actual =
+                        BREADAnalysis.clusterAnalysis(points, frequencyMultiplier, BREADAnalysis.Engine.SHARD);
+                assertEquals(expected.get(expected.size() - 1), actual.get(actual.size() - 1), "Round #" + i);
+                assertEquals(new HashSet<>(expected.subList(0, expected.size() - 1)),
+                        new HashSet<>(actual.subList(0, actual.size() - 1)), "Round #" + i);
+            }
+        }
+    }
+
+    @Test
+    void divideTest() {
+        for (int i = 1; i <= 20; ++i) {
+            Set<BREADStatistics.Point> points = getRandomPoints();
+            BREADPoints columns = BREADPoints.of(points);
+            List<Set<BREADStatistics.Point>> expected = BREADAnalysis.clusterAnalysis(points, 1);
+            List<int[]> actual = BREADAnalysis.divide(columns, 1, 0, new BREADDeadline());
+            List<Set<BREADStatistics.Point>> views = new ArrayList<>();
+            for (int[] cluster : actual) views.add(columns.select(cluster));
+            assertEquals(expected.get(expected.size() - 1), views.get(views.size() - 1), "Round #" + i);
+            assertEquals(new HashSet<>(expected.subList(0, expected.size() - 1)),
+                    new HashSet<>(views.subList(0, views.size() - 1)), "Round #" + i);
+            for (Set<BREADStatistics.Point> view : views) // Views are equal to copies of themselves
+                assertEquals(new HashSet<>(view), view, "Round #" + i);
+            BREADStatistics.ClusterStatistics expectedStats = BREADAnalysis.countCluster(views.get(0), 300);
+            BREADStatistics.ClusterStatistics actualStats = BREADAnalysis.countCluster(columns, actual.get(0), 300);
+            assertEquals(expectedStats.eventsPerTick, actualStats.eventsPerTick, 1e-9, "Round #" + i);
+            assertArrayEquals(expectedStats.boundingBox, actualStats.boundingBox, "Round #" + i);
+        }
+    }
+
+    @Test
+    void approximationTest() {
+        Random rand = new Random();
+        int epsilon = 16;
+        long minWeightSum = 25;
+        for (int i = 1; i <= 5; ++i) {
+            Set<BREADStatistics.Point> points = getRandomPoints(rand);
+            for (int x = 0; x < 30; ++x) // Dense builds, whose borders depend on the approximation
+                for (int y = 0; y < 30; ++y)
+                    for (int z = 0; z < 30; ++z)
+                        if (rand.nextInt(40) == 0)
+                            points.add(new BREADStatistics.Point(x + 2000 + (x / 15) * 30, y, z, 1));
+            BREADStatistics.Point[] pointArray = points.toArray(new BREADStatistics.Point[0]);
+            int[] xs = Arrays.stream(pointArray).mapToInt(point -> point.x).toArray();
+            int[] ys = Arrays.stream(pointArray).mapToInt(point -> point.y).toArray();
+            int[] zs = Arrays.stream(pointArray).mapToInt(point -> point.z).toArray();
+            int[] ws = Arrays.stream(pointArray).mapToInt(point -> point.w).toArray();
+            int[] exact = BREADCellClustering.label(xs, ys, zs, ws, epsilon, minWeightSum);
+            boolean[] core = new boolean[xs.length];
+            for (int point = 0; point < xs.length; ++point) {
+                if (exact[point] == BREADAnalysis.NOISE) continue;
+                long weightSum = 0;
+                for (int neighbor = 0; neighbor < xs.length; ++neighbor)
+                    if (Math.abs(xs[point] - xs[neighbor]) + Math.abs(ys[point] - ys[neighbor]) +
+                            Math.abs(zs[point] - zs[neighbor]) <= epsilon)
+                        weightSum += ws[neighbor];
+                core[point] = weightSum > minWeightSum;
+            }
+            for (double rho : new double[]{0.05, 0.5, 1}) {
+                int[] approximate = BREADCellClustering.labelApproximately(xs, ys, zs, ws, epsilon, minWeightSum, rho);
+                Map<Integer, Integer> coreLabels = new HashMap<>(); // From exact labels to approximate ones
+                for (int point = 0; point < xs.length; ++point) {
+                    if (exact[point] == BREADAnalysis.NOISE) continue;
+                    assertNotEquals(BREADAnalysis.NOISE, approximate[point], "Round #" + i + ", ρ = " + rho);
+                    if (!core[point]) continue;
+                    coreLabels.putIfAbsent(exact[point], approximate[point]);
+                    assertEquals(coreLabels.get(exact[point]).intValue(), approximate[point],
+                            "Round #" + i + ", ρ = " + rho);
+                }
+                if (rho == 0.05) assertArrayEquals(exact, approximate, "Round #" + i);
+            }
+        }
+    }
+
+    @Test
+    void findPeriodTest() {
+        Random rand = new Random();
+        for (int period = 2; period <= 40; ++period) {
+            int[] series = new int[1200];
+            for (int i = 0; i < series.length; ++i)
+                series[i] = (i % period == 0 ? 10 : 0) + rand.nextInt(3);
+            assertEquals(period, BREADAnalysis.findPeriod(series), "Period " + period);
+        }
+        int[] constant = new int[1200];
+        Arrays.fill(constant, 5);
+        assertEquals(1, BREADAnalysis.findPeriod(constant));
+        assertEquals(0, BREADAnalysis.findPeriod(new int[1200]));
+        int[] alternating = new int[1200]; // Pulses every 10 ticks with alternating heights
+        for (int i = 0; i < alternating.length; i += 10) alternating[i] = i / 10 % 2 == 0 ? 9 : 12;
+        // Lag 20 pairs equal heights, so it correlates more strongly than lag 10, which is still the period
+        assertEquals(10, BREADAnalysis.findPeriod(alternating));
+    }
+
+    @Test
+    void countTimelineTest() {
+        UUID world = UUID.randomUUID();
+        BREADAccumulator accumulator = new BREADAccumulator(BREADPointCounter.Storage.HEAP, 2, 300);
+        for (int tick = 0; tick < 300; ++tick) {
+            if (tick % 10 == 0)
+                for (int x = 0; x < 4; ++x) accumulator.add(world, x, 64, 0);
+            accumulator.tick();
+        }
+        BREADPoints points = accumulator.snapshot().get(world);
+        BREADStatistics.ClusterStatistics cluster = BREADAnalysis.countTimeline(
+                BREADAnalysis.countCluster(points.toPointSet(), 300), points);
+        assertEquals(2, cluster.bucketTicks);
+        assertEquals(150, cluster.eventsPerTickSeries.length);
+        assertEquals(10, cluster.clockPeriod);
+        assertEquals(2, cluster.peakEventsPerTick, 1e-9);
+        assertEquals(cluster.eventsPerTick * 300,
+                Arrays.stream(cluster.eventsPerTickSeries).sum() * cluster.bucketTicks, 1e-9);
+    }
+
+    @Test
+    void countClusterTest() {
+        Set<BREADStatistics.Point> cluster = new HashSet<>(Arrays.asList(
+                new BREADStatistics.Point(-1, 64, 0, 1), new BREADStatistics.Point(1, 64, 0, 1),
+                new BREADStatistics.Point(16, 64, 0, 2), new BREADStatistics.Point(16, 66, 0, 2)));
+        BREADStatistics.ClusterStatistics stats = BREADAnalysis.countCluster(cluster, 3);
+        assertEquals(2, stats.eventsPerTick, 1e-9);
+        assertArrayEquals(new double[]{32 / 3.0, 65 - 1 / 3.0, 0}, stats.eventCentroidLocation, 1e-9);
+        assertArrayEquals(new int[]{-1, 64, 0, 16, 66, 0}, stats.boundingBox);
+        assertEquals(2, stats.peakBlockEvents);
+        assertEquals(3, stats.chunks); // Chunks -1, 0 and 1 along X
+
+        Random rand = new Random();
+        for (int i = 1; i <= 20; ++i) {
+            cluster = new HashSet<>();
+            for (int j = 0; j < 1000; ++j)
+                cluster.add(new BREADStatistics.Point(20000000 + rand.nextInt(200), rand.nextInt(256),
+                        -20000000 + rand.nextInt(200), 1 + rand.nextInt(100)));
+            stats = BREADAnalysis.countCluster(cluster, 300);
+            double totalEvents = 0, x = 0, y = 0, z = 0;
+            for (BREADStatistics.Point point : cluster) {
+                totalEvents += point.w;
+                x += (double) point.x * point.w;
+                y += (double) point.y * point.w;
+                z += (double) point.z * point.w;
+            }
+            double[] centroid = {x / totalEvents, y / totalEvents, z / totalEvents};
+            double distance = 0, variance = 0;
+            for (BREADStatistics.Point point : cluster) {
+                double squared = Math.pow(point.x - centroid[0], 2) + Math.pow(point.y - centroid[1], 2) +
+                        Math.pow(point.z - centroid[2], 2);
+                distance += Math.sqrt(squared) * point.w;
+                variance += squared * point.w;
+            }
+            assertArrayEquals(centroid, stats.eventCentroidLocation, 1e-6, "Round #" + i);
+            assertEquals(distance / totalEvents, stats.distanceFromCentroid, 1e-6, "Round #" + i);
+            assertEquals(variance / totalEvents, stats.eventVariance, 1e-6, "Round #" + i);
+        }
+    }
+
+    /**
+     * DBSCAN by comparing every pair of points, without any spatial index.
+     * A non-core point joins the cluster of its nearest core neighbor, ties are broken by packed positions.
+     */
+    private List<Set<BREADStatistics.Point>> bruteForceClusterAnalysis(Set<BREADStatistics.Point> points,
+                                                                      int frequencyMultiplier) {
+        BREADStatistics.Point[] array = points.toArray(new BREADStatistics.Point[0]);
+        int size = array.length;
+        int[] xs = new int[size], ys = new int[size], zs = new int[size];
+        for (int p = 0; p < size; ++p) {
+            xs[p] = array[p].x;
+            ys[p] = array[p].y;
+            zs[p] = array[p].z;
+        }
+        List<List<Integer>> neighbors = new ArrayList<>();
+        boolean[] core = new boolean[size];
+        for (int p = 0; p < size; ++p) {
+            List<Integer> list = new ArrayList<>();
+            long weightSum = 0;
+            for (int q = 0; q < size; ++q)
+                if (Math.abs(xs[p] - xs[q]) + Math.abs(ys[p] - ys[q]) + Math.abs(zs[p] - zs[q]) <=
+                        BREADAnalysis.EPSILON) {
+                    list.add(q);
+                    weightSum += array[q].w;
+                }
+            neighbors.add(list);
+            core[p] = weightSum > (long) BREADAnalysis.MAX_WEIGHT_SUM_BASE * frequencyMultiplier;
+        }
+        int[] labels = new int[size];
+        Arrays.fill(labels, -1);
+        int clusters = 0;
+        for (int seed = 0; seed < size; ++seed) { // Flooding core points
+            if (!core[seed] || labels[seed] >= 0) continue;
+            Deque<Integer> queue = new ArrayDeque<>(Collections.singleton(seed));
+            labels[seed] = clusters;
+            while (!queue.isEmpty())
+                for (int q : neighbors.get(queue.poll()))
+                    if (core[q] && labels[q] < 0) {
+                        labels[q] = clusters;
+                        queue.add(q);
+                    }
+            ++clusters;
+        }
+        List<Set<BREADStatistics.Point>> result = new ArrayList<>();
+        for (int cluster = 0; cluster < clusters; ++cluster) result.add(new HashSet<>());
+        Set<BREADStatistics.Point> noise = new HashSet<>();
+        for (int p = 0; p < size; ++p) {
+            int nearest = -1;
+            if (core[p]) nearest = p;
+            else
+                for (int q : neighbors.get(p))
+                    if (core[q] && (nearest < 0 || BREADAnalysis.isNearer(xs, ys, zs, p, q, nearest))) nearest = q;
+            if (nearest < 0) noise.add(array[p]);
+            else result.get(labels[nearest]).add(array[p]);
+        }
+        result.add(noise);
+        return result;
+    }
+
     private Set<BREADStatistics.Point> getRandomPoints() {
         return getRandomPoints(new Random());
     }
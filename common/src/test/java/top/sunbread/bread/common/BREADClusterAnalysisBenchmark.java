@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare engines of {@link BREADAnalysis#clusterAnalysis(Set, int, BREADAnalysis.Engine)},
+ * and the approximate one of {@link BREADAnalysis#clusterAnalysis(Set, int, double)} (50%).
+ * <br/>
+ * Run with {@code java -cp <test classpath> org.openjdk.jmh.Main BREADClusterAnalysisBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class BREADClusterAnalysisBenchmark {
+
+    @Param({"10000", "100000"})
+    public int points;
+
+    @Param({"1", "64"})
+    public int blocksPerPoint; // Density of points
+
+    @Param({"POINT", "CELL", "SHARD", "APPROXIMATE"})
+    public String engine; // BREADAnalysis.Engine isn't public
+
+    private Set<BREADStatistics.Point> pointSet;
+
+    @Setup
+    public void setup() {
+        Random rand = new Random(0);
+        int range = (int) Math.cbrt((double) this.points * this.blocksPerPoint * 1.5);
+        this.pointSet = new HashSet<>();
+        while (this.pointSet.size() < this.points)
+            this.pointSet.add(new BREADStatistics.Point(rand.nextInt(range), rand.nextInt(range), rand.nextInt(range),
+                    1 + rand.nextInt(4)));
+    }
+
+    @Benchmark
+    public Object clusterAnalysis() {
+        if (this.engine.equals("APPROXIMATE")) return BREADAnalysis.clusterAnalysis(this.pointSet, 1, 0.5);
+        return BREADAnalysis.clusterAnalysis(this.pointSet, 1, BREADAnalysis.Engine.valueOf(this.engine));
+    }
+
+}
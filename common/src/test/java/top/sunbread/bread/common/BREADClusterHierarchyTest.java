@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BREADClusterHierarchyTest {
+
+    @Test
+    void cutTest() {
+        Random rand = new Random();
+        for (int i = 1; i <= 5; ++i) {
+            Set<BREADStatistics.Point> points = new HashSet<>();
+            for (int j = 0; j < 2000; ++j) // Blobs of various densities
+                points.add(new BREADStatistics.Point(rand.nextInt(20 * i), rand.nextInt(10), rand.nextInt(100),
+                        1 + rand.nextInt(4)));
+            int frequencyMultiplier = 1 + rand.nextInt(2);
+            BREADClusterHierarchy hierarchy = new BREADClusterHierarchy(BREADPoints.of(points), frequencyMultiplier);
+            for (int times = 1; times <= 4; ++times) { // Densities of other multipliers
+                List<Set<BREADStatistics.Point>> expected =
+                        BREADAnalysis.clusterAnalysis(points, frequencyMultiplier * times);
+                List<Set<BREADStatistics.Point>> actual =
+                        BREADAnalysis.clusterAnalysis(hierarchy, BREADClusterHierarchy.DEFAULT_DENSITY * times);
+                assertEquals(expected.get(expected.size() - 1), actual.get(actual.size() - 1), "Round #" + i);
+                assertEquals(new HashSet<>(expected.subList(0, expected.size() - 1)),
+                        new HashSet<>(actual.subList(0, actual.size() - 1)), "Round #" + i);
+                assertEquals(expected.size() - 1,
+                        hierarchy.countClusters(BREADClusterHierarchy.DEFAULT_DENSITY * times), "Round #" + i);
+            }
+        }
+    }
+
+    @Test
+    void countTest() {
+        Set<BREADStatistics.Point> points = new HashSet<>();
+        for (int x = 0; x < 10; ++x) points.add(new BREADStatistics.Point(x, 0, 0, 10)); // A heavy line
+        for (int x = 0; x < 10; ++x) points.add(new BREADStatistics.Point(x, 0, 40, 1)); // A light line
+        BREADClusterHierarchy hierarchy = new BREADClusterHierarchy(BREADPoints.of(points), 1);
+        assertEquals(2, hierarchy.countClusters(0));
+        assertEquals(1, hierarchy.countClusters(10));
+        assertEquals(0, hierarchy.countClusters(100));
+        assertEquals(10, BREADAnalysis.clusterAnalysis(hierarchy, 10).get(0).size());
+        assertEquals(20, BREADAnalysis.clusterAnalysis(hierarchy, 100).get(0).size());
+    }
+
+}
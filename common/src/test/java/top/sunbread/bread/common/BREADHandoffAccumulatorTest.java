@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BREADHandoffAccumulatorTest {
+
+    @Test
+    void noLostEventTest() throws Exception {
+        Random rand = new Random();
+        for (int capacity : new int[]{16, 1 << 16}) {
+            List<UUID> worlds = Arrays.asList(UUID.randomUUID(), UUID.randomUUID());
+            BREADHandoffAccumulator accumulator =
+                    new BREADHandoffAccumulator(BREADPointCounter.Storage.HEAP, capacity);
+            Map<UUID, Map<Long, Integer>> expected = new HashMap<>();
+            int events = 1000000;
+            accumulator.start();
+            for (int i = 0; i < events; ++i) {
+                UUID world = worlds.get(rand.nextInt(worlds.size()));
+                int x = rand.nextInt(100), y = rand.nextInt(256), z = rand.nextInt(100);
+                accumulator.add(world, x, y, z);
+                expected.computeIfAbsent(world, uid -> new HashMap<>()).
+                        merge(BREADPointCounter.pack(x, y, z), 1, Integer::sum);
+            }
+            Map<UUID, BREADPoints> snapshot = accumulator.finish().get(10, TimeUnit.SECONDS);
+            assertEquals(events, accumulator.getHandedOffEvents() + accumulator.getSpilledEvents(),
+                    "Capacity " + capacity);
+            assertEquals(expected.keySet(), snapshot.keySet(), "Capacity " + capacity);
+            for (Map.Entry<UUID, BREADPoints> entry : snapshot.entrySet()) {
+                BREADPoints points = entry.getValue();
+                assertEquals(expected.get(entry.getKey()).size(), points.size(), "Capacity " + capacity);
+                for (int i = 0; i < points.size(); ++i)
+                    assertEquals((int) expected.get(entry.getKey()).get(points.key(i)), points.weight(i),
+                            "Capacity " + capacity);
+            }
+        }
+    }
+
+    @Test
+    void idleFinishTest() throws Exception {
+        BREADHandoffAccumulator accumulator = new BREADHandoffAccumulator(BREADPointCounter.Storage.HEAP, 16);
+        assertTrue(accumulator.finish().isDone()); // Without the background thread, it's finished at once
+        accumulator.start();
+        Thread.sleep(100); // Long enough for the background thread to back off
+        UUID world = UUID.randomUUID();
+        accumulator.add(world, 1, 2, 3);
+        Map<UUID, BREADPoints> snapshot = accumulator.finish().get(10, TimeUnit.SECONDS);
+        assertEquals(1, snapshot.get(world).size());
+        accumulator.clear();
+    }
+
+}
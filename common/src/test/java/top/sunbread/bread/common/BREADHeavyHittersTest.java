@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BREADHeavyHittersTest {
+
+    @Test
+    void spaceSavingTest() {
+        Random rand = new Random();
+        List<UUID> worlds = Arrays.asList(UUID.randomUUID(), UUID.randomUUID());
+        BREADHeavyHitters heavyHitters = new BREADHeavyHitters(256);
+        Map<List<Object>, Long> expected = new HashMap<>();
+        for (int i = 0; i < 1000000; ++i) {
+            UUID world = worlds.get(rand.nextInt(worlds.size()));
+            // 20 hot blocks take half of events, the rest spread over 100000 blocks
+            int x = rand.nextBoolean() ? rand.nextInt(20) : 1000 + rand.nextInt(100000);
+            heavyHitters.add(world, x, 64, 0);
+            expected.merge(Arrays.asList(world, x), 1L, Long::sum);
+        }
+        assertEquals(1000000, heavyHitters.getEvents());
+        assertTrue(heavyHitters.getMaxError() <= 1000000 / 256);
+        List<BREADStatistics.HeavyHitter> top = heavyHitters.top(40);
+        assertEquals(40, top.size());
+        for (int i = 0; i < top.size(); ++i) {
+            BREADStatistics.HeavyHitter hitter = top.get(i);
+            long real = expected.get(Arrays.asList(hitter.world, hitter.x));
+            assertTrue(real <= hitter.count && real >= hitter.count - hitter.error);
+            assertTrue(hitter.error <= heavyHitters.getMaxError());
+            if (i > 0) assertTrue(top.get(i - 1).count >= hitter.count);
+            if (i < 20) assertTrue(hitter.x < 20, "Hot blocks come first");
+        }
+        heavyHitters.clear();
+        assertEquals(0, heavyHitters.top(10).size());
+    }
+
+    @Test
+    void exactWithinCapacityTest() {
+        UUID world = UUID.randomUUID();
+        BREADHeavyHitters heavyHitters = new BREADHeavyHitters(100);
+        for (int x = 0; x < 100; ++x)
+            for (int i = 0; i <= x; ++i) heavyHitters.add(world, x, 64, 0);
+        assertEquals(0, heavyHitters.getMaxError());
+        List<BREADStatistics.HeavyHitter> top = heavyHitters.top(100);
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(99 - i, top.get(i).x);
+            assertEquals(100 - i, top.get(i).count);
+            assertEquals(0, top.get(i).error);
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BREADIncrementalClusteringTest {
+
+    @Test
+    void incrementalTest() {
+        Random rand = new Random();
+        BREADIncrementalClustering clustering = new BREADIncrementalClustering();
+        Map<Long, Integer> weights = new HashMap<>();
+        for (int i = 1; i <= 50; ++i) {
+            int changes = i == 1 ? 3000 : 1 + rand.nextInt(300);
+            for (int j = 0; j < changes; ++j) { // Blobs which touch and part as points come and go
+                int x = rand.nextInt(100), y = rand.nextInt(10), z = rand.nextInt(100);
+                long key = BREADPointCounter.pack(x, y, z);
+                int weight = rand.nextInt(3) == 0 ? 0 : 1 + rand.nextInt(4);
+                if (weight == 0) weights.remove(key);
+                else weights.put(key, weight);
+            }
+            int frequencyMultiplier = i % 10 == 0 ? 4 : 1;
+            Set<BREADStatistics.Point> points = new HashSet<>();
+            weights.forEach((key, weight) -> points.add(new BREADStatistics.Point(BREADPointCounter.unpackX(key),
+                    BREADPointCounter.unpackY(key), BREADPointCounter.unpackZ(key), weight)));
+            List<Set<BREADStatistics.Point>> expected = BREADAnalysis.clusterAnalysis(points, frequencyMultiplier);
+            List<Set<BREADStatistics.Point>> actual =
+                    BREADAnalysis.clusterAnalysis(clustering, BREADPoints.of(points), frequencyMultiplier);
+            assertEquals(points.size(), clustering.size(), "Round #" + i);
+            assertEquals(expected.get(expected.size() - 1), actual.get(actual.size() - 1), "Round #" + i);
+            assertEquals(new HashSet<>(expected.subList(0, expected.size() - 1)),
+                    new HashSet<>(actual.subList(0, actual.size() - 1)), "Round #" + i);
+        }
+    }
+
+    @Test
+    void setTest() {
+        BREADIncrementalClustering clustering = new BREADIncrementalClustering(1);
+        clustering.setMinWeightSum(2);
+        for (int x = 0; x < 7; ++x) clustering.set(x, 0, 0, 1); // A line, whose inner points are core
+        assertEquals(2, clustering.getClusters().size());
+        clustering.set(3, 0, 0, 0); // Split
+        assertEquals(3, clustering.getClusters().size());
+        clustering.set(3, 0, 0, 1); // Joined again
+        assertEquals(2, clustering.getClusters().size());
+        clustering.set(3, 0, 0, 4); // Reweighted
+        assertEquals(2, clustering.getClusters().size());
+        assertEquals(7, clustering.getClusters().get(0).size());
+    }
+
+}
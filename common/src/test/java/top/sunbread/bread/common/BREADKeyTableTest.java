@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BREADKeyTableTest {
+
+    @Test
+    void randomOperationTest() {
+        Random rand = new Random();
+        BREADKeyTable table = new BREADKeyTable(16);
+        Map<Long, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 200000; ++i) {
+            long key = BREADPointCounter.pack(rand.nextInt(64), rand.nextInt(16), rand.nextInt(64));
+            int value = rand.nextInt(1000);
+            switch (rand.nextInt(3)) {
+                case 0:
+                    table.put(key, value);
+                    expected.put(key, value);
+                    break;
+                case 1:
+                    assertEquals(expected.getOrDefault(key, -1).intValue(), table.putIfAbsent(key, value));
+                    expected.putIfAbsent(key, value);
+                    break;
+                default:
+                    assertEquals(expected.getOrDefault(key, -1).intValue(), table.remove(key));
+                    expected.remove(key);
+            }
+            assertEquals(expected.size(), table.size());
+        }
+        for (int x = 0; x < 64; ++x)
+            for (int y = 0; y < 16; ++y)
+                for (int z = 0; z < 64; ++z) {
+                    long key = BREADPointCounter.pack(x, y, z);
+                    assertEquals(expected.getOrDefault(key, -1).intValue(), table.get(key), "Key " + key);
+                }
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare {@link BREADPointCounter} with the boxed map which the collectors used before.
+ * <br/>
+ * Run with {@code java -cp <test classpath> org.openjdk.jmh.Main BREADPointCounterBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(BREADPointCounterBenchmark.EVENTS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BREADPointCounterBenchmark {
+
+    static final int EVENTS = 1 << 16;
+
+    @Param({"1000", "100000"})
+    public int blocks;
+
+    @Param({"HEAP", "OFF_HEAP"})
+    public BREADPointCounter.Storage storage;
+
+    private int[] xs, ys, zs;
+
+    @Setup
+    public void setup() {
+        Random rand = new Random(0);
+        int[][] positions = new int[this.blocks][];
+        for (int i = 0; i < this.blocks; ++i)
+            positions[i] = new int[]{rand.nextInt(2000) - 1000, rand.nextInt(256), rand.nextInt(2000) - 1000};
+        this.xs = new int[EVENTS];
+        this.ys = new int[EVENTS];
+        this.zs = new int[EVENTS];
+        for (int i = 0; i < EVENTS; ++i) {
+            int[] position = positions[rand.nextInt(this.blocks)];
+            this.xs[i] = position[0];
+            this.ys[i] = position[1];
+            this.zs[i] = position[2];
+        }
+    }
+
+    @Benchmark
+    public Object boxedMap() {
+        Map<UUID, Map<HashPoint, Integer>> points = new HashMap<>();
+        UUID world = new UUID(0, 0);
+        for (int i = 0; i < EVENTS; ++i) {
+            if (!points.containsKey(world)) points.put(world, new LinkedHashMap<>());
+            Map<HashPoint, Integer> pointsInWorld = points.get(world);
+            HashPoint point = new HashPoint(this.xs[i], this.ys[i], this.zs[i]);
+            pointsInWorld.put(point, pointsInWorld.containsKey(point) ? pointsInWorld.get(point) + 1 : 1);
+        }
+        return points;
+    }
+
+    @Benchmark
+    public Object pointCounter() {
+        BREADPointCounter counter = BREADPointCounter.create(this.storage);
+        for (int i = 0; i < EVENTS; ++i)
+            counter.increment(this.xs[i], this.ys[i], this.zs[i]);
+        return counter;
+    }
+
+    private static final class HashPoint {
+
+        int x, y, z;
+
+        HashPoint(int x, int y, int z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == null) return false;
+            if (this == o) return true;
+            if (!(o instanceof HashPoint)) return false;
+            return this.x == ((HashPoint) o).x && this.y == ((HashPoint) o).y && this.z == ((HashPoint) o).z;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.x, this.y, this.z);
+        }
+
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BREADPointCounterTest {
+
+    @Test
+    void packRoundTripTest() {
+        int[][] positions = {{0, 0, 0}, {-1, -1, -1}, {29999999, 255, -29999999},
+                {-33554432, -2048, 33554431}, {33554431, 2047, -33554432}, {12345, -64, -54321}};
+        for (int[] position : positions) {
+            long key = BREADPointCounter.pack(position[0], position[1], position[2]);
+            assertEquals(position[0], BREADPointCounter.unpackX(key));
+            assertEquals(position[1], BREADPointCounter.unpackY(key));
+            assertEquals(position[2], BREADPointCounter.unpackZ(key));
+        }
+    }
+
+    @Test
+    void heapCountingTest() {
+        countingTest(BREADPointCounter.Storage.HEAP);
+    }
+
+    @Test
+    void offHeapCountingTest() {
+        countingTest(BREADPointCounter.Storage.OFF_HEAP);
+    }
+
+    private void countingTest(BREADPointCounter.Storage storage) {
+        Random rand = new Random();
+        for (int round = 1; round <= 10; ++round) {
+            int blocks = 10 + rand.nextInt(10000);
+            BREADPointCounter counter = round % 2 == 0 ?
+                    BREADPointCounter.create(storage) : BREADPointCounter.create(storage, rand.nextInt(blocks * 4));
+            Map<List<Integer>, Integer> expected = new HashMap<>();
+            for (int i = 0; i < blocks * 4; ++i) {
+                int x = rand.nextInt(blocks) - blocks / 2, y = rand.nextInt(256), z = rand.nextInt(64) - 32;
+                counter.increment(x, y, z);
+                expected.merge(Arrays.asList(x, y, z), 1, Integer::sum);
+            }
+            assertEquals(expected.size(), counter.size(), "Round #" + round);
+            for (Map.Entry<List<Integer>, Integer> entry : expected.entrySet())
+                assertEquals((int) entry.getValue(), counter.get(entry.getKey().get(0),
+                        entry.getKey().get(1), entry.getKey().get(2)), "Round #" + round);
+            BREADPoints snapshot = counter.snapshot();
+            int[] weights = snapshot.weights();
+            for (int index = 0; index < snapshot.size(); ++index)
+                assertEquals(snapshot.weight(index), weights[index], "Round #" + round);
+            Set<BREADStatistics.Point> points = snapshot.toPointSet();
+            assertEquals(expected.size(), points.size(), "Round #" + round);
+            for (BREADStatistics.Point point : points)
+                assertEquals((int) expected.get(Arrays.asList(point.x, point.y, point.z)), point.w,
+                        "Round #" + round);
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BREADPointSetTest {
+
+    @Test
+    void encodingTest() {
+        Random rand = new Random();
+        for (int round = 1; round <= 20; ++round) {
+            Map<Long, BREADStatistics.Point> positions = new HashMap<>();
+            int blocks = rand.nextInt(5000);
+            for (int i = 0; i < blocks; ++i) { // Far apart clusters, so some deltas are large
+                int x = rand.nextInt(64) + (rand.nextBoolean() ? 29990000 : -29990000);
+                int y = rand.nextInt(384) - 64, z = rand.nextInt(64) - 32;
+                positions.put(BREADPointCounter.pack(x, y, z),
+                        new BREADStatistics.Point(x, y, z, 1 + rand.nextInt(rand.nextBoolean() ? 10 : 100000)));
+            }
+            Set<BREADStatistics.Point> expected = new HashSet<>(positions.values());
+            BREADPoints points = BREADPoints.of(expected);
+            int[] indices = new int[points.size()];
+            for (int index = 0; index < indices.length; ++index) indices[index] = index;
+            BREADPointSet actual = BREADPointSet.of(points, indices);
+            assertEquals(expected.size(), actual.size(), "Round #" + round);
+            assertEquals(expected, new HashSet<>(actual), "Round #" + round);
+            for (BREADStatistics.Point point : expected) {
+                assertTrue(actual.contains(point), "Round #" + round);
+                assertFalse(actual.contains(new BREADStatistics.Point(point.x, point.y, point.z, point.w + 1)),
+                        "Round #" + round);
+                assertFalse(actual.contains(new BREADStatistics.Point(point.x, point.y, point.z + 64, point.w)),
+                        "Round #" + round);
+            }
+            assertTrue(actual.getEncodedBytes() <= 16L * actual.size() + 12, "Round #" + round);
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BREADRegionFilterTest {
+
+    @Test
+    void sphereTest() {
+        Random rand = new Random();
+        UUID world = UUID.randomUUID(), otherWorld = UUID.randomUUID();
+        BREADRegionFilter filter = BREADRegionFilter.sphere(world, -37, 64, 1000, 100);
+        long rejected = 0;
+        for (int i = 0; i < 1000000; ++i) {
+            UUID eventWorld = rand.nextInt(10) == 0 ? otherWorld : world;
+            int x = rand.nextInt(300) - 187, y = rand.nextInt(256), z = rand.nextInt(300) + 850;
+            long dx = x + 37, dy = y - 64, dz = z - 1000;
+            boolean expected = eventWorld == world && dx * dx + dy * dy + dz * dz <= 100 * 100;
+            assertEquals(expected, filter.accepts(eventWorld, x, y, z));
+            if (!expected) ++rejected;
+        }
+        assertEquals(rejected, filter.getRejectedEvents());
+    }
+
+    @Test
+    void boxTest() {
+        Random rand = new Random();
+        UUID world = UUID.randomUUID();
+        BREADRegionFilter filter = BREADRegionFilter.box(world, 20, 80, -5, -20, 10, -70);
+        for (int i = 0; i < 1000000; ++i) {
+            int x = rand.nextInt(100) - 50, y = rand.nextInt(256), z = rand.nextInt(100) - 80;
+            assertEquals(x >= -20 && x <= 20 && y >= 10 && y <= 80 && z >= -70 && z <= -5,
+                    filter.accepts(new UUID(world.getMostSignificantBits(), world.getLeastSignificantBits()), x, y, z));
+        }
+    }
+
+    @Test
+    void oversizedRegionTest() {
+        Random rand = new Random();
+        UUID world = UUID.randomUUID();
+        BREADRegionFilter box = BREADRegionFilter.box(world, -30000000, 0, -30000000, 30000000, 255, 30000000);
+        BREADRegionFilter sphere = BREADRegionFilter.sphere(world, 0, 64, 0, Integer.MAX_VALUE);
+        BREADRegionFilter bigSphere = BREADRegionFilter.sphere(world, 1000, 64, -1000, 20000000);
+        for (int i = 0; i < 1000000; ++i) {
+            int x = rand.nextInt(), y = rand.nextInt(512) - 128, z = rand.nextInt();
+            assertEquals(x >= -30000000 && x <= 30000000 && y >= 0 && y <= 255 && z >= -30000000 && z <= 30000000,
+                    box.accepts(world, x, y, z));
+            assertTrue(sphere.accepts(world, x % 1000000000, y, z % 1000000000));
+            long dx = x % 30000000 - 1000, dy = y - 64, dz = z % 30000000 + 1000;
+            assertEquals(dx * dx + dy * dy + dz * dz <= 20000000L * 20000000L,
+                    bigSphere.accepts(world, x % 30000000, y, z % 30000000));
+        }
+    }
+
+    @Test
+    void worldTest() {
+        UUID world = UUID.randomUUID();
+        BREADRegionFilter filter = BREADRegionFilter.world(world);
+        assertTrue(filter.accepts(world, 12345678, 0, -12345678));
+        assertFalse(filter.accepts(UUID.randomUUID(), 0, 0, 0));
+        assertEquals(1, filter.getRejectedEvents());
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BREADReportTest {
+
+    @Test
+    void pagingTest() {
+        Map<UUID, BREADStatistics.WorldStatistics> result = new LinkedHashMap<>();
+        UUID busy = UUID.randomUUID(), quiet = UUID.randomUUID();
+        result.put(busy, getWorldStatistics(BREADReport.ROWS_PER_PAGE + 2, 5)); // Clusters and noise
+        result.put(quiet, getWorldStatistics(0, 0)); // Empty noise only
+        AtomicInteger renderings = new AtomicInteger();
+        BREADReport<String> report = new BREADReport<>(result, row -> {
+            renderings.incrementAndGet();
+            return row.cluster != null ? "cluster" : "noise";
+        });
+        assertSame(result, report.getResult());
+        assertEquals(2, report.getPageCount());
+        assertEquals(0, renderings.get()); // Nothing is rendered until shown
+
+        List<BREADReport.Row<String>> first = report.renderPage(0, Runnable::run).join();
+        assertEquals(BREADReport.ROWS_PER_PAGE, first.size());
+        assertEquals(BREADReport.ROWS_PER_PAGE, renderings.get());
+        assertTrue(first.get(0).firstOfWorld);
+        assertFalse(first.get(first.size() - 1).lastOfWorld);
+        assertEquals("cluster", first.get(0).getRendered());
+
+        List<BREADReport.Row<String>> second = report.renderPage(1, Runnable::run).join();
+        assertEquals(Arrays.asList("cluster", "cluster", "noise", "noise"),
+                Arrays.asList(second.get(0).getRendered(), second.get(1).getRendered(),
+                        second.get(2).getRendered(), second.get(3).getRendered()));
+        assertTrue(second.get(2).lastOfWorld);
+        assertSame(quiet, second.get(3).world);
+        assertTrue(second.get(3).firstOfWorld && second.get(3).lastOfWorld);
+
+        report.renderPage(0, command -> fail("Rendered rows are served without rendering again")).join();
+        assertEquals(BREADReport.ROWS_PER_PAGE + 4, renderings.get());
+        assertThrows(IndexOutOfBoundsException.class, () -> report.renderPage(2, Runnable::run));
+    }
+
+    private BREADStatistics.WorldStatistics getWorldStatistics(int clusters, int noise) {
+        List<BREADStatistics.ClusterStatistics> clusterStatistics = new ArrayList<>();
+        for (int i = 0; i < clusters; ++i)
+            clusterStatistics.add(new BREADStatistics.ClusterStatistics(Collections.emptySet(), 1,
+                    new double[3], 0, new int[6], 1, 0, 1));
+        Set<BREADStatistics.Point> noisePoints = new HashSet<>();
+        for (int i = 0; i < noise; ++i) noisePoints.add(new BREADStatistics.Point(i, 0, 0, 1));
+        return new BREADStatistics.WorldStatistics(clusterStatistics,
+                new BREADStatistics.NoiseStatistics(noisePoints, noise / 300.0));
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BREADRollingWindowTest {
+
+    @Test
+    void slidingTest() {
+        UUID world = UUID.randomUUID();
+        BREADRollingWindow window = new BREADRollingWindow(20, 300, 1 << 20);
+        for (int tick = 0; tick < 1000; ++tick) {
+            // Block x gets one event per tick in the x-th second
+            window.add(world, tick / 20, 64, 0);
+            window.tick();
+        }
+        assertEquals(300, window.getAvailableTicks());
+        Map<UUID, BREADPoints> snapshot = window.snapshot(300);
+        BREADPoints points = snapshot.get(world);
+        assertEquals(15, points.size());
+        for (int i = 0; i < points.size(); ++i) {
+            assertTrue(points.x(i) >= 50 - 15 && points.x(i) < 50);
+            assertEquals(20, points.weight(i));
+        }
+        assertEquals(5, window.snapshot(100).get(world).size());
+        assertThrows(IllegalArgumentException.class, () -> window.snapshot(320));
+        assertThrows(IllegalArgumentException.class, () -> window.snapshot(30));
+        assertEquals(0, window.getDroppedEvents());
+        assertFalse(Double.isNaN(window.getAverageEventNanos()));
+    }
+
+    @Test
+    void boundedTest() {
+        UUID world = UUID.randomUUID();
+        BREADRollingWindow window = new BREADRollingWindow(20, 300, 16 * 100);
+        for (int tick = 0; tick < 1000; ++tick) {
+            for (int i = 0; i < 50; ++i) window.add(world, tick * 50 + i, 64, 0);
+            window.tick();
+        }
+        // 100 blocks per segment, checked once per tick
+        assertTrue(window.getStoredBlocks() <= 16 * (100 + 50));
+        assertTrue(window.getDroppedEvents() > 0);
+    }
+
+    @Test
+    void fullSegmentTest() throws Exception {
+        UUID world = UUID.randomUUID();
+        BREADRollingWindow window = new BREADRollingWindow(20, 300, 16 * 100);
+        for (int tick = 0; tick < 1000; ++tick) {
+            window.add(world, 0, 64, -1); // Counted in every tick though segments are full
+            for (int i = 0; i < 50; ++i) window.add(world, tick * 50 + i, 64, 0);
+            window.tick();
+        }
+        BREADAnalysisPool pool = new BREADAnalysisPool(1);
+        try {
+            Map<UUID, BREADPoints> snapshot = window.snapshot(300, pool).get(10, TimeUnit.SECONDS);
+            BREADPoints points = snapshot.get(world);
+            assertEquals(300, points.weight(points.indexOf(BREADPointCounter.pack(0, 64, -1))));
+            assertEquals(window.snapshot(300).get(world).size(), points.size());
+        } finally {
+            pool.shutdown();
+        }
+        assertTrue(window.getDroppedEvents(300) > 0);
+        assertTrue(window.getDroppedEvents(300) < window.getDroppedEvents());
+        assertEquals(15 * 20 * 51, window.getDroppedEvents(300) +
+                window.snapshot(300).get(world).toPointSet().stream().mapToInt(point -> point.w).sum());
+    }
+
+}
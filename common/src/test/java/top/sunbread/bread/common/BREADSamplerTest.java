@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BREADSamplerTest {
+
+    @Test
+    void fixedRateTest() {
+        BREADSampler sampler = new BREADSampler(10);
+        long weightSum = 0;
+        for (int i = 0; i < 10000000; ++i) weightSum += sampler.sample();
+        assertEquals(10000000, weightSum, 10000000 * 0.01);
+        assertEquals(10000000 / 10, sampler.getSampledEvents(), 10000000 / 10 * 0.01);
+        assertEquals(10000000, sampler.getEvents());
+    }
+
+    @Test
+    void adaptiveRateTest() {
+        BREADSampler sampler = new BREADSampler(0);
+        assertEquals(1, sampler.getRate());
+        long weightSum = 0;
+        for (int tick = 0; tick < 1200; ++tick) {
+            // A burst of 50 times events in the middle
+            int events = tick >= 400 && tick < 800 ? 100000 : 2000;
+            for (int i = 0; i < events; ++i) weightSum += sampler.sample();
+            sampler.tick();
+            if (tick == 799) assertTrue(sampler.getRate() > 300 && sampler.getRate() < 500);
+        }
+        assertTrue(sampler.getRate() < 20);
+        assertEquals(sampler.getEvents(), weightSum, sampler.getEvents() * 0.01);
+    }
+
+}
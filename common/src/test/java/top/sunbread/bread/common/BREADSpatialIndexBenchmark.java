@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare build and query time of types of {@link BREADSpatialIndex}.
+ * <br/>
+ * Run with {@code java -cp <test classpath> org.openjdk.jmh.Main BREADSpatialIndexBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class BREADSpatialIndexBenchmark {
+
+    private static final int EPSILON = 16;
+    private static final int QUERIES = 1 << 12;
+
+    @Param({"10000", "100000", "1000000"})
+    public int points;
+
+    @Param({"1", "8", "64", "512"})
+    public int blocksPerPoint; // Density of points
+
+    @Param({"ROTATED_GRID", "GRID", "KD_TREE", "RANGE_TREE"})
+    public BREADSpatialIndex.Type type;
+
+    private int[] xs, ys, zs, ws;
+    private BREADSpatialIndex spatialIndex;
+
+    @Setup
+    public void setup() {
+        Random rand = new Random(0);
+        int range = (int) Math.cbrt((double) this.points * this.blocksPerPoint * 1.5);
+        this.xs = new int[this.points];
+        this.ys = new int[this.points];
+        this.zs = new int[this.points];
+        this.ws = new int[this.points];
+        Arrays.fill(this.ws, 1);
+        Set<Long> marked = new HashSet<>();
+        for (int i = 0; i < this.points; ++i)
+            do {
+                this.xs[i] = rand.nextInt(range);
+                this.ys[i] = rand.nextInt(range);
+                this.zs[i] = rand.nextInt(range);
+            } while (!marked.add(BREADPointCounter.pack(this.xs[i], this.ys[i], this.zs[i])));
+        this.spatialIndex = build();
+    }
+
+    @Benchmark
+    public BREADSpatialIndex build() {
+        return BREADSpatialIndex.create(this.type, this.xs, this.ys, this.zs, EPSILON);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < QUERIES; ++i)
+            sum += this.spatialIndex.sumNeighborWeightsManhattan(i, EPSILON, this.ws);
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public long query() {
+        long neighbors = 0;
+        for (int i = 0; i < QUERIES; ++i)
+            neighbors += this.spatialIndex.getNeighborsManhattan(i, EPSILON).length;
+        return neighbors;
+    }
+
+}
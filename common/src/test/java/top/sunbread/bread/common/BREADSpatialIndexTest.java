@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BREADSpatialIndexTest {
+
+    @Test
+    void neighborsTest() {
+        Random rand = new Random();
+        int[] xs = new int[2000], ys = new int[2000], zs = new int[2000], ws = new int[2000];
+        Set<Long> marked = new HashSet<>(); // The Range Tree doesn't accept duplicate points
+        for (int i = 0; i < xs.length; ++i) {
+            do {
+                xs[i] = rand.nextInt(200) - 100;
+                ys[i] = rand.nextInt(256);
+                zs[i] = rand.nextInt(200) - 100;
+            } while (!marked.add(BREADPointCounter.pack(xs[i], ys[i], zs[i])));
+            ws[i] = rand.nextInt(100) + 1;
+        }
+        for (BREADSpatialIndex.Type type : BREADSpatialIndex.Type.values()) {
+            BREADSpatialIndex index = BREADSpatialIndex.create(type, xs, ys, zs, 16);
+            for (int i = 0; i < xs.length; i += 7) {
+                int center = i;
+                int[] expected = IntStream.range(0, xs.length).filter(j -> Math.abs(xs[j] - xs[center]) +
+                        Math.abs(ys[j] - ys[center]) + Math.abs(zs[j] - zs[center]) <= 16).toArray();
+                int[] neighbors = index.getNeighborsManhattan(i, 16);
+                Arrays.sort(neighbors);
+                assertArrayEquals(expected, neighbors, type + " point #" + i);
+                assertEquals(Arrays.stream(expected).mapToLong(j -> ws[j]).sum(),
+                        index.sumNeighborWeightsManhattan(i, 16, ws), type + " point #" + i);
+            }
+        }
+    }
+
+    @Test
+    void selectTest() {
+        Random rand = new Random();
+        int[] xs = new int[10000], ys = new int[10000], zs = new int[10000];
+        for (int i = 0; i < xs.length; ++i) {
+            xs[i] = rand.nextInt(60000) - 30000;
+            ys[i] = rand.nextInt(256);
+            zs[i] = rand.nextInt(60000) - 30000;
+        }
+        assertEquals(BREADSpatialIndex.Type.KD_TREE, BREADSpatialIndex.select(xs, ys, zs, 16));
+        for (int i = 0; i < xs.length; ++i) {
+            xs[i] = rand.nextInt(32);
+            ys[i] = rand.nextInt(32);
+            zs[i] = rand.nextInt(32);
+        }
+        assertEquals(BREADSpatialIndex.Type.ROTATED_GRID, BREADSpatialIndex.select(xs, ys, zs, 16));
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BREADUnionFindTest {
+
+    @Test
+    void concurrentUnionTest() {
+        Random rand = new Random();
+        int size = 100000;
+        int[][] edges = new int[size][];
+        for (int i = 0; i < edges.length; ++i)
+            edges[i] = new int[]{rand.nextInt(size), rand.nextInt(size)};
+        BREADUnionFind concurrent = new BREADUnionFind(size);
+        IntStream.range(0, edges.length).parallel().forEach(i -> concurrent.union(edges[i][0], edges[i][1]));
+        int[] components = new int[size]; // Sequential labelling by propagating the smallest label
+        for (int i = 0; i < size; ++i) components[i] = i;
+        for (boolean changed = true; changed; ) {
+            changed = false;
+            for (int[] edge : edges) {
+                int label = Math.min(components[edge[0]], components[edge[1]]);
+                if (components[edge[0]] != label || components[edge[1]] != label) {
+                    components[edge[0]] = components[edge[1]] = label;
+                    changed = true;
+                }
+            }
+        }
+        for (int i = 0; i < size; ++i)
+            assertEquals(components[i], concurrent.find(i), "Element #" + i);
+    }
+
+}
@@ -18,41 +18,73 @@
 package top.sunbread.bread.spigot;
 
 import org.bukkit.Bukkit;
-import org.bukkit.Location;
-import org.bukkit.World;
+import org.bukkit.block.Block;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.HandlerList;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.BlockRedstoneEvent;
 import org.bukkit.plugin.java.JavaPlugin;
-import top.sunbread.bread.common.BREADStatistics;
-
-import java.util.*;
-import java.util.stream.Collectors;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.scheduler.BukkitTask;
+import top.sunbread.bread.common.BREADAccumulator;
+import top.sunbread.bread.common.BREADHandoffAccumulator;
+import top.sunbread.bread.common.BREADOptions;
+import top.sunbread.bread.common.BREADPointCounter;
+import top.sunbread.bread.common.BREADPoints;
+import top.sunbread.bread.common.BREADRegionFilter;
+import top.sunbread.bread.common.BREADSampler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 final class SpigotCollector {
 
-    private Map<UUID, Map<HashPoint, Integer>> points; // World UID, Hash Point, Repeat Times
+    private BREADAccumulator points;
+    private BREADHandoffAccumulator handoffPoints; // Used instead of points in hand-off mode
+    private BREADSampler sampler; // Null if not sampled
+    private BREADRegionFilter regionFilter; // Null if not restricted
     private JavaPlugin plugin;
+    private boolean timed;
     private boolean running;
     private Listener listener;
-
-    SpigotCollector(JavaPlugin plugin) {
-        this.points = new HashMap<>();
+    private BukkitTask ticker; // Advances the tick of activity and sampling, null if neither is used
+
+    SpigotCollector(JavaPlugin plugin, int collectionPeriod, BREADOptions options, BREADRegionFilter regionFilter) {
+        this.points = new BREADAccumulator(options.getStorage(), options.getBucketTicks(), collectionPeriod);
+        this.handoffPoints = options.isHandoff() ?
+                new BREADHandoffAccumulator(options.getStorage(), options.getBucketTicks(), collectionPeriod) : null;
+        this.sampler = options.isSampled() ? new BREADSampler(options.getSampleRate()) : null;
+        this.regionFilter = regionFilter;
         this.plugin = plugin;
+        this.timed = options.isTimed();
         this.running = false;
+        this.ticker = null;
         this.listener = new Listener() {
             @EventHandler(priority = EventPriority.MONITOR)
             public void onBlockRedstoneEvent(BlockRedstoneEvent event) {
-                addPointFromLocation(event.getBlock().getLocation());
+                addPoint(event.getBlock());
             }
         };
     }
 
     void start() {
         if (this.running) return;
+        if (this.handoffPoints != null) this.handoffPoints.start();
         Bukkit.getPluginManager().registerEvents(this.listener, this.plugin);
+        if (this.timed || this.sampler != null)
+            this.ticker = new BukkitRunnable() {
+                @Override
+                public void run() {
+                    if (SpigotCollector.this.sampler != null) SpigotCollector.this.sampler.tick();
+                    if (!SpigotCollector.this.timed) return;
+                    if (SpigotCollector.this.handoffPoints != null) SpigotCollector.this.handoffPoints.tick();
+                    else SpigotCollector.this.points.tick();
+                }
+            }.runTaskTimer(this.plugin, 1, 1);
         this.running = true;
     }
 
@@ -60,67 +92,55 @@ final class SpigotCollector {
         if (!this.running) return;
         this.running = false;
         HandlerList.unregisterAll(this.listener);
+        if (this.ticker != null) {
+            this.ticker.cancel();
+            this.ticker = null;
+        }
     }
 
     boolean isRunning() {
         return this.running;
     }
 
-    Set<World> getWorlds() {
+    CompletableFuture<Map<UUID, BREADPoints>> getPoints() {
         if (this.running) return null;
-        return this.points.keySet().parallelStream().map(Bukkit::getWorld).collect(Collectors.toSet());
+        if (this.handoffPoints != null) return this.handoffPoints.finish();
+        return CompletableFuture.completedFuture(this.points.snapshot());
     }
 
-    Set<BREADStatistics.Point> getPointsForWorld(World world) {
-        if (this.running) return null;
-        return this.points.get(world.getUID()).entrySet().parallelStream().
-                map(entry -> new BREADStatistics.Point(entry.getKey().x, entry.getKey().y, entry.getKey().z,
-                        entry.getValue())).
-                collect(Collectors.toSet());
-    }
-
-    Map<UUID, Set<BREADStatistics.Point>> getPoints() {
-        if (this.running) return null;
-        return getWorlds().parallelStream().collect(Collectors.toMap(World::getUID, this::getPointsForWorld));
+    List<String> getNotes() {
+        List<String> notes = new ArrayList<>();
+        if (this.handoffPoints != null) {
+            long events = this.handoffPoints.getHandedOffEvents() + this.handoffPoints.getSpilledEvents();
+            notes.add(this.handoffPoints.getHandedOffEvents() + " of " + events +
+                    " events were handed off, " + this.handoffPoints.getSpilledEvents() +
+                    " were spilled on the server thread.");
+        }
+        if (this.regionFilter != null)
+            notes.add(this.regionFilter.getRejectedEvents() + " events outside the region were rejected.");
+        if (this.sampler != null)
+            notes.add(this.sampler.getSampledEvents() + " of " + this.sampler.getEvents() +
+                    " events were sampled, the last rate was 1 in " + this.sampler.getRate() + ".");
+        return notes;
     }
 
     void clear() {
         if (this.running) return;
         this.points.clear();
+        if (this.handoffPoints != null) this.handoffPoints.clear();
     }
 
-    private void addPointFromLocation(Location loc) {
-        Map<HashPoint, Integer> pointsInWorld;
-        if (!this.points.containsKey(loc.getWorld().getUID()))
-            this.points.put(loc.getWorld().getUID(), new LinkedHashMap<>());
-        pointsInWorld = this.points.get(loc.getWorld().getUID());
-        HashPoint point = new HashPoint(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
-        pointsInWorld.put(point, pointsInWorld.containsKey(point) ? pointsInWorld.get(point) + 1 : 1);
-    }
-
-    private static final class HashPoint {
-
-        int x, y, z;
-
-        HashPoint(int x, int y, int z) {
-            this.x = x;
-            this.y = y;
-            this.z = z;
-        }
-
-        @Override
-        public boolean equals(Object o) {
-            if (o == null) return false;
-            if (this == o) return true;
-            if (!(o instanceof HashPoint)) return false;
-            return this.x == ((HashPoint) o).x && this.y == ((HashPoint) o).y && this.z == ((HashPoint) o).z;
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash(this.x, this.y, this.z);
-        }
-
+    private void addPoint(Block block) {
+        if (this.regionFilter != null &&
+                !this.regionFilter.accepts(block.getWorld().getUID(), block.getX(), block.getY(), block.getZ()))
+            return;
+        int weight = 1;
+        if (this.sampler != null && (weight = this.sampler.sample()) == 0) return;
+        if (this.handoffPoints != null)
+            this.handoffPoints.add(block.getWorld().getUID(), block.getX(), block.getY(), block.getZ(), weight);
+        else
+            this.points.add(block.getWorld().getUID(),
+                    BREADPointCounter.pack(block.getX(), block.getY(), block.getZ()), weight);
     }
 
 }
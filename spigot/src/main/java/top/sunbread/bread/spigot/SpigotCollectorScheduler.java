@@ -17,31 +17,46 @@
 
 package top.sunbread.bread.spigot;
 
+import org.bukkit.Bukkit;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.bukkit.scheduler.BukkitRunnable;
 import org.bukkit.scheduler.BukkitTask;
-import top.sunbread.bread.common.BREADStatistics;
+import top.sunbread.bread.common.BREADOptions;
+import top.sunbread.bread.common.BREADPoints;
+import top.sunbread.bread.common.BREADRegionFilter;
 
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.UUID;
-import java.util.function.Consumer;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 
 final class SpigotCollectorScheduler {
 
     private SpigotCollector collector;
     private BukkitTask task;
+    private boolean stopped;
 
-    SpigotCollectorScheduler(JavaPlugin plugin, Consumer<Map<UUID, Set<BREADStatistics.Point>>> callback,
-                             int collectionPeriod) {
-        this.collector = new SpigotCollector(plugin);
+    SpigotCollectorScheduler(JavaPlugin plugin, BiConsumer<Map<UUID, BREADPoints>, List<String>> callback,
+                             int collectionPeriod, BREADOptions options, BREADRegionFilter regionFilter) {
+        this.collector = new SpigotCollector(plugin, collectionPeriod, options, regionFilter);
         this.collector.start();
+        this.stopped = false;
         this.task = new BukkitRunnable() {
             @Override
             public void run() {
-                SpigotCollectorScheduler.this.collector.stop();
-                callback.accept(SpigotCollectorScheduler.this.collector.getPoints());
-                SpigotCollectorScheduler.this.collector.clear();
+                SpigotCollector collector = SpigotCollectorScheduler.this.collector;
+                collector.stop();
+                List<String> notes = collector.getNotes();
+                CompletableFuture<Map<UUID, BREADPoints>> points = collector.getPoints();
+                Runnable finish = () -> {
+                    if (!SpigotCollectorScheduler.this.stopped && !points.isCompletedExceptionally())
+                        callback.accept(points.join(), notes);
+                    collector.clear();
+                };
+                // The last hand-off drain finishes off the server thread, then the callback is run on it
+                if (points.isDone()) finish.run();
+                else points.whenComplete((result, throwable) -> Bukkit.getScheduler().runTask(plugin, finish));
             }
         }.runTaskLater(plugin, collectionPeriod);
     }
@@ -51,6 +66,7 @@ final class SpigotCollectorScheduler {
     }
 
     void forceStop() {
+        this.stopped = true; // Also drops points which are still being drained
         if (!isRunning()) return;
         this.task.cancel();
         this.collector.stop();
@@ -20,10 +20,19 @@ package top.sunbread.bread.spigot;
 import net.md_5.bungee.api.chat.*;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
+import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabCompleter;
+import org.bukkit.entity.Entity;
+import top.sunbread.bread.common.BREADAnalyser;
+import top.sunbread.bread.common.BREADClusterHierarchy;
+import top.sunbread.bread.common.BREADOptions;
+import top.sunbread.bread.common.BREADRegionFilter;
+import top.sunbread.bread.common.BREADReport;
+import top.sunbread.bread.common.BREADRollingWindow;
 import top.sunbread.bread.common.BREADStatistics;
 
 import java.math.RoundingMode;
@@ -40,11 +49,14 @@ final class SpigotCommand implements CommandExecutor, TabCompleter {
     private static final int NORMAL_COLLECTION_PERIOD_MULTIPLIER = 4; // 60 seconds
     private static final int SEMI_FAST_COLLECTION_PERIOD_MULTIPLIER = 2; // 30 seconds
     private static final int FAST_COLLECTION_PERIOD_MULTIPLIER = 1; // 15 seconds
+    private static final int[] SHOWN_DENSITIES = {5, 10, BREADClusterHierarchy.DEFAULT_DENSITY, 50, 100};
 
     private SpigotController controller;
+    private BREADReport<BaseComponent[]> report; // Of the last result, null if not viewed yet
 
     SpigotCommand(SpigotController controller) {
         this.controller = controller;
+        this.report = null;
     }
 
     @Override
@@ -58,34 +70,28 @@ final class SpigotCommand implements CommandExecutor, TabCompleter {
         if (args.length > 0)
             switch (args[0].toLowerCase()) {
                 case "status":
-                    cmdStatus(sender);
+                    cmdStatus(sender, args);
                     break;
                 case "start":
-                    if (this.controller.getStatus() == SpigotController.ControllerStatus.IDLE) {
-                        sender.sendMessage(ChatColor.YELLOW + "Sub-command " +
-                                ChatColor.GREEN + "start" +
-                                ChatColor.YELLOW + " executed successfully!");
-                        this.controller.runBREAD(sender, NORMAL_COLLECTION_PERIOD_MULTIPLIER);
-                    } else sender.sendMessage(ChatColor.RED + "There is already a BREAD run by " +
-                            this.controller.getCurrentOperator().getName() + ".");
+                    cmdStart(sender, args, NORMAL_COLLECTION_PERIOD_MULTIPLIER);
                     break;
                 case "semi-fast":
-                    if (this.controller.getStatus() == SpigotController.ControllerStatus.IDLE) {
-                        sender.sendMessage(ChatColor.YELLOW + "Sub-command " +
-                                ChatColor.GREEN + "semi-fast" +
-                                ChatColor.YELLOW + " executed successfully!");
-                        this.controller.runBREAD(sender, SEMI_FAST_COLLECTION_PERIOD_MULTIPLIER);
-                    } else sender.sendMessage(ChatColor.RED + "There is already a BREAD run by " +
-                            this.controller.getCurrentOperator().getName() + ".");
+                    cmdStart(sender, args, SEMI_FAST_COLLECTION_PERIOD_MULTIPLIER);
                     break;
                 case "fast":
-                    if (this.controller.getStatus() == SpigotController.ControllerStatus.IDLE) {
-                        sender.sendMessage(ChatColor.YELLOW + "Sub-command " +
-                                ChatColor.GREEN + "fast" +
-                                ChatColor.YELLOW + " executed successfully!");
-                        this.controller.runBREAD(sender, FAST_COLLECTION_PERIOD_MULTIPLIER);
-                    } else sender.sendMessage(ChatColor.RED + "There is already a BREAD run by " +
-                            this.controller.getCurrentOperator().getName() + ".");
+                    cmdStart(sender, args, FAST_COLLECTION_PERIOD_MULTIPLIER);
+                    break;
+                case "rolling":
+                    cmdRolling(sender, args);
+                    break;
+                case "recent":
+                    cmdRecent(sender, args);
+                    break;
+                case "top":
+                    cmdTop(sender, args);
+                    break;
+                case "recut":
+                    cmdRecut(sender, args);
                     break;
                 case "stop":
                     if (this.controller.getStatus() != SpigotController.ControllerStatus.IDLE) {
@@ -107,13 +113,200 @@ final class SpigotCommand implements CommandExecutor, TabCompleter {
     @Override
     public List<String> onTabComplete(CommandSender sender, Command cmd, String alias, String[] args) {
         if (sender.hasPermission("bread.admin") && args.length == 1)
-            return Stream.of("status", "start", "semi-fast", "fast", "stop").
+            return Stream.of("status", "start", "semi-fast", "fast", "rolling", "recent", "top", "recut", "stop").
                     filter(subCmd -> subCmd.toLowerCase().startsWith(args[args.length - 1].toLowerCase())).
                     collect(Collectors.toList());
+        else if (sender.hasPermission("bread.admin") && args.length > 1 &&
+                Stream.of("start", "semi-fast", "fast").anyMatch(args[0]::equalsIgnoreCase))
+            return BREADOptions.getOptionNames().stream().
+                    filter(option -> option.toLowerCase().startsWith(args[args.length - 1].toLowerCase())).
+                    collect(Collectors.toList());
+        else if (sender.hasPermission("bread.admin") && args.length == 2 && args[0].equalsIgnoreCase("rolling"))
+            return Stream.of("on", "off").
+                    filter(state -> state.startsWith(args[1].toLowerCase())).
+                    collect(Collectors.toList());
+        else if (sender.hasPermission("bread.admin") && args.length == 2 &&
+                Stream.of("recent", "top").anyMatch(args[0]::equalsIgnoreCase))
+            return IntStream.rangeClosed(1, NORMAL_COLLECTION_PERIOD_MULTIPLIER).
+                    mapToObj(i -> String.valueOf(BREADAnalyser.COLLECTING_TICKS_BASE / 20 * i)).
+                    filter(seconds -> seconds.startsWith(args[1])).
+                    collect(Collectors.toList());
+        else if (sender.hasPermission("bread.admin") && args.length == 2 && args[0].equalsIgnoreCase("recut"))
+            return Arrays.stream(SHOWN_DENSITIES).
+                    mapToObj(String::valueOf).
+                    filter(density -> density.startsWith(args[1])).
+                    collect(Collectors.toList());
         else return Collections.emptyList();
     }
 
-    private void cmdStatus(CommandSender sender) {
+    private void cmdStart(CommandSender sender, String[] args, int collectionPeriodMultiplier) {
+        if (this.controller.getStatus() != SpigotController.ControllerStatus.IDLE) {
+            sender.sendMessage(ChatColor.RED + "There is already a BREAD run by " +
+                    this.controller.getCurrentOperator().getName() + ".");
+            return;
+        }
+        BREADOptions options;
+        BREADRegionFilter regionFilter;
+        try {
+            options = BREADOptions.parse(Arrays.asList(args).subList(1, args.length));
+            regionFilter = getRegionFilter(sender, options);
+        } catch (IllegalArgumentException e) {
+            sender.sendMessage(ChatColor.RED + e.getMessage() + ".");
+            return;
+        }
+        sender.sendMessage(ChatColor.YELLOW + "Sub-command " +
+                ChatColor.GREEN + args[0].toLowerCase() +
+                ChatColor.YELLOW + " executed successfully!");
+        this.controller.runBREAD(sender, collectionPeriodMultiplier, options, regionFilter);
+    }
+
+    private BREADRegionFilter getRegionFilter(CommandSender sender, BREADOptions options) {
+        if (!options.isRegionRestricted()) return null;
+        World world;
+        if (options.getWorldName() != null) {
+            world = Bukkit.getWorld(options.getWorldName());
+            if (world == null)
+                throw new IllegalArgumentException("There is no such world: " + options.getWorldName());
+        } else if (sender instanceof Entity) world = ((Entity) sender).getWorld();
+        else throw new IllegalArgumentException("Please specify a world by option world");
+        if (options.getRadius() > 0) {
+            if (!(sender instanceof Entity))
+                throw new IllegalArgumentException("Option radius can only be used by a player");
+            Location location = ((Entity) sender).getLocation();
+            if (!location.getWorld().equals(world))
+                throw new IllegalArgumentException("Option radius can only be used in the world you are in");
+            return BREADRegionFilter.sphere(world.getUID(),
+                    location.getBlockX(), location.getBlockY(), location.getBlockZ(), options.getRadius());
+        }
+        int[] box = options.getBox();
+        if (box != null)
+            return BREADRegionFilter.box(world.getUID(), box[0], box[1], box[2], box[3], box[4], box[5]);
+        return BREADRegionFilter.world(world.getUID());
+    }
+
+    private void cmdRolling(CommandSender sender, String[] args) {
+        if (args.length > 1 && args[1].equalsIgnoreCase("on")) {
+            this.controller.startRollingWindow();
+            sender.sendMessage(ChatColor.YELLOW + "Rolling window is " + ChatColor.GREEN + "on" +
+                    ChatColor.YELLOW + ".");
+        } else if (args.length > 1 && args[1].equalsIgnoreCase("off")) {
+            this.controller.stopRollingWindow();
+            sender.sendMessage(ChatColor.YELLOW + "Rolling window is " + ChatColor.RED + "off" +
+                    ChatColor.YELLOW + ".");
+        } else if (args.length > 1)
+            sender.sendMessage(ChatColor.RED + "Please specify on or off.");
+        else if (!this.controller.isRollingWindowRunning())
+            sender.sendMessage(ChatColor.YELLOW + "Rolling window is " + ChatColor.RED + "off" +
+                    ChatColor.YELLOW + ".");
+        else {
+            BREADRollingWindow window = this.controller.getRollingWindow().getWindow();
+            sender.sendMessage(ChatColor.YELLOW + "Rolling window is " + ChatColor.GREEN + "on" +
+                    ChatColor.YELLOW + ".");
+            sender.sendMessage(ChatColor.YELLOW + "Available: " + ChatColor.AQUA +
+                    window.getAvailableTicks() / 20 + " seconds");
+            sender.sendMessage(ChatColor.YELLOW + "Stored blocks: " + ChatColor.AQUA + window.getStoredBlocks());
+            sender.sendMessage(ChatColor.YELLOW + "Dropped events: " + ChatColor.AQUA + window.getDroppedEvents());
+            sender.sendMessage(ChatColor.YELLOW + "Cost per event: " + ChatColor.AQUA +
+                    (Double.isNaN(window.getAverageEventNanos()) ? "unknown" :
+                            frequencyRound(window.getAverageEventNanos()) + " ns"));
+        }
+    }
+
+    private void cmdRecent(CommandSender sender, String[] args) {
+        if (this.controller.getStatus() != SpigotController.ControllerStatus.IDLE) {
+            sender.sendMessage(ChatColor.RED + "There is already a BREAD run by " +
+                    this.controller.getCurrentOperator().getName() + ".");
+            return;
+        }
+        if (!this.controller.isRollingWindowRunning()) {
+            sender.sendMessage(ChatColor.RED + "Rolling window is off. Use sub-command " +
+                    ChatColor.GREEN + "rolling on" + ChatColor.RED + " to turn it on.");
+            return;
+        }
+        int availableMultiplier = Math.min(NORMAL_COLLECTION_PERIOD_MULTIPLIER,
+                this.controller.getRollingWindow().getWindow().getAvailableTicks() /
+                        BREADAnalyser.COLLECTING_TICKS_BASE);
+        int collectionPeriodMultiplier = availableMultiplier;
+        if (args.length > 1) {
+            collectionPeriodMultiplier = parseSeconds(args[1]);
+            if (collectionPeriodMultiplier == 0) {
+                sender.sendMessage(ChatColor.RED + "Seconds must be 15, 30, 45 or 60.");
+                return;
+            }
+        }
+        if (collectionPeriodMultiplier == 0 || collectionPeriodMultiplier > availableMultiplier) {
+            sender.sendMessage(ChatColor.RED + "Rolling window only has " +
+                    this.controller.getRollingWindow().getWindow().getAvailableTicks() / 20 +
+                    " seconds of redstone events.");
+            return;
+        }
+        sender.sendMessage(ChatColor.YELLOW + "Sub-command " +
+                ChatColor.GREEN + "recent" +
+                ChatColor.YELLOW + " executed successfully!");
+        this.controller.runRecentBREAD(sender, collectionPeriodMultiplier);
+    }
+
+    private void cmdTop(CommandSender sender, String[] args) {
+        if (this.controller.getStatus() != SpigotController.ControllerStatus.IDLE) {
+            sender.sendMessage(ChatColor.RED + "There is already a BREAD run by " +
+                    this.controller.getCurrentOperator().getName() + ".");
+            return;
+        }
+        int collectionPeriodMultiplier = FAST_COLLECTION_PERIOD_MULTIPLIER;
+        if (args.length > 1) {
+            collectionPeriodMultiplier = parseSeconds(args[1]);
+            if (collectionPeriodMultiplier == 0) {
+                sender.sendMessage(ChatColor.RED + "Seconds must be 15, 30, 45 or 60.");
+                return;
+            }
+        }
+        sender.sendMessage(ChatColor.YELLOW + "Sub-command " +
+                ChatColor.GREEN + "top" +
+                ChatColor.YELLOW + " executed successfully!");
+        this.controller.runTopBREAD(sender, collectionPeriodMultiplier);
+    }
+
+    private void cmdRecut(CommandSender sender, String[] args) {
+        if (this.controller.getStatus() != SpigotController.ControllerStatus.IDLE) {
+            sender.sendMessage(ChatColor.RED + "There is already a BREAD run by " +
+                    this.controller.getCurrentOperator().getName() + ".");
+            return;
+        }
+        if (this.controller.getHierarchies() == null) {
+            sender.sendMessage(ChatColor.RED + "Last Result has no cluster hierarchy. Use option " +
+                    ChatColor.GREEN + "hierarchy" + ChatColor.RED + " to build one.");
+            return;
+        }
+        int density = -1;
+        if (args.length > 1)
+            try {
+                density = Integer.parseInt(args[1]);
+            } catch (NumberFormatException ignored) {
+            }
+        if (density < 0) {
+            sender.sendMessage(ChatColor.RED + "Density must be a non-negative integer.");
+            return;
+        }
+        sender.sendMessage(ChatColor.YELLOW + "Sub-command " +
+                ChatColor.GREEN + "recut" +
+                ChatColor.YELLOW + " executed successfully!");
+        this.controller.runRecutBREAD(sender, density);
+    }
+
+    private int parseSeconds(String arg) {
+        int seconds;
+        try {
+            seconds = Integer.parseInt(arg);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+        if (seconds <= 0 || seconds % (BREADAnalyser.COLLECTING_TICKS_BASE / 20) != 0 ||
+                seconds / (BREADAnalyser.COLLECTING_TICKS_BASE / 20) > NORMAL_COLLECTION_PERIOD_MULTIPLIER)
+            return 0;
+        return seconds / (BREADAnalyser.COLLECTING_TICKS_BASE / 20);
+    }
+
+    private void cmdStatus(CommandSender sender, String[] args) {
         switch (this.controller.getStatus()) {
             case IDLE:
                 sender.sendMessage(ChatColor.YELLOW + "BREAD Status: " + ChatColor.GREEN + "Idle");
@@ -121,21 +314,26 @@ final class SpigotCommand implements CommandExecutor, TabCompleter {
                     if (this.controller.getLastResult().size() == 0)
                         sender.sendMessage(ChatColor.YELLOW + "Last Result is existing but empty");
                     else {
-                        sender.sendMessage(ChatColor.YELLOW + "======== Last Result ========");
-                        for (Map.Entry<UUID, BREADStatistics.WorldStatistics> entry :
-                                this.controller.getLastResult().entrySet()) {
-                            String worldName = Bukkit.getWorld(entry.getKey()).getName();
-                            sender.sendMessage(ChatColor.GOLD + "---- " + worldName + " ----");
-                            BREADStatistics.WorldStatistics stats = entry.getValue();
-                            List<BREADStatistics.ClusterStatistics> clusters = stats.clusters;
-                            for (BREADStatistics.ClusterStatistics cluster : clusters)
-                                sender.spigot().sendMessage(getRowComponents(cluster));
-                            if (stats.noise.raw.size() != 0)
-                                sender.spigot().sendMessage(getRowComponents(stats.noise));
+                        BREADReport<BaseComponent[]> report = getReport(this.controller.getLastResult());
+                        int page = args.length > 1 ? parsePage(args[1]) : 1;
+                        if (page < 1 || page > report.getPageCount()) {
+                            sender.sendMessage(ChatColor.RED + "Page must be an integer between 1 and " +
+                                    report.getPageCount() + ".");
+                            break;
                         }
+                        // Rows are rendered in the analysis pool the first time they are shown
+                        report.renderPage(page - 1, this.controller.getAnalysisPool().getExecutor()).
+                                whenComplete((rows, throwable) ->
+                                        Bukkit.getScheduler().runTask(this.controller.getPlugin(), () -> {
+                                            if (rows != null) sendReportPage(sender, report, page, rows);
+                                            else sender.sendMessage(ChatColor.RED +
+                                                    "Failed to show Last Result! An error occurred while rendering.");
+                                        }));
                     }
-                } else
+                } else {
+                    this.report = null;
                     sender.sendMessage(ChatColor.YELLOW + "Last Result does not exist");
+                }
                 break;
             case COLLECTING:
                 sender.sendMessage(ChatColor.YELLOW + "BREAD Status: " + ChatColor.AQUA + "Collecting");
@@ -150,7 +348,75 @@ final class SpigotCommand implements CommandExecutor, TabCompleter {
         }
     }
 
+    private int parsePage(String arg) {
+        try {
+            return Integer.parseInt(arg);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private BREADReport<BaseComponent[]> getReport(Map<UUID, BREADStatistics.WorldStatistics> result) {
+        if (this.report == null || this.report.getResult() != result)
+            this.report = new BREADReport<>(result, row ->
+                    row.cluster != null ? getRowComponents(row.cluster) : getRowComponents(row.noise));
+        return this.report;
+    }
+
+    private void sendReportPage(CommandSender sender, BREADReport<BaseComponent[]> report, int page,
+                                List<BREADReport.Row<BaseComponent[]>> rows) {
+        sender.sendMessage(ChatColor.YELLOW + "======== Last Result (" + page + "/" + report.getPageCount() +
+                ") ========");
+        for (BREADReport.Row<BaseComponent[]> row : rows) {
+            if (row.firstOfWorld || row == rows.get(0)) {
+                String worldName = Bukkit.getWorld(row.world).getName();
+                sender.sendMessage(ChatColor.GOLD + "---- " + worldName + " ----");
+                if (this.controller.getHierarchies() != null &&
+                        this.controller.getHierarchies().containsKey(row.world))
+                    sender.sendMessage(getDensitiesMessage(this.controller.getHierarchies().get(row.world)));
+            }
+            sender.spigot().sendMessage(row.getRendered());
+            if (row.lastOfWorld && row.worldStatistics.partial) {
+                sender.sendMessage(ChatColor.RED + "Partial result, analysis ran out of time. " +
+                        ChatColor.YELLOW + "Hottest blocks:");
+                for (BREADStatistics.HeavyHitter hotspot : row.worldStatistics.hotspots)
+                    sender.sendMessage(ChatColor.YELLOW + "(" + hotspot.x + ", " + hotspot.y + ", " +
+                            hotspot.z + "): " + ChatColor.AQUA + hotspot.count +
+                            ChatColor.YELLOW + " events");
+            }
+        }
+        if (page < report.getPageCount())
+            sender.sendMessage(ChatColor.YELLOW + "Use sub-command " + ChatColor.GREEN + "status " + (page + 1) +
+                    ChatColor.YELLOW + " to view the next page.");
+    }
+
+    private String getDensitiesMessage(BREADClusterHierarchy hierarchy) {
+        return ChatColor.YELLOW + "Regions by density: " + IntStream.concat(Arrays.stream(SHOWN_DENSITIES),
+                IntStream.of(this.controller.getDensity())).distinct().sorted().
+                mapToObj(density -> (density == this.controller.getDensity() ? ChatColor.GREEN : ChatColor.AQUA) +
+                        String.valueOf(density) + ChatColor.GRAY + ": " + ChatColor.BLUE +
+                        hierarchy.countClusters(density)).
+                collect(Collectors.joining(ChatColor.GRAY + ", "));
+    }
+
     private BaseComponent[] getRowComponents(BREADStatistics.ClusterStatistics stats) {
+        BaseComponent[] row = getBasicRowComponents(stats);
+        if (stats.eventsPerTickSeries == null) return row;
+        return mergeComponents(row,
+                getCommaComponents(),
+                getValueItemComponents("PEPT", "Peak events per tick",
+                        stats.peakEventsPerTick, this::frequencyRound),
+                getCommaComponents(),
+                getValueItemComponents("CLK", "Clock period in ticks, 0 if not periodic",
+                        stats.clockPeriod, this::frequencyRound),
+                getCommaComponents(),
+                getDataItemComponents("TSC", "Time series code\n" +
+                                "Format: [Events per tick list], one element per " + stats.bucketTicks + " tick(s)\n" +
+                                "Encoding scheme: Base64",
+                        series2MATLABString(stats.eventsPerTickSeries).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private BaseComponent[] getBasicRowComponents(BREADStatistics.ClusterStatistics stats) {
         return mergeComponents(getStatsTypeComponents(false),
                 getCommaComponents(),
                 getValueItemComponents("EPT", "Events per tick",
@@ -162,6 +428,17 @@ final class SpigotCommand implements CommandExecutor, TabCompleter {
                 getValueItemComponents("DFC", "Distance from centroid",
                         stats.distanceFromCentroid, this::locationAndDistanceRound),
                 getCommaComponents(),
+                getValueItemComponents("VAR", "Event variance, mean squared distance from centroid",
+                        stats.eventVariance, this::locationAndDistanceRound),
+                getCommaComponents(),
+                getTextItemComponents("BBX", "Bounding box", box2String(stats.boundingBox)),
+                getCommaComponents(),
+                getValueItemComponents("PBE", "Peak block events",
+                        stats.peakBlockEvents, this::frequencyRound),
+                getCommaComponents(),
+                getValueItemComponents("CHK", "Chunks touched",
+                        stats.chunks, this::frequencyRound),
+                getCommaComponents(),
                 getDataItemComponents("PDC", "Points data code\n" +
                                 "Format: [X list, Y list, Z list, Event times list]\n" +
                                 "Encoding scheme: Base64",
@@ -207,7 +484,11 @@ final class SpigotCommand implements CommandExecutor, TabCompleter {
 
     private BaseComponent[] getValueItemComponents(String name, String nameMeaning,
                                                    double value, DoubleFunction<String> round) {
-        TextComponent valueComponent = new TextComponent(round.apply(value));
+        return getTextItemComponents(name, nameMeaning, round.apply(value));
+    }
+
+    private BaseComponent[] getTextItemComponents(String name, String nameMeaning, String text) {
+        TextComponent valueComponent = new TextComponent(text);
         valueComponent.setColor(net.md_5.bungee.api.ChatColor.BLUE);
         return new BaseComponent[]{getItemNameComponent(name, nameMeaning), getEqualsSignComponent(),
                 valueComponent};
@@ -266,6 +547,12 @@ final class SpigotCommand implements CommandExecutor, TabCompleter {
                 collect(Collectors.joining(", ", "[", "]"));
     }
 
+    private String series2MATLABString(double[] series) {
+        return Arrays.stream(series).
+                mapToObj(this::frequencyRound).
+                collect(Collectors.joining(", ", "[", "]"));
+    }
+
     private String frequencyRound(double a) {
         DecimalFormat formatter = new DecimalFormat("0.##");
         formatter.setRoundingMode(RoundingMode.HALF_UP);
@@ -299,6 +586,11 @@ final class SpigotCommand implements CommandExecutor, TabCompleter {
                 map(round::apply).collect(Collectors.joining(", ", "(", ")"));
     }
 
+    private String box2String(int[] box) {
+        return location2String(new double[]{box[0], box[1], box[2]}, this::frequencyRound) + " ~ " +
+                location2String(new double[]{box[3], box[4], box[5]}, this::frequencyRound);
+    }
+
     private String[] splitStringByLength(String string, int charLength) {
         List<String> result = new ArrayList<>();
         StringBuilder buffer = new StringBuilder(string);
@@ -20,30 +20,65 @@ package top.sunbread.bread.spigot;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.command.CommandSender;
+import org.bukkit.World;
 import org.bukkit.entity.Entity;
 import org.bukkit.plugin.java.JavaPlugin;
 import top.sunbread.bread.common.BREADAnalyser;
+import top.sunbread.bread.common.BREADAnalysisPool;
+import top.sunbread.bread.common.BREADClusterHierarchy;
+import top.sunbread.bread.common.BREADIncrementalClustering;
+import top.sunbread.bread.common.BREADOptions;
+import top.sunbread.bread.common.BREADPoints;
+import top.sunbread.bread.common.BREADRegionFilter;
 import top.sunbread.bread.common.BREADStatistics;
 
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 final class SpigotController {
 
+    private static final int TOP_BLOCKS = 50;
+    private static final BREADOptions RECENT_OPTIONS = // Recent windows overlap, so they're analysed incrementally
+            BREADOptions.parse(Collections.singletonList("incremental"));
+
     private JavaPlugin plugin;
     private ControllerStatus status;
     private Operator currentOperator;
     private Map<UUID, BREADStatistics.WorldStatistics> lastResult;
+    private Map<UUID, BREADClusterHierarchy> hierarchies; // Of the last result, null if not built
+    private int density; // Which the last result is cut at
     private SpigotCollectorScheduler scheduler;
+    private BREADAnalysisPool analysisPool; // Owned by the plugin
     private BREADAnalyser analyser;
+    private CompletableFuture<Map<UUID, BREADPoints>> merging; // Recent events being merged, null if not
+    private Map<UUID, BREADIncrementalClustering> clusterings; // Kept between runs for incremental analysis
+    private SpigotRollingWindow rollingWindow;
+    private SpigotHeavyHitterCollector heavyHitterCollector;
 
-    SpigotController(JavaPlugin plugin) {
+    SpigotController(JavaPlugin plugin, BREADAnalysisPool analysisPool) {
         this.plugin = plugin;
+        this.analysisPool = analysisPool;
         this.status = ControllerStatus.IDLE;
         this.currentOperator = null;
         this.scheduler = null;
         this.analyser = null;
+        this.merging = null;
+        this.clusterings = new HashMap<>();
         this.lastResult = null;
+        this.hierarchies = null;
+        this.density = BREADClusterHierarchy.DEFAULT_DENSITY;
+        this.rollingWindow = null;
+        this.heavyHitterCollector = null;
     }
 
     ControllerStatus getStatus() {
@@ -58,37 +93,106 @@ final class SpigotController {
         return this.lastResult;
     }
 
-    void runBREAD(CommandSender sender, int collectionPeriodMultiplier) {
+    Map<UUID, BREADClusterHierarchy> getHierarchies() {
+        return this.hierarchies;
+    }
+
+    int getDensity() {
+        return this.density;
+    }
+
+    JavaPlugin getPlugin() {
+        return this.plugin;
+    }
+
+    BREADAnalysisPool getAnalysisPool() {
+        return this.analysisPool;
+    }
+
+    void runBREAD(CommandSender sender, int collectionPeriodMultiplier, BREADOptions options,
+                  BREADRegionFilter regionFilter) {
         if (this.status != ControllerStatus.IDLE || sender == null) return;
         this.currentOperator = new Operator(sender);
         this.status = ControllerStatus.COLLECTING;
         this.lastResult = null;
+        this.hierarchies = null;
         notifyOperator("BREAD is collecting redstone events...");
         notifyOperator("This process will take " +
                 BREADAnalyser.COLLECTING_TICKS_BASE * collectionPeriodMultiplier + " game-ticks (" +
                 BREADAnalyser.COLLECTING_TICKS_BASE / 20 * collectionPeriodMultiplier + " seconds).");
-        this.scheduler = new SpigotCollectorScheduler(this.plugin, points -> {
-            this.status = ControllerStatus.ANALYSING;
-            notifyOperator("BREAD is analysing the data collected in the previous step...");
-            notifyOperator("This process will take a while. Sit back and relax.");
+        this.scheduler = new SpigotCollectorScheduler(this.plugin, (points, notes) -> {
             this.scheduler = null;
-            this.analyser = new BREADAnalyser(points, collectionPeriodMultiplier,
-                    result -> Bukkit.getScheduler().runTask(this.plugin, () -> {
-                        this.status = ControllerStatus.IDLE;
-                        if (result.isPresent()) {
-                            this.lastResult = result.get();
-                            notifyOperator("BREAD is completed!");
-                            notifyOperator("Use sub-command " + ChatColor.GREEN +
-                                    "status" + ChatColor.RESET +
-                                    " to view the diagnosis.");
-                        } else {
-                            this.lastResult = null;
-                            notifyOperator("BREAD failed! Timed out analysing.");
-                        }
-                        this.analyser = null;
-                        this.currentOperator = null;
-                    }));
-        }, BREADAnalyser.COLLECTING_TICKS_BASE * collectionPeriodMultiplier);
+            analyse(points, notes, collectionPeriodMultiplier, options);
+        }, BREADAnalyser.COLLECTING_TICKS_BASE * collectionPeriodMultiplier, options, regionFilter);
+    }
+
+    void runRecentBREAD(CommandSender sender, int collectionPeriodMultiplier) {
+        if (this.status != ControllerStatus.IDLE || sender == null || !isRollingWindowRunning()) return;
+        int ticks = BREADAnalyser.COLLECTING_TICKS_BASE * collectionPeriodMultiplier;
+        if (ticks > this.rollingWindow.getWindow().getAvailableTicks()) return;
+        this.currentOperator = new Operator(sender);
+        this.status = ControllerStatus.ANALYSING;
+        this.lastResult = null;
+        this.hierarchies = null;
+        List<String> notes = new ArrayList<>();
+        notes.add("Using redstone events of the last " + ticks / 20 + " seconds.");
+        long droppedEvents = this.rollingWindow.getWindow().getDroppedEvents(ticks);
+        if (droppedEvents > 0)
+            notes.add(droppedEvents + " events at new blocks were dropped because the window was full.");
+        // Segments are merged in the analysis pool, not on the server thread
+        CompletableFuture<Map<UUID, BREADPoints>> merging =
+                this.rollingWindow.getWindow().snapshot(ticks, this.analysisPool);
+        this.merging = merging;
+        merging.whenComplete((points, throwable) -> Bukkit.getScheduler().runTask(this.plugin, () -> {
+            if (this.merging != merging) return; // Stopped
+            this.merging = null;
+            if (throwable == null)
+                analyse(points, notes, collectionPeriodMultiplier, RECENT_OPTIONS);
+            else {
+                this.status = ControllerStatus.IDLE;
+                notifyOperator("BREAD failed! An error occurred while merging recent events.");
+                this.currentOperator = null;
+            }
+        }));
+    }
+
+    void runRecutBREAD(CommandSender sender, int density) {
+        if (this.status != ControllerStatus.IDLE || sender == null || this.hierarchies == null) return;
+        this.currentOperator = new Operator(sender);
+        this.status = ControllerStatus.ANALYSING;
+        notifyOperator("BREAD is cutting clusters at density " + density + "...");
+        // The last result and its hierarchies are kept until the new cut is complete
+        this.analyser = BREADAnalyser.recut(this.analysisPool, this.hierarchies, density, getRecutCallback(density));
+    }
+
+    void runTopBREAD(CommandSender sender, int collectionPeriodMultiplier) {
+        if (this.status != ControllerStatus.IDLE || sender == null) return;
+        this.currentOperator = new Operator(sender);
+        this.status = ControllerStatus.COLLECTING;
+        int collectionPeriod = BREADAnalyser.COLLECTING_TICKS_BASE * collectionPeriodMultiplier;
+        notifyOperator("BREAD is counting the hottest redstone blocks...");
+        notifyOperator("This process will take " +
+                collectionPeriod + " game-ticks (" +
+                BREADAnalyser.COLLECTING_TICKS_BASE / 20 * collectionPeriodMultiplier + " seconds).");
+        this.heavyHitterCollector = new SpigotHeavyHitterCollector(this.plugin, collectionPeriod, heavyHitters -> {
+            this.heavyHitterCollector = null;
+            this.status = ControllerStatus.IDLE;
+            List<BREADStatistics.HeavyHitter> top = heavyHitters.top(TOP_BLOCKS);
+            notifyOperator("BREAD is completed! " + heavyHitters.getEvents() + " events were counted.");
+            notifyOperator("Counts are overestimated by at most the error in brackets. " +
+                    "Blocks not listed have at most " + heavyHitters.getMaxError() + " events.");
+            for (int rank = 0; rank < top.size(); ++rank) {
+                BREADStatistics.HeavyHitter hitter = top.get(rank);
+                World world = Bukkit.getWorld(hitter.world);
+                notifyOperator("#" + (rank + 1) + " " + ChatColor.GREEN +
+                        (world == null ? hitter.world.toString() : world.getName()) + ChatColor.RESET +
+                        " (" + hitter.x + ", " + hitter.y + ", " + hitter.z + "): " +
+                        ChatColor.AQUA + hitter.count + ChatColor.RESET + " (" + hitter.error + "), " +
+                        ChatColor.AQUA + eventsPerTickRound((double) hitter.count / collectionPeriod) +
+                        ChatColor.RESET + " EPT");
+            }
+            this.currentOperator = null;
+        });
     }
 
     void stopBREAD(CommandSender sender) {
@@ -97,9 +201,18 @@ final class SpigotController {
             this.scheduler.forceStop();
             this.scheduler = null;
         }
+        if (this.heavyHitterCollector != null) {
+            this.heavyHitterCollector.forceStop();
+            this.heavyHitterCollector = null;
+        }
+        if (this.merging != null) {
+            this.merging.cancel(false);
+            this.merging = null;
+        }
         if (this.analyser != null) {
             this.analyser.forceStop();
             this.analyser = null;
+            this.clusterings = new HashMap<>(); // May be left inconsistent
         }
         if (sender == null)
             notifyOperator("BREAD is stopped by server.");
@@ -109,6 +222,103 @@ final class SpigotController {
         this.currentOperator = null;
     }
 
+    boolean isRollingWindowRunning() {
+        return this.rollingWindow != null;
+    }
+
+    SpigotRollingWindow getRollingWindow() {
+        return this.rollingWindow;
+    }
+
+    void startRollingWindow() {
+        if (this.rollingWindow != null) return;
+        this.rollingWindow = new SpigotRollingWindow(this.plugin);
+        this.rollingWindow.start();
+    }
+
+    void stopRollingWindow() {
+        if (this.rollingWindow == null) return;
+        this.rollingWindow.stop();
+        this.rollingWindow = null;
+    }
+
+    private void analyse(Map<UUID, BREADPoints> points, List<String> notes, int collectionPeriodMultiplier,
+                         BREADOptions options) {
+        this.status = ControllerStatus.ANALYSING;
+        notes.forEach(this::notifyOperator);
+        if (options.isApproximate())
+            notifyOperator("Clusters are " + Math.round(options.getApproximation() * 100) +
+                    "% approximate, only borderline blocks may be divided differently.");
+        notifyOperator("BREAD is analysing the data collected in the previous step...");
+        notifyOperator("This process will take a while. Sit back and relax.");
+        if (options.isHierarchical()) {
+            Map<UUID, BREADClusterHierarchy> hierarchies = new ConcurrentHashMap<>();
+            this.analyser = new BREADAnalyser(this.analysisPool, points, collectionPeriodMultiplier,
+                    hierarchies, getAnalysisCallback(hierarchies, BREADClusterHierarchy.DEFAULT_DENSITY));
+        } else
+            this.analyser = new BREADAnalyser(this.analysisPool, points, collectionPeriodMultiplier,
+                    options.getApproximation(), options.isIncremental() ? this.clusterings : null,
+                    getAnalysisCallback(null, BREADClusterHierarchy.DEFAULT_DENSITY));
+    }
+
+    private Consumer<Optional<Map<UUID, BREADStatistics.WorldStatistics>>> getAnalysisCallback(
+            Map<UUID, BREADClusterHierarchy> hierarchies, int density) {
+        return result -> Bukkit.getScheduler().runTask(this.plugin, () -> {
+            this.status = ControllerStatus.IDLE;
+            if (result.isPresent()) {
+                this.lastResult = result.get();
+                this.hierarchies = hierarchies;
+                this.density = density;
+                if (this.lastResult.values().stream().anyMatch(stats -> stats.partial)) {
+                    this.clusterings = new HashMap<>(); // May be left inconsistent
+                    notifyOperator("BREAD ran out of time! Results of some worlds are partial.");
+                } else
+                    notifyOperator("BREAD is completed!");
+                notifyOperator("Use sub-command " + ChatColor.GREEN +
+                        "status" + ChatColor.RESET +
+                        " to view the diagnosis.");
+                if (hierarchies != null)
+                    notifyOperator("Use sub-command " + ChatColor.GREEN +
+                            "recut <density>" + ChatColor.RESET +
+                            " to cut clusters at another density.");
+            } else {
+                this.lastResult = null;
+                this.clusterings = new HashMap<>(); // May be left inconsistent
+                notifyOperator("BREAD failed! An error occurred while analysing.");
+            }
+            this.analyser = null;
+            this.currentOperator = null;
+        });
+    }
+
+    private Consumer<Optional<Map<UUID, BREADStatistics.WorldStatistics>>> getRecutCallback(int density) {
+        return result -> Bukkit.getScheduler().runTask(this.plugin, () -> {
+            this.status = ControllerStatus.IDLE;
+            if (!result.isPresent())
+                notifyOperator("BREAD failed! An error occurred while cutting. " +
+                        "Last Result is still cut at density " + this.density + ".");
+            else if (result.get().values().stream().anyMatch(stats -> stats.partial))
+                notifyOperator("BREAD ran out of time! " +
+                        "Last Result is still cut at density " + this.density + ".");
+            else {
+                this.lastResult = result.get();
+                this.density = density;
+                notifyOperator("BREAD is completed!");
+                notifyOperator("Use sub-command " + ChatColor.GREEN +
+                        "status" + ChatColor.RESET +
+                        " to view the diagnosis.");
+            }
+            this.analyser = null;
+            this.currentOperator = null;
+        });
+    }
+
+    private String eventsPerTickRound(double a) {
+        DecimalFormat formatter = new DecimalFormat("0.##");
+        formatter.setRoundingMode(RoundingMode.HALF_UP);
+        return formatter.format(a);
+    }
+
     private void notifyOperator(String message) {
         final String prefix = ChatColor.GOLD + "[" +
                 ChatColor.YELLOW + "BREAD" +
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.spigot;
+
+import org.bukkit.Bukkit;
+import org.bukkit.block.Block;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockRedstoneEvent;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.scheduler.BukkitTask;
+import top.sunbread.bread.common.BREADHeavyHitters;
+
+import java.util.function.Consumer;
+
+final class SpigotHeavyHitterCollector {
+
+    private BREADHeavyHitters heavyHitters;
+    private Listener listener;
+    private BukkitTask task;
+    private boolean running;
+
+    SpigotHeavyHitterCollector(JavaPlugin plugin, int collectionPeriod, Consumer<BREADHeavyHitters> callback) {
+        this.heavyHitters = new BREADHeavyHitters();
+        this.listener = new Listener() {
+            @EventHandler(priority = EventPriority.MONITOR)
+            public void onBlockRedstoneEvent(BlockRedstoneEvent event) {
+                Block block = event.getBlock();
+                SpigotHeavyHitterCollector.this.heavyHitters.add(block.getWorld().getUID(),
+                        block.getX(), block.getY(), block.getZ());
+            }
+        };
+        Bukkit.getPluginManager().registerEvents(this.listener, plugin);
+        this.task = new BukkitRunnable() {
+            @Override
+            public void run() {
+                SpigotHeavyHitterCollector.this.running = false;
+                HandlerList.unregisterAll(SpigotHeavyHitterCollector.this.listener);
+                callback.accept(SpigotHeavyHitterCollector.this.heavyHitters);
+            }
+        }.runTaskLater(plugin, collectionPeriod);
+        this.running = true;
+    }
+
+    boolean isRunning() {
+        return this.running;
+    }
+
+    void forceStop() {
+        if (!isRunning()) return;
+        this.running = false;
+        this.task.cancel();
+        HandlerList.unregisterAll(this.listener);
+        this.heavyHitters.clear();
+    }
+
+}
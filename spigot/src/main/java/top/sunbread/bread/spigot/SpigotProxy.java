@@ -20,11 +20,13 @@ package top.sunbread.bread.spigot;
 import org.bukkit.Bukkit;
 import org.bukkit.plugin.java.JavaPlugin;
 import top.sunbread.bread.BREAD;
+import top.sunbread.bread.common.BREADAnalysisPool;
 
 public final class SpigotProxy {
 
     private final JavaPlugin plugin;
     private boolean fail;
+    private BREADAnalysisPool analysisPool;
     private SpigotController controller;
 
     public SpigotProxy(JavaPlugin plugin) {
@@ -70,7 +72,8 @@ public final class SpigotProxy {
             return;
         }
         this.fail = false;
-        this.controller = new SpigotController(this.plugin);
+        this.analysisPool = new BREADAnalysisPool();
+        this.controller = new SpigotController(this.plugin, this.analysisPool);
         SpigotCommand command = new SpigotCommand(this.controller);
         this.plugin.getCommand("bread").setExecutor(command);
         this.plugin.getCommand("bread").setTabCompleter(command);
@@ -82,7 +85,10 @@ public final class SpigotProxy {
         this.plugin.getCommand("bread").setExecutor(null);
         this.plugin.getCommand("bread").setTabCompleter(null);
         this.controller.stopBREAD(null);
+        this.controller.stopRollingWindow();
         this.controller = null;
+        this.analysisPool.shutdown();
+        this.analysisPool = null;
         this.plugin.getLogger().info("Disabled");
     }
 
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.spigot;
+
+import org.bukkit.Bukkit;
+import org.bukkit.block.Block;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockRedstoneEvent;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.scheduler.BukkitTask;
+import top.sunbread.bread.common.BREADRollingWindow;
+
+final class SpigotRollingWindow {
+
+    private BREADRollingWindow window;
+    private JavaPlugin plugin;
+    private boolean running;
+    private Listener listener;
+    private BukkitTask ticker;
+
+    SpigotRollingWindow(JavaPlugin plugin) {
+        this.window = new BREADRollingWindow();
+        this.plugin = plugin;
+        this.running = false;
+        this.listener = new Listener() {
+            @EventHandler(priority = EventPriority.MONITOR)
+            public void onBlockRedstoneEvent(BlockRedstoneEvent event) {
+                Block block = event.getBlock();
+                SpigotRollingWindow.this.window.add(block.getWorld().getUID(),
+                        block.getX(), block.getY(), block.getZ());
+            }
+        };
+        this.ticker = null;
+    }
+
+    void start() {
+        if (this.running) return;
+        Bukkit.getPluginManager().registerEvents(this.listener, this.plugin);
+        this.ticker = new BukkitRunnable() {
+            @Override
+            public void run() {
+                SpigotRollingWindow.this.window.tick();
+            }
+        }.runTaskTimer(this.plugin, 1, 1);
+        this.running = true;
+    }
+
+    void stop() {
+        if (!this.running) return;
+        this.running = false;
+        HandlerList.unregisterAll(this.listener);
+        this.ticker.cancel();
+        this.ticker = null;
+    }
+
+    boolean isRunning() {
+        return this.running;
+    }
+
+    BREADRollingWindow getWindow() {
+        return this.window;
+    }
+
+}
@@ -19,26 +19,37 @@ package top.sunbread.bread.sponge;
 
 import org.spongepowered.api.Game;
 import org.spongepowered.api.Platform;
+import org.spongepowered.api.command.args.GenericArguments;
 import org.spongepowered.api.command.spec.CommandSpec;
 import org.spongepowered.api.plugin.PluginContainer;
 import org.spongepowered.api.text.Text;
 import top.sunbread.bread.BREAD;
+import top.sunbread.bread.common.BREADAnalysisPool;
 import top.sunbread.bread.sponge.commands.SpongeCommandSourceCheckProxy;
+import top.sunbread.bread.sponge.commands.SpongeRecentCommand;
+import top.sunbread.bread.sponge.commands.SpongeRecutCommand;
+import top.sunbread.bread.sponge.commands.SpongeRollingCommand;
 import top.sunbread.bread.sponge.commands.SpongeStartCommand;
 import top.sunbread.bread.sponge.commands.SpongeStatusCommand;
 import top.sunbread.bread.sponge.commands.SpongeStopCommand;
+import top.sunbread.bread.sponge.commands.SpongeTopCommand;
 import top.sunbread.bread.sponge.controller.SpongeController;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public final class SpongeProxy {
 
     private final Game game;
     private final PluginContainer plugin;
+    private BREADAnalysisPool analysisPool;
     private SpongeController controller;
     private boolean enabled;
 
     public SpongeProxy(Game game, PluginContainer plugin) {
         this.game = game;
         this.plugin = plugin;
+        this.analysisPool = null;
         this.enabled = false;
     }
 
@@ -70,25 +81,53 @@ public final class SpongeProxy {
             this.plugin.getLogger().error("Cannot get instance of this plugin!");
             return;
         }
-        this.controller = new SpongeController(this.game, this.plugin);
+        this.analysisPool = new BREADAnalysisPool();
+        this.controller = new SpongeController(this.game, this.plugin, this.analysisPool);
         CommandSpec statusCommand = CommandSpec.builder().
                 description(Text.of("To view status of BREAD")).
                 executor(SpongeCommandSourceCheckProxy.of(new SpongeStatusCommand(this.controller))).
+                arguments(GenericArguments.optional(GenericArguments.integer(Text.of("page")))).
                 build();
         CommandSpec startCommand = CommandSpec.builder().
                 description(Text.of("To start BREAD")).
                 executor(SpongeCommandSourceCheckProxy.of(new SpongeStartCommand(this.controller,
                         SpongeStartCommand.CollectingMode.NORMAL))).
+                arguments(GenericArguments.optional(GenericArguments.remainingJoinedStrings(Text.of("options")))).
                 build();
         CommandSpec startSemiFastCommand = CommandSpec.builder().
                 description(Text.of("To start semi-fast BREAD")).
                 executor(SpongeCommandSourceCheckProxy.of(new SpongeStartCommand(this.controller,
                         SpongeStartCommand.CollectingMode.SEMI_FAST))).
+                arguments(GenericArguments.optional(GenericArguments.remainingJoinedStrings(Text.of("options")))).
                 build();
         CommandSpec startFastCommand = CommandSpec.builder().
                 description(Text.of("To start fast BREAD")).
                 executor(SpongeCommandSourceCheckProxy.of(new SpongeStartCommand(this.controller,
                         SpongeStartCommand.CollectingMode.FAST))).
+                arguments(GenericArguments.optional(GenericArguments.remainingJoinedStrings(Text.of("options")))).
+                build();
+        Map<String, Boolean> rollingStates = new HashMap<>();
+        rollingStates.put("on", true);
+        rollingStates.put("off", false);
+        CommandSpec rollingCommand = CommandSpec.builder().
+                description(Text.of("To turn on or off the rolling window, or view its status")).
+                executor(SpongeCommandSourceCheckProxy.of(new SpongeRollingCommand(this.controller))).
+                arguments(GenericArguments.optional(GenericArguments.choices(Text.of("state"), rollingStates))).
+                build();
+        CommandSpec recentCommand = CommandSpec.builder().
+                description(Text.of("To analyse recent redstone events in the rolling window")).
+                executor(SpongeCommandSourceCheckProxy.of(new SpongeRecentCommand(this.controller))).
+                arguments(GenericArguments.optional(GenericArguments.integer(Text.of("seconds")))).
+                build();
+        CommandSpec topCommand = CommandSpec.builder().
+                description(Text.of("To count the hottest redstone blocks in a fixed memory budget")).
+                executor(SpongeCommandSourceCheckProxy.of(new SpongeTopCommand(this.controller))).
+                arguments(GenericArguments.optional(GenericArguments.integer(Text.of("seconds")))).
+                build();
+        CommandSpec recutCommand = CommandSpec.builder().
+                description(Text.of("To cut clusters of the last result at another density")).
+                executor(SpongeCommandSourceCheckProxy.of(new SpongeRecutCommand(this.controller))).
+                arguments(GenericArguments.optional(GenericArguments.integer(Text.of("density")))).
                 build();
         CommandSpec stopCommand = CommandSpec.builder().
                 description(Text.of("To stop running BREAD")).
@@ -101,6 +140,10 @@ public final class SpongeProxy {
                 child(startCommand, "start").
                 child(startSemiFastCommand, "semi-fast").
                 child(startFastCommand, "fast").
+                child(rollingCommand, "rolling").
+                child(recentCommand, "recent").
+                child(topCommand, "top").
+                child(recutCommand, "recut").
                 child(stopCommand, "stop").
                 build();
         this.game.getCommandManager().register(this.plugin.getInstance().get(), baseCommand, "bread");
@@ -112,6 +155,8 @@ public final class SpongeProxy {
         if (!this.enabled) return;
         this.enabled = false;
         this.controller.stopBREAD(null);
+        this.controller.stopRollingWindow();
+        this.analysisPool.shutdown();
         this.plugin.getLogger().info("Disabled");
     }
 
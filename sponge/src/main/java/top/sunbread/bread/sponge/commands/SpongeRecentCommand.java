@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.sponge.commands;
+
+import org.spongepowered.api.command.CommandException;
+import org.spongepowered.api.command.CommandResult;
+import org.spongepowered.api.command.CommandSource;
+import org.spongepowered.api.command.args.CommandContext;
+import org.spongepowered.api.command.spec.CommandExecutor;
+import org.spongepowered.api.text.Text;
+import org.spongepowered.api.text.format.TextColors;
+import top.sunbread.bread.common.BREADAnalyser;
+import top.sunbread.bread.common.BREADRollingWindow;
+import top.sunbread.bread.sponge.controller.SpongeController;
+
+import java.util.Optional;
+
+public final class SpongeRecentCommand implements CommandExecutor {
+
+    private static final int MAX_COLLECTION_PERIOD_MULTIPLIER = 4; // 60 seconds
+    private static final int SECONDS_BASE = BREADAnalyser.COLLECTING_TICKS_BASE / 20;
+
+    private SpongeController controller;
+
+    public SpongeRecentCommand(SpongeController controller) {
+        this.controller = controller;
+    }
+
+    @Override
+    public CommandResult execute(CommandSource src, CommandContext args) throws CommandException {
+        if (this.controller.getInfo().getStatus() != SpongeController.ControllerInfo.ControllerStatus.IDLE) {
+            if (this.controller.getInfo().getCurrentOperatorName().isPresent())
+                src.sendMessage(Text.of(TextColors.RED, "There is already a BREAD run by " +
+                        this.controller.getInfo().getCurrentOperatorName().get() + "."));
+            else
+                src.sendMessage(Text.of(TextColors.RED, "There is already a running BREAD."));
+            return CommandResult.empty();
+        }
+        Optional<BREADRollingWindow> window = this.controller.getRollingWindow();
+        if (!window.isPresent()) {
+            src.sendMessage(Text.of(TextColors.RED, "Rolling window is off. Use sub-command ",
+                    TextColors.GREEN, "rolling on", TextColors.RED, " to turn it on."));
+            return CommandResult.empty();
+        }
+        int availableMultiplier = Math.min(MAX_COLLECTION_PERIOD_MULTIPLIER,
+                window.get().getAvailableTicks() / BREADAnalyser.COLLECTING_TICKS_BASE);
+        int collectionPeriodMultiplier = availableMultiplier;
+        Optional<Integer> seconds = args.getOne("seconds");
+        if (seconds.isPresent()) {
+            if (seconds.get() <= 0 || seconds.get() % SECONDS_BASE != 0 ||
+                    seconds.get() / SECONDS_BASE > MAX_COLLECTION_PERIOD_MULTIPLIER) {
+                src.sendMessage(Text.of(TextColors.RED, "Seconds must be 15, 30, 45 or 60."));
+                return CommandResult.empty();
+            }
+            collectionPeriodMultiplier = seconds.get() / SECONDS_BASE;
+        }
+        if (collectionPeriodMultiplier == 0 || collectionPeriodMultiplier > availableMultiplier) {
+            src.sendMessage(Text.of(TextColors.RED, "Rolling window only has " +
+                    window.get().getAvailableTicks() / 20 + " seconds of redstone events."));
+            return CommandResult.empty();
+        }
+        src.sendMessage(Text.of(TextColors.YELLOW, "Sub-command ",
+                TextColors.GREEN, "recent",
+                TextColors.YELLOW, " executed successfully!"));
+        this.controller.startRecentBREAD(src, collectionPeriodMultiplier);
+        return CommandResult.success();
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.sponge.commands;
+
+import org.spongepowered.api.command.CommandException;
+import org.spongepowered.api.command.CommandResult;
+import org.spongepowered.api.command.CommandSource;
+import org.spongepowered.api.command.args.CommandContext;
+import org.spongepowered.api.command.spec.CommandExecutor;
+import org.spongepowered.api.text.Text;
+import org.spongepowered.api.text.format.TextColors;
+import top.sunbread.bread.common.BREADRollingWindow;
+import top.sunbread.bread.sponge.controller.SpongeController;
+
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.util.Optional;
+
+public final class SpongeRollingCommand implements CommandExecutor {
+
+    private SpongeController controller;
+
+    public SpongeRollingCommand(SpongeController controller) {
+        this.controller = controller;
+    }
+
+    @Override
+    public CommandResult execute(CommandSource src, CommandContext args) throws CommandException {
+        Optional<Boolean> state = args.getOne("state");
+        if (state.isPresent()) {
+            if (state.get()) this.controller.startRollingWindow();
+            else this.controller.stopRollingWindow();
+        }
+        Optional<BREADRollingWindow> window = this.controller.getRollingWindow();
+        if (!window.isPresent()) {
+            src.sendMessage(Text.of(TextColors.YELLOW, "Rolling window is ", TextColors.RED, "off",
+                    TextColors.YELLOW, "."));
+            return CommandResult.success();
+        }
+        src.sendMessage(Text.of(TextColors.YELLOW, "Rolling window is ", TextColors.GREEN, "on",
+                TextColors.YELLOW, "."));
+        if (!state.isPresent()) {
+            src.sendMessage(Text.of(TextColors.YELLOW, "Available: ",
+                    TextColors.AQUA, window.get().getAvailableTicks() / 20 + " seconds"));
+            src.sendMessage(Text.of(TextColors.YELLOW, "Stored blocks: ",
+                    TextColors.AQUA, window.get().getStoredBlocks()));
+            src.sendMessage(Text.of(TextColors.YELLOW, "Dropped events: ",
+                    TextColors.AQUA, window.get().getDroppedEvents()));
+            src.sendMessage(Text.of(TextColors.YELLOW, "Cost per event: ",
+                    TextColors.AQUA, Double.isNaN(window.get().getAverageEventNanos()) ? "unknown" :
+                            nanosRound(window.get().getAverageEventNanos()) + " ns"));
+        }
+        return CommandResult.success();
+    }
+
+    private String nanosRound(double a) {
+        DecimalFormat formatter = new DecimalFormat("0.##");
+        formatter.setRoundingMode(RoundingMode.HALF_UP);
+        return formatter.format(a);
+    }
+
+}
@@ -17,6 +17,7 @@
 
 package top.sunbread.bread.sponge.commands;
 
+import org.spongepowered.api.Sponge;
 import org.spongepowered.api.command.CommandException;
 import org.spongepowered.api.command.CommandResult;
 import org.spongepowered.api.command.CommandSource;
@@ -24,8 +25,16 @@ import org.spongepowered.api.command.args.CommandContext;
 import org.spongepowered.api.command.spec.CommandExecutor;
 import org.spongepowered.api.text.Text;
 import org.spongepowered.api.text.format.TextColors;
+import org.spongepowered.api.world.Locatable;
+import org.spongepowered.api.world.Location;
+import org.spongepowered.api.world.World;
+import top.sunbread.bread.common.BREADOptions;
+import top.sunbread.bread.common.BREADRegionFilter;
 import top.sunbread.bread.sponge.controller.SpongeController;
 
+import java.util.Arrays;
+import java.util.Optional;
+
 public final class SpongeStartCommand implements CommandExecutor {
 
     private SpongeController controller;
@@ -39,10 +48,19 @@ public final class SpongeStartCommand implements CommandExecutor {
     @Override
     public CommandResult execute(CommandSource src, CommandContext args) throws CommandException {
         if (this.controller.getInfo().getStatus() == SpongeController.ControllerInfo.ControllerStatus.IDLE) {
+            BREADOptions options;
+            BREADRegionFilter regionFilter;
+            try {
+                options = BREADOptions.parse(Arrays.asList(args.<String>getOne("options").orElse("").split(" ")));
+                regionFilter = getRegionFilter(src, options);
+            } catch (IllegalArgumentException e) {
+                src.sendMessage(Text.of(TextColors.RED, e.getMessage() + "."));
+                return CommandResult.empty();
+            }
             src.sendMessage(Text.of(TextColors.YELLOW, "Sub-command ",
                     TextColors.GREEN, this.mode.getCommandName(),
                     TextColors.YELLOW, " executed successfully!"));
-            this.controller.startBREAD(src, this.mode.getCollectionPeriodMultiplier());
+            this.controller.startBREAD(src, this.mode.getCollectionPeriodMultiplier(), options, regionFilter);
             return CommandResult.success();
         } else {
             if (this.controller.getInfo().getCurrentOperatorName().isPresent())
@@ -54,6 +72,31 @@ public final class SpongeStartCommand implements CommandExecutor {
         }
     }
 
+    private BREADRegionFilter getRegionFilter(CommandSource src, BREADOptions options) {
+        if (!options.isRegionRestricted()) return null;
+        World world;
+        if (options.getWorldName() != null) {
+            Optional<World> optionalWorld = Sponge.getServer().getWorld(options.getWorldName());
+            if (!optionalWorld.isPresent())
+                throw new IllegalArgumentException("There is no such world: " + options.getWorldName());
+            world = optionalWorld.get();
+        } else if (src instanceof Locatable) world = ((Locatable) src).getWorld();
+        else throw new IllegalArgumentException("Please specify a world by option world");
+        if (options.getRadius() > 0) {
+            if (!(src instanceof Locatable))
+                throw new IllegalArgumentException("Option radius can only be used by a player");
+            Location<World> location = ((Locatable) src).getLocation();
+            if (!location.getExtent().getUniqueId().equals(world.getUniqueId()))
+                throw new IllegalArgumentException("Option radius can only be used in the world you are in");
+            return BREADRegionFilter.sphere(world.getUniqueId(),
+                    location.getBlockX(), location.getBlockY(), location.getBlockZ(), options.getRadius());
+        }
+        int[] box = options.getBox();
+        if (box != null)
+            return BREADRegionFilter.box(world.getUniqueId(), box[0], box[1], box[2], box[3], box[4], box[5]);
+        return BREADRegionFilter.world(world.getUniqueId());
+    }
+
     public enum CollectingMode {
 
         FAST("fast", 1), // 15 seconds
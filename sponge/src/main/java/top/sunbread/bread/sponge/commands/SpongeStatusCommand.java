@@ -22,11 +22,12 @@ import org.spongepowered.api.command.CommandResult;
 import org.spongepowered.api.command.CommandSource;
 import org.spongepowered.api.command.args.CommandContext;
 import org.spongepowered.api.command.spec.CommandExecutor;
-import org.spongepowered.api.service.pagination.PaginationList;
 import org.spongepowered.api.text.Text;
 import org.spongepowered.api.text.action.TextActions;
 import org.spongepowered.api.text.format.TextColors;
 import org.spongepowered.api.text.format.TextStyles;
+import top.sunbread.bread.common.BREADClusterHierarchy;
+import top.sunbread.bread.common.BREADReport;
 import top.sunbread.bread.common.BREADStatistics;
 import top.sunbread.bread.sponge.controller.SpongeController;
 
@@ -40,10 +41,14 @@ import java.util.stream.IntStream;
 
 public final class SpongeStatusCommand implements CommandExecutor {
 
+    private static final int[] SHOWN_DENSITIES = {5, 10, BREADClusterHierarchy.DEFAULT_DENSITY, 50, 100};
+
     private SpongeController controller;
+    private BREADReport<Text> report; // Of the last result, null if not viewed yet
 
     public SpongeStatusCommand(SpongeController controller) {
         this.controller = controller;
+        this.report = null;
     }
 
     @Override
@@ -64,30 +69,99 @@ public final class SpongeStatusCommand implements CommandExecutor {
             Map<UUID, BREADStatistics.WorldStatistics> lastResult = this.controller.getInfo().getLastResult().get();
             if (lastResult.size() == 0)
                 src.sendMessage(Text.of(TextColors.YELLOW, "Last Result is existing but empty"));
-            else PaginationList.builder().
-                    title(Text.builder("Last Result").color(TextColors.YELLOW).build()).
-                    contents(formatLastResult(lastResult)).
-                    padding(Text.builder("=").color(TextColors.GOLD).build()).
-                    sendTo(src);
-        }
+            else {
+                BREADReport<Text> report = getReport(lastResult);
+                int page = args.<Integer>getOne("page").orElse(1);
+                if (page < 1 || page > report.getPageCount()) {
+                    src.sendMessage(Text.of(TextColors.RED, "Page must be an integer between 1 and " +
+                            report.getPageCount() + "."));
+                    return CommandResult.empty();
+                }
+                // Rows are rendered in the analysis pool the first time they are shown
+                report.renderPage(page - 1, this.controller.getAnalysisPool().getExecutor()).
+                        whenComplete((rows, throwable) -> this.controller.runOnServerThread(() -> {
+                            if (rows != null) sendReportPage(src, report, page, rows);
+                            else src.sendMessage(Text.of(TextColors.RED,
+                                    "Failed to show Last Result! An error occurred while rendering."));
+                        }));
+            }
+        } else this.report = null;
         return CommandResult.success();
     }
 
-    private List<Text> formatLastResult(Map<UUID, BREADStatistics.WorldStatistics> lastResult) {
-        List<Text> formatted = new ArrayList<>();
-        for (Map.Entry<UUID, BREADStatistics.WorldStatistics> worldEntry : lastResult.entrySet()) {
-            Optional<String> optionalWorldName = this.controller.getWorldName(worldEntry.getKey());
-            if (!optionalWorldName.isPresent()) continue;
-            String worldName = optionalWorldName.get();
-            for (BREADStatistics.ClusterStatistics cluster : worldEntry.getValue().clusters)
-                formatted.add(formatStatistics(worldName, cluster));
-            if (!worldEntry.getValue().noise.raw.isEmpty())
-                formatted.add(formatStatistics(worldName, worldEntry.getValue().noise));
+    private BREADReport<Text> getReport(Map<UUID, BREADStatistics.WorldStatistics> lastResult) {
+        if (this.report == null || this.report.getResult() != lastResult) {
+            Map<UUID, String> worldNames = new HashMap<>(); // Looked up here, since rows are rendered elsewhere
+            for (UUID world : lastResult.keySet())
+                worldNames.put(world, this.controller.getWorldName(world).orElse(world.toString()));
+            this.report = new BREADReport<>(lastResult, row -> row.cluster != null ?
+                    formatStatistics(worldNames.get(row.world), row.cluster) :
+                    formatStatistics(worldNames.get(row.world), row.noise));
+        }
+        return this.report;
+    }
+
+    private void sendReportPage(CommandSource src, BREADReport<Text> report, int page,
+                                List<BREADReport.Row<Text>> rows) {
+        src.sendMessage(Text.of(TextColors.GOLD, "======== ",
+                TextColors.YELLOW, "Last Result (" + page + "/" + report.getPageCount() + ")",
+                TextColors.GOLD, " ========"));
+        Optional<Map<UUID, BREADClusterHierarchy>> hierarchies = this.controller.getInfo().getHierarchies();
+        for (BREADReport.Row<Text> row : rows) {
+            String worldName = this.controller.getWorldName(row.world).orElse(row.world.toString());
+            if ((row.firstOfWorld || row == rows.get(0)) &&
+                    hierarchies.isPresent() && hierarchies.get().containsKey(row.world))
+                src.sendMessage(formatDensities(worldName, hierarchies.get().get(row.world)));
+            src.sendMessage(row.getRendered());
+            if (row.lastOfWorld)
+                for (BREADStatistics.HeavyHitter hotspot : row.worldStatistics.hotspots)
+                    src.sendMessage(formatHotspot(worldName, hotspot));
         }
-        return formatted;
+        if (page < report.getPageCount())
+            src.sendMessage(Text.of(TextColors.YELLOW, "Use sub-command ",
+                    TextColors.GREEN, "status " + (page + 1),
+                    TextColors.YELLOW, " to view the next page."));
+    }
+
+    private Text formatDensities(String worldName, BREADClusterHierarchy hierarchy) {
+        int currentDensity = this.controller.getInfo().getDensity();
+        Text.Builder builder = Text.builder().append(Text.of(TextColors.GREEN, worldName,
+                comma(),
+                TextColors.YELLOW, "Regions by density: "));
+        int[] densities = IntStream.concat(Arrays.stream(SHOWN_DENSITIES), IntStream.of(currentDensity)).
+                distinct().sorted().toArray();
+        for (int i = 0; i < densities.length; ++i) {
+            if (i > 0) builder.append(comma());
+            builder.append(Text.of(densities[i] == currentDensity ? TextColors.GREEN : TextColors.AQUA,
+                    densities[i],
+                    TextColors.GRAY, ": ",
+                    TextColors.BLUE, hierarchy.countClusters(densities[i])));
+        }
+        return builder.build();
     }
 
     private Text formatStatistics(String worldName, BREADStatistics.ClusterStatistics statistics) {
+        Text basic = formatBasicStatistics(worldName, statistics);
+        if (statistics.eventsPerTickSeries == null) return basic;
+        return Text.of(basic,
+                comma(),
+                getItemNameText("PEPT", "Peak events per tick"),
+                equalsSign(),
+                getItemValueText(statistics.peakEventsPerTick, this::frequencyRound),
+                comma(),
+                getItemNameText("CLK", "Clock period in ticks, 0 if not periodic"),
+                equalsSign(),
+                getItemValueText(statistics.clockPeriod, this::frequencyRound),
+                comma(),
+                getItemNameText("TSC", "Time series code\n" +
+                        "Format: [Events per tick list], one element per " + statistics.bucketTicks + " tick(s)\n" +
+                        "Encoding scheme: Base64"),
+                equalsSign(),
+                getItemValueText(series2MATLABString(statistics.eventsPerTickSeries).getBytes(StandardCharsets.UTF_8))
+        );
+    }
+
+    private Text formatBasicStatistics(String worldName, BREADStatistics.ClusterStatistics statistics) {
         return Text.of(TextColors.GREEN, worldName,
                 comma(),
                 TextColors.AQUA, "Region",
@@ -104,6 +178,22 @@ public final class SpongeStatusCommand implements CommandExecutor {
                 equalsSign(),
                 getItemValueText(statistics.distanceFromCentroid, this::locationAndDistanceRound),
                 comma(),
+                getItemNameText("VAR", "Event variance, mean squared distance from centroid"),
+                equalsSign(),
+                getItemValueText(statistics.eventVariance, this::locationAndDistanceRound),
+                comma(),
+                getItemNameText("BBX", "Bounding box"),
+                equalsSign(),
+                Text.builder(box2String(statistics.boundingBox)).color(TextColors.BLUE).build(),
+                comma(),
+                getItemNameText("PBE", "Peak block events"),
+                equalsSign(),
+                getItemValueText(statistics.peakBlockEvents, this::frequencyRound),
+                comma(),
+                getItemNameText("CHK", "Chunks touched"),
+                equalsSign(),
+                getItemValueText(statistics.chunks, this::frequencyRound),
+                comma(),
                 getItemNameText("PDC", "Points data code\n" +
                         "Format: [X list, Y list, Z list, Event times list]\n" +
                         "Encoding scheme: Base64"),
@@ -129,6 +219,22 @@ public final class SpongeStatusCommand implements CommandExecutor {
         );
     }
 
+    private Text formatHotspot(String worldName, BREADStatistics.HeavyHitter hotspot) {
+        return Text.of(TextColors.GREEN, worldName,
+                comma(),
+                TextColors.RED, "Hotspot",
+                comma(),
+                getItemNameText("EVT", "Event times\n" +
+                        "Analysis ran out of time, so this world has partial regions and its hottest blocks"),
+                equalsSign(),
+                getItemValueText(hotspot.count, this::frequencyRound),
+                comma(),
+                getItemNameText("LOC", "Location"),
+                equalsSign(),
+                getItemValueText(new double[]{hotspot.x, hotspot.y, hotspot.z}, this::frequencyRound)
+        );
+    }
+
     private Text comma() {
         return Text.of(TextColors.GRAY, ", ");
     }
@@ -195,6 +301,11 @@ public final class SpongeStatusCommand implements CommandExecutor {
         return formatter.format(a);
     }
 
+    private String box2String(int[] box) {
+        return location2String(new double[]{box[0], box[1], box[2]}, this::frequencyRound) + " ~ " +
+                location2String(new double[]{box[3], box[4], box[5]}, this::frequencyRound);
+    }
+
     private String location2String(double[] location, DoubleFunction<String> round) {
         return "(" +
                 round.apply(location[0]) +
@@ -227,4 +338,10 @@ public final class SpongeStatusCommand implements CommandExecutor {
                 collect(Collectors.joining(", ", "[", "]"));
     }
 
+    private String series2MATLABString(double[] series) {
+        return Arrays.stream(series).
+                mapToObj(this::frequencyRound).
+                collect(Collectors.joining(", ", "[", "]"));
+    }
+
 }
@@ -17,46 +17,71 @@
 
 package top.sunbread.bread.sponge.controller;
 
-import com.flowpowered.math.vector.Vector3i;
 import org.spongepowered.api.Game;
-import org.spongepowered.api.block.BlockSnapshot;
-import org.spongepowered.api.block.BlockState;
-import org.spongepowered.api.block.trait.BlockTrait;
-import org.spongepowered.api.data.Transaction;
-import org.spongepowered.api.event.Listener;
-import org.spongepowered.api.event.Order;
-import org.spongepowered.api.event.block.ChangeBlockEvent;
 import org.spongepowered.api.plugin.PluginContainer;
 import org.spongepowered.api.scheduler.Task;
 import org.spongepowered.api.world.Location;
 import org.spongepowered.api.world.World;
-import top.sunbread.bread.common.BREADStatistics;
+import top.sunbread.bread.common.BREADAccumulator;
+import top.sunbread.bread.common.BREADHandoffAccumulator;
+import top.sunbread.bread.common.BREADOptions;
+import top.sunbread.bread.common.BREADPointCounter;
+import top.sunbread.bread.common.BREADPoints;
+import top.sunbread.bread.common.BREADRegionFilter;
+import top.sunbread.bread.common.BREADSampler;
 
 import java.util.*;
-import java.util.function.Consumer;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 
 final class SpongeCollector {
 
     private Game game;
     private PluginContainer plugin;
-    private Map<UUID, Map<Vector3i, Integer>> points; // World UID, Hash Point, Repeat Times
-    private BlockRedstoneEventListener listener;
+    private BREADAccumulator points;
+    private BREADHandoffAccumulator handoffPoints; // Used instead of points in hand-off mode
+    private BREADSampler sampler; // Null if not sampled
+    private BREADRegionFilter regionFilter; // Null if not restricted
+    private SpongeRedstoneListener listener;
     private Task task;
+    private Task ticker; // Advances the tick of activity and sampling, null if neither is used
     private boolean running;
+    private boolean stopped; // Drops points which are still being drained
 
-    SpongeCollector(Game game, PluginContainer plugin, int collectionPeriod,
-                    Consumer<Map<UUID, Set<BREADStatistics.Point>>> callback) {
+    SpongeCollector(Game game, PluginContainer plugin, int collectionPeriod, BREADOptions options,
+                    BREADRegionFilter regionFilter, BiConsumer<Map<UUID, BREADPoints>, List<String>> callback) {
         this.game = game;
         this.plugin = plugin;
-        this.points = new HashMap<>();
-        this.listener = new BlockRedstoneEventListener();
+        this.points = new BREADAccumulator(options.getStorage(), options.getBucketTicks(), collectionPeriod);
+        this.handoffPoints = options.isHandoff() ?
+                new BREADHandoffAccumulator(options.getStorage(), options.getBucketTicks(), collectionPeriod) : null;
+        this.sampler = options.isSampled() ? new BREADSampler(options.getSampleRate()) : null;
+        this.regionFilter = regionFilter;
+        if (this.handoffPoints != null) this.handoffPoints.start();
+        this.listener = new SpongeRedstoneListener(this::addPoint);
         this.game.getEventManager().registerListeners(this.plugin.getInstance().get(), this.listener);
+        this.ticker = options.isTimed() || this.sampler != null ? Task.builder().execute(() -> {
+            if (this.sampler != null) this.sampler.tick();
+            if (!options.isTimed()) return;
+            if (this.handoffPoints != null) this.handoffPoints.tick();
+            else this.points.tick();
+        }).delayTicks(1).intervalTicks(1).submit(this.plugin.getInstance().get()) : null;
         this.task = Task.builder().execute(() -> {
             this.running = false;
             this.game.getEventManager().unregisterListeners(this.listener);
-            callback.accept(formatPoints(this.points));
-            this.points.clear();
+            if (this.ticker != null) this.ticker.cancel();
+            List<String> notes = getNotes();
+            CompletableFuture<Map<UUID, BREADPoints>> points = this.handoffPoints != null ?
+                    this.handoffPoints.finish() : CompletableFuture.completedFuture(this.points.snapshot());
+            Runnable finish = () -> {
+                if (!this.stopped && !points.isCompletedExceptionally()) callback.accept(points.join(), notes);
+                this.points.clear();
+                if (this.handoffPoints != null) this.handoffPoints.clear();
+            };
+            // The last hand-off drain finishes off the server thread, then the callback is run on it
+            if (points.isDone()) finish.run();
+            else points.whenComplete((result, throwable) ->
+                    Task.builder().execute(finish).submit(this.plugin.getInstance().get()));
         }).delayTicks(collectionPeriod).submit(this.plugin.getInstance().get());
         this.running = true;
     }
@@ -66,90 +91,46 @@ final class SpongeCollector {
     }
 
     void forceStop() {
+        this.stopped = true;
         if (!isRunning()) return;
         this.running = false;
         this.task.cancel();
+        if (this.ticker != null) this.ticker.cancel();
         this.game.getEventManager().unregisterListeners(this.listener);
         this.points.clear();
+        if (this.handoffPoints != null) this.handoffPoints.clear();
     }
 
-    private void addPoint(Location<World> location) {
-        UUID worldUID = location.getExtent().getUniqueId();
-        if (!this.points.containsKey(worldUID)) this.points.put(worldUID, new HashMap<>());
-        Map<Vector3i, Integer> worldPoints = this.points.get(worldUID);
-        Vector3i pointPos = location.getBlockPosition();
-        worldPoints.put(pointPos, worldPoints.containsKey(pointPos) ? worldPoints.get(pointPos) + 1 : 1);
-    }
-
-    private static Map<UUID, Set<BREADStatistics.Point>> formatPoints(Map<UUID, Map<Vector3i, Integer>> source) {
-        return source.entrySet().parallelStream().unordered().
-                collect(Collectors.toMap(Map.Entry::getKey,
-                        world -> world.getValue().entrySet().parallelStream().unordered().
-                                map(duplicatePoints -> new BREADStatistics.Point(
-                                        duplicatePoints.getKey().getX(),
-                                        duplicatePoints.getKey().getY(),
-                                        duplicatePoints.getKey().getZ(),
-                                        duplicatePoints.getValue()
-                                )).
-                                collect(Collectors.toSet())));
-    }
-
-    public final class BlockRedstoneEventListener {
-
-        @Listener(order = Order.LAST)
-        public void onBlockChange(ChangeBlockEvent.Modify event) {
-            for (Transaction<BlockSnapshot> transaction : event.getTransactions())
-                if (transaction.isValid() && transaction.getDefault().getLocation().isPresent() &&
-                        isTraitValueDifferent(transaction.getOriginal().getState(),
-                                transaction.getFinal().getState()))
-                    addPoint(transaction.getDefault().getLocation().get());
-        }
-
-        private boolean isTraitValueDifferent(BlockState blockState1, BlockState blockState2) {
-            return isPoweredTraitValueDifferent(blockState1, blockState2) ||
-                    isPowerTraitValueDifferent(blockState1, blockState2);
-        }
-
-        private boolean isPoweredTraitValueDifferent(BlockState blockState1, BlockState blockState2) {
-            Optional<BlockTrait<Boolean>> poweredTrait1 = getPoweredTrait(blockState1);
-            Optional<BlockTrait<Boolean>> poweredTrait2 = getPoweredTrait(blockState2);
-            if (!poweredTrait1.isPresent() || !poweredTrait2.isPresent()) return false;
-            Optional<Boolean> poweredTraitValue1 = blockState1.getTraitValue(poweredTrait1.get());
-            Optional<Boolean> poweredTraitValue2 = blockState2.getTraitValue(poweredTrait2.get());
-            if (!poweredTraitValue1.isPresent() || !poweredTraitValue2.isPresent()) return false;
-            return !poweredTraitValue1.get().equals(poweredTraitValue2.get());
-        }
-
-        private Optional<BlockTrait<Boolean>> getPoweredTrait(BlockState blockState) {
-            Optional<BlockTrait<?>> optionalTrait = blockState.getType().getTrait("powered");
-            if (!optionalTrait.isPresent()) return Optional.empty();
-            BlockTrait<?> genericTrait = optionalTrait.get();
-            if (!genericTrait.getValueClass().equals(Boolean.class)) return Optional.empty();
-            @SuppressWarnings("unchecked")
-            BlockTrait<Boolean> trait = (BlockTrait<Boolean>) genericTrait;
-            return Optional.of(trait);
-        }
-
-        private boolean isPowerTraitValueDifferent(BlockState blockState1, BlockState blockState2) {
-            Optional<BlockTrait<Integer>> powerTrait1 = getPowerTrait(blockState1);
-            Optional<BlockTrait<Integer>> powerTrait2 = getPowerTrait(blockState2);
-            if (!powerTrait1.isPresent() || !powerTrait2.isPresent()) return false;
-            Optional<Integer> powerTraitValue1 = blockState1.getTraitValue(powerTrait1.get());
-            Optional<Integer> powerTraitValue2 = blockState2.getTraitValue(powerTrait2.get());
-            if (!powerTraitValue1.isPresent() || !powerTraitValue2.isPresent()) return false;
-            return !powerTraitValue1.get().equals(powerTraitValue2.get());
-        }
-
-        private Optional<BlockTrait<Integer>> getPowerTrait(BlockState blockState) {
-            Optional<BlockTrait<?>> optionalTrait = blockState.getType().getTrait("power");
-            if (!optionalTrait.isPresent()) return Optional.empty();
-            BlockTrait<?> genericTrait = optionalTrait.get();
-            if (!genericTrait.getValueClass().equals(Integer.class)) return Optional.empty();
-            @SuppressWarnings("unchecked")
-            BlockTrait<Integer> trait = (BlockTrait<Integer>) genericTrait;
-            return Optional.of(trait);
+    private List<String> getNotes() {
+        List<String> notes = new ArrayList<>();
+        if (this.handoffPoints != null) {
+            long events = this.handoffPoints.getHandedOffEvents() + this.handoffPoints.getSpilledEvents();
+            notes.add(this.handoffPoints.getHandedOffEvents() + " of " + events +
+                    " events were handed off, " + this.handoffPoints.getSpilledEvents() +
+                    " were spilled on the server thread.");
         }
+        notes.add(this.listener.getRejectedTransactions() + " of " + this.listener.getTransactions() +
+                " block changes were rejected by the block state lookup.");
+        if (this.regionFilter != null)
+            notes.add(this.regionFilter.getRejectedEvents() + " events outside the region were rejected.");
+        if (this.sampler != null)
+            notes.add(this.sampler.getSampledEvents() + " of " + this.sampler.getEvents() +
+                    " events were sampled, the last rate was 1 in " + this.sampler.getRate() + ".");
+        return notes;
+    }
 
+    private void addPoint(Location<World> location) {
+        if (this.regionFilter != null && !this.regionFilter.accepts(location.getExtent().getUniqueId(),
+                location.getBlockX(), location.getBlockY(), location.getBlockZ()))
+            return;
+        int weight = 1;
+        if (this.sampler != null && (weight = this.sampler.sample()) == 0) return;
+        if (this.handoffPoints != null)
+            this.handoffPoints.add(location.getExtent().getUniqueId(),
+                    location.getBlockX(), location.getBlockY(), location.getBlockZ(), weight);
+        else
+            this.points.add(location.getExtent().getUniqueId(),
+                    BREADPointCounter.pack(location.getBlockX(), location.getBlockY(), location.getBlockZ()), weight);
     }
 
 }
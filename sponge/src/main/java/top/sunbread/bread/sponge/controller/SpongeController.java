@@ -26,37 +26,152 @@ import org.spongepowered.api.scheduler.Task;
 import org.spongepowered.api.text.Text;
 import org.spongepowered.api.text.format.TextColors;
 import top.sunbread.bread.common.BREADAnalyser;
+import top.sunbread.bread.common.BREADAnalysisPool;
+import top.sunbread.bread.common.BREADClusterHierarchy;
+import top.sunbread.bread.common.BREADHeavyHitters;
+import top.sunbread.bread.common.BREADIncrementalClustering;
+import top.sunbread.bread.common.BREADOptions;
+import top.sunbread.bread.common.BREADPoints;
+import top.sunbread.bread.common.BREADRegionFilter;
+import top.sunbread.bread.common.BREADRollingWindow;
 import top.sunbread.bread.common.BREADStatistics;
 
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 public final class SpongeController {
 
+    private static final int TOP_BLOCKS = 50;
+    private static final BREADOptions RECENT_OPTIONS = // Recent windows overlap, so they're analysed incrementally
+            BREADOptions.parse(Collections.singletonList("incremental"));
+
     private Game game;
     private PluginContainer plugin;
     private ControllerInfo info;
     private SpongeCollector collector;
+    private BREADAnalysisPool analysisPool; // Owned by the plugin
     private BREADAnalyser analyser;
+    private CompletableFuture<Map<UUID, BREADPoints>> merging; // Recent events being merged, null if not
+    private Map<UUID, BREADIncrementalClustering> clusterings; // Kept between runs for incremental analysis
+    private SpongeRollingWindow rollingWindow;
+    private SpongeHeavyHitterCollector heavyHitterCollector;
 
-    public SpongeController(Game game, PluginContainer plugin) {
+    public SpongeController(Game game, PluginContainer plugin, BREADAnalysisPool analysisPool) {
         this.game = game;
         this.plugin = plugin;
+        this.analysisPool = analysisPool;
         this.info = new ControllerInfo(this.game);
         this.collector = null;
         this.analyser = null;
+        this.merging = null;
+        this.clusterings = new HashMap<>();
+        this.rollingWindow = null;
+        this.heavyHitterCollector = null;
     }
 
     public ControllerInfo getInfo() {
         return this.info;
     }
 
-    public void startBREAD(CommandSource source, int collectionPeriodMultiplier) {
+    public BREADAnalysisPool getAnalysisPool() {
+        return this.analysisPool;
+    }
+
+    public void runOnServerThread(Runnable task) {
+        Task.builder().execute(task).submit(this.plugin.getInstance().get());
+    }
+
+    public void startBREAD(CommandSource source, int collectionPeriodMultiplier, BREADOptions options,
+                           BREADRegionFilter regionFilter) {
+        if (this.info.getStatus() != ControllerInfo.ControllerStatus.IDLE || source == null)
+            return;
+        collectingStage(source, collectionPeriodMultiplier, options, regionFilter);
+    }
+
+    public void startRecentBREAD(CommandSource source, int collectionPeriodMultiplier) {
+        if (this.info.getStatus() != ControllerInfo.ControllerStatus.IDLE || source == null ||
+                this.rollingWindow == null)
+            return;
+        int ticks = BREADAnalyser.COLLECTING_TICKS_BASE * collectionPeriodMultiplier;
+        if (ticks > this.rollingWindow.getWindow().getAvailableTicks()) return;
+        this.info.setStatus(ControllerInfo.ControllerStatus.ANALYSING);
+        this.info.setCurrentOperator(source);
+        this.info.setLastResult(null);
+        this.info.setHierarchies(null, BREADClusterHierarchy.DEFAULT_DENSITY);
+        List<String> notes = new ArrayList<>();
+        notes.add("Using redstone events of the last " + ticks / 20 + " seconds.");
+        long droppedEvents = this.rollingWindow.getWindow().getDroppedEvents(ticks);
+        if (droppedEvents > 0)
+            notes.add(droppedEvents + " events at new blocks were dropped because the window was full.");
+        // Segments are merged in the analysis pool, not on the server thread
+        CompletableFuture<Map<UUID, BREADPoints>> merging =
+                this.rollingWindow.getWindow().snapshot(ticks, this.analysisPool);
+        this.merging = merging;
+        merging.whenComplete((points, throwable) -> runOnServerThread(() -> {
+            if (this.merging != merging) return; // Stopped
+            this.merging = null;
+            if (throwable == null)
+                analysingStage(points, notes, collectionPeriodMultiplier, RECENT_OPTIONS);
+            else {
+                this.info.setStatus(ControllerInfo.ControllerStatus.IDLE);
+                notifyOperator(Text.of(TextColors.YELLOW,
+                        "BREAD failed! An error occurred while merging recent events."));
+                this.info.setCurrentOperator(null);
+            }
+        }));
+    }
+
+    public void startRecutBREAD(CommandSource source, int density) {
+        if (this.info.getStatus() != ControllerInfo.ControllerStatus.IDLE || source == null ||
+                !this.info.getHierarchies().isPresent())
+            return;
+        Map<UUID, BREADClusterHierarchy> hierarchies = this.info.getHierarchies().get();
+        this.info.setStatus(ControllerInfo.ControllerStatus.ANALYSING);
+        this.info.setCurrentOperator(source);
+        notifyOperator(Text.of(TextColors.YELLOW, "BREAD is cutting clusters at density " + density + "..."));
+        // The last result and its hierarchies are kept until the new cut is complete
+        this.analyser = BREADAnalyser.recut(this.analysisPool, hierarchies, density, statistics ->
+                Task.builder().execute(() -> recutFinalStage(statistics, hierarchies, density)).
+                        submit(this.plugin.getInstance().get()));
+    }
+
+    public void startTopBREAD(CommandSource source, int collectionPeriodMultiplier) {
         if (this.info.getStatus() != ControllerInfo.ControllerStatus.IDLE || source == null)
             return;
-        collectingStage(source, collectionPeriodMultiplier);
+        this.info.setStatus(ControllerInfo.ControllerStatus.COLLECTING);
+        this.info.setCurrentOperator(source);
+        int collectionPeriod = BREADAnalyser.COLLECTING_TICKS_BASE * collectionPeriodMultiplier;
+        notifyOperator(Text.of(TextColors.YELLOW, "BREAD is counting the hottest redstone blocks..."));
+        notifyOperator(Text.of(TextColors.YELLOW, "This process will take " +
+                collectionPeriod + " game-ticks (" +
+                BREADAnalyser.COLLECTING_TICKS_BASE / 20 * collectionPeriodMultiplier + " seconds)."));
+        this.heavyHitterCollector = new SpongeHeavyHitterCollector(this.game, this.plugin, collectionPeriod,
+                heavyHitters -> topFinalStage(heavyHitters, collectionPeriod));
+    }
+
+    public Optional<BREADRollingWindow> getRollingWindow() {
+        return this.rollingWindow == null ? Optional.empty() : Optional.of(this.rollingWindow.getWindow());
+    }
+
+    public void startRollingWindow() {
+        if (this.rollingWindow != null) return;
+        this.rollingWindow = new SpongeRollingWindow(this.game, this.plugin);
+    }
+
+    public void stopRollingWindow() {
+        if (this.rollingWindow == null) return;
+        this.rollingWindow.stop();
+        this.rollingWindow = null;
     }
 
     public void stopBREAD(CommandSource source) {
@@ -66,9 +181,18 @@ public final class SpongeController {
             this.collector.forceStop();
             this.collector = null;
         }
+        if (this.heavyHitterCollector != null) {
+            this.heavyHitterCollector.forceStop();
+            this.heavyHitterCollector = null;
+        }
+        if (this.merging != null) {
+            this.merging.cancel(false);
+            this.merging = null;
+        }
         if (this.analyser != null) {
             this.analyser.forceStop();
             this.analyser = null;
+            this.clusterings = new HashMap<>(); // May be left inconsistent
         }
         this.info.setStatus(ControllerInfo.ControllerStatus.IDLE);
         if (source == null)
@@ -85,48 +209,118 @@ public final class SpongeController {
         return Optional.of(this.game.getServer().getWorld(worldUID).get().getName());
     }
 
-    private void collectingStage(CommandSource source, int collectionPeriodMultiplier) {
+    private void collectingStage(CommandSource source, int collectionPeriodMultiplier, BREADOptions options,
+                                 BREADRegionFilter regionFilter) {
         this.info.setStatus(ControllerInfo.ControllerStatus.COLLECTING);
         this.info.setCurrentOperator(source);
         this.info.setLastResult(null);
+        this.info.setHierarchies(null, BREADClusterHierarchy.DEFAULT_DENSITY);
         notifyOperator(Text.of(TextColors.YELLOW, "BREAD is collecting redstone events..."));
         notifyOperator(Text.of(TextColors.YELLOW, "This process will take " +
                 BREADAnalyser.COLLECTING_TICKS_BASE * collectionPeriodMultiplier + " game-ticks (" +
                 BREADAnalyser.COLLECTING_TICKS_BASE / 20 * collectionPeriodMultiplier + " seconds)."));
         this.collector = new SpongeCollector(this.game, this.plugin,
-                BREADAnalyser.COLLECTING_TICKS_BASE * collectionPeriodMultiplier,
-                points -> analysingStage(points, collectionPeriodMultiplier));
+                BREADAnalyser.COLLECTING_TICKS_BASE * collectionPeriodMultiplier, options, regionFilter,
+                (points, notes) -> analysingStage(points, notes, collectionPeriodMultiplier, options));
     }
 
-    private void analysingStage(Map<UUID, Set<BREADStatistics.Point>> points, int collectionPeriodMultiplier) {
+    private void analysingStage(Map<UUID, BREADPoints> points, List<String> notes, int collectionPeriodMultiplier,
+                                BREADOptions options) {
         this.collector = null;
         this.info.setStatus(ControllerInfo.ControllerStatus.ANALYSING);
+        notes.forEach(note -> notifyOperator(Text.of(TextColors.YELLOW, note)));
+        if (options.isApproximate())
+            notifyOperator(Text.of(TextColors.YELLOW, "Clusters are " +
+                    Math.round(options.getApproximation() * 100) +
+                    "% approximate, only borderline blocks may be divided differently."));
         notifyOperator(Text.of(TextColors.YELLOW, "BREAD is analysing the data collected in the previous step..."));
         notifyOperator(Text.of(TextColors.YELLOW, "This process will take a while. Sit back and relax."));
-        this.analyser = new BREADAnalyser(points, collectionPeriodMultiplier,
-                statistics -> Task.builder().execute(() -> {
-                    if (statistics.isPresent())
-                        finalStage(statistics.get());
-                    else
-                        finalStageFailure();
-                }).submit(this.plugin.getInstance().get()));
+        if (options.isHierarchical()) {
+            Map<UUID, BREADClusterHierarchy> hierarchies = new ConcurrentHashMap<>();
+            this.analyser = new BREADAnalyser(this.analysisPool, points, collectionPeriodMultiplier,
+                    hierarchies, getAnalysisCallback(hierarchies, BREADClusterHierarchy.DEFAULT_DENSITY));
+        } else
+            this.analyser = new BREADAnalyser(this.analysisPool, points, collectionPeriodMultiplier,
+                    options.getApproximation(), options.isIncremental() ? this.clusterings : null,
+                    getAnalysisCallback(null, BREADClusterHierarchy.DEFAULT_DENSITY));
+    }
+
+    private Consumer<Optional<Map<UUID, BREADStatistics.WorldStatistics>>> getAnalysisCallback(
+            Map<UUID, BREADClusterHierarchy> hierarchies, int density) {
+        return statistics -> Task.builder().execute(() -> {
+            if (statistics.isPresent())
+                finalStage(statistics.get(), hierarchies, density);
+            else
+                finalStageFailure();
+        }).submit(this.plugin.getInstance().get());
     }
 
-    private void finalStage(Map<UUID, BREADStatistics.WorldStatistics> statistics) {
+    private void finalStage(Map<UUID, BREADStatistics.WorldStatistics> statistics,
+                            Map<UUID, BREADClusterHierarchy> hierarchies, int density) {
         this.analyser = null;
         this.info.setStatus(ControllerInfo.ControllerStatus.IDLE);
         this.info.setLastResult(statistics);
-        notifyOperator(Text.of(TextColors.YELLOW, "BREAD is completed!"));
+        this.info.setHierarchies(hierarchies, density);
+        if (statistics.values().stream().anyMatch(stats -> stats.partial)) {
+            this.clusterings = new HashMap<>(); // May be left inconsistent
+            notifyOperator(Text.of(TextColors.YELLOW, "BREAD ran out of time! Results of some worlds are partial."));
+        } else
+            notifyOperator(Text.of(TextColors.YELLOW, "BREAD is completed!"));
         notifyOperator(Text.of(TextColors.YELLOW, "Use sub-command ", TextColors.GREEN, "status",
                 TextColors.YELLOW, " to view the diagnosis."));
+        if (hierarchies != null)
+            notifyOperator(Text.of(TextColors.YELLOW, "Use sub-command ", TextColors.GREEN, "recut <density>",
+                    TextColors.YELLOW, " to cut clusters at another density."));
         this.info.setCurrentOperator(null);
     }
 
     private void finalStageFailure() {
         this.analyser = null;
+        this.clusterings = new HashMap<>(); // May be left inconsistent
         this.info.setStatus(ControllerInfo.ControllerStatus.IDLE);
         this.info.setLastResult(null);
-        notifyOperator(Text.of(TextColors.YELLOW, "BREAD failed! Timed out analysing."));
+        notifyOperator(Text.of(TextColors.YELLOW, "BREAD failed! An error occurred while analysing."));
+    }
+
+    private void recutFinalStage(Optional<Map<UUID, BREADStatistics.WorldStatistics>> statistics,
+                                 Map<UUID, BREADClusterHierarchy> hierarchies, int density) {
+        if (statistics.isPresent() && statistics.get().values().stream().noneMatch(stats -> stats.partial)) {
+            finalStage(statistics.get(), hierarchies, density);
+            return;
+        }
+        this.analyser = null;
+        this.info.setStatus(ControllerInfo.ControllerStatus.IDLE);
+        notifyOperator(Text.of(TextColors.YELLOW, statistics.isPresent() ? "BREAD ran out of time! " :
+                        "BREAD failed! An error occurred while cutting. ",
+                "Last Result is still cut at density " + this.info.getDensity() + "."));
+        this.info.setCurrentOperator(null);
+    }
+
+    private void topFinalStage(BREADHeavyHitters heavyHitters, int collectionPeriod) {
+        this.heavyHitterCollector = null;
+        this.info.setStatus(ControllerInfo.ControllerStatus.IDLE);
+        List<BREADStatistics.HeavyHitter> top = heavyHitters.top(TOP_BLOCKS);
+        notifyOperator(Text.of(TextColors.YELLOW, "BREAD is completed! " +
+                heavyHitters.getEvents() + " events were counted."));
+        notifyOperator(Text.of(TextColors.YELLOW, "Counts are overestimated by at most the error in brackets. " +
+                "Blocks not listed have at most " + heavyHitters.getMaxError() + " events."));
+        for (int rank = 0; rank < top.size(); ++rank) {
+            BREADStatistics.HeavyHitter hitter = top.get(rank);
+            notifyOperator(Text.of(TextColors.YELLOW, "#" + (rank + 1) + " ",
+                    TextColors.GREEN, getWorldName(hitter.world).orElse(hitter.world.toString()),
+                    TextColors.YELLOW, " (" + hitter.x + ", " + hitter.y + ", " + hitter.z + "): ",
+                    TextColors.AQUA, hitter.count,
+                    TextColors.YELLOW, " (" + hitter.error + "), ",
+                    TextColors.AQUA, eventsPerTickRound((double) hitter.count / collectionPeriod),
+                    TextColors.YELLOW, " EPT"));
+        }
+        this.info.setCurrentOperator(null);
+    }
+
+    private String eventsPerTickRound(double a) {
+        DecimalFormat formatter = new DecimalFormat("0.##");
+        formatter.setRoundingMode(RoundingMode.HALF_UP);
+        return formatter.format(a);
     }
 
     private void notifyOperator(Text message) {
@@ -143,6 +337,8 @@ public final class SpongeController {
         private OperatorType operatorType;
         private UUID playerOperatorUUID;
         private Map<UUID, BREADStatistics.WorldStatistics> lastResult;
+        private Map<UUID, BREADClusterHierarchy> hierarchies; // Of the last result
+        private int density; // Which the last result is cut at
 
         ControllerInfo(Game game) {
             this.game = game;
@@ -151,6 +347,8 @@ public final class SpongeController {
             this.operatorType = null;
             this.playerOperatorUUID = null;
             this.lastResult = null;
+            this.hierarchies = null;
+            this.density = BREADClusterHierarchy.DEFAULT_DENSITY;
         }
 
         public ControllerStatus getStatus() {
@@ -179,6 +377,14 @@ public final class SpongeController {
             return Optional.ofNullable(this.lastResult);
         }
 
+        public Optional<Map<UUID, BREADClusterHierarchy>> getHierarchies() {
+            return Optional.ofNullable(this.hierarchies);
+        }
+
+        public int getDensity() {
+            return this.density;
+        }
+
         void setStatus(ControllerStatus status) {
             if (status == null) throw new NullPointerException();
             this.status = status;
@@ -206,6 +412,11 @@ public final class SpongeController {
             this.lastResult = lastResult;
         }
 
+        void setHierarchies(Map<UUID, BREADClusterHierarchy> hierarchies, int density) {
+            this.hierarchies = hierarchies;
+            this.density = density;
+        }
+
         @SuppressWarnings("all")
         private <T> Optional<T> upcastOptional(Optional<? extends T> optional) {
             return (Optional<T>) optional;
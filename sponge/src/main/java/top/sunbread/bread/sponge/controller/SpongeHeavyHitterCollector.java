@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.sponge.controller;
+
+import org.spongepowered.api.Game;
+import org.spongepowered.api.plugin.PluginContainer;
+import org.spongepowered.api.scheduler.Task;
+import org.spongepowered.api.world.Location;
+import org.spongepowered.api.world.World;
+import top.sunbread.bread.common.BREADHeavyHitters;
+
+import java.util.function.Consumer;
+
+final class SpongeHeavyHitterCollector {
+
+    private Game game;
+    private BREADHeavyHitters heavyHitters;
+    private SpongeRedstoneListener listener;
+    private Task task;
+    private boolean running;
+
+    SpongeHeavyHitterCollector(Game game, PluginContainer plugin, int collectionPeriod,
+                               Consumer<BREADHeavyHitters> callback) {
+        this.game = game;
+        this.heavyHitters = new BREADHeavyHitters();
+        this.listener = new SpongeRedstoneListener(this::addPoint);
+        this.game.getEventManager().registerListeners(plugin.getInstance().get(), this.listener);
+        this.task = Task.builder().execute(() -> {
+            this.running = false;
+            this.game.getEventManager().unregisterListeners(this.listener);
+            callback.accept(this.heavyHitters);
+        }).delayTicks(collectionPeriod).submit(plugin.getInstance().get());
+        this.running = true;
+    }
+
+    boolean isRunning() {
+        return this.running;
+    }
+
+    void forceStop() {
+        if (!isRunning()) return;
+        this.running = false;
+        this.task.cancel();
+        this.game.getEventManager().unregisterListeners(this.listener);
+        this.heavyHitters.clear();
+    }
+
+    private void addPoint(Location<World> location) {
+        this.heavyHitters.add(location.getExtent().getUniqueId(),
+                location.getBlockX(), location.getBlockY(), location.getBlockZ());
+    }
+
+}
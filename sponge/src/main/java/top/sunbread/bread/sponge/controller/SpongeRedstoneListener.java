@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.sponge.controller;
+
+import org.spongepowered.api.block.BlockSnapshot;
+import org.spongepowered.api.block.BlockState;
+import org.spongepowered.api.block.trait.BlockTrait;
+import org.spongepowered.api.data.Transaction;
+import org.spongepowered.api.event.Listener;
+import org.spongepowered.api.event.Order;
+import org.spongepowered.api.event.block.ChangeBlockEvent;
+import org.spongepowered.api.world.Location;
+import org.spongepowered.api.world.World;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+public final class SpongeRedstoneListener {
+
+    // Signal of a block state: bit 0 and 1 are presence and value of trait powered,
+    // bit 2 is presence of trait power and the rest is its value
+    private static final int HAS_POWERED = 1, POWERED = 1 << 1, HAS_POWER = 1 << 2, POWER_SHIFT = 3;
+    private static final int IRRELEVANT = 0;
+
+    private Consumer<Location<World>> consumer;
+    private Map<BlockState, Integer> signals; // Block states are singletons, so they are compared by identity
+    private long transactions;
+    private long rejectedTransactions;
+
+    SpongeRedstoneListener(Consumer<Location<World>> consumer) {
+        this.consumer = consumer;
+        this.signals = new IdentityHashMap<>();
+        this.transactions = 0;
+        this.rejectedTransactions = 0;
+    }
+
+    @Listener(order = Order.LAST)
+    public void onBlockChange(ChangeBlockEvent.Modify event) {
+        for (Transaction<BlockSnapshot> transaction : event.getTransactions()) {
+            ++this.transactions;
+            int signal1 = getSignal(transaction.getOriginal().getState());
+            if (signal1 == IRRELEVANT) {
+                ++this.rejectedTransactions;
+                continue;
+            }
+            int signal2 = getSignal(transaction.getFinal().getState());
+            if (isSignalDifferent(signal1, signal2) &&
+                    transaction.isValid() && transaction.getDefault().getLocation().isPresent())
+                this.consumer.accept(transaction.getDefault().getLocation().get());
+        }
+    }
+
+    /**
+     * Return the number of transactions seen.
+     *
+     * @return Number of transactions
+     */
+    long getTransactions() {
+        return this.transactions;
+    }
+
+    /**
+     * Return the number of transactions rejected because their original block state carries no signal.
+     *
+     * @return Number of transactions
+     */
+    long getRejectedTransactions() {
+        return this.rejectedTransactions;
+    }
+
+    private static boolean isSignalDifferent(int signal1, int signal2) {
+        int difference = signal1 ^ signal2;
+        return ((signal1 & signal2 & HAS_POWERED) != 0 && (difference & POWERED) != 0) ||
+                ((signal1 & signal2 & HAS_POWER) != 0 && (difference >>> POWER_SHIFT) != 0);
+    }
+
+    private int getSignal(BlockState blockState) {
+        Integer signal = this.signals.get(blockState);
+        if (signal == null) this.signals.put(blockState, signal = classify(blockState));
+        return signal;
+    }
+
+    private static int classify(BlockState blockState) {
+        int signal = IRRELEVANT;
+        Optional<BlockTrait<Boolean>> poweredTrait = getTrait(blockState, "powered", Boolean.class);
+        if (poweredTrait.isPresent()) {
+            Optional<Boolean> powered = blockState.getTraitValue(poweredTrait.get());
+            if (powered.isPresent()) signal |= HAS_POWERED | (powered.get() ? POWERED : 0);
+        }
+        Optional<BlockTrait<Integer>> powerTrait = getTrait(blockState, "power", Integer.class);
+        if (powerTrait.isPresent()) {
+            Optional<Integer> power = blockState.getTraitValue(powerTrait.get());
+            if (power.isPresent()) signal |= HAS_POWER | (power.get() << POWER_SHIFT);
+        }
+        return signal;
+    }
+
+    private static <T extends Comparable<T>> Optional<BlockTrait<T>> getTrait(BlockState blockState, String name,
+                                                                             Class<T> valueClass) {
+        Optional<BlockTrait<?>> optionalTrait = blockState.getType().getTrait(name);
+        if (!optionalTrait.isPresent()) return Optional.empty();
+        BlockTrait<?> genericTrait = optionalTrait.get();
+        if (!genericTrait.getValueClass().equals(valueClass)) return Optional.empty();
+        @SuppressWarnings("unchecked")
+        BlockTrait<T> trait = (BlockTrait<T>) genericTrait;
+        return Optional.of(trait);
+    }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2019 Sunbread.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package top.sunbread.bread.sponge.controller;
+
+import org.spongepowered.api.Game;
+import org.spongepowered.api.plugin.PluginContainer;
+import org.spongepowered.api.scheduler.Task;
+import org.spongepowered.api.world.Location;
+import org.spongepowered.api.world.World;
+import top.sunbread.bread.common.BREADRollingWindow;
+
+final class SpongeRollingWindow {
+
+    private Game game;
+    private PluginContainer plugin;
+    private BREADRollingWindow window;
+    private SpongeRedstoneListener listener;
+    private Task ticker;
+
+    SpongeRollingWindow(Game game, PluginContainer plugin) {
+        this.game = game;
+        this.plugin = plugin;
+        this.window = new BREADRollingWindow();
+        this.listener = new SpongeRedstoneListener(this::addPoint);
+        this.game.getEventManager().registerListeners(this.plugin.getInstance().get(), this.listener);
+        this.ticker = Task.builder().execute(this.window::tick).
+                delayTicks(1).intervalTicks(1).submit(this.plugin.getInstance().get());
+    }
+
+    void stop() {
+        this.ticker.cancel();
+        this.game.getEventManager().unregisterListeners(this.listener);
+    }
+
+    BREADRollingWindow getWindow() {
+        return this.window;
+    }
+
+    private void addPoint(Location<World> location) {
+        this.window.add(location.getExtent().getUniqueId(),
+                location.getBlockX(), location.getBlockY(), location.getBlockZ());
+    }
+
+}